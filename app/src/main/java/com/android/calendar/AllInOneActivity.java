@@ -144,6 +144,8 @@ public class AllInOneActivity extends AbstractCalendarActivity implements EventH
 
         @Override
         public void onChange(boolean selfChange) {
+            // Drop cached instances before the views reload them
+            InstanceCache.getInstance(AllInOneActivity.this).invalidate();
             eventsChanged();
         }
     };
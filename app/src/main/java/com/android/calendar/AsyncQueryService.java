@@ -35,24 +35,32 @@ import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A helper class that executes {@link ContentResolver} calls in a background
- * {@link android.app.Service}. This minimizes the chance of the call getting
- * lost because the caller ({@link android.app.Activity}) is killed. It is
+ * A helper class that executes {@link ContentResolver} calls in background
+ * threads of the application, shared by all its instances. It is
  * designed for easy migration from {@link android.content.AsyncQueryHandler}
  * which calls the {@link ContentResolver} in a background thread. This supports
  * query/insert/update/delete and also batch mode i.e.
  * {@link ContentProviderOperation}. It also supports delay execution and cancel
  * which allows for time-limited undo. Note that there's one queue per
- * application which serializes all the calls.
+ * application for queries and one for the other calls, each run in order of
+ * priority, see {@link #setPriority}.
  */
 public class AsyncQueryService extends Handler {
     static final boolean localLOGV = false;
     private static final String TAG = "AsyncQuery";
+
+    /** For prefetches and other work nobody waits for */
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_DEFAULT = 0;
+    /** For what the user is looking at and waiting for */
+    public static final int PRIORITY_HIGH = 1;
+
     // Used for generating unique tokens for calls to this service
     private static AtomicInteger mUniqueToken = new AtomicInteger(0);
 
     private Context mContext;
     private Handler mHandler = this; // can be overridden for testing
+    private int mPriority = PRIORITY_DEFAULT;
 
     public AsyncQueryService(Context context) {
         mContext = context;
@@ -65,6 +73,17 @@ public class AsyncQueryService extends Handler {
         return mUniqueToken.getAndIncrement();
     }
 
+    /**
+     * Sets the priority of the operations started from now on. Among the operations due, the
+     * ones of higher priority run first; operations of equal priority run in the order they
+     * were started.
+     *
+     * @param priority one of the PRIORITY_ constants
+     */
+    public void setPriority(int priority) {
+        mPriority = priority;
+    }
+
     /**
      * Gets the last delayed operation. It is typically used for canceling.
      *
@@ -126,7 +145,8 @@ public class AsyncQueryService extends Handler {
         info.selectionArgs = selectionArgs;
         info.orderBy = orderBy;
 
-        AsyncQueryServiceHelper.queueOperation(mContext, info);
+        info.priority = mPriority;
+        AsyncQueryServiceHelper.queueOperation(info);
     }
 
     /**
@@ -156,7 +176,8 @@ public class AsyncQueryService extends Handler {
         info.values = initialValues;
         info.delayMillis = delayMillis;
 
-        AsyncQueryServiceHelper.queueOperation(mContext, info);
+        info.priority = mPriority;
+        AsyncQueryServiceHelper.queueOperation(info);
     }
 
     /**
@@ -194,7 +215,8 @@ public class AsyncQueryService extends Handler {
         info.selectionArgs = selectionArgs;
         info.delayMillis = delayMillis;
 
-        AsyncQueryServiceHelper.queueOperation(mContext, info);
+        info.priority = mPriority;
+        AsyncQueryServiceHelper.queueOperation(info);
     }
 
     /**
@@ -230,7 +252,8 @@ public class AsyncQueryService extends Handler {
         info.selectionArgs = selectionArgs;
         info.delayMillis = delayMillis;
 
-        AsyncQueryServiceHelper.queueOperation(mContext, info);
+        info.priority = mPriority;
+        AsyncQueryServiceHelper.queueOperation(info);
     }
 
     /**
@@ -260,7 +283,8 @@ public class AsyncQueryService extends Handler {
         info.cpo = cpo;
         info.delayMillis = delayMillis;
 
-        AsyncQueryServiceHelper.queueOperation(mContext, info);
+        info.priority = mPriority;
+        AsyncQueryServiceHelper.queueOperation(info);
     }
 
     /**
@@ -16,17 +16,15 @@
 
 package com.android.calendar;
 
-import android.app.IntentService;
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
-import android.content.Context;
-import android.content.Intent;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
+import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
 import android.util.Log;
@@ -38,42 +36,52 @@ import com.android.calendar.AsyncQueryService.Operation;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.PriorityQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
-
-public class AsyncQueryServiceHelper extends IntentService {
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the operations of {@link AsyncQueryService} on worker threads of the application
+ * process, in two lanes: one for queries and one for inserts, updates, deletes and batches, so
+ * that reads are never held up behind slow writes. Queries run on a few threads, so queries with
+ * different handlers or tokens run concurrently and may complete in any order. Queries with the
+ * same handler and token run one after the other in the order they were queued, so that the
+ * result of an earlier one never arrives after, and overwrites, the result of a later one.
+ * Writes run on one thread, in order.
+ *
+ * Each lane runs its operations once their scheduled time has come. The read lane runs the
+ * highest priority first and the operations of equal priority in the order they were queued.
+ * The write lane ignores priorities and runs its operations strictly in the order they were
+ * scheduled, so that a write never overtakes an earlier one to the same rows. Delayed
+ * operations stay queued until then, so that they can be canceled.
+ */
+public class AsyncQueryServiceHelper {
     private static final String TAG = "AsyncQuery";
 
-    private static final PriorityQueue<OperationInfo> sWorkQueue =
-        new PriorityQueue<OperationInfo>();
+    private static final int READ_THREADS = 3;
 
-    protected Class<AsyncQueryService> mService = AsyncQueryService.class;
+    private static final Lane sReadLane = new Lane("AsyncQueryService-read", READ_THREADS, true);
+    private static final Lane sWriteLane = new Lane("AsyncQueryService-write", 1, false);
 
-    public AsyncQueryServiceHelper(String name) {
-        super(name);
-    }
+    private static final AtomicLong sSequence = new AtomicLong();
 
-    public AsyncQueryServiceHelper() {
-        super("AsyncQueryServiceHelper");
+    private AsyncQueryServiceHelper() {
     }
 
     /**
      * Queues the operation for execution
      *
-     * @param context
      * @param args OperationInfo object describing the operation
      */
-    static public void queueOperation(Context context, OperationInfo args) {
+    static public void queueOperation(OperationInfo args) {
         // Set the schedule time for execution based on the desired delay.
         args.calculateScheduledTime();
 
-        synchronized (sWorkQueue) {
-            sWorkQueue.add(args);
-            sWorkQueue.notify();
-        }
+        getLane(args.op).add(args);
+    }
 
-        context.startService(new Intent(context, AsyncQueryServiceHelper.class));
+    private static Lane getLane(int op) {
+        return op == Operation.EVENT_ARG_QUERY ? sReadLane : sWriteLane;
     }
 
     /**
@@ -82,29 +90,26 @@ public class AsyncQueryServiceHelper extends IntentService {
      * @return Operation object which contains of the last cancelable operation
      */
     static public Operation getLastCancelableOperation() {
-        long lastScheduleTime = Long.MIN_VALUE;
         Operation op = null;
+        for (Lane lane : new Lane[] {sReadLane, sWriteLane}) {
+            synchronized (lane) {
+                for (OperationInfo info : lane.mQueue) {
+                    if (info.delayMillis > 0 && (op == null
+                            || op.scheduledExecutionTime < info.mScheduledTimeMillis)) {
+                        if (op == null) {
+                            op = new Operation();
+                        }
 
-        synchronized (sWorkQueue) {
-            // Unknown order even for a PriorityQueue
-            for (OperationInfo info : sWorkQueue) {
-                if (info.delayMillis > 0 && lastScheduleTime < info.mScheduledTimeMillis) {
-                    if (op == null) {
-                        op = new Operation();
+                        op.token = info.token;
+                        op.op = info.op;
+                        op.scheduledExecutionTime = info.mScheduledTimeMillis;
                     }
-
-                    op.token = info.token;
-                    op.op = info.op;
-                    op.scheduledExecutionTime = info.mScheduledTimeMillis;
-
-                    lastScheduleTime = info.mScheduledTimeMillis;
                 }
             }
         }
 
         if (AsyncQueryService.localLOGV) {
-            Log.d(TAG, "getLastCancelableOperation -> Operation:" + Operation.opToChar(op.op)
-                    + " token:" + op.token);
+            Log.d(TAG, "getLastCancelableOperation -> " + op);
         }
         return op;
     }
@@ -120,16 +125,7 @@ public class AsyncQueryServiceHelper extends IntentService {
      *            canceled.
      */
     static public int cancelOperation(int token) {
-        int canceled = 0;
-        synchronized (sWorkQueue) {
-            Iterator<OperationInfo> it = sWorkQueue.iterator();
-            while (it.hasNext()) {
-                if (it.next().token == token) {
-                    it.remove();
-                    ++canceled;
-                }
-            }
-        }
+        int canceled = sReadLane.cancel(token) + sWriteLane.cancel(token);
 
         if (AsyncQueryService.localLOGV) {
             Log.d(TAG, "cancelOperation(" + token + ") -> " + canceled);
@@ -137,42 +133,69 @@ public class AsyncQueryServiceHelper extends IntentService {
         return canceled;
     }
 
-    @Override
-    protected void onHandleIntent(Intent intent) {
-        OperationInfo args;
+    /**
+     * Returns the operation to run next among those whose scheduled time has come, or null if
+     * none is due yet: the highest priority one, the first scheduled among equals, if usePriority
+     * is set, and the first scheduled otherwise. An operation waits while an operation with the
+     * same handler and token is running or was scheduled before it.
+     *
+     * @param running the operations of the queue's lane that are running
+     */
+    static OperationInfo pollNext(ArrayList<OperationInfo> queue,
+            ArrayList<OperationInfo> running, long now, boolean usePriority) {
+        int next = -1;
+        for (int i = 0; i < queue.size(); i++) {
+            OperationInfo info = queue.get(i);
+            if (info.mScheduledTimeMillis > now || isWaiting(info, queue, running)) {
+                continue;
+            }
+            if (next == -1) {
+                next = i;
+                continue;
+            }
+            OperationInfo best = queue.get(next);
+            int priority = usePriority ? Integer.compare(info.priority, best.priority) : 0;
+            if (priority > 0 || (priority == 0 && info.compareTo(best) < 0)) {
+                next = i;
+            }
+        }
+        return next == -1 ? null : queue.remove(next);
+    }
 
-        if (AsyncQueryService.localLOGV) {
-            Log.d(TAG, "onHandleIntent: queue size=" + sWorkQueue.size());
+    private static boolean isWaiting(OperationInfo info, ArrayList<OperationInfo> queue,
+            ArrayList<OperationInfo> running) {
+        for (OperationInfo other : running) {
+            if (other.handler == info.handler && other.token == info.token) {
+                return true;
+            }
         }
-        synchronized (sWorkQueue) {
-            while (true) {
-                /*
-                 * This method can be called with no work because of
-                 * cancellations
-                 */
-                if (sWorkQueue.size() == 0) {
-                    return;
-                } else if (sWorkQueue.size() == 1) {
-                    OperationInfo first = sWorkQueue.peek();
-                    long waitTime = first.mScheduledTimeMillis - SystemClock.elapsedRealtime();
-                    if (waitTime > 0) {
-                        try {
-                            sWorkQueue.wait(waitTime);
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                }
+        for (OperationInfo other : queue) {
+            if (other != info && other.handler == info.handler && other.token == info.token
+                    && other.compareTo(info) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                args = sWorkQueue.poll();
-                if (args != null) {
-                    // Got work to do. Break out of waiting loop
-                    break;
-                }
+    /**
+     * Returns the earliest scheduled time after now of the given operations, or Long.MAX_VALUE
+     * if there are none. Operations that are due but waiting for another one are left out,
+     * the lane is notified when that one completes.
+     */
+    static long getNextScheduledTime(ArrayList<OperationInfo> queue, long now) {
+        long next = Long.MAX_VALUE;
+        for (OperationInfo info : queue) {
+            if (info.mScheduledTimeMillis > now) {
+                next = Math.min(next, info.mScheduledTimeMillis);
             }
         }
+        return next;
+    }
 
+    private static void execute(OperationInfo args) {
         if (AsyncQueryService.localLOGV) {
-            Log.d(TAG, "onHandleIntent: " + args);
+            Log.d(TAG, "execute: " + args);
         }
 
         ContentResolver resolver = args.resolver;
@@ -239,7 +262,7 @@ public class AsyncQueryServiceHelper extends IntentService {
             reply.arg1 = args.op;
 
             if (AsyncQueryService.localLOGV) {
-                Log.d(TAG, "onHandleIntent: op=" + Operation.opToChar(args.op) + ", token="
+                Log.d(TAG, "execute: op=" + Operation.opToChar(args.op) + ", token="
                         + reply.what);
             }
 
@@ -247,28 +270,85 @@ public class AsyncQueryServiceHelper extends IntentService {
         }
     }
 
-    @Override
-    public void onStart(Intent intent, int startId) {
-        if (AsyncQueryService.localLOGV) {
-            Log.d(TAG, "onStart startId=" + startId);
+    /**
+     * The queue of one kind of operations and the worker threads running them, started with the
+     * first operation.
+     */
+    private static class Lane implements Runnable {
+        private final String mName;
+        private final int mThreadCount;
+        private final boolean mUsePriority;
+        private final ArrayList<OperationInfo> mQueue = new ArrayList<OperationInfo>();
+        private final ArrayList<OperationInfo> mRunning = new ArrayList<OperationInfo>();
+        private boolean mStarted;
+
+        Lane(String name, int threadCount, boolean usePriority) {
+            mName = name;
+            mThreadCount = threadCount;
+            mUsePriority = usePriority;
         }
-        super.onStart(intent, startId);
-    }
 
-    @Override
-    public void onCreate() {
-        if (AsyncQueryService.localLOGV) {
-            Log.d(TAG, "onCreate");
+        synchronized void add(OperationInfo info) {
+            mQueue.add(info);
+            if (!mStarted) {
+                mStarted = true;
+                for (int i = 0; i < mThreadCount; i++) {
+                    new Thread(this, mThreadCount > 1 ? mName + "-" + i : mName).start();
+                }
+            }
+            notify();
         }
-        super.onCreate();
-    }
 
-    @Override
-    public void onDestroy() {
-        if (AsyncQueryService.localLOGV) {
-            Log.d(TAG, "onDestroy");
+        synchronized int cancel(int token) {
+            int canceled = 0;
+            Iterator<OperationInfo> it = mQueue.iterator();
+            while (it.hasNext()) {
+                if (it.next().token == token) {
+                    it.remove();
+                    ++canceled;
+                }
+            }
+            return canceled;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                OperationInfo args;
+                synchronized (this) {
+                    while (true) {
+                        long now = SystemClock.elapsedRealtime();
+                        args = pollNext(mQueue, mRunning, now, mUsePriority);
+                        if (args != null) {
+                            // Got work to do. Break out of waiting loop
+                            mRunning.add(args);
+                            break;
+                        }
+                        // Nothing can run; wait for the next delayed operation, a new one or
+                        // the end of a running one
+                        long next = getNextScheduledTime(mQueue, now);
+                        try {
+                            if (next == Long.MAX_VALUE) {
+                                wait();
+                            } else {
+                                wait(next - now);
+                            }
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                }
+                try {
+                    execute(args);
+                } finally {
+                    synchronized (this) {
+                        mRunning.remove(args);
+                        // Operations with the same handler and token may be waiting for this one
+                        notifyAll();
+                    }
+                }
+            }
         }
-        super.onDestroy();
     }
 
     protected static class OperationInfo implements Delayed {
@@ -287,6 +367,11 @@ public class AsyncQueryServiceHelper extends IntentService {
         public ContentValues values;
         public ArrayList<ContentProviderOperation> cpo;
 
+        /**
+         * One of the PRIORITY_ constants of {@link AsyncQueryService}
+         */
+        public int priority = AsyncQueryService.PRIORITY_DEFAULT;
+
         /**
          * delayMillis is relative time e.g. 10,000 milliseconds
          */
@@ -299,9 +384,20 @@ public class AsyncQueryServiceHelper extends IntentService {
          */
         private long mScheduledTimeMillis = 0;
 
-        // @VisibleForTesting
+        // Orders the operations scheduled for the same time in the order they were queued
+        private long mSequence;
+
         void calculateScheduledTime() {
-            mScheduledTimeMillis = SystemClock.elapsedRealtime() + delayMillis;
+            calculateScheduledTime(SystemClock.elapsedRealtime());
+        }
+
+        /**
+         * Schedules the operation delayMillis after the given elapsed realtime.
+         */
+        // @VisibleForTesting
+        void calculateScheduledTime(long now) {
+            mScheduledTimeMillis = now + delayMillis;
+            mSequence = sSequence.getAndIncrement();
         }
 
         // @Override // Uncomment with Java6
@@ -314,7 +410,7 @@ public class AsyncQueryServiceHelper extends IntentService {
         public int compareTo(Delayed another) {
             OperationInfo anotherArgs = (OperationInfo) another;
             if (this.mScheduledTimeMillis == anotherArgs.mScheduledTimeMillis) {
-                return 0;
+                return Long.compare(this.mSequence, anotherArgs.mSequence);
             } else if (this.mScheduledTimeMillis < anotherArgs.mScheduledTimeMillis) {
                 return -1;
             } else {
@@ -337,6 +433,8 @@ public class AsyncQueryServiceHelper extends IntentService {
             builder.append(delayMillis);
             builder.append(",\n\t mScheduledTimeMillis= ");
             builder.append(mScheduledTimeMillis);
+            builder.append(",\n\t priority= ");
+            builder.append(priority);
             builder.append(",\n\t resolver= ");
             builder.append(resolver);
             builder.append(",\n\t handler= ");
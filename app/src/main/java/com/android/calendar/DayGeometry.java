@@ -0,0 +1,204 @@
+package com.android.calendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The layout of one load of the events {@link DayView} shows, computed off the UI thread by
+ * the {@link EventLoader} before the events are handed to the view.
+ *
+ * Building it resolves the overlaps of the events with {@link Event#computePositions}, which
+ * sets the column of every event, and works out for each day of the load:
+ * <ul>
+ * <li>the timed events that intersect it, in the order they are drawn</li>
+ * <li>the number of all-day events and the hour of the earliest timed event</li>
+ * </ul>
+ * What is left to do when drawing is scaling the columns and times of the events of a visible
+ * day to the cell size, in {@link EventGeometry#computeEventRect}.
+ *
+ * The model is not changed once built. The events it was built from must not be laid out again
+ * unless a new model replaces it, as their columns are part of the layout.
+ */
+class DayGeometry {
+
+    private static final int[] NO_EVENTS = new int[0];
+
+    private final ArrayList<Event> mEvents;
+    private final int mFirstJulianDay;
+    private final int mNumDays;
+    private final long mMinimumDurationMillis;
+    private final boolean mDrawStaggered;
+
+    private final ArrayList<Event> mAllDayEvents;
+    private final int mMaxAllDayEvents;
+    private final int[] mEarliestStartHour;
+    // Indices into mEvents of the timed events of each day, in drawing order
+    private final int[][] mTimedEvents;
+
+    /**
+     * Lays out the given events. They must not be shown by a view while this runs.
+     *
+     * @param minimumDurationMillis the duration short events are laid out as lasting, so that
+     *         they do not overlap once drawn at their minimum height
+     * @param drawStaggered whether overlapping timed events are staggered instead of being put
+     *         side by side
+     */
+    DayGeometry(ArrayList<Event> events, int firstJulianDay, int numDays,
+            long minimumDurationMillis, boolean drawStaggered) {
+        mEvents = events;
+        mFirstJulianDay = firstJulianDay;
+        mNumDays = numDays;
+        mMinimumDurationMillis = minimumDurationMillis;
+        mDrawStaggered = drawStaggered;
+
+        Event.computePositions(events, minimumDurationMillis, drawStaggered);
+
+        final int lastJulianDay = firstJulianDay + numDays - 1;
+        final ArrayList<Event> allDayEvents = new ArrayList<Event>();
+        final int[] allDayCount = new int[numDays];
+        final int[] timedCount = new int[numDays];
+        int maxAllDayEvents = 0;
+        mEarliestStartHour = new int[numDays];
+        Arrays.fill(mEarliestStartHour, 25);  // some big number
+
+        final int len = events.size();
+        for (int i = 0; i < len; i++) {
+            Event event = events.get(i);
+            if (event.drawAsAllday()) {
+                allDayEvents.add(event);
+            }
+            if (event.startDay > lastJulianDay || event.endDay < firstJulianDay) {
+                continue;
+            }
+            final int firstDay = Math.max(event.startDay, firstJulianDay) - firstJulianDay;
+            final int lastDay = Math.min(event.endDay, lastJulianDay) - firstJulianDay;
+            if (event.drawAsAllday()) {
+                for (int day = firstDay; day <= lastDay; day++) {
+                    final int count = ++allDayCount[day];
+                    if (maxAllDayEvents < count) {
+                        maxAllDayEvents = count;
+                    }
+                }
+            } else {
+                for (int day = firstDay; day <= lastDay; day++) {
+                    timedCount[day]++;
+                }
+
+                int daynum = event.startDay - firstJulianDay;
+                int hour = event.startTime / 60;
+                if (daynum >= 0 && hour < mEarliestStartHour[daynum]) {
+                    mEarliestStartHour[daynum] = hour;
+                }
+
+                // Also check the end hour in case the event spans more than
+                // one day.
+                daynum = event.endDay - firstJulianDay;
+                hour = event.endTime / 60;
+                if (daynum < numDays && hour < mEarliestStartHour[daynum]) {
+                    mEarliestStartHour[daynum] = hour;
+                }
+            }
+        }
+        mAllDayEvents = allDayEvents;
+        mMaxAllDayEvents = maxAllDayEvents;
+
+        mTimedEvents = new int[numDays][];
+        for (int day = 0; day < numDays; day++) {
+            mTimedEvents[day] = timedCount[day] > 0 ? new int[timedCount[day]] : NO_EVENTS;
+            timedCount[day] = 0;
+        }
+        for (int i = 0; i < len; i++) {
+            Event event = events.get(i);
+            if (event.drawAsAllday()
+                    || event.startDay > lastJulianDay || event.endDay < firstJulianDay) {
+                continue;
+            }
+            final int firstDay = Math.max(event.startDay, firstJulianDay) - firstJulianDay;
+            final int lastDay = Math.min(event.endDay, lastJulianDay) - firstJulianDay;
+            for (int day = firstDay; day <= lastDay; day++) {
+                mTimedEvents[day][timedCount[day]++] = i;
+            }
+        }
+        if (drawStaggered) {
+            // Staggered events are drawn by column, so that later columns are drawn on top
+            Comparator<Integer> byColumn = new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return Integer.compare(events.get(lhs).getColumn(),
+                            events.get(rhs).getColumn());
+                }
+            };
+            for (int day = 0; day < numDays; day++) {
+                sortStable(mTimedEvents[day], byColumn);
+            }
+        }
+    }
+
+    private static void sortStable(int[] indices, Comparator<Integer> comparator) {
+        if (indices.length < 2) {
+            return;
+        }
+        Integer[] boxed = new Integer[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            boxed[i] = indices[i];
+        }
+        Arrays.sort(boxed, comparator);
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = boxed[i];
+        }
+    }
+
+    /**
+     * Returns whether this is the layout of the given events with the given settings.
+     */
+    boolean isLaidOutFor(ArrayList<Event> events, long minimumDurationMillis,
+            boolean drawStaggered) {
+        return mEvents == events && mMinimumDurationMillis == minimumDurationMillis
+                && mDrawStaggered == drawStaggered;
+    }
+
+    ArrayList<Event> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * Returns the events drawn as all-day events, in the order they were loaded. The list must
+     * not be changed.
+     */
+    ArrayList<Event> getAllDayEvents() {
+        return mAllDayEvents;
+    }
+
+    /**
+     * Returns the largest number of all-day events on any one day.
+     */
+    int getMaxAllDayEvents() {
+        return mMaxAllDayEvents;
+    }
+
+    /**
+     * Returns the hour the earliest timed event of the given day starts or ends in, or a
+     * number larger than 24 if there is none or the day is not part of this layout.
+     */
+    int getEarliestStartHour(int julianDay) {
+        final int day = julianDay - mFirstJulianDay;
+        if (day < 0 || day >= mNumDays) {
+            return 25;
+        }
+        return mEarliestStartHour[day];
+    }
+
+    /**
+     * Returns the indices into {@link #getEvents()} of the timed events intersecting the given
+     * day, in the order they are drawn, or null if the day is not part of this layout. The
+     * array must not be changed.
+     */
+    int[] getTimedEvents(int julianDay) {
+        final int day = julianDay - mFirstJulianDay;
+        if (day < 0 || day >= mNumDays) {
+            return null;
+        }
+        return mTimedEvents[day];
+    }
+}
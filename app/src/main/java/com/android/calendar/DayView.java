@@ -41,14 +41,10 @@ import android.os.Handler;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Events;
-import android.text.Layout.Alignment;
-import android.text.SpannableStringBuilder;
 import android.text.StaticLayout;
-import android.text.TextPaint;
 import android.text.TextUtils;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
-import android.text.style.StyleSpan;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -86,14 +82,11 @@ import com.android.calendar.theme.DynamicThemeKt;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import ws.xsoh.etar.R;
 
@@ -187,8 +180,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     private int mMonthLength;
     private int mFirstVisibleDate;
     private int mFirstVisibleDayOfWeek;
-    private int[] mEarliestStartHour;    // indexed by the week day offset
-    private boolean[] mHasAllDayEvent;   // indexed by the week day offset
     private String mEventCountTemplate;
     private final CharSequence[] mLongPressItems;
     private String mLongPressTitle;
@@ -318,8 +309,9 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     private ArrayList<Event> mEvents = new ArrayList<Event>();
     private ArrayList<Integer> mVisibleEventIndices = new ArrayList<Integer>();
     private ArrayList<Event> mAllDayEvents = new ArrayList<Event>();
-    private StaticLayout[] mLayouts = null;
-    private StaticLayout[] mAllDayLayouts = null;
+    // The layout of mEvents, computed on the loader thread
+    private DayGeometry mDayGeometry;
+    private final EventLayoutCache mLayoutCache = EventLayoutCache.getInstance();
     private int mSelectionDay;        // Julian day
     private int mSelectionHour;
 
@@ -424,7 +416,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     private static float HOURS_TEXT_SIZE = 12;
     private static int MIN_HOURS_WIDTH = 96;
     private static int MIN_CELL_WIDTH_FOR_TEXT = 20;
-    private static final int MAX_EVENT_TEXT_LEN = 500;
     // smallest height to draw an event with
     private static float MIN_EVENT_HEIGHT = 24.0F; // in pixels
     private static int CALENDAR_COLOR_SQUARE_SIZE = 10;
@@ -917,9 +908,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         long millis = System.currentTimeMillis();
         mBaseDate.set(millis);
 
-        mEarliestStartHour = new int[mNumDays];
-        mHasAllDayEvent = new boolean[mNumDays];
-
         // mLines is the array of points used with Canvas.drawLines() in
         // drawGridBackground() and drawAllDayEvents().  Its size depends
         // on the max number of lines that can ever be drawn by any single
@@ -1271,13 +1259,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         mMaxUnexpandedAlldayEventCount =
                 (int) (MAX_UNEXPANDED_ALLDAY_HEIGHT / MIN_UNEXPANDED_ALLDAY_EVENT_HEIGHT);
 
-        // First, clear the array of earliest start times, and the array
-        // indicating presence of an all-day event.
-        for (int day = 0; day < mNumDays; day++) {
-            mEarliestStartHour[day] = 25;  // some big number
-            mHasAllDayEvent[day] = false;
-        }
-
         int maxAllDayEvents = mMaxAlldayEvents;
 
         // Calculate mAllDayHeight
@@ -1338,11 +1319,17 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         mNumHours = mGridAreaHeight / (mCellHeight + HOUR_GAP);
         mEventGeometry.setHourHeight(mCellHeight);
 
-        final long minimumDurationMillis = (long)
-                (MIN_EVENT_HEIGHT * DateUtils.MINUTE_IN_MILLIS / (mCellHeight / 60.0f));
-        SharedPreferences prefs = GeneralPreferences.Companion.getSharedPreferences(mContext);
-        mDrawStaggered = prefs.getBoolean(GeneralPreferences.KEY_STAGGERED_DISPLAY, false);
-        Event.computePositions(mEvents, minimumDurationMillis, mDrawStaggered);
+        final long minimumDurationMillis = getMinimumDurationMillis();
+        mDrawStaggered = isDrawStaggered();
+        // The events are laid out again here only if the zoom or the staggered display setting
+        // changed since they were loaded. During a pinch zoom the layout is kept until the
+        // gesture ends rather than being redone on every frame.
+        if ((mDayGeometry == null
+                || !mDayGeometry.isLaidOutFor(mEvents, minimumDurationMillis, mDrawStaggered))
+                && mStartingSpanY == 0) {
+            setDayGeometry(new DayGeometry(mEvents, mFirstJulianDay, mNumDays,
+                    minimumDurationMillis, mDrawStaggered));
+        }
 
         // Compute the top of our reachable view
         mMaxViewStartY = HOUR_GAP + 24 * (mCellHeight + HOUR_GAP) - mGridAreaHeight;
@@ -1969,9 +1956,9 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             // Exception 2: if 12am is on screen, then allow the user to select
             // 12am before going up to the all-day event area.
             int daynum = mSelectionDay - mFirstJulianDay;
-            if (daynum < mEarliestStartHour.length && daynum >= 0
-                    && mMaxAlldayEvents > 0
-                    && mEarliestStartHour[daynum] > mSelectionHour
+            if (daynum < mNumDays && daynum >= 0
+                    && mMaxAlldayEvents > 0 && mDayGeometry != null
+                    && mDayGeometry.getEarliestStartHour(mSelectionDay) > mSelectionHour
                     && mFirstHour > 0 && mFirstHour < 8) {
                 mPrevSelectedEvent = null;
                 mSelectionAllday = true;
@@ -2046,39 +2033,29 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         // load events in the background
 //        mContext.startProgressSpinner();
         final ArrayList<Event> events = new ArrayList<Event>();
-        mEventLoader.loadEventsInBackground(mNumDays, events, mFirstJulianDay, new Runnable() {
+        final DayGeometry[] geometry = new DayGeometry[1];
+        final int firstJulianDay = mFirstJulianDay;
+        final int numDays = mNumDays;
+        final long minimumDurationMillis = getMinimumDurationMillis();
+        mEventLoader.loadEventsInBackground(mNumDays, events, mFirstJulianDay,
+                Utils.getHideDeclinedEvents(mContext), new Runnable() {
+
+            public void run() {
+                // Runs on the loader thread, before the events are shown
+                geometry[0] = new DayGeometry(events, firstJulianDay, numDays,
+                        minimumDurationMillis, isDrawStaggered());
+            }
+        }, new Runnable() {
 
             public void run() {
                 boolean fadeinEvents = mFirstJulianDay != mLoadedFirstJulianDay;
                 mEvents = events;
                 mLoadedFirstJulianDay = mFirstJulianDay;
-                if (mAllDayEvents == null) {
-                    mAllDayEvents = new ArrayList<Event>();
-                } else {
-                    mAllDayEvents.clear();
-                }
 
-                // Create a shorter array for all day events
-                for (Event e : events) {
-                    if (e.drawAsAllday()) {
-                        mAllDayEvents.add(e);
-                    }
-                }
-
-                // New events, new layouts
-                if (mLayouts == null || mLayouts.length < events.size()) {
-                    mLayouts = new StaticLayout[events.size()];
-                } else {
-                    Arrays.fill(mLayouts, null);
-                }
-
-                if (mAllDayLayouts == null || mAllDayLayouts.length < mAllDayEvents.size()) {
-                    mAllDayLayouts = new StaticLayout[events.size()];
-                } else {
-                    Arrays.fill(mAllDayLayouts, null);
-                }
+                // Measure the text of the new events before they are drawn
+                mLayoutCache.prewarm(events, mEventTextPaint);
 
-                computeEventRelations();
+                setDayGeometry(geometry[0]);
 
                 mRemeasure = true;
                 mComputeSelectedEvents = true;
@@ -2115,71 +2092,37 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         mEventsAlpha = 255;
     }
 
-    private void computeEventRelations() {
-        // Compute the layout relation between each event before measuring cell
-        // width, as the cell width should be adjusted along with the relation.
-        //
-        // Examples: A (1:00pm - 1:01pm), B (1:02pm - 2:00pm)
-        // We should mark them as "overwapped". Though they are not overwapped logically, but
-        // minimum cell height implicitly expands the cell height of A and it should look like
-        // (1:00pm - 1:15pm) after the cell height adjustment.
-
-        // Compute the space needed for the all-day events, if any.
-        // Make a pass over all the events, and keep track of the maximum
-        // number of all-day events in any one day.  Also, keep track of
-        // the earliest event in each day.
-        int maxAllDayEvents = 0;
-        final ArrayList<Event> events = mEvents;
-        final int len = events.size();
-        // Num of all-day-events on each day.
-        final int[] eventsCount = new int[mLastJulianDay - mFirstJulianDay + 1];
-        Arrays.fill(eventsCount, 0);
-        for (int ii = 0; ii < len; ii++) {
-            Event event = events.get(ii);
-            if (event.startDay > mLastJulianDay || event.endDay < mFirstJulianDay) {
-                continue;
-            }
-            if (event.drawAsAllday()) {
-                // Count all the events being drawn as allDay events
-                final int firstDay = Math.max(event.startDay, mFirstJulianDay);
-                final int lastDay = Math.min(event.endDay, mLastJulianDay);
-                for (int day = firstDay; day <= lastDay; day++) {
-                    final int count = ++eventsCount[day - mFirstJulianDay];
-                    if (maxAllDayEvents < count) {
-                        maxAllDayEvents = count;
-                    }
-                }
-
-                int daynum = event.startDay - mFirstJulianDay;
-                int durationDays = event.endDay - event.startDay + 1;
-                if (daynum < 0) {
-                    durationDays += daynum;
-                    daynum = 0;
-                }
-                if (daynum + durationDays > mNumDays) {
-                    durationDays = mNumDays - daynum;
-                }
-                for (int day = daynum; durationDays > 0; day++, durationDays--) {
-                    mHasAllDayEvent[day] = true;
-                }
-            } else {
-                int daynum = event.startDay - mFirstJulianDay;
-                int hour = event.startTime / 60;
-                if (daynum >= 0 && hour < mEarliestStartHour[daynum]) {
-                    mEarliestStartHour[daynum] = hour;
-                }
+    /**
+     * Shows the events laid out by the given geometry, which must be that of mEvents.
+     */
+    private void setDayGeometry(DayGeometry geometry) {
+        mDayGeometry = geometry;
+        mAllDayEvents = geometry.getAllDayEvents();
+        mMaxAlldayEvents = geometry.getMaxAllDayEvents();
+        initAllDayHeights();
+    }
 
-                // Also check the end hour in case the event spans more than
-                // one day.
-                daynum = event.endDay - mFirstJulianDay;
-                hour = event.endTime / 60;
-                if (daynum < mNumDays && hour < mEarliestStartHour[daynum]) {
-                    mEarliestStartHour[daynum] = hour;
-                }
-            }
+    /**
+     * Returns the indices into mEvents of the timed events on the given day, in the order they
+     * are drawn, or null if the events were not laid out for that day.
+     */
+    private int[] getTimedEvents(int julianDay) {
+        final DayGeometry geometry = mDayGeometry;
+        if (geometry == null || geometry.getEvents() != mEvents) {
+            return null;
         }
-        mMaxAlldayEvents = maxAllDayEvents;
-        initAllDayHeights();
+        return geometry.getTimedEvents(julianDay);
+    }
+
+    // The duration short events are laid out as lasting, so that they can be drawn at
+    // MIN_EVENT_HEIGHT at the current zoom without overlapping the next ones.
+    private long getMinimumDurationMillis() {
+        return (long) (MIN_EVENT_HEIGHT * DateUtils.MINUTE_IN_MILLIS / (mCellHeight / 60.0f));
+    }
+
+    private boolean isDrawStaggered() {
+        SharedPreferences prefs = GeneralPreferences.Companion.getSharedPreferences(mContext);
+        return prefs.getBoolean(GeneralPreferences.KEY_STAGGERED_DISPLAY, false);
     }
 
     @Override
@@ -2839,59 +2782,33 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     }
 
     /**
-     * Return the layout for a numbered event. Create it if not already existing
+     * Return the layout for an event, from the layouts shared by all day views
      */
-    private StaticLayout getEventLayout(StaticLayout[] layouts, int i, Event event, Paint paint,
-            Rect r) {
-        if (i < 0 || i >= layouts.length) {
-            return null;
+    private StaticLayout getEventLayout(Event event, Paint paint, Rect r) {
+        switch (event.selfAttendeeStatus) {
+            case Attendees.ATTENDEE_STATUS_INVITED:
+                paint.setColor(event.color);
+                break;
+            case Attendees.ATTENDEE_STATUS_DECLINED:
+                paint.setAlpha(Utils.DECLINED_EVENT_TEXT_ALPHA);
+            case Attendees.ATTENDEE_STATUS_NONE: // Your own events
+            case Attendees.ATTENDEE_STATUS_ACCEPTED:
+            case Attendees.ATTENDEE_STATUS_TENTATIVE:
+            default:
+                paint.setColor(Utils.getAdaptiveTextColor(mContext, mEventTextColor, event.color));
+                break;
         }
 
-        StaticLayout layout = layouts[i];
-        // Check if we have already initialized the StaticLayout and that
-        // the width hasn't changed (due to vertical resizing which causes
-        // re-layout of events at min height)
-        if (layout == null || r.width() != layout.getWidth()) {
-            SpannableStringBuilder bob = new SpannableStringBuilder();
-            if (event.title != null) {
-                // MAX - 1 since we add a space
-                bob.append(drawTextSanitizer(event.title.toString(), MAX_EVENT_TEXT_LEN - 1));
-                bob.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0,
-                            bob.length(), 0);
-                bob.append(' ');
-            }
-            if (event.location != null) {
-                bob.append(drawTextSanitizer(event.location.toString(),
-                        MAX_EVENT_TEXT_LEN - bob.length()));
-            }
-
-            switch (event.selfAttendeeStatus) {
-                case Attendees.ATTENDEE_STATUS_INVITED:
-                    paint.setColor(event.color);
-                    break;
-                case Attendees.ATTENDEE_STATUS_DECLINED:
-                    paint.setAlpha(Utils.DECLINED_EVENT_TEXT_ALPHA);
-                case Attendees.ATTENDEE_STATUS_NONE: // Your own events
-                case Attendees.ATTENDEE_STATUS_ACCEPTED:
-                case Attendees.ATTENDEE_STATUS_TENTATIVE:
-                default:
-                    paint.setColor(Utils.getAdaptiveTextColor(mContext, mEventTextColor, event.color));
-                    break;
-            }
-
-            if (event.status == Events.STATUS_CANCELED) {
-                // Strike event title if its status is `canceled`
-                paint.setStrikeThruText(true);
-            } else {
-                paint.setStrikeThruText(false);
-            }
-
-            // Leave a one pixel boundary on the left and right of the rectangle for the event
-            layout = new StaticLayout(bob, 0, bob.length(), new TextPaint(paint), r.width(),
-                    Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, r.width());
-
-            layouts[i] = layout;
+        if (event.status == Events.STATUS_CANCELED) {
+            // Strike event title if its status is `canceled`
+            paint.setStrikeThruText(true);
+        } else {
+            paint.setStrikeThruText(false);
         }
+
+        // The width changes with vertical resizing, which causes re-layout of events at min
+        // height, and with the number of days shown
+        StaticLayout layout = mLayoutCache.getLayout(event, paint, r.width());
         layout.getPaint().setAlpha(Utils.getAdaptiveTextAlpha(mContext, mEventsAlpha, event.color));
         return layout;
     }
@@ -3016,7 +2933,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             drawEventRect(event, canvas, p, (int) event.left, (int) event.top, (int) event.right, (int) event.bottom);
             Rect r = mRect;
             if (getAllDayEventTextRect(r, event)) {
-                StaticLayout layout = getEventLayout(mAllDayLayouts, i, event, eventTextPaint, r);
+                StaticLayout layout = getEventLayout(event, eventTextPaint, r);
                 drawEventText(layout, r, canvas, r.top, r.bottom, true);
             }
 
@@ -3168,10 +3085,14 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         int alpha = eventTextPaint.getAlpha();
         eventTextPaint.setAlpha(mEventsAlpha);
 
-        // Pre-compute rects and filter for the day
+        // Scale the rects of the day's events to the cell and filter the visible ones. The
+        // events of the day are known, in drawing order, if they were laid out for it.
+        final int[] dayEvents = getTimedEvents(date);
+        final int count = dayEvents != null ? dayEvents.length : numEvents;
         final ArrayList<Integer> visibleEventIndices = mVisibleEventIndices;
         visibleEventIndices.clear();
-        for (int i = 0; i < numEvents; i++) {
+        for (int k = 0; k < count; k++) {
+            int i = dayEvents != null ? dayEvents[k] : k;
             Event event = events.get(i);
             if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
                 continue;
@@ -3185,7 +3106,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             visibleEventIndices.add(i);
         }
 
-        if (mDrawStaggered) {
+        if (mDrawStaggered && dayEvents == null) {
             // Sort by column
             // This makes sure that staggered events are drawn in the right order
             visibleEventIndices.sort(Comparator.comparingInt((Integer i) -> events.get(i).getColumn()));
@@ -3211,7 +3132,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             if (r.top > viewEndY || r.bottom < mViewStartY) {
                 continue;
             }
-            StaticLayout layout = getEventLayout(mLayouts, i, event, eventTextPaint, r);
+            StaticLayout layout = getEventLayout(event, eventTextPaint, r);
             // TODO: not sure why we are 4 pixels off
             drawEventText(layout, r, canvas, mViewStartY + 4, mViewStartY + mViewHeight
                     - DAY_HEADER_HEIGHT - mAlldayHeight, false);
@@ -3616,27 +3537,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         // canvas.drawRect(r, p);
     }
 
-    private final Pattern drawTextSanitizerFilter = Pattern.compile("[\t\n],");
-
-    // Sanitize a string before passing it to drawText or else we get little
-    // squares. For newlines and tabs before a comma, delete the character.
-    // Otherwise, just replace them with a space.
-    private String drawTextSanitizer(String string, int maxEventTextLen) {
-        Matcher m = drawTextSanitizerFilter.matcher(string);
-        string = m.replaceAll(",");
-
-        int len = string.length();
-        if (maxEventTextLen <= 0) {
-            string = "";
-            len = 0;
-        } else if (len > maxEventTextLen) {
-            string = string.substring(0, maxEventTextLen);
-            len = maxEventTextLen;
-        }
-
-        return string.replace('\n', ' ');
-    }
-
     private void drawEventText(StaticLayout eventLayout, Rect rect, Canvas canvas, int top,
             int bottom, boolean center) {
         // drawEmptyRect(canvas, rect, 0xFFFF00FF); // for debugging
@@ -4328,6 +4228,10 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         mInitialScrollY = 0;
         mInitialScrollX = 0;
         mStartingSpanY = 0;
+
+        // Lay the events out for the final zoom
+        mRemeasure = true;
+        invalidate();
     }
 
     @Override
@@ -4801,8 +4705,10 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
 
         EventGeometry geometry = mEventGeometry;
 
-        for (int i = 0; i < numEvents; i++) {
-            Event event = events.get(i);
+        final int[] dayEvents = getTimedEvents(date);
+        final int count = dayEvents != null ? dayEvents.length : numEvents;
+        for (int k = 0; k < count; k++) {
+            Event event = events.get(dayEvents != null ? dayEvents[k] : k);
             // Compute the event rectangle.
             if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
                 continue;
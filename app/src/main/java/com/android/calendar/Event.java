@@ -185,23 +185,68 @@ public class Event implements Cloneable {
      */
     public static void loadEvents(Context context, ArrayList<Event> events, int startDay, int days,
             int requestId, AtomicInteger sequenceNumber) {
+        // Respect the preference to show/hide declined events
+        SharedPreferences prefs = GeneralPreferences.Companion.getSharedPreferences(context);
+        boolean hideDeclined = prefs.getBoolean(GeneralPreferences.KEY_HIDE_DECLINED,
+                false);
+        loadEvents(context, events, startDay, days, hideDeclined, requestId, sequenceNumber);
+    }
+
+    /**
+     * Loads <i>days</i> days worth of instances starting at <i>startDay</i>, served from
+     * the shared {@link InstanceCache} where possible.
+     */
+    public static void loadEvents(Context context, ArrayList<Event> events, int startDay, int days,
+            boolean hideDeclined, int requestId, AtomicInteger sequenceNumber) {
 
         if (PROFILE) {
             Debug.startMethodTracing("loadEvents");
         }
 
+        events.clear();
+        if (!Utils.isCalendarPermissionGranted(context, false)) {
+            //If permission is not granted then just return.
+            return;
+        }
+
+        try {
+            InstanceCache.getInstance(context).loadEvents(events, startDay, startDay + days - 1,
+                    hideDeclined, requestId, sequenceNumber);
+        } finally {
+            if (PROFILE) {
+                Debug.stopMethodTracing();
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #loadEvents(Context, ArrayList, int, int, boolean, int, AtomicInteger)},
+     * but fills a block with the instances instead of creating an Event for each.
+     */
+    public static void loadEvents(Context context, EventBlock block, int startDay, int days,
+            boolean hideDeclined, int requestId, AtomicInteger sequenceNumber) {
+        block.clear();
         if (!Utils.isCalendarPermissionGranted(context, false)) {
             //If permission is not granted then just return.
             return;
         }
+        InstanceCache.getInstance(context).loadEvents(block, startDay, startDay + days - 1,
+                hideDeclined, requestId, sequenceNumber);
+    }
 
+    /**
+     * Queries the provider for the instances between <i>startDay</i> and <i>endDay</i>
+     * (inclusive) and appends them to <i>timed</i> and <i>allDay</i>.
+     *
+     * @return false if the query was abandoned because a more recent request is waiting
+     */
+    /* package */ static boolean queryEvents(Context context, EventBlock timed,
+            EventBlock allDay, int startDay, int endDay, boolean hideDeclined,
+            int requestId, AtomicInteger sequenceNumber) {
         Cursor cEvents = null;
         Cursor cAllday = null;
 
-        events.clear();
         try {
-            int endDay = startDay + days - 1;
-
             // We use the byDay instances query to get a list of all events for
             // the days we're interested in.
             // The sort order is: events with an earlier start time occur
@@ -212,11 +257,6 @@ public class Event implements Cloneable {
             // the same then we sort alphabetically on the title.  This isn't
             // required for correctness, it just adds a nice touch.
 
-            // Respect the preference to show/hide declined events
-            SharedPreferences prefs = GeneralPreferences.Companion.getSharedPreferences(context);
-            boolean hideDeclined = prefs.getBoolean(GeneralPreferences.KEY_HIDE_DECLINED,
-                    false);
-
             String where = EVENTS_WHERE;
             String whereAllday = ALLDAY_WHERE;
             if (hideDeclined) {
@@ -234,12 +274,12 @@ public class Event implements Cloneable {
             // Check if we should return early because there are more recent
             // load requests waiting.
             if (requestId != sequenceNumber.get()) {
-                return;
+                return false;
             }
 
-            buildEventsFromCursor(events, cEvents, context, startDay, endDay);
-            buildEventsFromCursor(events, cAllday, context, startDay, endDay);
-
+            buildEventsFromCursor(timed, cEvents, context, startDay, endDay);
+            buildEventsFromCursor(allDay, cAllday, context, startDay, endDay);
+            return true;
         } finally {
             if (cEvents != null) {
                 cEvents.close();
@@ -247,9 +287,6 @@ public class Event implements Cloneable {
             if (cAllday != null) {
                 cAllday.close();
             }
-            if (PROFILE) {
-                Debug.stopMethodTracing();
-            }
         }
     }
 
@@ -334,6 +371,88 @@ public class Event implements Cloneable {
         }
     }
 
+    /**
+     * Adds all the events from the cursor to the block, without creating an
+     * {@link Event} per row.
+     *
+     * @param block The block to append to
+     * @param cEvents Events to add to the block
+     * @param context
+     * @param startDay
+     * @param endDay
+     */
+    public static void buildEventsFromCursor(
+            EventBlock block, Cursor cEvents, Context context, int startDay, int endDay) {
+        if (cEvents == null || block == null) {
+            Log.e(TAG, "buildEventsFromCursor: null cursor or null event block!");
+            return;
+        }
+
+        int count = cEvents.getCount();
+
+        if (count == 0) {
+            return;
+        }
+
+        Resources res = context.getResources();
+        mNoTitleString = res.getString(R.string.no_title_label);
+        mNoColorColor = res.getColor(R.color.event_center);
+        cEvents.moveToPosition(-1);
+        while (cEvents.moveToNext()) {
+            int i = block.newRow();
+            block.id[i] = cEvents.getLong(PROJECTION_EVENT_ID_INDEX);
+
+            String title = cEvents.getString(PROJECTION_TITLE_INDEX);
+            if (title == null || title.length() == 0) {
+                title = mNoTitleString;
+            }
+            block.title[i] = block.intern(title);
+            block.location[i] = block.intern(cEvents.getString(PROJECTION_LOCATION_INDEX));
+            block.organizer[i] = block.intern(cEvents.getString(PROJECTION_ORGANIZER_INDEX));
+
+            if (!cEvents.isNull(PROJECTION_COLOR_INDEX)) {
+                // Read the color from the database
+                block.color[i] = Utils.getDisplayColorFromColor(context,
+                        cEvents.getInt(PROJECTION_COLOR_INDEX));
+            } else {
+                block.color[i] = mNoColorColor;
+            }
+
+            block.startMillis[i] = cEvents.getLong(PROJECTION_BEGIN_INDEX);
+            block.startTime[i] = cEvents.getInt(PROJECTION_START_MINUTE_INDEX);
+            block.startDay[i] = cEvents.getInt(PROJECTION_START_DAY_INDEX);
+            block.endMillis[i] = cEvents.getLong(PROJECTION_END_INDEX);
+            block.endTime[i] = cEvents.getInt(PROJECTION_END_MINUTE_INDEX);
+            block.endDay[i] = cEvents.getInt(PROJECTION_END_DAY_INDEX);
+            block.status[i] = cEvents.getInt(PROJECTION_STATUS_INDEX);
+            block.selfAttendeeStatus[i] =
+                    cEvents.getInt(PROJECTION_SELF_ATTENDEE_STATUS_INDEX);
+
+            int flags = 0;
+            if (cEvents.getInt(PROJECTION_ALL_DAY_INDEX) != 0) {
+                flags |= EventBlock.FLAG_ALL_DAY;
+            }
+            if (cEvents.getInt(PROJECTION_HAS_ALARM_INDEX) != 0) {
+                flags |= EventBlock.FLAG_HAS_ALARM;
+            }
+            if (cEvents.getInt(PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX) != 0) {
+                flags |= EventBlock.FLAG_GUESTS_CAN_MODIFY;
+            }
+            String rrule = cEvents.getString(PROJECTION_RRULE_INDEX);
+            String rdate = cEvents.getString(PROJECTION_RDATE_INDEX);
+            if (!TextUtils.isEmpty(rrule) || !TextUtils.isEmpty(rdate)) {
+                flags |= EventBlock.FLAG_REPEATING;
+                block.endDay[i] = checkRepeatingEndDay(rrule, block.startMillis[i],
+                        block.endDay[i]);
+            }
+            block.flags[i] = flags;
+
+            if (block.startDay[i] > endDay || block.endDay[i] < startDay) {
+                block.removeLastRow();
+            }
+        }
+    }
+
     /**
      * @param cEvents Cursor pointing at event
      * @return An event created from the cursor
@@ -379,22 +498,7 @@ public class Event implements Cloneable {
         String rdate = cEvents.getString(PROJECTION_RDATE_INDEX);
         if (!TextUtils.isEmpty(rrule) || !TextUtils.isEmpty(rdate)) {
             e.isRepeating = true;
-
-            /** We need to double check a few RRULE conditions that the Android Calendar Provider
-             *  doesn't handle and shows duplicate events for, namely:
-             *
-             *      - BYSETPOS
-             *      - BYWEEKNO
-             *
-             * For these conditions, double check if this event really occurs on this day, if it
-             * doesn't, reset the endDay value to 0 so it is removed from the events list.
-             *
-             * It might make sense to check all rrule's, as there may be other broken sets, but
-             * the overhead is probably not worth it at this point.
-             **/
-            if (rrule instanceof String && (rrule.contains("BYSETPOS=") || rrule.contains("BYWEEKNO="))) {
-                e.endDay = checkRRuleEventDate(rrule, e.startMillis, e.endDay);
-            }
+            e.endDay = checkRepeatingEndDay(rrule, e.startMillis, e.endDay);
         } else {
             e.isRepeating = false;
         }
@@ -403,6 +507,25 @@ public class Event implements Cloneable {
         return e;
     }
 
+    private static int checkRepeatingEndDay(String rrule, long startMillis, int endDay) {
+        /** We need to double check a few RRULE conditions that the Android Calendar Provider
+         *  doesn't handle and shows duplicate events for, namely:
+         *
+         *      - BYSETPOS
+         *      - BYWEEKNO
+         *
+         * For these conditions, double check if this event really occurs on this day, if it
+         * doesn't, reset the endDay value to 0 so it is removed from the events list.
+         *
+         * It might make sense to check all rrule's, as there may be other broken sets, but
+         * the overhead is probably not worth it at this point.
+         **/
+        if (rrule instanceof String && (rrule.contains("BYSETPOS=") || rrule.contains("BYWEEKNO="))) {
+            return checkRRuleEventDate(rrule, startMillis, endDay);
+        }
+        return endDay;
+    }
+
     /** Android's RRULE code is broken in a way the creates additional events in certain
      *  circumstances (though never doesn't create the actual event) so let's use another RRULE
      *  parser to validate if the event is real or not.
@@ -0,0 +1,463 @@
+package com.android.calendar;
+
+import android.text.format.DateUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A column oriented store for the instances of a range of days.
+ *
+ * Instead of one {@link Event} object per instance, every field is kept in a primitive array
+ * indexed by row, and titles, locations and organizers are interned per block so that the
+ * instances of a recurring event share their strings. A block is filled straight from the
+ * instances cursor by {@link Event#buildEventsFromCursor(EventBlock, android.database.Cursor,
+ * android.content.Context, int, int)} and only turned into {@link Event} objects for the rows
+ * a view actually shows, see {@link #copyTo(int, Event)}. {@link EventBlockDays} does this for
+ * views that take the events of each day as a list.
+ *
+ * This class is not thread safe.
+ */
+public class EventBlock {
+
+    /** Sorted by begin ASC, end DESC, title ASC, like timed events from the provider. */
+    public static final int ORDER_BY_BEGIN = 0;
+    /** Sorted by startDay ASC, endDay DESC, title ASC, like all-day events from the provider. */
+    public static final int ORDER_BY_DAY = 1;
+    /** Sorted by startDay ASC, startTime ASC, title ASC, like the events of a month view day. */
+    public static final int ORDER_BY_DAY_AND_TIME = 2;
+
+    static final int FLAG_ALL_DAY = 1;
+    static final int FLAG_HAS_ALARM = 1 << 1;
+    static final int FLAG_REPEATING = 1 << 2;
+    static final int FLAG_GUESTS_CAN_MODIFY = 1 << 3;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // The columns, each valid from 0 to size - 1
+    long[] id;
+    long[] startMillis;
+    long[] endMillis;
+    int[] startDay;
+    int[] endDay;
+    int[] startTime;
+    int[] endTime;
+    int[] color;
+    int[] status;
+    int[] selfAttendeeStatus;
+    int[] flags;
+    String[] title;
+    String[] location;
+    String[] organizer;
+    int size;
+
+    private final HashMap<String, String> mStrings = new HashMap<String, String>();
+
+    public EventBlock() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EventBlock(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        id = new long[capacity];
+        startMillis = new long[capacity];
+        endMillis = new long[capacity];
+        startDay = new int[capacity];
+        endDay = new int[capacity];
+        startTime = new int[capacity];
+        endTime = new int[capacity];
+        color = new int[capacity];
+        status = new int[capacity];
+        selfAttendeeStatus = new int[capacity];
+        flags = new int[capacity];
+        title = new String[capacity];
+        location = new String[capacity];
+        organizer = new String[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(title, 0, size, null);
+        Arrays.fill(location, 0, size, null);
+        Arrays.fill(organizer, 0, size, null);
+        mStrings.clear();
+        size = 0;
+    }
+
+    /**
+     * Appends an empty row, growing the columns if needed, and returns its index.
+     */
+    /* package */ int newRow() {
+        if (size == id.length) {
+            int capacity = size + (size >> 1) + 1;
+            id = Arrays.copyOf(id, capacity);
+            startMillis = Arrays.copyOf(startMillis, capacity);
+            endMillis = Arrays.copyOf(endMillis, capacity);
+            startDay = Arrays.copyOf(startDay, capacity);
+            endDay = Arrays.copyOf(endDay, capacity);
+            startTime = Arrays.copyOf(startTime, capacity);
+            endTime = Arrays.copyOf(endTime, capacity);
+            color = Arrays.copyOf(color, capacity);
+            status = Arrays.copyOf(status, capacity);
+            selfAttendeeStatus = Arrays.copyOf(selfAttendeeStatus, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            title = Arrays.copyOf(title, capacity);
+            location = Arrays.copyOf(location, capacity);
+            organizer = Arrays.copyOf(organizer, capacity);
+        }
+        return size++;
+    }
+
+    /**
+     * Drops the last row, used when a row turns out not to be in range after it was filled.
+     */
+    /* package */ void removeLastRow() {
+        size--;
+        title[size] = null;
+        location[size] = null;
+        organizer[size] = null;
+    }
+
+    /* package */ String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        String interned = mStrings.get(s);
+        if (interned == null) {
+            mStrings.put(s, s);
+            interned = s;
+        }
+        return interned;
+    }
+
+    public long getId(int row) {
+        return id[row];
+    }
+
+    public long getStartMillis(int row) {
+        return startMillis[row];
+    }
+
+    public long getEndMillis(int row) {
+        return endMillis[row];
+    }
+
+    public int getStartDay(int row) {
+        return startDay[row];
+    }
+
+    public int getEndDay(int row) {
+        return endDay[row];
+    }
+
+    public int getStartTime(int row) {
+        return startTime[row];
+    }
+
+    public int getEndTime(int row) {
+        return endTime[row];
+    }
+
+    public int getColor(int row) {
+        return color[row];
+    }
+
+    public int getStatus(int row) {
+        return status[row];
+    }
+
+    public String getTitle(int row) {
+        return title[row];
+    }
+
+    public String getLocation(int row) {
+        return location[row];
+    }
+
+    public boolean isAllDay(int row) {
+        return (flags[row] & FLAG_ALL_DAY) != 0;
+    }
+
+    /**
+     * Same as {@link Event#drawAsAllday()} for the given row.
+     */
+    public boolean drawAsAllday(int row) {
+        // Use >= so we'll pick up Exchange allday events
+        return isAllDay(row) || endMillis[row] - startMillis[row] >= DateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * Fills dest with the given row. Layout fields of dest are left untouched.
+     */
+    public void copyTo(int row, Event dest) {
+        dest.id = id[row];
+        dest.title = title[row];
+        dest.color = color[row];
+        dest.location = location[row];
+        dest.allDay = (flags[row] & FLAG_ALL_DAY) != 0;
+        dest.startDay = startDay[row];
+        dest.endDay = endDay[row];
+        dest.startTime = startTime[row];
+        dest.endTime = endTime[row];
+        dest.startMillis = startMillis[row];
+        dest.endMillis = endMillis[row];
+        dest.hasAlarm = (flags[row] & FLAG_HAS_ALARM) != 0;
+        dest.isRepeating = (flags[row] & FLAG_REPEATING) != 0;
+        dest.status = status[row];
+        dest.selfAttendeeStatus = selfAttendeeStatus[row];
+        dest.organizer = organizer[row];
+        dest.guestsCanModify = (flags[row] & FLAG_GUESTS_CAN_MODIFY) != 0;
+    }
+
+    /**
+     * Returns a new {@link Event} for the given row.
+     */
+    public Event getEvent(int row) {
+        Event e = Event.newInstance();
+        copyTo(row, e);
+        return e;
+    }
+
+    /**
+     * Appends a new {@link Event} for every row to events.
+     */
+    public void addEventsTo(ArrayList<Event> events) {
+        events.ensureCapacity(events.size() + size);
+        for (int i = 0; i < size; i++) {
+            events.add(getEvent(i));
+        }
+    }
+
+    /**
+     * Appends a row of another block to this one.
+     */
+    public void addRow(EventBlock src, int row) {
+        int i = newRow();
+        id[i] = src.id[row];
+        startMillis[i] = src.startMillis[row];
+        endMillis[i] = src.endMillis[row];
+        startDay[i] = src.startDay[row];
+        endDay[i] = src.endDay[row];
+        startTime[i] = src.startTime[row];
+        endTime[i] = src.endTime[row];
+        color[i] = src.color[row];
+        status[i] = src.status[row];
+        selfAttendeeStatus[i] = src.selfAttendeeStatus[row];
+        flags[i] = src.flags[row];
+        title[i] = intern(src.title[row]);
+        location[i] = intern(src.location[row]);
+        organizer[i] = intern(src.organizer[row]);
+    }
+
+    /**
+     * Appends every row of another block to this one.
+     */
+    public void addAll(EventBlock src) {
+        for (int i = 0; i < src.size; i++) {
+            addRow(src, i);
+        }
+    }
+
+    /**
+     * Returns a new block with the rows that intersect firstDay..lastDay (inclusive), in the
+     * same order.
+     */
+    public EventBlock filter(int firstDay, int lastDay) {
+        EventBlock result = new EventBlock(size);
+        for (int i = 0; i < size; i++) {
+            if (startDay[i] <= lastDay && endDay[i] >= firstDay) {
+                result.addRow(this, i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the first row that starts on or after the given Julian day.
+     * The block must be sorted by start day, which both orders guarantee.
+     */
+    public int firstRowStartingOnOrAfter(int julianDay) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startDay[mid] < julianDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the indices of the rows in the given order, leaving the rows where they are.
+     * Rows that compare equal keep their order.
+     *
+     * @param order {@link #ORDER_BY_BEGIN}, {@link #ORDER_BY_DAY} or
+     *         {@link #ORDER_BY_DAY_AND_TIME}
+     */
+    public int[] getSortedRows(int order) {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        mergeSort(rows, new int[size], 0, size, order);
+        return rows;
+    }
+
+    /**
+     * Sorts the rows in the given order and drops rows that describe the same instance as
+     * the previous one. Duplicates show up when the results of queries over adjacent day
+     * ranges are combined, since instances spanning the boundary are returned by both.
+     *
+     * @param order {@link #ORDER_BY_BEGIN} or {@link #ORDER_BY_DAY}
+     */
+    public void sortAndRemoveDuplicates(int order) {
+        if (size < 2) {
+            return;
+        }
+        int[] rows = getSortedRows(order);
+
+        int count = 0;
+        int[] kept = new int[size];
+        for (int i = 0; i < size; i++) {
+            int row = rows[i];
+            if (count > 0 && isSameInstance(kept[count - 1], row)) {
+                continue;
+            }
+            kept[count++] = row;
+        }
+        permute(kept, count);
+    }
+
+    private boolean isSameInstance(int a, int b) {
+        return id[a] == id[b] && startMillis[a] == startMillis[b] && endMillis[a] == endMillis[b];
+    }
+
+    private int compare(int a, int b, int order) {
+        if (order == ORDER_BY_BEGIN) {
+            if (startMillis[a] != startMillis[b]) {
+                return startMillis[a] < startMillis[b] ? -1 : 1;
+            }
+            if (endMillis[a] != endMillis[b]) {
+                return endMillis[a] > endMillis[b] ? -1 : 1;
+            }
+        } else if (order == ORDER_BY_DAY) {
+            if (startDay[a] != startDay[b]) {
+                return startDay[a] < startDay[b] ? -1 : 1;
+            }
+            if (endDay[a] != endDay[b]) {
+                return endDay[a] > endDay[b] ? -1 : 1;
+            }
+        } else {
+            if (startDay[a] != startDay[b]) {
+                return startDay[a] < startDay[b] ? -1 : 1;
+            }
+            if (startTime[a] != startTime[b]) {
+                return startTime[a] < startTime[b] ? -1 : 1;
+            }
+        }
+        if (title[a] != title[b]) {
+            if (title[a] == null) {
+                return -1;
+            }
+            if (title[b] == null) {
+                return 1;
+            }
+            int result = title[a].compareTo(title[b]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        // Keep identical instances next to each other
+        return Long.compare(id[a], id[b]);
+    }
+
+    /**
+     * A stable merge sort of row indices, so rows that compare equal keep the order in which
+     * the provider returned them.
+     */
+    private void mergeSort(int[] rows, int[] scratch, int from, int to, int order) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(rows, scratch, from, mid, order);
+        mergeSort(rows, scratch, mid, to, order);
+        if (compare(rows[mid - 1], rows[mid], order) <= 0) {
+            // Already in order, which is the common case for provider results
+            return;
+        }
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid
+                    && compare(scratch[left], scratch[right], order) <= 0)) {
+                rows[i] = scratch[left++];
+            } else {
+                rows[i] = scratch[right++];
+            }
+        }
+    }
+
+    /**
+     * Rearranges the columns so that row i holds what was row rows[i], keeping count rows.
+     */
+    private void permute(int[] rows, int count) {
+        long[] newId = new long[count];
+        long[] newStartMillis = new long[count];
+        long[] newEndMillis = new long[count];
+        int[] newStartDay = new int[count];
+        int[] newEndDay = new int[count];
+        int[] newStartTime = new int[count];
+        int[] newEndTime = new int[count];
+        int[] newColor = new int[count];
+        int[] newStatus = new int[count];
+        int[] newSelfAttendeeStatus = new int[count];
+        int[] newFlags = new int[count];
+        String[] newTitle = new String[count];
+        String[] newLocation = new String[count];
+        String[] newOrganizer = new String[count];
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            newId[i] = id[row];
+            newStartMillis[i] = startMillis[row];
+            newEndMillis[i] = endMillis[row];
+            newStartDay[i] = startDay[row];
+            newEndDay[i] = endDay[row];
+            newStartTime[i] = startTime[row];
+            newEndTime[i] = endTime[row];
+            newColor[i] = color[row];
+            newStatus[i] = status[row];
+            newSelfAttendeeStatus[i] = selfAttendeeStatus[row];
+            newFlags[i] = flags[row];
+            newTitle[i] = title[row];
+            newLocation[i] = location[row];
+            newOrganizer[i] = organizer[row];
+        }
+        id = newId;
+        startMillis = newStartMillis;
+        endMillis = newEndMillis;
+        startDay = newStartDay;
+        endDay = newEndDay;
+        startTime = newStartTime;
+        endTime = newEndTime;
+        color = newColor;
+        status = newStatus;
+        selfAttendeeStatus = newSelfAttendeeStatus;
+        flags = newFlags;
+        title = newTitle;
+        location = newLocation;
+        organizer = newOrganizer;
+        size = count;
+    }
+}
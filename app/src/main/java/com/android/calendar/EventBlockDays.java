@@ -0,0 +1,125 @@
+package com.android.calendar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Lets views that take the events of each day as an ArrayList of {@link Event}s, like the
+ * weeks of the month view, show a range of days loaded into an {@link EventBlock}.
+ *
+ * {@link #indexRows(int)} sorts the rows of the block and lists the rows of every day once,
+ * typically on the loader thread. Event objects are then only created for the days a view
+ * asks for with {@link #addEvents}, so a load of many weeks does not allocate an Event per
+ * instance up front.
+ *
+ * The block must not be changed once the rows are indexed.
+ */
+public class EventBlockDays {
+
+    private static final int[] NO_ROWS = new int[0];
+
+    private final EventBlock mBlock;
+    private final int mFirstJulianDay;
+    private final int mNumDays;
+    // The rows of each day, in the order they are shown
+    private int[][] mRows;
+
+    public EventBlockDays(EventBlock block, int firstJulianDay, int numDays) {
+        mBlock = block;
+        mFirstJulianDay = firstJulianDay;
+        mNumDays = numDays;
+    }
+
+    public EventBlock getBlock() {
+        return mBlock;
+    }
+
+    public int getFirstJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    public int getNumDays() {
+        return mNumDays;
+    }
+
+    /**
+     * Lists the rows of each day, sorted in the given order.
+     *
+     * @param order one of the orders of {@link EventBlock#getSortedRows(int)}
+     */
+    public void indexRows(int order) {
+        final EventBlock block = mBlock;
+        final int lastJulianDay = mFirstJulianDay + mNumDays - 1;
+        int[] sorted = block.getSortedRows(order);
+        int[] counts = new int[mNumDays];
+        for (int row : sorted) {
+            int first = Math.max(block.startDay[row], mFirstJulianDay);
+            int last = Math.min(block.endDay[row], lastJulianDay);
+            for (int day = first; day <= last; day++) {
+                counts[day - mFirstJulianDay]++;
+            }
+        }
+        int[][] rows = new int[mNumDays][];
+        for (int i = 0; i < mNumDays; i++) {
+            rows[i] = counts[i] > 0 ? new int[counts[i]] : NO_ROWS;
+            counts[i] = 0;
+        }
+        for (int row : sorted) {
+            int first = Math.max(block.startDay[row], mFirstJulianDay);
+            int last = Math.min(block.endDay[row], lastJulianDay);
+            for (int day = first; day <= last; day++) {
+                int i = day - mFirstJulianDay;
+                rows[i][counts[i]++] = row;
+            }
+        }
+        mRows = rows;
+    }
+
+    /**
+     * Returns the number of events on the given day, 0 if it is not one of the days.
+     */
+    public int getEventCount(int julianDay) {
+        int i = julianDay - mFirstJulianDay;
+        if (mRows == null || i < 0 || i >= mNumDays) {
+            return 0;
+        }
+        return mRows[i].length;
+    }
+
+    /**
+     * Appends the events of the given day to out, in the indexed order.
+     *
+     * @param created the events created so far for the days of one view, by event id. An
+     *         instance spanning several of the days is created once and added to the lists of
+     *         each of them, also when the days come from different EventBlockDays.
+     */
+    public void addEvents(int julianDay, ArrayList<Event> out,
+            HashMap<Long, ArrayList<Event>> created) {
+        int i = julianDay - mFirstJulianDay;
+        if (mRows == null || i < 0 || i >= mNumDays) {
+            return;
+        }
+        final EventBlock block = mBlock;
+        for (int row : mRows[i]) {
+            ArrayList<Event> instances = created.get(block.id[row]);
+            if (instances == null) {
+                instances = new ArrayList<Event>(1);
+                created.put(block.id[row], instances);
+            }
+            // The instances of a recurring event share the id
+            Event event = null;
+            for (Event instance : instances) {
+                if (instance.startMillis == block.startMillis[row]
+                        && instance.endMillis == block.endMillis[row]) {
+                    event = instance;
+                    break;
+                }
+            }
+            if (event == null) {
+                event = block.getEvent(row);
+                instances.add(event);
+            }
+            out.add(event);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.android.calendar;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.CalendarContract;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.collection.LruCache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A process-wide cache of the query results {@link EventInfoFragment} shows an event from, so
+ * that reopening a recently shown event does not wait on the provider.
+ *
+ * The results of one load of an event are recorded as its queries complete and stored as an
+ * immutable {@link Snapshot} once the load is complete. The least recently shown events are
+ * dropped first.
+ *
+ * The cache is dropped whenever the calendar provider reports a change or
+ * {@link #invalidate()} is called. Loads that were in flight at that time are not stored.
+ */
+public class EventDetailCache {
+
+    private static final String TAG = "EventDetailCache";
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_EVENTS = 16;
+
+    private static EventDetailCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<Long, Snapshot> mSnapshots = new LruCache<Long, Snapshot>(MAX_EVENTS);
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+    private boolean mObserverRegistered;
+
+    private EventDetailCache(Context context) {
+        mContext = context;
+    }
+
+    public static synchronized EventDetailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EventDetailCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Drops every cached event. Loads that are being recorded when this is called will not be
+     * stored.
+     */
+    public void invalidate() {
+        synchronized (mSnapshots) {
+            mGeneration.incrementAndGet();
+            mSnapshots.evictAll();
+        }
+        if (DEBUG) {
+            Log.d(TAG, "invalidated");
+        }
+    }
+
+    /**
+     * Returns the last complete load of the given event, or null.
+     */
+    public Snapshot get(long eventId) {
+        registerObserverIfNeeded();
+        synchronized (mSnapshots) {
+            Snapshot snapshot = mSnapshots.get(eventId);
+            if (DEBUG) {
+                Log.d(TAG, (snapshot != null ? "hit " : "miss ") + eventId);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Starts recording a load of the given event from the provider.
+     */
+    public Recorder startRecording(long eventId) {
+        registerObserverIfNeeded();
+        return new Recorder(eventId, mGeneration.get());
+    }
+
+    /**
+     * Stores a complete load, unless the provider changed since it was started.
+     */
+    public void store(Recorder recorder) {
+        synchronized (mSnapshots) {
+            if (recorder.mGeneration != mGeneration.get()) {
+                return;
+            }
+            mSnapshots.put(recorder.mEventId, new Snapshot(recorder.mResults));
+        }
+    }
+
+    private void registerObserverIfNeeded() {
+        synchronized (mSnapshots) {
+            if (mObserverRegistered) {
+                return;
+            }
+            mObserverRegistered = true;
+        }
+        mContext.getContentResolver().registerContentObserver(CalendarContract.CONTENT_URI,
+                true, mObserver);
+    }
+
+    /**
+     * The results of one load of an event, by query token.
+     */
+    public static class Snapshot {
+        private final SparseArray<Rows> mResults;
+
+        private Snapshot(SparseArray<Rows> results) {
+            mResults = results;
+        }
+
+        /**
+         * Returns a new cursor over the result of the query with the given token, or null if
+         * that query was not part of the load.
+         */
+        public Cursor getCursor(int token) {
+            Rows rows = mResults.get(token);
+            return rows != null ? rows.toCursor() : null;
+        }
+    }
+
+    /**
+     * Collects the results of one load of an event as its queries complete.
+     */
+    public static class Recorder {
+        private final long mEventId;
+        private final int mGeneration;
+        private final SparseArray<Rows> mResults = new SparseArray<Rows>();
+        private int mDoneQueries;
+
+        private Recorder(long eventId, int generation) {
+            mEventId = eventId;
+            mGeneration = generation;
+        }
+
+        /**
+         * Copies the rows of a query result, leaving the cursor where it was.
+         */
+        public void record(int token, Cursor cursor) {
+            if (cursor != null) {
+                mResults.put(token, new Rows(cursor));
+            }
+        }
+
+        /**
+         * Marks the query with the given token as complete, or as not needed.
+         */
+        public void markDone(int token) {
+            mDoneQueries |= token;
+        }
+
+        public boolean isDone(int tokens) {
+            return (mDoneQueries & tokens) == tokens;
+        }
+    }
+
+    /**
+     * The columns and rows of a query result, as the strings
+     * {@link Utils#matrixCursorFromCursor} copies.
+     */
+    private static class Rows {
+        private final String[] mColumnNames;
+        private final String[][] mRows;
+
+        Rows(Cursor cursor) {
+            String[] columnNames = cursor.getColumnNames();
+            mColumnNames = columnNames != null ? columnNames : new String[] {};
+            int numColumns = cursor.getColumnCount();
+            int position = cursor.getPosition();
+            mRows = new String[cursor.getCount()][];
+            cursor.moveToPosition(-1);
+            for (int row = 0; cursor.moveToNext(); row++) {
+                String[] data = new String[numColumns];
+                for (int i = 0; i < numColumns; i++) {
+                    data[i] = cursor.getString(i);
+                }
+                mRows[row] = data;
+            }
+            cursor.moveToPosition(position);
+        }
+
+        MatrixCursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumnNames, mRows.length);
+            for (String[] row : mRows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+}
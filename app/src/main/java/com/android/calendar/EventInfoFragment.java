@@ -49,6 +49,7 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
@@ -366,6 +367,16 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
     ArrayList<String> mCcEmails = new ArrayList<String>();
     private int mWindowStyle = DIALOG_WINDOW_STYLE;
     private int mCurrentQuery = 0;
+    // The detail queries started from the event row, and those of them not yet complete
+    private int mDetailQueries = 0;
+    private int mPendingDetailQueries = 0;
+    // When the event query of the first load was started, or 0 once it is shown
+    private long mLoadStartMillis;
+    private EventDetailCache mDetailCache;
+    // The cached load the queries are answered from, until it has been shown
+    private EventDetailCache.Snapshot mSnapshot;
+    // Records the load from the provider in progress, to be cached once complete
+    private EventDetailCache.Recorder mRecorder;
     private View mView;
     private Uri mUri;
     private long mEventId;
@@ -592,6 +603,9 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
 
     private void sendAccessibilityEventIfQueryDone(int token) {
         mCurrentQuery |= token;
+        if (mRecorder != null) {
+            mRecorder.markDone(token);
+        }
         if (mCurrentQuery == TOKEN_QUERY_ALL) {
             sendAccessibilityEvent();
         }
@@ -763,6 +777,7 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
             mWhichEvents = mEditResponseHelper.getWhichEvents();
         }
         mHandler = new QueryHandler(mActivity);
+        mDetailCache = EventDetailCache.getInstance(mActivity);
         if (!mIsDialog) {
             setHasOptionsMenu(true);
         }
@@ -887,6 +902,11 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
 
         // start loading the data
 
+        mLoadStartMillis = SystemClock.uptimeMillis();
+        mSnapshot = mDetailCache.get(mEventId);
+        if (mSnapshot == null) {
+            mRecorder = mDetailCache.startRecording(mEventId);
+        }
         mHandler.startQuery(TOKEN_QUERY_EVENT, null, mUri, EVENT_PROJECTION,
                 null, null, null);
 
@@ -2248,11 +2268,106 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
 
     public void reloadEvents() {
         if (mHandler != null) {
+            mSnapshot = null;
+            mRecorder = mDetailCache.startRecording(mEventId);
             mHandler.startQuery(TOKEN_QUERY_EVENT, null, mUri, EVENT_PROJECTION,
                     null, null, null);
         }
     }
 
+    /**
+     * Starts the queries that only need the event row all at once, rather than each one after
+     * the previous one completed. The colors query follows as soon as the calendar row is in,
+     * see {@link #startColorsQuery()}. Their results are applied together by
+     * {@link #onDetailsLoaded()}.
+     */
+    private void startDetailQueries() {
+        mDetailQueries = TOKEN_QUERY_CALENDARS | TOKEN_QUERY_COLORS | TOKEN_QUERY_EXTENDED;
+
+        // start calendar query
+        String[] args = new String[]{
+                Long.toString(mEventCursor.getLong(EVENT_INDEX_CALENDAR_ID))};
+        mHandler.startQuery(TOKEN_QUERY_CALENDARS, null, Calendars.CONTENT_URI,
+                CALENDARS_PROJECTION, CALENDARS_WHERE, args, null);
+
+        args = new String[]{Long.toString(mEventId)};
+        if (mEventCursor.getInt(EVENT_INDEX_CALENDAR_ACCESS_LEVEL)
+                != Calendars.CAL_ACCESS_FREEBUSY) {
+            // start attendees query
+            mDetailQueries |= TOKEN_QUERY_ATTENDEES;
+            mHandler.startQuery(TOKEN_QUERY_ATTENDEES, null, Attendees.CONTENT_URI,
+                    ATTENDEES_PROJECTION, ATTENDEES_WHERE, args, ATTENDEES_SORT_ORDER);
+        } else {
+            sendAccessibilityEventIfQueryDone(TOKEN_QUERY_ATTENDEES);
+        }
+        if (mHasAlarm) {
+            // start reminders query
+            mDetailQueries |= TOKEN_QUERY_REMINDERS;
+            mHandler.startQuery(TOKEN_QUERY_REMINDERS, null, Reminders.CONTENT_URI,
+                    REMINDERS_PROJECTION, REMINDERS_WHERE, args, null);
+        } else {
+            sendAccessibilityEventIfQueryDone(TOKEN_QUERY_REMINDERS);
+        }
+
+        // start extended query
+        mHandler.startQuery(TOKEN_QUERY_EXTENDED, null,
+                CalendarContract.ExtendedProperties.CONTENT_URI, EXTENDED_PROJECTION,
+                EXTENDED_WHERE, args, EXTENDED_SORT_ORDER);
+        mPendingDetailQueries = mDetailQueries;
+    }
+
+    /**
+     * Starts the query for the event colors of the account of the calendar, which is all it
+     * needs from the calendar row.
+     */
+    private void startColorsQuery() {
+        mCalendarsCursor.moveToFirst();
+        String[] args = new String[]{
+                mCalendarsCursor.getString(CALENDARS_INDEX_ACCOUNT_NAME),
+                mCalendarsCursor.getString(CALENDARS_INDEX_ACCOUNT_TYPE)};
+        mHandler.startQuery(TOKEN_QUERY_COLORS, null, Colors.CONTENT_URI, COLORS_PROJECTION,
+                COLORS_WHERE, args, null);
+    }
+
+    private void onDetailQueryComplete(int token) {
+        mPendingDetailQueries &= ~token;
+        if (mPendingDetailQueries == 0) {
+            onDetailsLoaded();
+        }
+    }
+
+    /**
+     * Applies the results of the detail queries, in the order they were once chained in.
+     */
+    private void onDetailsLoaded() {
+        if (Log.isLoggable(TAG, Log.DEBUG) && mLoadStartMillis != 0) {
+            Log.d(TAG, "Event details loaded in "
+                    + (SystemClock.uptimeMillis() - mLoadStartMillis) + "ms");
+        }
+
+        updateCalendar(mView);
+        // FRAG_TODO fragments shouldn't set the title anymore
+        updateTitle();
+
+        if (mCanModifyCalendar) {
+            View button = mView.findViewById(R.id.change_color);
+            if (button != null && mColors.length > 0) {
+                button.setEnabled(true);
+                button.setVisibility(View.VISIBLE);
+            }
+        }
+        updateMenu();
+
+        if ((mDetailQueries & TOKEN_QUERY_ATTENDEES) != 0) {
+            initAttendeesCursor(mView);
+            updateResponse(mView);
+        }
+        if ((mDetailQueries & TOKEN_QUERY_REMINDERS) != 0) {
+            initReminders(mView, mRemindersCursor);
+        }
+        initExtended(mExtendedCursor);
+    }
+
     @Override
     public void onClick(View view) {
 
@@ -2415,6 +2530,29 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
     private class QueryHandler extends AsyncQueryService {
         public QueryHandler(Context context) {
             super(context);
+            // The user is waiting on these to see the event
+            setPriority(PRIORITY_HIGH);
+        }
+
+        /**
+         * Answers the query from the cached load when it has the result, still asynchronously
+         * like the provider would.
+         */
+        @Override
+        public void startQuery(final int token, final Object cookie, Uri uri,
+                String[] projection, String selection, String[] selectionArgs, String orderBy) {
+            final Cursor cached = mSnapshot != null ? mSnapshot.getCursor(token) : null;
+            if (cached == null) {
+                super.startQuery(token, cookie, uri, projection, selection, selectionArgs,
+                        orderBy);
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onQueryComplete(token, cookie, cached);
+                }
+            });
         }
 
         @Override
@@ -2428,6 +2566,10 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
                 return;
             }
 
+            if (mRecorder != null) {
+                mRecorder.record(token, cursor);
+            }
+
             switch (token) {
                 case TOKEN_QUERY_EVENT:
                     mEventCursor = Utils.matrixCursorFromCursor(cursor);
@@ -2455,52 +2597,12 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
 
                     updateEvent(mView);
                     prepareReminders();
-
-                    // start calendar query
-                    Uri uri = Calendars.CONTENT_URI;
-                    String[] args = new String[]{
-                            Long.toString(mEventCursor.getLong(EVENT_INDEX_CALENDAR_ID))};
-                    startQuery(TOKEN_QUERY_CALENDARS, null, uri, CALENDARS_PROJECTION,
-                            CALENDARS_WHERE, args, null);
+                    startDetailQueries();
                     break;
                 case TOKEN_QUERY_CALENDARS:
                     mCalendarsCursor = Utils.matrixCursorFromCursor(cursor);
-                    updateCalendar(mView);
-                    // FRAG_TODO fragments shouldn't set the title anymore
-                    updateTitle();
-
-                    args = new String[]{
-                            mCalendarsCursor.getString(CALENDARS_INDEX_ACCOUNT_NAME),
-                            mCalendarsCursor.getString(CALENDARS_INDEX_ACCOUNT_TYPE)};
-                    uri = Colors.CONTENT_URI;
-                    startQuery(TOKEN_QUERY_COLORS, null, uri, COLORS_PROJECTION, COLORS_WHERE, args,
-                            null);
-
-                    if (!mIsBusyFreeCalendar) {
-                        args = new String[]{Long.toString(mEventId)};
-
-                        // start attendees query
-                        uri = Attendees.CONTENT_URI;
-                        startQuery(TOKEN_QUERY_ATTENDEES, null, uri, ATTENDEES_PROJECTION,
-                                ATTENDEES_WHERE, args, ATTENDEES_SORT_ORDER);
-                    } else {
-                        sendAccessibilityEventIfQueryDone(TOKEN_QUERY_ATTENDEES);
-                    }
-                    if (mHasAlarm) {
-                        // start reminders query
-                        args = new String[]{Long.toString(mEventId)};
-                        uri = Reminders.CONTENT_URI;
-                        startQuery(TOKEN_QUERY_REMINDERS, null, uri,
-                                REMINDERS_PROJECTION, REMINDERS_WHERE, args, null);
-                    } else {
-                        sendAccessibilityEventIfQueryDone(TOKEN_QUERY_REMINDERS);
-                    }
-
-                    // start extended query
-                    uri = CalendarContract.ExtendedProperties.CONTENT_URI;
-                    startQuery(TOKEN_QUERY_EXTENDED, null, uri, EXTENDED_PROJECTION,
-                            EXTENDED_WHERE, args, EXTENDED_SORT_ORDER);
-
+                    startColorsQuery();
+                    onDetailQueryComplete(token);
                     break;
                 case TOKEN_QUERY_COLORS:
                     ArrayList<Integer> colors = new ArrayList<Integer>();
@@ -2526,27 +2628,19 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
                             Log.d("Color", "H:" + hsv[0] + ",S:" + hsv[1] + ",V:" + hsv[2]);
                         }
                     }
-                    if (mCanModifyCalendar) {
-                        View button = mView.findViewById(R.id.change_color);
-                        if (button != null && mColors.length > 0) {
-                            button.setEnabled(true);
-                            button.setVisibility(View.VISIBLE);
-                        }
-                    }
-                    updateMenu();
+                    onDetailQueryComplete(token);
                     break;
                 case TOKEN_QUERY_ATTENDEES:
                     mAttendeesCursor = Utils.matrixCursorFromCursor(cursor);
-                    initAttendeesCursor(mView);
-                    updateResponse(mView);
+                    onDetailQueryComplete(token);
                     break;
                 case TOKEN_QUERY_REMINDERS:
                     mRemindersCursor = Utils.matrixCursorFromCursor(cursor);
-                    initReminders(mView, mRemindersCursor);
+                    onDetailQueryComplete(token);
                     break;
                 case TOKEN_QUERY_EXTENDED:
                     mExtendedCursor = Utils.matrixCursorFromCursor(cursor);
-                    initExtended(mExtendedCursor);
+                    onDetailQueryComplete(token);
                     break;
                 case TOKEN_QUERY_VISIBLE_CALENDARS:
                     if (cursor.getCount() > 1) {
@@ -2561,6 +2655,9 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
                         // calendar.  Skip the duplicate calendars query.
                         setVisibilityCommon(mView, R.id.calendar_container, View.GONE);
                         mCurrentQuery |= TOKEN_QUERY_DUPLICATE_CALENDARS;
+                        if (mRecorder != null) {
+                            mRecorder.markDone(TOKEN_QUERY_DUPLICATE_CALENDARS);
+                        }
                     }
                     break;
                 case TOKEN_QUERY_DUPLICATE_CALENDARS:
@@ -2585,8 +2682,19 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
             cursor.close();
             sendAccessibilityEventIfQueryDone(token);
 
+            if (mRecorder != null && mRecorder.isDone(TOKEN_QUERY_ALL)) {
+                mDetailCache.store(mRecorder);
+                mRecorder = null;
+            }
+
             // All queries are done, show the view.
             if (mCurrentQuery == TOKEN_QUERY_ALL) {
+                if (Log.isLoggable(TAG, Log.DEBUG) && mLoadStartMillis != 0) {
+                    Log.d(TAG, "Event loaded in "
+                            + (SystemClock.uptimeMillis() - mLoadStartMillis) + "ms"
+                            + (mSnapshot != null ? " from cache" : ""));
+                }
+                mLoadStartMillis = 0;
                 if (mLoadingMsgView.getAlpha() == 1) {
                     // Loading message is showing, let it stay a bit more (to prevent
                     // flashing) by adding a start delay to the event animation
@@ -2602,6 +2710,10 @@ public class EventInfoFragment extends DialogFragment implements OnCheckedChange
                     mScrollView.setAlpha(1);
                     mLoadingMsgView.setVisibility(View.GONE);
                 }
+                if (mSnapshot != null) {
+                    // Shown from the cache, refresh it from the provider
+                    reloadEvents();
+                }
             }
         }
     }
@@ -0,0 +1,248 @@
+package com.android.calendar;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.text.Layout;
+import android.text.Layout.Alignment;
+import android.text.PrecomputedText;
+import android.text.SpannableStringBuilder;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.text.style.StyleSpan;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A process-wide cache of the text layouts {@link DayView} draws events with, shared by the
+ * timed and all-day events and by the day views of a ViewSwitcher.
+ *
+ * Two least recently used caches are kept:
+ * <ul>
+ * <li>the styled text of an event, measured as a {@link PrecomputedText} from API 28 on, keyed
+ * by the event id, title, location and text size</li>
+ * <li>the layout of that text, keyed also by its width, color and strike-through</li>
+ * </ul>
+ * From API 28 on, a layout for a new width, as during a pinch zoom, therefore only breaks lines
+ * of text that is already measured. {@link #prewarm} measures the text of newly loaded events off the UI thread.
+ *
+ * Layouts must only be requested and drawn from the UI thread.
+ */
+class EventLayoutCache {
+
+    private static final int MAX_LAYOUTS = 512;
+    private static final int MAX_TEXTS = 256;
+    private static final int MAX_EVENT_TEXT_LEN = 500;
+
+    private static final Pattern sSanitizerFilter = Pattern.compile("[\t\n],");
+
+    private static final EventLayoutCache sInstance = new EventLayoutCache();
+    private static final ExecutorService sPrewarmExecutor = Executors.newSingleThreadExecutor();
+
+    private final LruMap<Key, CharSequence> mTexts = new LruMap<Key, CharSequence>(MAX_TEXTS);
+    private final LruMap<Key, StaticLayout> mLayouts = new LruMap<Key, StaticLayout>(MAX_LAYOUTS);
+    // Looked up with, to not allocate keys for hits
+    private final Key mProbe = new Key();
+
+    private EventLayoutCache() {
+    }
+
+    static EventLayoutCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the layout of the event's title and location in the given width, drawn with a
+     * copy of the given paint.
+     */
+    StaticLayout getLayout(Event event, Paint paint, int width) {
+        final int color = paint.getColor();
+        final boolean strikeThru = paint.isStrikeThruText();
+        CharSequence text;
+        synchronized (this) {
+            mProbe.set(event, paint.getTextSize(), width, color, strikeThru);
+            StaticLayout layout = mLayouts.get(mProbe);
+            if (layout != null) {
+                return layout;
+            }
+            mProbe.set(event, paint.getTextSize(), 0, 0, false);
+            text = mTexts.get(mProbe);
+        }
+        TextPaint textPaint = new TextPaint(paint);
+        if (text == null) {
+            text = createText(event, textPaint);
+        }
+
+        // Leave a one pixel boundary on the left and right of the rectangle for the event
+        StaticLayout layout = new StaticLayout(text, 0, text.length(), textPaint, width,
+                Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, width);
+        synchronized (this) {
+            Key textKey = new Key();
+            textKey.set(event, paint.getTextSize(), 0, 0, false);
+            mTexts.put(textKey, text);
+            Key layoutKey = new Key();
+            layoutKey.set(event, paint.getTextSize(), width, color, strikeThru);
+            mLayouts.put(layoutKey, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Measures the text of the given events that is not cached yet, off the UI thread.
+     *
+     * @param paint the paint the events will be drawn with; it is copied
+     */
+    void prewarm(List<Event> events, Paint paint) {
+        final TextPaint textPaint = new TextPaint(paint);
+        final ArrayList<Event> pending = new ArrayList<Event>();
+        synchronized (this) {
+            for (Event event : events) {
+                mProbe.set(event, textPaint.getTextSize(), 0, 0, false);
+                if (mTexts.get(mProbe) == null) {
+                    pending.add(event);
+                }
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        sPrewarmExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Event event : pending) {
+                    CharSequence text = createText(event, textPaint);
+                    Key key = new Key();
+                    key.set(event, textPaint.getTextSize(), 0, 0, false);
+                    synchronized (EventLayoutCache.this) {
+                        mTexts.put(key, text);
+                    }
+                }
+            }
+        });
+    }
+
+    private static CharSequence createText(Event event, TextPaint paint) {
+        SpannableStringBuilder bob = new SpannableStringBuilder();
+        if (event.title != null) {
+            // MAX - 1 since we add a space
+            bob.append(drawTextSanitizer(event.title.toString(), MAX_EVENT_TEXT_LEN - 1));
+            bob.setSpan(new StyleSpan(Typeface.BOLD), 0, bob.length(), 0);
+            bob.append(' ');
+        }
+        if (event.location != null) {
+            bob.append(drawTextSanitizer(event.location.toString(),
+                    MAX_EVENT_TEXT_LEN - bob.length()));
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            // StaticLayout only reuses the measurement of the platform PrecomputedText, and
+            // only when it was made with the strategies its constructor uses
+            PrecomputedText.Params params = new PrecomputedText.Params.Builder(paint)
+                    .setBreakStrategy(Layout.BREAK_STRATEGY_SIMPLE)
+                    .setHyphenationFrequency(Layout.HYPHENATION_FREQUENCY_NONE)
+                    .build();
+            return PrecomputedText.create(bob, params);
+        }
+        // Older StaticLayouts measure again, this only warms the framework's word cache
+        PrecomputedTextCompat.Params params = new PrecomputedTextCompat.Params.Builder(paint)
+                .setBreakStrategy(Layout.BREAK_STRATEGY_SIMPLE)
+                .setHyphenationFrequency(Layout.HYPHENATION_FREQUENCY_NONE)
+                .build();
+        return PrecomputedTextCompat.create(bob, params);
+    }
+
+    // Sanitize a string before passing it to drawText or else we get little
+    // squares. For newlines and tabs before a comma, delete the character.
+    // Otherwise, just replace them with a space.
+    private static String drawTextSanitizer(String string, int maxEventTextLen) {
+        Matcher m = sSanitizerFilter.matcher(string);
+        string = m.replaceAll(",");
+
+        int len = string.length();
+        if (maxEventTextLen <= 0) {
+            string = "";
+            len = 0;
+        } else if (len > maxEventTextLen) {
+            string = string.substring(0, maxEventTextLen);
+            len = maxEventTextLen;
+        }
+
+        return string.replace('\n', ' ');
+    }
+
+    /**
+     * What a layout shows. A width of 0 stands for the measured text, whatever the layout.
+     */
+    private static class Key {
+        long mEventId;
+        String mTitle;
+        String mLocation;
+        float mTextSize;
+        int mWidth;
+        int mColor;
+        boolean mStrikeThru;
+        private int mHashCode;
+
+        void set(Event event, float textSize, int width, int color, boolean strikeThru) {
+            mEventId = event.id;
+            mTitle = event.title != null ? event.title.toString() : null;
+            mLocation = event.location != null ? event.location.toString() : null;
+            mTextSize = textSize;
+            mWidth = width;
+            mColor = color;
+            mStrikeThru = strikeThru;
+
+            int result = (int) (mEventId ^ (mEventId >>> 32));
+            result = 31 * result + (mTitle != null ? mTitle.hashCode() : 0);
+            result = 31 * result + (mLocation != null ? mLocation.hashCode() : 0);
+            result = 31 * result + Float.floatToIntBits(mTextSize);
+            result = 31 * result + mWidth;
+            result = 31 * result + mColor;
+            result = 31 * result + (mStrikeThru ? 1 : 0);
+            mHashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mEventId == other.mEventId && mWidth == other.mWidth
+                    && mColor == other.mColor && mStrikeThru == other.mStrikeThru
+                    && mTextSize == other.mTextSize && TextUtils.equals(mTitle, other.mTitle)
+                    && TextUtils.equals(mLocation, other.mLocation);
+        }
+    }
+
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private final int mMaxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            mMaxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > mMaxSize;
+        }
+    }
+}
@@ -72,6 +72,31 @@ public class EventLoader {
      */
     public void loadEventsInBackground(final int numDays, final ArrayList<Event> events,
                                        int startDay, final Runnable successCallback, final Runnable cancelCallback) {
+        loadEventsInBackground(numDays, events, startDay, Utils.getHideDeclinedEvents(mContext),
+                successCallback, cancelCallback);
+    }
+
+    /**
+     * Same as {@link #loadEventsInBackground(int, ArrayList, int, Runnable, Runnable)}, but
+     * lets the caller decide whether declined events are hidden instead of using the
+     * preference.
+     */
+    public void loadEventsInBackground(final int numDays, final ArrayList<Event> events,
+                                       int startDay, boolean hideDeclined,
+                                       final Runnable successCallback, final Runnable cancelCallback) {
+        loadEventsInBackground(numDays, events, startDay, hideDeclined, null, successCallback,
+                cancelCallback);
+    }
+
+    /**
+     * Same as {@link #loadEventsInBackground(int, ArrayList, int, boolean, Runnable, Runnable)},
+     * but runs layoutCallback on the background thread once the events are loaded, before
+     * successCallback is posted. It is not run if the request is no longer the latest one.
+     */
+    public void loadEventsInBackground(final int numDays, final ArrayList<Event> events,
+                                       int startDay, boolean hideDeclined,
+                                       final Runnable layoutCallback,
+                                       final Runnable successCallback, final Runnable cancelCallback) {
 
         // Increment the sequence number for requests.  We don't care if the
         // sequence numbers wrap around because we test for equality with the
@@ -79,9 +104,26 @@ public class EventLoader {
         int id = mSequenceNumber.incrementAndGet();
 
         // Send the load request to the background thread
-        LoadEventsRequest request = new LoadEventsRequest(id, startDay, numDays,
-                events, successCallback, cancelCallback);
+        LoadEventsRequest request = new LoadEventsRequest(id, startDay, numDays, hideDeclined,
+                events, null, layoutCallback, successCallback, cancelCallback);
+        putLoadEventsRequest(request);
+    }
 
+    /**
+     * Same as {@link #loadEventsInBackground(int, ArrayList, int, boolean, Runnable, Runnable,
+     * Runnable)}, but fills block with the instances instead of creating an Event for each.
+     */
+    public void loadEventsInBackground(final int numDays, final EventBlock block,
+                                       int startDay, boolean hideDeclined,
+                                       final Runnable layoutCallback,
+                                       final Runnable successCallback, final Runnable cancelCallback) {
+        int id = mSequenceNumber.incrementAndGet();
+        LoadEventsRequest request = new LoadEventsRequest(id, startDay, numDays, hideDeclined,
+                null, block, layoutCallback, successCallback, cancelCallback);
+        putLoadEventsRequest(request);
+    }
+
+    private void putLoadEventsRequest(LoadEventsRequest request) {
         try {
             mLoaderQueue.put(request);
         } catch (InterruptedException ex) {
@@ -202,26 +244,41 @@ public class EventLoader {
         public int id;
         public int startDay;
         public int numDays;
+        public boolean hideDeclined;
         public ArrayList<Event> events;
+        public EventBlock block;
+        public Runnable layoutCallback;
         public Runnable successCallback;
         public Runnable cancelCallback;
 
-        public LoadEventsRequest(int id, int startDay, int numDays, ArrayList<Event> events,
+        public LoadEventsRequest(int id, int startDay, int numDays, boolean hideDeclined,
+                ArrayList<Event> events, EventBlock block, final Runnable layoutCallback,
                 final Runnable successCallback, final Runnable cancelCallback) {
             this.id = id;
             this.startDay = startDay;
             this.numDays = numDays;
+            this.hideDeclined = hideDeclined;
             this.events = events;
+            this.block = block;
+            this.layoutCallback = layoutCallback;
             this.successCallback = successCallback;
             this.cancelCallback = cancelCallback;
         }
 
         public void processRequest(EventLoader eventLoader) {
-            Event.loadEvents(eventLoader.mContext, events, startDay,
-                    numDays, id, eventLoader.mSequenceNumber);
+            if (block != null) {
+                Event.loadEvents(eventLoader.mContext, block, startDay,
+                        numDays, hideDeclined, id, eventLoader.mSequenceNumber);
+            } else {
+                Event.loadEvents(eventLoader.mContext, events, startDay,
+                        numDays, hideDeclined, id, eventLoader.mSequenceNumber);
+            }
 
             // Check if we are still the most recent request.
             if (id == eventLoader.mSequenceNumber.get()) {
+                if (layoutCallback != null) {
+                    layoutCallback.run();
+                }
                 eventLoader.mHandler.post(successCallback);
             } else {
                 eventLoader.mHandler.post(cancelCallback);
@@ -5,35 +5,54 @@ import android.content.ActivityNotFoundException;
 import android.content.ContentResolver;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.provider.CalendarContract;
+import android.provider.CalendarContract.Calendars;
 import android.text.TextUtils;
+import android.util.Log;
 import android.widget.Toast;
 
+import androidx.appcompat.app.AlertDialog;
+
 import com.android.calendar.event.EditEventActivity;
 import com.android.calendar.event.ExtendedProperty;
 import com.android.calendar.icalendar.Attendee;
+import com.android.calendar.icalendar.CalendarImporter;
 import com.android.calendar.icalendar.IcalendarUtils;
-import com.android.calendar.icalendar.VCalendar;
+import com.android.calendar.icalendar.ImportReport;
 import com.android.calendar.icalendar.VEvent;
+import com.android.calendar.icalendar.VEventReader;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
-import java.io.File;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.TimeZone;
 
 import ws.xsoh.etar.R;
 
 public class ImportActivity extends Activity {
 
+    private static final String TAG = "ImportActivity";
+
+    private static final String[] CALENDARS_PROJECTION = new String[] {
+            Calendars._ID,
+            Calendars.CALENDAR_DISPLAY_NAME,
+            Calendars.ACCOUNT_NAME,
+    };
+
+    private static final String CALENDARS_WHERE_WRITEABLE_VISIBLE =
+            Calendars.CALENDAR_ACCESS_LEVEL + ">=" + Calendars.CAL_ACCESS_CONTRIBUTOR + " AND "
+                    + Calendars.VISIBLE + "=1";
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -67,31 +86,15 @@ public class ImportActivity extends Activity {
             // This is a pretty hacky workaround to prevent exact parsing of VTimezones.
             // It assumes the TZID to be refered to with one of the names recognizable by Java.
             // (which are quite a lot, see e.g. http://tutorials.jenkov.com/java-date-time/java-util-timezone.html)
-            if (Arrays.asList(TimeZone.getAvailableIDs()).contains(timeZone)) {
-                format.setTimeZone(TimeZone.getTimeZone(timeZone));
-            }
-            else {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                    String convertedTimeZoneId = android.icu.util.TimeZone
-                            .getIDForWindowsID(timeZone, "001");
-                    if (convertedTimeZoneId != null && !convertedTimeZoneId.isEmpty()) {
-                        format.setTimeZone(TimeZone.getTimeZone(convertedTimeZoneId));
-                    }
-                    else {
-                        format.setTimeZone(TimeZone.getDefault());
-                        Toast.makeText(
-                                this,
-                                getString(R.string.cal_import_error_time_zone_msg, timeZone),
-                                Toast.LENGTH_SHORT).show();
-                    }
-                }
-                else {
-                    format.setTimeZone(TimeZone.getDefault());
-                    Toast.makeText(
-                            this,
-                            getString(R.string.cal_import_error_time_zone_msg, timeZone),
-                            Toast.LENGTH_SHORT).show();
-                }
+            String timeZoneId = CalendarImporter.resolveTimezone(timeZone);
+            if (timeZoneId != null) {
+                format.setTimeZone(TimeZone.getTimeZone(timeZoneId));
+            } else {
+                format.setTimeZone(TimeZone.getDefault());
+                Toast.makeText(
+                        this,
+                        getString(R.string.cal_import_error_time_zone_msg, timeZone),
+                        Toast.LENGTH_SHORT).show();
             }
             try {
                 format.parse(iCalDate);
@@ -135,23 +138,39 @@ public class ImportActivity extends Activity {
 
     private void parseCalFile() {
         Uri uri = getIntent().getData();
-        VCalendar calendar = IcalendarUtils.readCalendarFromFile(this, uri);
-
-        if (calendar == null) {
+        VEvent firstEvent;
+        boolean hasMoreEvents;
+        try (VEventReader reader = IcalendarUtils.openEventReader(this, uri)) {
+            if (reader == null) {
+                showErrorToast();
+                return;
+            }
+            firstEvent = reader.next();
+            hasMoreEvents = firstEvent != null && reader.next() != null;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read " + uri, e);
             showErrorToast();
             return;
         }
 
-        Intent calIntent = new Intent(Intent.ACTION_INSERT);
-        calIntent.setType("vnd.android.cursor.item/event");
-
-        LinkedList<VEvent> events = calendar.getAllEvents();
-        if (events == null) {
+        if (firstEvent == null) {
             showErrorToast();
             return;
         }
+        if (hasMoreEvents) {
+            chooseCalendar(uri);
+        } else {
+            showEvent(firstEvent);
+        }
+    }
+
+    /**
+     * Opens a single event in the editor, read-only, so the user can look at it before saving.
+     */
+    private void showEvent(VEvent firstEvent) {
+        Intent calIntent = new Intent(Intent.ACTION_INSERT);
+        calIntent.setType("vnd.android.cursor.item/event");
 
-        VEvent firstEvent = calendar.getAllEvents().getFirst();
         calIntent.putExtra(CalendarContract.Events.TITLE,
                 IcalendarUtils.uncleanseString(firstEvent.getProperty(VEvent.SUMMARY)));
         calIntent.putExtra(CalendarContract.Events.EVENT_LOCATION,
@@ -218,6 +237,118 @@ public class ImportActivity extends Activity {
         }
     }
 
+    /**
+     * Asks which calendar to import a file with several events into.
+     */
+    private void chooseCalendar(final Uri uri) {
+        final ArrayList<Long> ids = new ArrayList<>();
+        ArrayList<String> names = new ArrayList<>();
+        try (Cursor cursor = getContentResolver().query(Calendars.CONTENT_URI,
+                CALENDARS_PROJECTION, CALENDARS_WHERE_WRITEABLE_VISIBLE, null,
+                Calendars.CALENDAR_DISPLAY_NAME)) {
+            while (cursor != null && cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                String name = cursor.getString(1);
+                String account = cursor.getString(2);
+                names.add(TextUtils.isEmpty(account) || account.equals(name)
+                        ? name : name + " (" + account + ")");
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Cannot read calendars", e);
+        }
+        if (ids.isEmpty()) {
+            Toast.makeText(this, R.string.cal_import_no_calendar, Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.cal_import_choose_calendar)
+                .setItems(names.toArray(new String[0]), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        new ImportTask(uri, ids.get(which)).execute();
+                    }
+                })
+                .setOnCancelListener(new DialogInterface.OnCancelListener() {
+                    @Override
+                    public void onCancel(DialogInterface dialog) {
+                        finish();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Streams all events of a file into a calendar, showing how many were imported so far.
+     */
+    private class ImportTask extends AsyncTask<Void, Integer, Integer>
+            implements CalendarImporter.ProgressListener {
+        private final Uri mUri;
+        private final long mCalendarId;
+        private AlertDialog mProgressDialog;
+
+        ImportTask(Uri uri, long calendarId) {
+            mUri = uri;
+            mCalendarId = calendarId;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mProgressDialog = new MaterialAlertDialogBuilder(ImportActivity.this)
+                    .setTitle(R.string.cal_import_progress_title)
+                    .setMessage(getResources().getQuantityString(
+                            R.plurals.cal_import_progress, 0, 0))
+                    .setCancelable(false)
+                    .show();
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            CalendarImporter importer = new CalendarImporter(getContentResolver(), mCalendarId);
+            try (VEventReader reader = IcalendarUtils.openEventReader(ImportActivity.this,
+                    mUri)) {
+                if (reader == null) {
+                    return -1;
+                }
+                ImportReport report = importer.importEvents(reader, this);
+                Log.i(TAG, "Imported " + mUri + ": " + report);
+                for (String rejection : report.getRejections()) {
+                    Log.w(TAG, "Rejected " + rejection);
+                }
+                return report.getImportedCount();
+            } catch (IOException | RemoteException | OperationApplicationException
+                    | RuntimeException e) {
+                // RuntimeExceptions include a malformed file and a missing permission
+                Log.e(TAG, "Importing " + mUri + " failed", e);
+                return -1;
+            }
+        }
+
+        @Override
+        public void onProgress(int imported) {
+            publishProgress(imported);
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mProgressDialog.setMessage(getResources().getQuantityString(
+                    R.plurals.cal_import_progress, values[0], values[0]));
+        }
+
+        @Override
+        protected void onPostExecute(Integer imported) {
+            mProgressDialog.dismiss();
+            if (imported < 0) {
+                showErrorToast();
+                return;
+            }
+            Toast.makeText(ImportActivity.this, getResources().getQuantityString(
+                    R.plurals.cal_import_done, imported, imported), Toast.LENGTH_LONG).show();
+            finish();
+        }
+    }
+
     private boolean isTimeStartOfDay(String dtStart, String dtStartParam) {
         // convert to epoch milli seconds
         long timeStamp = getLocalTimeFromString(dtStart, dtStartParam);
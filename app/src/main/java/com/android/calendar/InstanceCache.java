@@ -0,0 +1,295 @@
+package com.android.calendar;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.CalendarContract;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A process-wide cache of the instances shown by the day, week and month views, indexed by
+ * Julian day.
+ *
+ * The cache keeps one contiguous range of days per "hide declined" variant, stored as
+ * {@link EventBlock}s. A request that is fully covered by the cached range is answered with a
+ * slice of the cached events. A request that overlaps or touches the cached range only queries
+ * the provider for the missing days at its edges and merges them in. Anything else replaces
+ * the cached range.
+ *
+ * The cache is dropped whenever the calendar provider reports a change, the home time zone
+ * changes, or {@link #invalidate()} is called.
+ *
+ * All loading methods block on the provider and must not be called from the UI thread.
+ */
+public class InstanceCache {
+
+    private static final String TAG = "InstanceCache";
+    private static final boolean DEBUG = false;
+
+    /**
+     * The largest number of days kept per variant. When a merge would grow the cached range
+     * beyond this, the days furthest from the request are dropped first.
+     */
+    private static final int MAX_CACHED_DAYS = 120;
+
+    private static InstanceCache sInstance;
+
+    private final Context mContext;
+    private final Range[] mRanges = new Range[2];
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+    private boolean mObserverRegistered;
+
+    private InstanceCache(Context context) {
+        mContext = context;
+    }
+
+    public static synchronized InstanceCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new InstanceCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Drops every cached instance. Loads that are in flight when this is called will not
+     * store their results.
+     */
+    public void invalidate() {
+        synchronized (mRanges) {
+            mGeneration.incrementAndGet();
+            mRanges[0] = null;
+            mRanges[1] = null;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "invalidated");
+        }
+    }
+
+    /**
+     * Fills <i>events</i> with the instances between <i>startDay</i> and <i>endDay</i>
+     * (inclusive), timed events first and then all-day events, each in the provider's sort
+     * order. The returned events are copies and may be modified freely by the caller.
+     *
+     * @return false if the load was abandoned because a more recent request is waiting
+     */
+    public boolean loadEvents(ArrayList<Event> events, int startDay, int endDay,
+            boolean hideDeclined, int requestId, AtomicInteger sequenceNumber) {
+        Range range = loadRange(startDay, endDay, hideDeclined, requestId, sequenceNumber);
+        if (range == null) {
+            return false;
+        }
+        range.slice(startDay, endDay, events);
+        return true;
+    }
+
+    /**
+     * Same as {@link #loadEvents(ArrayList, int, int, boolean, int, AtomicInteger)}, but fills
+     * a block with the rows of the instances instead of creating an Event for each.
+     */
+    public boolean loadEvents(EventBlock block, int startDay, int endDay,
+            boolean hideDeclined, int requestId, AtomicInteger sequenceNumber) {
+        Range range = loadRange(startDay, endDay, hideDeclined, requestId, sequenceNumber);
+        if (range == null) {
+            return false;
+        }
+        range.slice(startDay, endDay, block);
+        return true;
+    }
+
+    /**
+     * Returns a cached range covering startDay..endDay, loading the missing days first. The
+     * range is not changed once it is cached, so it can be read without holding the lock.
+     *
+     * @return null if the load was abandoned because a more recent request is waiting
+     */
+    private Range loadRange(int startDay, int endDay, boolean hideDeclined, int requestId,
+            AtomicInteger sequenceNumber) {
+        registerObserverIfNeeded();
+        final String timeZone = Utils.getTimeZone(mContext, null);
+        final int variant = hideDeclined ? 1 : 0;
+
+        while (true) {
+            final int generation;
+            final Range cached;
+            synchronized (mRanges) {
+                generation = mGeneration.get();
+                cached = mRanges[variant];
+                if (cached != null && cached.covers(startDay, endDay, timeZone)) {
+                    if (DEBUG) {
+                        Log.d(TAG, "hit " + startDay + "-" + endDay);
+                    }
+                    return cached;
+                }
+            }
+
+            final Range range;
+            if (cached != null && cached.canExtendTo(startDay, endDay, timeZone)) {
+                range = cached.trimmedCopy(startDay, endDay);
+                if (startDay < range.firstDay && !Event.queryEvents(mContext, range.timed,
+                        range.allDay, startDay, range.firstDay - 1, hideDeclined, requestId,
+                        sequenceNumber)) {
+                    return null;
+                }
+                if (endDay > range.lastDay && !Event.queryEvents(mContext, range.timed,
+                        range.allDay, range.lastDay + 1, endDay, hideDeclined, requestId,
+                        sequenceNumber)) {
+                    return null;
+                }
+                range.firstDay = Math.min(startDay, range.firstDay);
+                range.lastDay = Math.max(endDay, range.lastDay);
+                range.sortAndRemoveDuplicates();
+                if (DEBUG) {
+                    Log.d(TAG, "merged " + startDay + "-" + endDay + " into "
+                            + range.firstDay + "-" + range.lastDay);
+                }
+            } else {
+                range = new Range(startDay, endDay, timeZone);
+                if (!Event.queryEvents(mContext, range.timed, range.allDay, startDay, endDay,
+                        hideDeclined, requestId, sequenceNumber)) {
+                    return null;
+                }
+                if (DEBUG) {
+                    Log.d(TAG, "miss " + startDay + "-" + endDay);
+                }
+            }
+
+            synchronized (mRanges) {
+                if (generation != mGeneration.get()) {
+                    // The provider changed while we were querying, start over.
+                    continue;
+                }
+                mRanges[variant] = range;
+                return range;
+            }
+        }
+    }
+
+    private void registerObserverIfNeeded() {
+        synchronized (mRanges) {
+            if (mObserverRegistered) {
+                return;
+            }
+            mObserverRegistered = true;
+        }
+        mContext.getContentResolver().registerContentObserver(CalendarContract.CONTENT_URI,
+                true, mObserver);
+    }
+
+    /**
+     * A contiguous range of cached days with its timed and all-day events kept in
+     * separate, sorted blocks.
+     */
+    private static class Range {
+        final String timeZone;
+        final EventBlock timed;
+        final EventBlock allDay;
+        int firstDay;
+        int lastDay;
+
+        Range(int firstDay, int lastDay, String timeZone) {
+            this(firstDay, lastDay, timeZone, new EventBlock(), new EventBlock());
+        }
+
+        Range(int firstDay, int lastDay, String timeZone, EventBlock timed, EventBlock allDay) {
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+            this.timeZone = timeZone;
+            this.timed = timed;
+            this.allDay = allDay;
+        }
+
+        boolean covers(int startDay, int endDay, String tz) {
+            return TextUtils.equals(timeZone, tz) && startDay >= firstDay && endDay <= lastDay;
+        }
+
+        boolean canExtendTo(int startDay, int endDay, String tz) {
+            // Adjacent ranges can be merged as well as overlapping ones
+            return TextUtils.equals(timeZone, tz) && startDay <= lastDay + 1
+                    && endDay >= firstDay - 1;
+        }
+
+        /**
+         * Returns a copy of this range that can be extended to cover startDay..endDay without
+         * exceeding MAX_CACHED_DAYS. Days furthest from the requested range are dropped.
+         */
+        Range trimmedCopy(int startDay, int endDay) {
+            int first = firstDay;
+            int last = lastDay;
+            if (Math.max(last, endDay) - Math.min(first, startDay) + 1 > MAX_CACHED_DAYS) {
+                if (startDay < first) {
+                    last = Math.max(endDay, Math.min(last, startDay + MAX_CACHED_DAYS - 1));
+                } else {
+                    first = Math.min(startDay, Math.max(first, endDay - MAX_CACHED_DAYS + 1));
+                }
+            }
+            return new Range(first, last, timeZone, timed.filter(first, last),
+                    allDay.filter(first, last));
+        }
+
+        /**
+         * Events that span the boundary between the cached days and the newly queried days
+         * are returned by both queries, so they are removed after sorting.
+         */
+        void sortAndRemoveDuplicates() {
+            timed.sortAndRemoveDuplicates(EventBlock.ORDER_BY_BEGIN);
+            allDay.sortAndRemoveDuplicates(EventBlock.ORDER_BY_DAY);
+        }
+
+        /**
+         * Creates events for the rows that intersect startDay..endDay in out, timed events
+         * first.
+         */
+        void slice(int startDay, int endDay, ArrayList<Event> out) {
+            out.clear();
+            // Timed events are shorter than a day (longer ones are in allDay), so only events
+            // starting on the day before startDay can reach into the range.
+            int from = timed.firstRowStartingOnOrAfter(startDay - 1);
+            int to = timed.firstRowStartingOnOrAfter(endDay + 1);
+            for (int i = from; i < to; i++) {
+                if (timed.getEndDay(i) >= startDay) {
+                    out.add(timed.getEvent(i));
+                }
+            }
+            to = allDay.firstRowStartingOnOrAfter(endDay + 1);
+            for (int i = 0; i < to; i++) {
+                if (allDay.getEndDay(i) >= startDay) {
+                    out.add(allDay.getEvent(i));
+                }
+            }
+        }
+
+        /**
+         * Copies the rows that intersect startDay..endDay to out, timed events first.
+         */
+        void slice(int startDay, int endDay, EventBlock out) {
+            out.clear();
+            int from = timed.firstRowStartingOnOrAfter(startDay - 1);
+            int to = timed.firstRowStartingOnOrAfter(endDay + 1);
+            for (int i = from; i < to; i++) {
+                if (timed.getEndDay(i) >= startDay) {
+                    out.addRow(timed, i);
+                }
+            }
+            to = allDay.firstRowStartingOnOrAfter(endDay + 1);
+            for (int i = 0; i < to; i++) {
+                if (allDay.getEndDay(i) >= startDay) {
+                    out.addRow(allDay, i);
+                }
+            }
+        }
+    }
+}
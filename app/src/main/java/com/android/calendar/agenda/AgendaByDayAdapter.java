@@ -42,8 +42,8 @@ import ws.xsoh.etar.R;
 
 public class AgendaByDayAdapter extends BaseAdapter {
     static final int TYPE_LAST = 2;
-    private static final int TYPE_DAY = 0;
-    private static final int TYPE_MEETING = 1;
+    static final int TYPE_DAY = 0;
+    static final int TYPE_MEETING = 1;
     private final Context mContext;
     private final AgendaAdapter mAgendaAdapter;
     private final LayoutInflater mInflater;
@@ -51,6 +51,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
     private final Formatter mFormatter;
     private final StringBuilder mStringBuilder;
     private ArrayList<RowInfo> mRowInfo;
+    private AgendaRowIndex mRowIndex;
     private int mTodayJulianDay;
     private Time mTmpTime;
     private String mTimeZone;
@@ -92,13 +93,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
         if (mRowInfo == null || position >= mRowInfo.size()) {
             return -1;
         }
-
-        for (int i = position; i >=0; i --) {
-            RowInfo row = mRowInfo.get(i);
-            if (row != null && row.mType == TYPE_DAY)
-                return i;
-        }
-        return -1;
+        return mRowIndex.getHeaderPosition(position);
     }
 
     // Returns the number of items in a section defined by a specific header location
@@ -106,14 +101,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
         if (mRowInfo == null) {
             return -1;
         }
-        int count = 0;
-        for (int i = position +1; i < mRowInfo.size(); i++) {
-            if (mRowInfo.get(i).mType != TYPE_MEETING) {
-                return count;
-            }
-            count ++;
-        }
-        return count;
+        return mRowIndex.getHeaderItemsCount(position);
     }
 
     @Override
@@ -280,22 +268,33 @@ public class AgendaByDayAdapter extends BaseAdapter {
 
     public void clearDayHeaderInfo() {
         mRowInfo = null;
+        mRowIndex = null;
     }
 
-    public void changeCursor(DayAdapterInfo info) {
-        calculateDays(info);
+    /**
+     * Switches the adapter to the cursor of the given info and the rows computed from it by
+     * {@link #calculateDays}, in one step on the UI thread.
+     */
+    public void changeCursor(DayAdapterInfo info, DayRows dayRows) {
+        mRowInfo = dayRows.mRows;
+        mRowIndex = dayRows.mIndex;
+        mTodayJulianDay = dayRows.mTodayJulianDay;
         mAgendaAdapter.changeCursor(info.cursor);
     }
 
-    public void calculateDays(DayAdapterInfo dayAdapterInfo) {
-        Cursor cursor = dayAdapterInfo.cursor;
+    /**
+     * Computes the day header and event rows of the cursor for the days from start to end.
+     * Does not touch the adapter, so that it can run off the UI thread while the cursor is not
+     * shown yet.
+     */
+    static DayRows calculateDays(Cursor cursor, int start, int end, String timeZone) {
         ArrayList<RowInfo> rowInfo = new ArrayList<RowInfo>();
         int prevStartDay = -1;
 
-        Time tempTime = new Time(mTimeZone);
+        Time tempTime = new Time(timeZone);
         long now = System.currentTimeMillis();
         tempTime.set(now);
-        mTodayJulianDay = Time.getJulianDay(now, tempTime.getGmtOffset());
+        final int todayJulianDay = Time.getJulianDay(now, tempTime.getGmtOffset());
 
         LinkedList<MultipleDayInfo> multipleDayList = new LinkedList<MultipleDayInfo>();
         for (int position = 0; cursor.moveToNext(); position++) {
@@ -306,11 +305,11 @@ public class AgendaByDayAdapter extends BaseAdapter {
             long instanceId = cursor.getLong(AgendaWindowAdapter.INDEX_INSTANCE_ID);
             boolean allDay = cursor.getInt(AgendaWindowAdapter.INDEX_ALL_DAY) != 0;
             if (allDay) {
-                startTime = Utils.convertAlldayUtcToLocal(null, startTime, mTimeZone);
-                endTime = Utils.convertAlldayUtcToLocal(null, endTime, mTimeZone);
+                startTime = Utils.convertAlldayUtcToLocal(null, startTime, timeZone);
+                endTime = Utils.convertAlldayUtcToLocal(null, endTime, timeZone);
             }
             // Skip over the days outside of the adapter's range
-            startDay = Math.max(startDay, dayAdapterInfo.start);
+            startDay = Math.max(startDay, start);
             // Make sure event's start time is not before the start of the day
             // (setJulianDay sets the time to 12:00am)
             long adapterStartTime = tempTime.setJulianDay(startDay);
@@ -344,7 +343,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
                                 dayHeaderAdded = true;
                             }
                             long nextMidnight = Utils.getNextMidnight(tempTime,
-                                    info.mEventStartTimeMilli, mTimeZone);
+                                    info.mEventStartTimeMilli, timeZone);
 
                             long infoEndTime = (info.mEndDay == currentDay) ?
                                     info.mEventEndTimeMilli : nextMidnight;
@@ -370,9 +369,9 @@ public class AgendaByDayAdapter extends BaseAdapter {
             int endDay = cursor.getInt(AgendaWindowAdapter.INDEX_END_DAY);
 
             // Skip over the days outside of the adapter's range
-            endDay = Math.min(endDay, dayAdapterInfo.end);
+            endDay = Math.min(endDay, end);
             if (endDay > startDay) {
-                long nextMidnight = Utils.getNextMidnight(tempTime, startTime, mTimeZone);
+                long nextMidnight = Utils.getNextMidnight(tempTime, startTime, timeZone);
                 multipleDayList.add(new MultipleDayInfo(position, endDay, id, nextMidnight,
                         endTime, instanceId, allDay));
                 // Add in the event for this cursor position - since it is the start of a multi-day
@@ -389,7 +388,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
         // There are no more cursor events but we might still have multiple-day
         // events left.  So create day headers and events for those.
         if (prevStartDay > 0) {
-            for (int currentDay = prevStartDay + 1; currentDay <= dayAdapterInfo.end;
+            for (int currentDay = prevStartDay + 1; currentDay <= end;
                     currentDay++) {
                 boolean dayHeaderAdded = false;
                 Iterator<MultipleDayInfo> iter = multipleDayList.iterator();
@@ -409,7 +408,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
                         dayHeaderAdded = true;
                     }
                     long nextMidnight = Utils.getNextMidnight(tempTime, info.mEventStartTimeMilli,
-                            mTimeZone);
+                            timeZone);
                     long infoEndTime =
                             (info.mEndDay == currentDay) ? info.mEventEndTimeMilli : nextMidnight;
                     rowInfo.add(new RowInfo(TYPE_MEETING, currentDay, info.mPosition,
@@ -420,10 +419,10 @@ public class AgendaByDayAdapter extends BaseAdapter {
                 }
             }
         }
-        mRowInfo = rowInfo;
-        if (mTodayJulianDay >= dayAdapterInfo.start && mTodayJulianDay <=  dayAdapterInfo.end) {
-            insertTodayRowIfNeeded();
+        if (todayJulianDay >= start && todayJulianDay <= end) {
+            insertTodayRowIfNeeded(rowInfo, todayJulianDay);
         }
+        return new DayRows(rowInfo, todayJulianDay);
     }
 
     /**
@@ -442,92 +441,16 @@ public class AgendaByDayAdapter extends BaseAdapter {
             return 0;
         }
         long millis = time.toMillis();
-        long minDistance =  Integer.MAX_VALUE;  // some big number
-        long idFoundMinDistance =  Integer.MAX_VALUE;  // some big number
-        int minIndex = 0;
-        int idFoundMinIndex = 0;
-        int eventInTimeIndex = -1;
-        int allDayEventInTimeIndex = -1;
-        int allDayEventDay = 0;
-        int minDay = 0;
-        boolean idFound = false;
-        int len = mRowInfo.size();
         int julianDay = Time.getJulianDay(millis, time.getGmtOffset());
-        int dayIndex = -1;
 
-        // Loop through the events and find the best match
+        // The best match, in order of preference:
         // 1. Event id and start time matches requested id and time
         // 2. Event id matches and closest time
         // 3. No event id match , time matches a all day event (midnight)
         // 4. No event id match , time is between event start and end
         // 5. No event id match , all day event
         // 6. The closest event to the requested time
-
-        for (int index = 0; index < len; index++) {
-            RowInfo row = mRowInfo.get(index);
-            if (row.mType == TYPE_DAY) {
-                // if we don't find a better matching event we will use the day
-                if (row.mDay == julianDay) {
-                    dayIndex = index;
-                }
-                continue;
-            }
-
-            // Found exact match - done
-            if (row.mEventId == id) {
-                if (row.mEventStartTimeMilli == millis) {
-                    return index;
-                }
-
-                // Not an exact match, Save event index if it is the closest to time so far
-                long distance = Math.abs(millis - row.mEventStartTimeMilli);
-                if (distance < idFoundMinDistance) {
-                    idFoundMinDistance = distance;
-                    idFoundMinIndex = index;
-                }
-                idFound = true;
-            }
-            if (!idFound) {
-                // Found an event that contains the requested time
-                if (millis >= row.mEventStartTimeMilli && millis <= row.mEventEndTimeMilli) {
-                    if (row.mAllDay) {
-                        if (allDayEventInTimeIndex == -1) {
-                            allDayEventInTimeIndex = index;
-                            allDayEventDay = row.mDay;
-                        }
-                    } else if (eventInTimeIndex == -1){
-                        eventInTimeIndex = index;
-                    }
-                } else if (eventInTimeIndex == -1){
-                    // Save event index if it is the closest to time so far
-                    long distance = Math.abs(millis - row.mEventStartTimeMilli);
-                    if (distance < minDistance) {
-                        minDistance = distance;
-                        minIndex = index;
-                        minDay = row.mDay;
-                    }
-                }
-            }
-        }
-        // We didn't find an exact match so take the best matching event
-        // Closest event with the same id
-        if (idFound) {
-            return idFoundMinIndex;
-        }
-        // prefer an exact day match (might be the dummy today one)
-        if (dayIndex != -1) {
-            return dayIndex;
-        }
-        // Event which occurs at the searched time
-        if (eventInTimeIndex != -1) {
-            return eventInTimeIndex;
-        // All day event which occurs at the same day of the searched time as long as there is
-        // no regular event at the same day
-        } else if (allDayEventInTimeIndex != -1 && minDay != allDayEventDay) {
-            return allDayEventInTimeIndex;
-        }
-        // Closest event
-        return minIndex;
+        return mRowIndex.findEventPositionNearestTime(millis, julianDay, id);
     }
 
     /**
@@ -559,13 +482,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
         int len = mRowInfo.size();
         if (position >= len) return 0;  // no row info at this position
 
-        for (int index = position; index >= 0; index--) {
-            RowInfo row = mRowInfo.get(index);
-            if (row.mType == TYPE_DAY) {
-                return row.mDay;
-            }
-        }
-        return 0;
+        return mRowIndex.findJulianDay(position);
     }
 
     /**
@@ -630,7 +547,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
         boolean grayed;
     }
 
-    private static class RowInfo {
+    static class RowInfo {
         // mType is either a day header (TYPE_DAY) or an event (TYPE_MEETING)
         final int mType;
 
@@ -672,6 +589,22 @@ public class AgendaByDayAdapter extends BaseAdapter {
         }
     }
 
+    /**
+     * The rows computed by {@link #calculateDays}, with their index. Not modified once built,
+     * except for {@link RowInfo#mFirstDayAfterYesterday} on the UI thread.
+     */
+    static final class DayRows {
+        final ArrayList<RowInfo> mRows;
+        final AgendaRowIndex mIndex;
+        final int mTodayJulianDay;
+
+        DayRows(ArrayList<RowInfo> rows, int todayJulianDay) {
+            mRows = rows;
+            mIndex = new AgendaRowIndex(rows);
+            mTodayJulianDay = todayJulianDay;
+        }
+    }
+
     private static class MultipleDayInfo {
         final int mPosition;
         final int mEndDay;
@@ -693,17 +626,17 @@ public class AgendaByDayAdapter extends BaseAdapter {
         }
     }
 
-    public void insertTodayRowIfNeeded() {
-        int len = mRowInfo.size();
+    private static void insertTodayRowIfNeeded(ArrayList<RowInfo> rowInfo, int todayJulianDay) {
+        int len = rowInfo.size();
         int lastDay = -1;
         int insertIndex = -1;
 
         for (int index = 0; index < len; index++) {
-            RowInfo row = mRowInfo.get(index);
-            if (row.mDay == mTodayJulianDay) {
+            RowInfo row = rowInfo.get(index);
+            if (row.mDay == todayJulianDay) {
                 return;
             }
-            if (row.mDay > mTodayJulianDay && lastDay < mTodayJulianDay) {
+            if (row.mDay > todayJulianDay && lastDay < todayJulianDay) {
                 insertIndex = index;
                 break;
             }
@@ -711,9 +644,9 @@ public class AgendaByDayAdapter extends BaseAdapter {
         }
 
         if (insertIndex != -1) {
-            mRowInfo.add(insertIndex, new RowInfo(TYPE_DAY, mTodayJulianDay));
+            rowInfo.add(insertIndex, new RowInfo(TYPE_DAY, todayJulianDay));
         } else {
-            mRowInfo.add(new RowInfo(TYPE_DAY, mTodayJulianDay));
+            rowInfo.add(new RowInfo(TYPE_DAY, todayJulianDay));
         }
     }
 }
@@ -445,6 +445,10 @@ public class AgendaFragment extends Fragment implements CalendarController.Event
     @Override
     public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
             int totalItemCount) {
+        if (mAdapter != null) {
+            mAdapter.onScroll(firstVisibleItem - mAgendaListView.getHeaderViewsCount(),
+                    visibleItemCount);
+        }
         int julianDay = mAgendaListView.getJulianDayFromPosition(firstVisibleItem
                 - mAgendaListView.getHeaderViewsCount());
         // On error - leave the old view
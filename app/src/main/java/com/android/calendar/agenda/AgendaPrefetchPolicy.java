@@ -0,0 +1,156 @@
+package com.android.calendar.agenda;
+
+/**
+ * Decides when the agenda queries for more days and how many, from how fast and in which
+ * direction the list scrolls.
+ *
+ * The scroll velocity, in rows per second, is smoothed over the onScroll callbacks and reset
+ * when the list comes to rest. A query is issued once the rows left before an edge would be
+ * scrolled through within the lead time: twice the smoothed latency of the last queries, so that
+ * the rows arrive before the user does. A query in the direction of travel asks for as many rows
+ * as will be scrolled through in {@link #LOOKAHEAD_MILLIS}, if that is more than the ideal
+ * count.
+ *
+ * The number of early queries issued and of times the user reached an edge before its rows
+ * were loaded are counted.
+ */
+class AgendaPrefetchPolicy {
+
+    static final int DIRECTION_OLDER = -1;
+    static final int DIRECTION_NONE = 0;
+    static final int DIRECTION_NEWER = 1;
+
+    // Rows needed to be scrolled through in this time are asked for in one query
+    static final long LOOKAHEAD_MILLIS = 4000;
+    private static final long MIN_LEAD_MILLIS = 250;
+    private static final long INITIAL_LATENCY_MILLIS = 300;
+    // Callbacks further apart than this are not part of one motion
+    private static final long MAX_SAMPLE_MILLIS = 500;
+
+    private final int mIdealRowCount;
+    private final int mMinBoundary;
+
+    private float mVelocity;
+    private int mLastFirstVisible = -1;
+    private long mLastScrollTime;
+    private long mLatency = INITIAL_LATENCY_MILLIS;
+
+    private int mPrefetchCount;
+    private int mEdgeCount;
+    private int mLastEdgeDirection = DIRECTION_NONE;
+    private int mLastEdgeRowCount = -1;
+
+    /**
+     * @param idealRowCount the rows a query asks for when the list is not scrolling
+     * @param minBoundary the rows from an edge at which a query is issued anyway
+     */
+    AgendaPrefetchPolicy(int idealRowCount, int minBoundary) {
+        mIdealRowCount = idealRowCount;
+        mMinBoundary = minBoundary;
+    }
+
+    /**
+     * Samples the velocity when the first visible row changes.
+     */
+    void onScroll(int firstVisible, long now) {
+        if (firstVisible == mLastFirstVisible) {
+            return;
+        }
+        long elapsed = now - mLastScrollTime;
+        if (mLastFirstVisible >= 0 && elapsed > 0 && elapsed <= MAX_SAMPLE_MILLIS) {
+            float velocity = (firstVisible - mLastFirstVisible) * 1000f / elapsed;
+            mVelocity = (mVelocity + velocity) / 2;
+        } else if (mLastFirstVisible < 0 || elapsed > MAX_SAMPLE_MILLIS) {
+            mVelocity = 0;
+        }
+        mLastFirstVisible = firstVisible;
+        mLastScrollTime = now;
+    }
+
+    /**
+     * Forgets the motion, when the list comes to rest or jumps to a position.
+     */
+    void onScrollIdle() {
+        mVelocity = 0;
+        mLastFirstVisible = -1;
+    }
+
+    /**
+     * Moves the last position sampled along with the rows, when rows were added or removed
+     * before it.
+     */
+    void onRowsShifted(int offset) {
+        if (mLastFirstVisible >= 0) {
+            mLastFirstVisible += offset;
+        }
+    }
+
+    void onQueryCompleted(long latencyMillis) {
+        mLatency = (mLatency + latencyMillis) / 2;
+    }
+
+    /**
+     * Returns the direction of travel, or {@link #DIRECTION_NONE} when the list is about still.
+     */
+    int getDirection() {
+        if (mVelocity >= 1) {
+            return DIRECTION_NEWER;
+        } else if (mVelocity <= -1) {
+            return DIRECTION_OLDER;
+        }
+        return DIRECTION_NONE;
+    }
+
+    /**
+     * Returns the number of rows from an edge at which a query for the rows beyond it is due,
+     * given the direction the edge is in.
+     */
+    int getBoundary(int direction) {
+        if (direction != getDirection()) {
+            return mMinBoundary;
+        }
+        long lead = Math.max(MIN_LEAD_MILLIS, 2 * mLatency);
+        return Math.max(mMinBoundary, (int) (Math.abs(mVelocity) * lead / 1000));
+    }
+
+    /**
+     * Returns the number of rows a query for the days in the given direction should ask for.
+     */
+    int getIdealRowCount(int direction) {
+        if (direction != getDirection()) {
+            return mIdealRowCount;
+        }
+        return Math.max(mIdealRowCount, (int) (Math.abs(mVelocity) * LOOKAHEAD_MILLIS / 1000));
+    }
+
+    void onPrefetch() {
+        mPrefetchCount++;
+    }
+
+    /**
+     * Counts reaching the edge in the given direction while the list is scrolling and the rows
+     * beyond it are not loaded. The edge of a given size is counted once.
+     */
+    void onEdgeReached(int direction, int rowCount) {
+        if (direction == mLastEdgeDirection && rowCount == mLastEdgeRowCount) {
+            return;
+        }
+        mLastEdgeDirection = direction;
+        mLastEdgeRowCount = rowCount;
+        mEdgeCount++;
+    }
+
+    int getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    int getEdgeCount() {
+        return mEdgeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "AgendaPrefetchPolicy [velocity=" + mVelocity + ", latency=" + mLatency
+                + ", prefetches=" + mPrefetchCount + ", edgesReached=" + mEdgeCount + "]";
+    }
+}
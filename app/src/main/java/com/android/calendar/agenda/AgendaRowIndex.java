@@ -0,0 +1,266 @@
+package com.android.calendar.agenda;
+
+import com.android.calendar.agenda.AgendaByDayAdapter.RowInfo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorted indexes over the rows of an {@link AgendaByDayAdapter}, built once per
+ * {@link AgendaByDayAdapter#calculateDays} so that the lookups done on every goTo and refresh
+ * are binary searches rather than walks over all rows.
+ *
+ * Three indexes are kept in primitive arrays:
+ * <ul>
+ * <li>the day headers, by row, which also orders them by Julian day</li>
+ * <li>the events by start time, then row</li>
+ * <li>the events by event id, then start time, then row</li>
+ * </ul>
+ * The lookups return exactly what the linear scans of the adapter returned, including how ties
+ * were broken: among equally good rows the first one wins.
+ */
+class AgendaRowIndex {
+
+    private final List<RowInfo> mRows;
+
+    private final int[] mHeaderRows;
+    private final int[] mHeaderDays;
+
+    private final int[] mStartRows;
+    private final long[] mStarts;
+
+    private final int[] mIdRows;
+    private final long[] mIds;
+    private final long[] mIdStarts;
+
+    // No event row lasts longer than this, which bounds the rows that may contain a time
+    private final long mMaxDuration;
+
+    AgendaRowIndex(final List<RowInfo> rows) {
+        mRows = rows;
+        final int size = rows.size();
+        int headers = 0;
+        for (int i = 0; i < size; i++) {
+            if (rows.get(i).mType == AgendaByDayAdapter.TYPE_DAY) {
+                headers++;
+            }
+        }
+
+        mHeaderRows = new int[headers];
+        mHeaderDays = new int[headers];
+        Integer[] events = new Integer[size - headers];
+        long maxDuration = 0;
+        for (int i = 0, h = 0, e = 0; i < size; i++) {
+            RowInfo row = rows.get(i);
+            if (row.mType == AgendaByDayAdapter.TYPE_DAY) {
+                mHeaderRows[h] = i;
+                mHeaderDays[h++] = row.mDay;
+            } else {
+                events[e++] = i;
+                maxDuration = Math.max(maxDuration,
+                        row.mEventEndTimeMilli - row.mEventStartTimeMilli);
+            }
+        }
+        mMaxDuration = maxDuration;
+
+        // Rows are already ascending, so a stable sort keeps them in row order among equals
+        Arrays.sort(events, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(rows.get(a).mEventStartTimeMilli,
+                        rows.get(b).mEventStartTimeMilli);
+            }
+        });
+        mStartRows = new int[events.length];
+        mStarts = new long[events.length];
+        for (int i = 0; i < events.length; i++) {
+            mStartRows[i] = events[i];
+            mStarts[i] = rows.get(events[i]).mEventStartTimeMilli;
+        }
+
+        Arrays.sort(events, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(rows.get(a).mEventId, rows.get(b).mEventId);
+            }
+        });
+        mIdRows = new int[events.length];
+        mIds = new long[events.length];
+        mIdStarts = new long[events.length];
+        for (int i = 0; i < events.length; i++) {
+            RowInfo row = rows.get(events[i]);
+            mIdRows[i] = events[i];
+            mIds[i] = row.mEventId;
+            mIdStarts[i] = row.mEventStartTimeMilli;
+        }
+    }
+
+    /**
+     * Returns the row of the day header the given row falls under, or -1 if there is none.
+     */
+    int getHeaderPosition(int position) {
+        int i = upperBound(mHeaderRows, position) - 1;
+        return i >= 0 ? mHeaderRows[i] : -1;
+    }
+
+    /**
+     * Returns the number of event rows that follow the given row up to the next day header.
+     */
+    int getHeaderItemsCount(int position) {
+        int i = upperBound(mHeaderRows, position);
+        int next = i < mHeaderRows.length ? mHeaderRows[i] : mRows.size();
+        return Math.max(0, next - position - 1);
+    }
+
+    /**
+     * Returns the Julian day of the day header the given row falls under, or 0 if there is
+     * none.
+     */
+    int findJulianDay(int position) {
+        int i = upperBound(mHeaderRows, position) - 1;
+        return i >= 0 ? mHeaderDays[i] : 0;
+    }
+
+    /**
+     * See {@link AgendaByDayAdapter#findEventPositionNearestTime}.
+     *
+     * @param julianDay the Julian day of millis
+     */
+    int findEventPositionNearestTime(long millis, int julianDay, long id) {
+        // 1. Event id and start time matches requested id and time
+        // 2. Event id matches and closest time
+        final int idFrom = lowerBound(mIds, 0, mIds.length, id);
+        final int idTo = upperBound(mIds, idFrom, mIds.length, id);
+        if (idFrom < idTo) {
+            int i = lowerBound(mIdStarts, idFrom, idTo, millis);
+            if (i < idTo && mIdStarts[i] == millis) {
+                return mIdRows[i];
+            }
+            long minDistance = Integer.MAX_VALUE;
+            int minIndex = 0;
+            if (i > idFrom) {
+                // The first row of the closest earlier start
+                int before = lowerBound(mIdStarts, idFrom, i, mIdStarts[i - 1]);
+                minDistance = millis - mIdStarts[before];
+                minIndex = mIdRows[before];
+            }
+            if (i < idTo) {
+                long distance = mIdStarts[i] - millis;
+                if (distance < minDistance || (distance == minDistance && mIdRows[i] < minIndex)) {
+                    minDistance = distance;
+                    minIndex = mIdRows[i];
+                }
+            }
+            return minDistance < Integer.MAX_VALUE ? minIndex : 0;
+        }
+
+        // prefer an exact day match (might be the dummy today one)
+        int day = upperBound(mHeaderDays, julianDay) - 1;
+        if (day >= 0 && mHeaderDays[day] == julianDay) {
+            return mHeaderRows[day];
+        }
+
+        // 3. No event id match , time matches a all day event (midnight)
+        // 4. No event id match , time is between event start and end
+        final int after = upperBound(mStarts, 0, mStarts.length, millis);
+        final int window = lowerBound(mStarts, 0, after, millis - mMaxDuration);
+        int eventInTimeIndex = -1;
+        int allDayEventInTimeIndex = -1;
+        int allDayEventDay = 0;
+        for (int i = window; i < after; i++) {
+            int index = mStartRows[i];
+            RowInfo row = mRows.get(index);
+            if (millis <= row.mEventEndTimeMilli) {
+                if (!row.mAllDay) {
+                    if (eventInTimeIndex == -1 || index < eventInTimeIndex) {
+                        eventInTimeIndex = index;
+                    }
+                } else if (allDayEventInTimeIndex == -1 || index < allDayEventInTimeIndex) {
+                    allDayEventInTimeIndex = index;
+                    allDayEventDay = row.mDay;
+                }
+            }
+        }
+        if (eventInTimeIndex != -1) {
+            return eventInTimeIndex;
+        }
+
+        // 6. The closest event to the requested time, among the events not containing it
+        long minDistance = Integer.MAX_VALUE;
+        int minIndex = 0;
+        int minDay = 0;
+        boolean found = false;
+        for (int i = after - 1; i >= 0; i--) {
+            if (found && mStarts[i] != mStarts[i + 1]) {
+                break;
+            }
+            RowInfo row = mRows.get(mStartRows[i]);
+            if (row.mEventEndTimeMilli < millis) {
+                // Equal starts are walked from the last row, so the first row is kept
+                found = true;
+                minDistance = millis - mStarts[i];
+                minIndex = mStartRows[i];
+                minDay = row.mDay;
+            }
+        }
+        if (after < mStarts.length) {
+            long distance = mStarts[after] - millis;
+            if (distance < minDistance
+                    || (distance == minDistance && mStartRows[after] < minIndex)) {
+                minDistance = distance;
+                minIndex = mStartRows[after];
+                minDay = mRows.get(minIndex).mDay;
+            }
+        }
+        if (minDistance >= Integer.MAX_VALUE) {
+            minIndex = 0;
+            minDay = 0;
+        }
+
+        // 5. No event id match , all day event which occurs at the same day of the searched
+        // time as long as there is no regular event at the same day
+        if (allDayEventInTimeIndex != -1 && minDay != allDayEventDay) {
+            return allDayEventInTimeIndex;
+        }
+        return minIndex;
+    }
+
+    private static int upperBound(int[] a, int key) {
+        int low = 0;
+        int high = a.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (a[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(long[] a, int low, int high, long key) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (a[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(long[] a, int low, int high, long key) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (a[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
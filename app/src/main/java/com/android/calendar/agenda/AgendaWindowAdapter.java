@@ -25,6 +25,7 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
@@ -45,6 +46,7 @@ import com.android.calendar.CalendarController.EventType;
 import com.android.calendar.CalendarController.ViewType;
 import com.android.calendar.StickyHeaderListView;
 import com.android.calendar.Utils;
+import com.android.calendar.agenda.AgendaByDayAdapter.DayRows;
 import com.android.calendar.calendarcommon2.Time;
 
 import java.util.Date;
@@ -53,6 +55,8 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import ws.xsoh.etar.R;
 
@@ -135,6 +139,8 @@ public class AgendaWindowAdapter extends BaseAdapter
     private static final int QUERY_TYPE_OLDER = 0; // Query for older events
     private static final int QUERY_TYPE_NEWER = 1; // Query for newer events
     private static final int QUERY_TYPE_CLEAN = 2; // Delete everything and query around a date
+    // Computes the rows of new cursors, for all agenda views
+    private static final ExecutorService sDayRowsExecutor = Executors.newSingleThreadExecutor();
 
 
     private final Context mContext;
@@ -160,6 +166,8 @@ public class AgendaWindowAdapter extends BaseAdapter
             notifyDataSetChanged();
         }
     };
+    private final AgendaPrefetchPolicy mPrefetchPolicy =
+            new AgendaPrefetchPolicy(IDEAL_NUM_OF_EVENTS, PREFETCH_BOUNDARY);
     private final int mSelectedItemBackgroundColor;
     private final int mSelectedItemTextColor;
     private final float mItemRightMargin;
@@ -343,18 +351,26 @@ public class AgendaWindowAdapter extends BaseAdapter
 
     // Abstract Method in BaseAdapter
     public View getView(int position, View convertView, ViewGroup parent) {
-        if (position >= (mRowCount - PREFETCH_BOUNDARY)
-                && mNewerRequests <= mNewerRequestsProcessed) {
-            if (DEBUGLOG) Log.e(TAG, "queryForNewerEvents: ");
-            mNewerRequests++;
-            queueQuery(new QuerySpec(QUERY_TYPE_NEWER));
+        if (position >= (mRowCount - PREFETCH_BOUNDARY)) {
+            if (mListViewScrollState != OnScrollListener.SCROLL_STATE_IDLE) {
+                mPrefetchPolicy.onEdgeReached(AgendaPrefetchPolicy.DIRECTION_NEWER, mRowCount);
+            }
+            if (mNewerRequests <= mNewerRequestsProcessed) {
+                if (DEBUGLOG) Log.e(TAG, "queryForNewerEvents: ");
+                mNewerRequests++;
+                queueQuery(new QuerySpec(QUERY_TYPE_NEWER));
+            }
         }
 
-        if (position < PREFETCH_BOUNDARY
-                && mOlderRequests <= mOlderRequestsProcessed) {
-            if (DEBUGLOG) Log.e(TAG, "queryForOlderEvents: ");
-            mOlderRequests++;
-            queueQuery(new QuerySpec(QUERY_TYPE_OLDER));
+        if (position < PREFETCH_BOUNDARY) {
+            if (mListViewScrollState != OnScrollListener.SCROLL_STATE_IDLE) {
+                mPrefetchPolicy.onEdgeReached(AgendaPrefetchPolicy.DIRECTION_OLDER, mRowCount);
+            }
+            if (mOlderRequests <= mOlderRequestsProcessed) {
+                if (DEBUGLOG) Log.e(TAG, "queryForOlderEvents: ");
+                mOlderRequests++;
+                queueQuery(new QuerySpec(QUERY_TYPE_OLDER));
+            }
         }
 
         final View v;
@@ -597,6 +613,7 @@ public class AgendaWindowAdapter extends BaseAdapter
                 if (gotoPosition > 0) {
                     mAgendaListView.setSelectionFromTop(gotoPosition +
                             OFF_BY_ONE_BUG, mStickyHeaderSize);
+                    mPrefetchPolicy.onScrollIdle();
                     if (mListViewScrollState == OnScrollListener.SCROLL_STATE_FLING) {
                         mAgendaListView.smoothScrollBy(0, 0);
                     }
@@ -647,6 +664,9 @@ public class AgendaWindowAdapter extends BaseAdapter
     }
 
     public void close() {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "close: " + mPrefetchPolicy);
+        }
         mShuttingDown = true;
         pruneAdapterInfo(QUERY_TYPE_CLEAN);
         if (mQueryHandler != null) {
@@ -732,10 +752,12 @@ public class AgendaWindowAdapter extends BaseAdapter
         }
     }
 
-    private int calculateQueryDuration(int start, int end) {
+    private int calculateQueryDuration(int start, int end, int direction) {
         int queryDuration = MAX_QUERY_DURATION;
         if (mRowCount != 0) {
-            queryDuration = IDEAL_NUM_OF_EVENTS * (end - start + 1) / mRowCount;
+            // Ask for more days when the user scrolls fast towards them
+            queryDuration = mPrefetchPolicy.getIdealRowCount(direction) * (end - start + 1)
+                    / mRowCount;
         }
 
         if (queryDuration > MAX_QUERY_DURATION) {
@@ -778,7 +800,10 @@ public class AgendaWindowAdapter extends BaseAdapter
         if (!mAdapterInfos.isEmpty()) {
             int start = mAdapterInfos.getFirst().start;
             int end = mAdapterInfos.getLast().end;
-            int queryDuration = calculateQueryDuration(start, end);
+            int queryDuration = calculateQueryDuration(start, end,
+                    queryData.queryType == QUERY_TYPE_OLDER
+                            ? AgendaPrefetchPolicy.DIRECTION_OLDER
+                            : AgendaPrefetchPolicy.DIRECTION_NEWER);
             switch(queryData.queryType) {
                 case QUERY_TYPE_OLDER:
                     queryData.end = start - 1;
@@ -822,7 +847,7 @@ public class AgendaWindowAdapter extends BaseAdapter
         }
 
         mQueryHandler.cancelOperation(0);
-        if (BASICLOG) queryData.queryStartMillis = System.nanoTime();
+        queryData.queryStartMillis = SystemClock.uptimeMillis();
 
         Uri queryUri = buildQueryUri(
                 queryData.start, queryData.end, queryData.searchQuery);
@@ -958,6 +983,43 @@ public class AgendaWindowAdapter extends BaseAdapter
 
     public void setScrollState(int state) {
         mListViewScrollState = state;
+        if (state == OnScrollListener.SCROLL_STATE_IDLE) {
+            mPrefetchPolicy.onScrollIdle();
+        }
+    }
+
+    /**
+     * Follows the scrolling of the list, to query for the days beyond an edge early enough
+     * that they are loaded when the user gets there.
+     *
+     * @param firstVisible the position of the first visible row, list headers excluded
+     * @param visibleCount the number of visible rows
+     */
+    public void onScroll(int firstVisible, int visibleCount) {
+        mPrefetchPolicy.onScroll(firstVisible, SystemClock.uptimeMillis());
+        if (mRowCount == 0 || mShuttingDown) {
+            return;
+        }
+
+        int lastVisible = firstVisible + visibleCount - 1;
+        if (lastVisible >= mRowCount
+                - mPrefetchPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_NEWER)
+                && mNewerRequests <= mNewerRequestsProcessed) {
+            if (lastVisible < mRowCount - PREFETCH_BOUNDARY) {
+                mPrefetchPolicy.onPrefetch();
+            }
+            mNewerRequests++;
+            queueQuery(new QuerySpec(QUERY_TYPE_NEWER));
+        }
+
+        if (firstVisible < mPrefetchPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_OLDER)
+                && mOlderRequests <= mOlderRequestsProcessed) {
+            if (firstVisible >= PREFETCH_BOUNDARY) {
+                mPrefetchPolicy.onPrefetch();
+            }
+            mOlderRequests++;
+            queueQuery(new QuerySpec(QUERY_TYPE_OLDER));
+        }
     }
 
     private static class QuerySpec {
@@ -1088,9 +1150,9 @@ public class AgendaWindowAdapter extends BaseAdapter
             }
 
             if (BASICLOG) {
-                long queryEndMillis = System.nanoTime();
+                long queryEndMillis = SystemClock.uptimeMillis();
                 Log.e(TAG, "Query time(ms): "
-                        + (queryEndMillis - data.queryStartMillis) / 1000000
+                        + (queryEndMillis - data.queryStartMillis)
                         + " Count: " + cursor.getCount());
             }
 
@@ -1103,15 +1165,60 @@ public class AgendaWindowAdapter extends BaseAdapter
                 return;
             }
 
-            // Notify Listview of changes and update position
             int cursorSize = cursor.getCount();
             if (cursorSize > 0 || mAdapterInfos.isEmpty() || data.queryType == QUERY_TYPE_CLEAN) {
-                final int listPositionOffset = processNewCursor(data, cursor);
+                calculateDaysInBackground(data, cursor);
+            } else {
+                onDayRowsReady(data, cursor, null);
+            }
+        }
+
+        /**
+         * Computes the rows of a new cursor off the UI thread, since 60 days of a dense
+         * calendar are thousands of rows, then goes on with {@link #onDayRowsReady} on the UI
+         * thread. No other query runs meanwhile: the next one is started by onDayRowsReady.
+         */
+        private void calculateDaysInBackground(final QuerySpec data, final Cursor cursor) {
+            final String timeZone = mTimeZone;
+            sDayRowsExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final DayRows dayRows = AgendaByDayAdapter.calculateDays(cursor, data.start,
+                            data.end, timeZone);
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onDayRowsReady(data, cursor, dayRows);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Shows the cursor of a completed query and starts the next query.
+         *
+         * @param dayRows the rows computed from the cursor, or null if the cursor is empty and
+         *            not shown
+         */
+        private void onDayRowsReady(QuerySpec data, Cursor cursor, DayRows dayRows) {
+            if (mShuttingDown) {
+                cursor.close();
+                return;
+            }
+
+            mPrefetchPolicy.onQueryCompleted(SystemClock.uptimeMillis() - data.queryStartMillis);
+
+            // Notify Listview of changes and update position
+            int cursorSize = cursor.getCount();
+            if (dayRows != null) {
+                final int listPositionOffset = processNewCursor(data, cursor, dayRows);
                 int newPosition = -1;
                 if (data.goToTime == null) { // Typical Scrolling type query
                     notifyDataSetChanged();
                     if (listPositionOffset != 0) {
                         mAgendaListView.shiftSelection(listPositionOffset);
+                        mPrefetchPolicy.onRowsShifted(listPositionOffset);
                     }
                 } else { // refresh() called. Go to the designated position
                     final Time goToTime = data.goToTime;
@@ -1123,6 +1230,7 @@ public class AgendaWindowAdapter extends BaseAdapter
                         }
                         mAgendaListView.setSelectionFromTop(newPosition + OFF_BY_ONE_BUG,
                                 mStickyHeaderSize);
+                        mPrefetchPolicy.onScrollIdle();
                         Time actualTime = new Time(mTimeZone);
                         actualTime.set(goToTime);
                         if (DEBUGLOG) {
@@ -1343,7 +1451,7 @@ public class AgendaWindowAdapter extends BaseAdapter
          *
          * @return number of rows removed from the beginning
          */
-        private int processNewCursor(QuerySpec data, Cursor cursor) {
+        private int processNewCursor(QuerySpec data, Cursor cursor, DayRows dayRows) {
             synchronized (mAdapterInfos) {
                 // Remove adapter info's from adapterInfos as needed
                 DayAdapterInfo info = pruneAdapterInfo(data.queryType);
@@ -1361,7 +1469,7 @@ public class AgendaWindowAdapter extends BaseAdapter
                 info.start = data.start;
                 info.end = data.end;
                 info.cursor = cursor;
-                info.dayAdapter.changeCursor(info);
+                info.dayAdapter.changeCursor(info, dayRows);
                 info.size = info.dayAdapter.getCount();
 
                 // Insert into adapterInfos
@@ -21,16 +21,19 @@ import android.annotation.TargetApi;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.RemoteException;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.CalendarAlerts;
@@ -103,6 +106,8 @@ public class AlertService {
     private static final String DISMISS_OLD_SELECTION = CalendarAlerts.END + "<? AND "
             + CalendarAlerts.STATE + "=?";
     private static final int MINUTE_MS = 60 * 1000;
+    // The largest number of alert rows updated in one provider transaction
+    private static final int ALERT_UPDATE_BATCH_SIZE = 100;
     // The grace period before changing a notification's priority bucket.
     private static final int MIN_DEPRIORITIZE_GRACE_PERIOD_MS = 15 * MINUTE_MS;
     // Shared prefs key for storing whether the EVENT_REMINDER event from the provider
@@ -204,12 +209,16 @@ public class AlertService {
         ArrayList<NotificationInfo> highPriorityEvents = new ArrayList<NotificationInfo>();
         ArrayList<NotificationInfo> mediumPriorityEvents = new ArrayList<NotificationInfo>();
         ArrayList<NotificationInfo> lowPriorityEvents = new ArrayList<NotificationInfo>();
+        // The alert state changes are written once the notifications are posted
+        ArrayList<ContentProviderOperation> alertUpdates =
+                new ArrayList<ContentProviderOperation>();
         int numFired = processQuery(alertCursor, context, currentTime, highPriorityEvents,
-                mediumPriorityEvents, lowPriorityEvents);
+                mediumPriorityEvents, lowPriorityEvents, alertUpdates);
 
         if (highPriorityEvents.size() + mediumPriorityEvents.size()
                 + lowPriorityEvents.size() == 0) {
             nm.cancelAll();
+            applyAlertUpdates(context, alertUpdates);
             return true;
         }
 
@@ -321,12 +330,35 @@ public class AlertService {
             Log.e(TAG, "Illegal state: next notification refresh time found to be in the past.");
         }
 
+        applyAlertUpdates(context, alertUpdates);
+
         // Flushes old fired alerts from internal storage, if needed.
         AlertUtils.flushOldAlertsFromInternalStorage(context);
 
         return true;
     }
 
+    /**
+     * Writes the alert state changes collected by processQuery in transactions of at most
+     * ALERT_UPDATE_BATCH_SIZE rows, rather than one provider call per alert.
+     */
+    static void applyAlertUpdates(Context context,
+            ArrayList<ContentProviderOperation> alertUpdates) {
+        ContentResolver cr = context.getContentResolver();
+        for (int start = 0; start < alertUpdates.size(); start += ALERT_UPDATE_BATCH_SIZE) {
+            int end = Math.min(start + ALERT_UPDATE_BATCH_SIZE, alertUpdates.size());
+            try {
+                cr.applyBatch(CalendarContract.AUTHORITY,
+                        new ArrayList<ContentProviderOperation>(alertUpdates.subList(start, end)));
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(TAG, "Failed to update the state of " + (end - start) + " alerts", e);
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Updated " + alertUpdates.size() + " alerts");
+        }
+    }
+
     /**
      * Redistributes events in the priority lists based on the max # of notifications we
      * can show.
@@ -433,13 +465,16 @@ public class AlertService {
      * @param mediumPriorityEvents This will contain concurrent events that started
      *     more than DEPRIORITIZE_GRACE_PERIOD_MS ago.
      * @param lowPriorityEvents Will contain events that have ended.
+     * @param alertUpdates Will contain the updates of the alert rows whose state changed, to be
+     *     written with {@link #applyAlertUpdates(Context, ArrayList)}.
      * @return Returns the number of new alerts to fire.  If this is 0, it implies
      *     a quiet update.
      */
     static int processQuery(final Cursor alertCursor, final Context context,
             final long currentTime, ArrayList<NotificationInfo> highPriorityEvents,
             ArrayList<NotificationInfo> mediumPriorityEvents,
-            ArrayList<NotificationInfo> lowPriorityEvents) {
+            ArrayList<NotificationInfo> lowPriorityEvents,
+            ArrayList<ContentProviderOperation> alertUpdates) {
         // Experimental reminder setting to only remind for events that have
         // been responded to with "yes" or "maybe".
         String skipRemindersPref = Utils.getSharedPreference(context,
@@ -451,7 +486,6 @@ public class AlertService {
                 getStringArray(R.array.preferences_skip_reminders_values)[1]);
         Time time = new Time();
 
-        ContentResolver cr = context.getContentResolver();
         HashMap<Long, NotificationInfo> eventIds = new HashMap<Long, NotificationInfo>();
         int numFired = 0;
         try {
@@ -581,8 +615,12 @@ public class AlertService {
                     values.put(CalendarAlerts.NOTIFY_TIME, currentTime);
                 }
 
-                // Write row to if anything changed
-                if (values.size() > 0) cr.update(alertUri, values, null, null);
+                // Queue the row update if anything changed
+                if (values.size() > 0) {
+                    alertUpdates.add(ContentProviderOperation.newUpdate(alertUri)
+                            .withValues(values)
+                            .build());
+                }
 
                 if (state != CalendarAlerts.STATE_FIRED) {
                     continue;
@@ -831,9 +869,13 @@ public class AlertService {
     }
 
 
-    public static void handleAction(Context context, String action) {
+    /**
+     * Handles actions that were coalesced into one pass by {@link AlertWorkScheduler}.  The
+     * notifications are refreshed and the next alarm is scheduled once for all of them.
+     */
+    public static void handleActions(Context context, List<String> actions) {
         if (DEBUG) {
-            Log.d(TAG, "Handling action: " + action);
+            Log.d(TAG, "Handling actions: " + actions);
         }
 
         if (sReceivedProviderReminderBroadcast == null) {
@@ -841,44 +883,60 @@ public class AlertService {
                     PROVIDER_REMINDER_PREF_KEY, false);
         }
 
-        // Some OEMs had changed the provider's EVENT_REMINDER broadcast to their own event,
-        // which broke our unbundled app's reminders.  So we added backup alarm scheduling to the
-        // app, but we know we can turn it off if we ever receive the EVENT_REMINDER broadcast.
-        boolean providerReminder = action.equals(
-                android.provider.CalendarContract.ACTION_EVENT_REMINDER);
-        if (providerReminder) {
-            if (!sReceivedProviderReminderBroadcast) {
-                sReceivedProviderReminderBroadcast = true;
-                Log.d(TAG, "Setting key " + PROVIDER_REMINDER_PREF_KEY + " to: true");
-                Utils.setSharedPreference(context, PROVIDER_REMINDER_PREF_KEY, true);
+        boolean updateNotifications = false;
+        boolean providerChanged = false;
+        boolean appReminder = false;
+        boolean timeChanged = false;
+        boolean dismissOld = false;
+        for (String action : actions) {
+            if (action.equals(android.provider.CalendarContract.ACTION_EVENT_REMINDER)) {
+                // Some OEMs had changed the provider's EVENT_REMINDER broadcast to their own
+                // event, which broke our unbundled app's reminders.  So we added backup alarm
+                // scheduling to the app, but we know we can turn it off if we ever receive the
+                // EVENT_REMINDER broadcast.
+                if (!sReceivedProviderReminderBroadcast) {
+                    sReceivedProviderReminderBroadcast = true;
+                    Log.d(TAG, "Setting key " + PROVIDER_REMINDER_PREF_KEY + " to: true");
+                    Utils.setSharedPreference(context, PROVIDER_REMINDER_PREF_KEY, true);
+                }
+                updateNotifications = true;
+            } else if (action.equals(Intent.ACTION_PROVIDER_CHANGED)) {
+                providerChanged = true;
+                updateNotifications = true;
+            } else if (action.equals(AlertReceiver.EVENT_REMINDER_APP_ACTION)) {
+                appReminder = true;
+            } else if (action.equals(Intent.ACTION_LOCALE_CHANGED)) {
+                updateNotifications = true;
+            } else if (action.equals(Intent.ACTION_TIME_CHANGED)) {
+                timeChanged = true;
+            } else if (action.equals(AlertReceiver.ACTION_DISMISS_OLD_REMINDERS)) {
+                dismissOld = true;
+            } else {
+                Log.w(TAG, "Invalid action: " + action);
             }
         }
+        if (appReminder && !Boolean.TRUE.equals(sReceivedProviderReminderBroadcast)) {
+            updateNotifications = true;
+        }
 
-        if (providerReminder ||
-                action.equals(Intent.ACTION_PROVIDER_CHANGED) ||
-                action.equals(android.provider.CalendarContract.ACTION_EVENT_REMINDER) ||
-                (action.equals(AlertReceiver.EVENT_REMINDER_APP_ACTION) &&
-                !Boolean.TRUE.equals(sReceivedProviderReminderBroadcast)) ||
-                action.equals(Intent.ACTION_LOCALE_CHANGED)) {
-
+        if (dismissOld) {
+            dismissOldAlerts(context);
+        }
+        if (providerChanged) {
+            ReminderIndex.getInstance(context).invalidate();
             // b/7652098: Add a delay after the provider-changed event before refreshing
             // notifications to help issue with the unbundled app installed on HTC having
             // stale notifications.
-            if (action.equals(Intent.ACTION_PROVIDER_CHANGED)) {
-                try {
-                    Thread.sleep(5000);
-                } catch (Exception e) {
-                    // Ignore.
-                }
+            try {
+                Thread.sleep(5000);
+            } catch (Exception e) {
+                // Ignore.
             }
-
-            updateAlertNotification(context);
-        } else if (action.equals(Intent.ACTION_TIME_CHANGED)) {
+        }
+        if (timeChanged) {
             rescheduleAndDisplayTimeChanged(context);
-        } else if (action.equals(AlertReceiver.ACTION_DISMISS_OLD_REMINDERS)) {
-            dismissOldAlerts(context);
-        } else {
-            Log.w(TAG, "Invalid action: " + action);
+        } else if (updateNotifications) {
+            updateAlertNotification(context);
         }
 
         // Scheduling next alarm
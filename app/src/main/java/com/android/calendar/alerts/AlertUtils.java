@@ -36,15 +36,12 @@ import android.text.format.DateUtils;
 import android.util.Log;
 
 import androidx.core.content.ContextCompat;
-import androidx.work.Data;
-import androidx.work.ExistingWorkPolicy;
-import androidx.work.OneTimeWorkRequest;
-import androidx.work.WorkManager;
 
 import com.android.calendar.EventInfoActivity;
 import com.android.calendar.Utils;
 import com.android.calendar.calendarcommon2.Time;
 
+import java.io.File;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
@@ -67,12 +64,15 @@ public class AlertUtils {
     // SharedPrefs table name for storing fired alerts.  This prevents other installed
     // Calendar apps from eating the alerts.
     private static final String ALERTS_SHARED_PREFS_NAME = "calendar_alerts";
-    // Keyname prefix for the alerts data in SharedPrefs.  The key will contain a combo
-    // of event ID, begin time, and alarm time.  The value will be the fired time.
+    // Keyname prefix for the alerts data in SharedPrefs, as stored by older versions.  The key
+    // contains a combo of event ID, begin time, and alarm time.  These keys are moved to the
+    // fired alerts ledger on first use.
     private static final String KEY_FIRED_ALERT_PREFIX = "preference_alert_";
+    // File in the app's files dir holding the fired alerts ledger.
+    private static final String FIRED_ALERTS_FILE_NAME = "fired_alerts";
     // The last time the SharedPrefs was scanned and flushed of old alerts data.
     private static final String KEY_LAST_FLUSH_TIME_MS = "preference_flushTimeMs";
-    // The # of days to save alert states in the shared prefs table, before flushing.  This
+    // The # of days to save alert states in the fired alerts ledger, before flushing.  This
     // can be any value, since AlertService will also check for a recent alertTime before
     // ringing the alert.
     private static final int FLUSH_INTERVAL_DAYS = 1;
@@ -82,6 +82,8 @@ public class AlertUtils {
     // alerts from other apps.
     static boolean BYPASS_DB = true;
 
+    private static FiredAlertLedger sFiredAlerts;
+
     /**
      * Creates an AlarmManagerInterface that wraps a real AlarmManager.  The alarm code
      * was abstracted to an interface to make it testable.
@@ -261,42 +263,73 @@ public class AlertUtils {
         return context.getSharedPreferences(ALERTS_SHARED_PREFS_NAME, Context.MODE_PRIVATE);
     }
 
-    private static String getFiredAlertsKey(long eventId, long beginTime,
-            long alarmTime) {
-        StringBuilder sb = new StringBuilder(KEY_FIRED_ALERT_PREFIX);
-        sb.append(eventId);
-        sb.append("_");
-        sb.append(beginTime);
-        sb.append("_");
-        sb.append(alarmTime);
-        return sb.toString();
+    private static FiredAlertLedger getFiredAlerts(Context context) {
+        synchronized (AlertUtils.class) {
+            if (sFiredAlerts == null) {
+                Context appContext = context.getApplicationContext();
+                sFiredAlerts = new FiredAlertLedger(
+                        new File(appContext.getFilesDir(), FIRED_ALERTS_FILE_NAME));
+                migrateFiredAlerts(appContext, sFiredAlerts);
+            }
+            return sFiredAlerts;
+        }
     }
 
     /**
-     * Returns whether the SharedPrefs storage indicates we have fired the alert before.
+     * Moves the fired alerts kept as SharedPrefs keys by older versions into the ledger.
+     */
+    private static void migrateFiredAlerts(Context context, FiredAlertLedger ledger) {
+        SharedPreferences prefs = getFiredAlertsTable(context);
+        Map<String, ?> all = prefs.getAll();
+        int count = 0;
+        long[] eventIds = new long[all.size()];
+        long[] beginTimes = new long[all.size()];
+        long[] alarmTimes = new long[all.size()];
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key : all.keySet()) {
+            if (!key.startsWith(KEY_FIRED_ALERT_PREFIX)) {
+                continue;
+            }
+            editor.remove(key);
+            // The key is the prefix followed by eventId_beginTime_alarmTime
+            String[] parts = key.substring(KEY_FIRED_ALERT_PREFIX.length()).split("_");
+            try {
+                eventIds[count] = Long.parseLong(parts[0]);
+                beginTimes[count] = Long.parseLong(parts[1]);
+                alarmTimes[count] = Long.parseLong(parts[2]);
+                count++;
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                Log.e(TAG, "Dropping malformed SharedPrefs key " + key);
+            }
+        }
+        if (count > 0) {
+            ledger.addAll(eventIds, beginTimes, alarmTimes, count);
+            if (DEBUG) {
+                Log.d(TAG, "Migrated " + count + " fired alerts from shared prefs table");
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Returns whether we have fired the alert before.
      */
     static boolean hasAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
             long alarmTime) {
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        return prefs.contains(getFiredAlertsKey(eventId, beginTime, alarmTime));
+        return getFiredAlerts(context).contains(eventId, beginTime, alarmTime);
     }
 
     /**
-     * Store fired alert info in the SharedPrefs.
+     * Store fired alert info in the fired alerts ledger.
      */
     static void setAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
             long alarmTime) {
-        // Store alarm time as the value too so we don't have to parse all the keys to flush
-        // old alarms out of the table later.
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putLong(getFiredAlertsKey(eventId, beginTime, alarmTime), alarmTime);
-        editor.apply();
+        getFiredAlerts(context).add(eventId, beginTime, alarmTime);
     }
 
     /**
-     * Scans and flushes the internal storage of old alerts.  Looks up the previous flush
-     * time in SharedPrefs, and performs the flush if overdue.  Otherwise, no-op.
+     * Flushes old alerts from the fired alerts ledger and compacts its file.  Looks up the
+     * previous flush time in SharedPrefs, and performs the flush if overdue.  Otherwise, no-op.
      */
     static void flushOldAlertsFromInternalStorage(Context context) {
         if (BYPASS_DB) {
@@ -306,78 +339,24 @@ public class AlertUtils {
             long nowTime = System.currentTimeMillis();
             long lastFlushTimeMs = prefs.getLong(KEY_LAST_FLUSH_TIME_MS, 0);
             if (nowTime - lastFlushTimeMs > FLUSH_INTERVAL_MS) {
+                int removed = getFiredAlerts(context).removeOlderThan(
+                        nowTime - FLUSH_INTERVAL_MS + 1);
                 if (DEBUG) {
-                    Log.d(TAG, "Flushing old alerts from shared prefs table");
-                }
-
-                // Scan through all fired alert entries, removing old ones.
-                SharedPreferences.Editor editor = prefs.edit();
-                Time timeObj = new Time();
-                for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
-                    String key = entry.getKey();
-                    Object value = entry.getValue();
-                    if (key.startsWith(KEY_FIRED_ALERT_PREFIX)) {
-                        long alertTime;
-                        if (value instanceof Long) {
-                            alertTime = (Long) value;
-                        } else {
-                            // Should never occur.
-                            Log.e(TAG,"SharedPrefs key " + key + " did not have Long value: " +
-                                    value);
-                            continue;
-                        }
-
-                        if (nowTime - alertTime >= FLUSH_INTERVAL_MS) {
-                            editor.remove(key);
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": removed (" + ageInDays +
-                                        " days old)");
-                            }
-                        } else {
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": keep (" + ageInDays +
-                                        " days old)");
-                            }
-                        }
-                    }
+                    Log.d(TAG, "Flushed " + removed + " old alerts from fired alerts ledger");
                 }
-                editor.putLong(KEY_LAST_FLUSH_TIME_MS, nowTime);
-                editor.apply();
+                prefs.edit().putLong(KEY_LAST_FLUSH_TIME_MS, nowTime).apply();
             }
         }
     }
 
-    private static int getIntervalInDays(long startMillis, long endMillis, Time timeObj) {
-        timeObj.set(startMillis);
-        int startDay = Time.getJulianDay(startMillis, timeObj.getGmtOffset());
-        timeObj.set(endMillis);
-        return Time.getJulianDay(endMillis, timeObj.getGmtOffset()) - startDay;
-    }
-
     /**
-     * Queues the AlertWorker with a specific action and a REPLACE policy
+     * Queues the AlertWorker for a specific action, coalesced with the other actions received
+     * within {@link AlertWorkScheduler#DEFAULT_WINDOW_MS}.
      *
      * @param context The application context.
      * @param action The action to be triggered, e.g., Intent.ACTION_TIME_CHANGED.
      */
     public static void scheduleAlertWorker(Context context, String action) {
-        // Create input data for the worker
-        Data inputData = new Data.Builder()
-                .putString(AlertWorker.KEY_ACTION, action)
-                .build();
-
-        // Create a work request
-        OneTimeWorkRequest alertWorkRequest = new OneTimeWorkRequest.Builder(AlertWorker.class)
-                .setInputData(inputData)
-                .addTag("alert_processing_work")
-                .build();
-
-        // Queue work to avoid duplicates
-        WorkManager.getInstance(context).enqueueUniqueWork(
-                "CalendarAlertProcessing",
-                ExistingWorkPolicy.REPLACE,
-                alertWorkRequest);
+        AlertWorkScheduler.schedule(context, action);
     }
 }
@@ -0,0 +1,218 @@
+package com.android.calendar.alerts;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.provider.CalendarContract;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the actions that need an alert processing pass, so that a burst of broadcasts,
+ * such as the PROVIDER_CHANGED broadcasts of a large sync, is handled by one run of
+ * {@link AlertWorker}.
+ *
+ * Each action is a bit of a pending mask kept in SharedPreferences. The first action of a
+ * burst enqueues the unique work with an initial delay of the coalescing window. The actions
+ * received before the worker takes the mask only set their bit. A pass that is already running
+ * is not cancelled: the next one is appended after it. A pass that ends before taking the
+ * mask leaves it pending, either for WorkManager to retry the pass or for the next action to
+ * enqueue a new one.
+ *
+ * The number of actions received, collapsed into a pending pass, and of passes run are counted
+ * for diagnostics.
+ */
+public class AlertWorkScheduler {
+
+    /**
+     * The default time actions are collected for before a pass runs.
+     */
+    public static final long DEFAULT_WINDOW_MS = 2 * DateUtils.SECOND_IN_MILLIS;
+
+    private static final String TAG = "AlertWorkScheduler";
+    private static final String WORK_NAME = "CalendarAlertProcessing";
+    private static final String WORK_TAG = "alert_processing_work";
+    private static final String PREFS_NAME = "calendar_alert_work";
+    private static final String KEY_PENDING_ACTIONS = "pending_actions";
+    private static final String KEY_PENDING_SINCE = "pending_since";
+    private static final String KEY_RECEIVED_COUNT = "received_count";
+    private static final String KEY_COLLAPSED_COUNT = "collapsed_count";
+    private static final String KEY_PASS_COUNT = "pass_count";
+
+    // A pass still pending this long after its window is assumed lost, and enqueued again.
+    static final long STALE_PASS_MS = DateUtils.MINUTE_IN_MILLIS;
+
+    // Bit i of the pending mask stands for ACTIONS[i].  The mask is persisted, so only append.
+    private static final String[] ACTIONS = new String[] {
+            CalendarContract.ACTION_EVENT_REMINDER,
+            Intent.ACTION_PROVIDER_CHANGED,
+            AlertReceiver.EVENT_REMINDER_APP_ACTION,
+            Intent.ACTION_LOCALE_CHANGED,
+            Intent.ACTION_TIME_CHANGED,
+            AlertReceiver.ACTION_DISMISS_OLD_REMINDERS,
+    };
+
+    /**
+     * Schedules a pass for the action within {@link #DEFAULT_WINDOW_MS}.
+     */
+    public static void schedule(Context context, String action) {
+        schedule(context, action, DEFAULT_WINDOW_MS);
+    }
+
+    /**
+     * Adds the action to the pending pass, or enqueues a pass to run after the given window if
+     * none is pending.
+     */
+    public static synchronized void schedule(Context context, String action, long windowMs) {
+        if (getActionBit(action) < 0) {
+            Log.w(TAG, "Invalid action: " + action);
+            return;
+        }
+        if (addPendingAction(getPrefs(context), action, windowMs, System.currentTimeMillis())) {
+            OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(AlertWorker.class)
+                    .setInitialDelay(windowMs, TimeUnit.MILLISECONDS)
+                    .addTag(WORK_TAG)
+                    .build();
+            // Append so that a running pass finishes, the new one picks up what it missed.
+            WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME,
+                    ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+        } else if (AlertService.DEBUG) {
+            Log.d(TAG, "Collapsed " + action + " into the pending pass");
+        }
+    }
+
+    /**
+     * Sets the bit of the action in the pending mask. Returns whether a pass has to be
+     * enqueued for it: when no pass is pending, when the pending one was released by
+     * {@link #releasePendingPass}, or when it is still pending well after its window.
+     */
+    static boolean addPendingAction(SharedPreferences prefs, String action, long windowMs,
+            long now) {
+        int pending = prefs.getInt(KEY_PENDING_ACTIONS, 0);
+        long pendingSince = prefs.getLong(KEY_PENDING_SINCE, 0);
+        boolean enqueue = pending == 0 || pendingSince == 0
+                || Math.abs(now - pendingSince) > windowMs + STALE_PASS_MS;
+
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putInt(KEY_PENDING_ACTIONS, pending | (1 << getActionBit(action)));
+        editor.putLong(KEY_RECEIVED_COUNT, prefs.getLong(KEY_RECEIVED_COUNT, 0) + 1);
+        if (enqueue) {
+            editor.putLong(KEY_PENDING_SINCE, now);
+        } else {
+            editor.putLong(KEY_COLLAPSED_COUNT, prefs.getLong(KEY_COLLAPSED_COUNT, 0) + 1);
+        }
+        editor.apply();
+        return enqueue;
+    }
+
+    /**
+     * Returns the pending actions and clears them, so that the actions received from now on
+     * enqueue a new pass.
+     */
+    static synchronized List<String> takePendingActions(Context context) {
+        List<String> actions = takePendingActions(getPrefs(context));
+        if (AlertService.DEBUG) {
+            Log.d(TAG, "Pass " + getPassCount(context) + " takes " + actions + ", "
+                    + getCollapsedCount(context) + " of " + getReceivedCount(context)
+                    + " actions collapsed so far");
+        }
+        return actions;
+    }
+
+    static List<String> takePendingActions(SharedPreferences prefs) {
+        int pending = prefs.getInt(KEY_PENDING_ACTIONS, 0);
+        prefs.edit()
+                .putInt(KEY_PENDING_ACTIONS, 0)
+                .putLong(KEY_PASS_COUNT, prefs.getLong(KEY_PASS_COUNT, 0) + 1)
+                .apply();
+
+        ArrayList<String> actions = new ArrayList<String>();
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if ((pending & (1 << i)) != 0) {
+                actions.add(ACTIONS[i]);
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Puts back actions taken by a pass that failed and will be retried.
+     */
+    static synchronized void restorePendingActions(Context context, List<String> actions) {
+        restorePendingActions(getPrefs(context), actions);
+    }
+
+    static void restorePendingActions(SharedPreferences prefs, List<String> actions) {
+        int pending = prefs.getInt(KEY_PENDING_ACTIONS, 0);
+        for (String action : actions) {
+            int bit = getActionBit(action);
+            if (bit >= 0) {
+                pending |= 1 << bit;
+            }
+        }
+        prefs.edit().putInt(KEY_PENDING_ACTIONS, pending).apply();
+    }
+
+    /**
+     * Called by a pass that ended before taking the pending actions. The actions stay pending,
+     * for the pass if WorkManager runs it again, and the next action enqueues a new pass
+     * instead of joining this one.
+     */
+    static synchronized void releasePendingPass(Context context) {
+        releasePendingPass(getPrefs(context));
+    }
+
+    static void releasePendingPass(SharedPreferences prefs) {
+        prefs.edit().putLong(KEY_PENDING_SINCE, 0).apply();
+    }
+
+    /**
+     * Returns the number of actions scheduled.
+     */
+    public static long getReceivedCount(Context context) {
+        return getReceivedCount(getPrefs(context));
+    }
+
+    static long getReceivedCount(SharedPreferences prefs) {
+        return prefs.getLong(KEY_RECEIVED_COUNT, 0);
+    }
+
+    /**
+     * Returns the number of actions that joined an already pending pass.
+     */
+    public static long getCollapsedCount(Context context) {
+        return getCollapsedCount(getPrefs(context));
+    }
+
+    static long getCollapsedCount(SharedPreferences prefs) {
+        return prefs.getLong(KEY_COLLAPSED_COUNT, 0);
+    }
+
+    /**
+     * Returns the number of passes run.
+     */
+    public static long getPassCount(Context context) {
+        return getPrefs(context).getLong(KEY_PASS_COUNT, 0);
+    }
+
+    private static int getActionBit(String action) {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (ACTIONS[i].equals(action)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
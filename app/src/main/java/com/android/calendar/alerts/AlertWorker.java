@@ -15,6 +15,7 @@ import androidx.work.WorkerParameters;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
@@ -89,6 +90,7 @@ public class AlertWorker extends ListenableWorker {
                 try {
                     if (isStopped()) { // Check if work is already stopped
                         Log.i(TAG, "Work cancelled before starting foreground service.");
+                        AlertWorkScheduler.releasePendingPass(getApplicationContext());
                         completer.set(Result.failure());
                         return;
                     }
@@ -110,13 +112,15 @@ public class AlertWorker extends ListenableWorker {
 
                         } catch (Throwable e) {
                             Log.e(TAG, "Failed to set worker to foreground or foregrounding was cancelled.", e);
-                            completer.set(Result.failure());
+                            // The pending actions were not taken, the retry handles them
+                            completer.set(Result.retry());
                         }
                     }, mBackgroundExecutor);
 
                 } catch (Throwable e) {
                     Log.e(TAG, "Failed to obtain ForegroundInfo. Worker cannot start in foreground.", e);
-                    completer.set(Result.failure());
+                    // The pending actions were not taken, the retry handles them
+                    completer.set(Result.retry());
                 }
             }, mBackgroundExecutor); // Run listener on background executor
 
@@ -140,22 +144,29 @@ public class AlertWorker extends ListenableWorker {
         mBackgroundExecutor.execute(() -> {
             if (isStopped()) {
                 Log.i(TAG, "Work cancelled before actual work execution.");
+                AlertWorkScheduler.releasePendingPass(getApplicationContext());
                 completer.set(Result.failure());
                 return;
             }
 
             Log.d(TAG, "Performing actual alert processing work.");
+            Context context = getApplicationContext();
+            List<String> actions = AlertWorkScheduler.takePendingActions(context);
+            // Work enqueued by an older version carries its action
             String action = getInputData().getString(AlertWorker.KEY_ACTION);
-            if (TextUtils.isEmpty(action)) {
-                Log.e(TAG, "Missing action in input data for AlertWorker.");
-                completer.set(Result.failure());
+            if (!TextUtils.isEmpty(action) && !actions.contains(action)) {
+                actions.add(action);
+            }
+            if (actions.isEmpty()) {
+                Log.d(TAG, "No pending alert actions, already handled by an earlier pass.");
+                completer.set(Result.success());
                 return;
             }
 
             try {
                 // Delegate the entire logic to the static AlertService class
-                AlertService.handleAction(getApplicationContext(), action);
-                Log.d(TAG, "Alert action '" + action + "' processed successfully.");
+                AlertService.handleActions(context, actions);
+                Log.d(TAG, "Alert actions " + actions + " processed successfully.");
                 if (!isStopped()) {
                     completer.set(Result.success());
                 } else {
@@ -163,11 +174,13 @@ public class AlertWorker extends ListenableWorker {
                     completer.set(Result.failure());
                 }
             } catch (Exception e) {
-                Log.e(TAG, "Error while processing alert action: " + action, e);
+                Log.e(TAG, "Error while processing alert actions: " + actions, e);
+                AlertWorkScheduler.restorePendingActions(context, actions);
                 if (!isStopped()) {
                     completer.set(Result.retry());
                 } else {
                     Log.i(TAG, "Work cancelled during actual work execution after an error.");
+                    AlertWorkScheduler.releasePendingPass(context);
                     completer.set(Result.failure());
                 }
             }
@@ -180,6 +193,8 @@ public class AlertWorker extends ListenableWorker {
         Log.i(TAG, "onStopped called for AlertWorker. Attempting to interrupt background work.");
         CallbackToFutureAdapter.Completer<Result> completer = mWorkCompleter.getAndSet(null);
         if (completer != null) {
+            // Actions not taken yet stay pending for the next pass
+            AlertWorkScheduler.releasePendingPass(getApplicationContext());
             completer.set(Result.failure());
         }
         mBackgroundExecutor.shutdownNow();
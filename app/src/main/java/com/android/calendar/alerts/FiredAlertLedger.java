@@ -0,0 +1,235 @@
+package com.android.calendar.alerts;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The set of alerts that were fired, kept so that an alert is not fired again when the
+ * provider re-inserts it.
+ *
+ * An alert is identified by its (event id, begin time, alarm time). The alerts are held in an
+ * open-addressing hash table and stored in a file of fixed-width records: firing an alert
+ * appends one record, and {@link #removeOlderThan(long)} rewrites the file with the remaining
+ * ones. A record cut short by a crash is ignored when the file is read.
+ *
+ * All methods are synchronized, the alerts are read from the file on first use.
+ */
+class FiredAlertLedger {
+
+    private static final String TAG = "FiredAlertLedger";
+
+    private static final int RECORD_SIZE = 3 * 8;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final File mFile;
+    private boolean mLoaded;
+    // Slots of the hash table, a slot is used if mUsed is set
+    private long[] mEventIds;
+    private long[] mBegins;
+    private long[] mAlarms;
+    private boolean[] mUsed;
+    private int mSize;
+
+    FiredAlertLedger(File file) {
+        mFile = file;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    synchronized boolean contains(long eventId, long begin, long alarm) {
+        load();
+        return mUsed[findSlot(eventId, begin, alarm)];
+    }
+
+    /**
+     * Adds the alert and appends it to the file.
+     *
+     * @return false if the alert was already in the ledger
+     */
+    synchronized boolean add(long eventId, long begin, long alarm) {
+        load();
+        if (!insert(eventId, begin, alarm)) {
+            return false;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mFile, true), RECORD_SIZE))) {
+            writeRecord(out, eventId, begin, alarm);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot append to " + mFile, e);
+        }
+        return true;
+    }
+
+    /**
+     * Adds alerts without writing them one at a time, then writes the whole file once. Used to
+     * migrate alerts from an older store.
+     */
+    synchronized void addAll(long[] eventIds, long[] begins, long[] alarms, int count) {
+        load();
+        for (int i = 0; i < count; i++) {
+            insert(eventIds[i], begins[i], alarms[i]);
+        }
+        writeAll();
+    }
+
+    /**
+     * Removes the alerts with an alarm time before the given time and compacts the file.
+     *
+     * @return the number of alerts removed
+     */
+    synchronized int removeOlderThan(long alarmTime) {
+        load();
+        long[] eventIds = mEventIds;
+        long[] begins = mBegins;
+        long[] alarms = mAlarms;
+        boolean[] used = mUsed;
+        int oldSize = mSize;
+        allocate(mUsed.length);
+        for (int i = 0; i < used.length; i++) {
+            if (used[i] && alarms[i] >= alarmTime) {
+                insert(eventIds[i], begins[i], alarms[i]);
+            }
+        }
+        writeAll();
+        return oldSize - mSize;
+    }
+
+    synchronized int size() {
+        load();
+        return mSize;
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            while (true) {
+                long eventId = in.readLong();
+                long begin = in.readLong();
+                long alarm = in.readLong();
+                insert(eventId, begin, alarm);
+                records++;
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing was fired yet
+            return;
+        } catch (EOFException e) {
+            // The end of the file, or of the last complete record
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read " + mFile, e);
+            return;
+        }
+        if (mFile.length() != records * RECORD_SIZE) {
+            // Drop the partial record so that the records appended next stay aligned
+            try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+                file.setLength(records * RECORD_SIZE);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot truncate " + mFile, e);
+            }
+        }
+    }
+
+    /**
+     * Replaces the file with one holding the alerts in memory.
+     */
+    private void writeAll() {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (int i = 0; i < mUsed.length; i++) {
+                if (mUsed[i]) {
+                    writeRecord(out, mEventIds[i], mBegins[i], mAlarms[i]);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write " + tmp, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.e(TAG, "Cannot replace " + mFile);
+            tmp.delete();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, long eventId, long begin, long alarm)
+            throws IOException {
+        out.writeLong(eventId);
+        out.writeLong(begin);
+        out.writeLong(alarm);
+    }
+
+    private void allocate(int capacity) {
+        mEventIds = new long[capacity];
+        mBegins = new long[capacity];
+        mAlarms = new long[capacity];
+        mUsed = new boolean[capacity];
+        mSize = 0;
+    }
+
+    /**
+     * @return false if the alert is already in the table
+     */
+    private boolean insert(long eventId, long begin, long alarm) {
+        int slot = findSlot(eventId, begin, alarm);
+        if (mUsed[slot]) {
+            return false;
+        }
+        mEventIds[slot] = eventId;
+        mBegins[slot] = begin;
+        mAlarms[slot] = alarm;
+        mUsed[slot] = true;
+        // Keep the load factor at or below 1/2 so that probe sequences stay short
+        if (++mSize * 2 > mUsed.length) {
+            grow();
+        }
+        return true;
+    }
+
+    private void grow() {
+        long[] eventIds = mEventIds;
+        long[] begins = mBegins;
+        long[] alarms = mAlarms;
+        boolean[] used = mUsed;
+        allocate(used.length * 2);
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                insert(eventIds[i], begins[i], alarms[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the slot holding the alert, or the free slot it would go into.
+     */
+    private int findSlot(long eventId, long begin, long alarm) {
+        int mask = mUsed.length - 1;
+        int slot = hash(eventId, begin, alarm) & mask;
+        while (mUsed[slot] && (mEventIds[slot] != eventId || mBegins[slot] != begin
+                || mAlarms[slot] != alarm)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long eventId, long begin, long alarm) {
+        long h = eventId * 0x9E3779B97F4A7C15L;
+        h = (h ^ begin) * 0x9E3779B97F4A7C15L;
+        h = (h ^ alarm) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,506 @@
+package com.android.calendar.alerts;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.provider.CalendarContract.Events;
+import android.provider.CalendarContract.Instances;
+import android.provider.CalendarContract.Reminders;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.android.calendar.Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An app-private index of the alarm times of upcoming reminders, so that the next alarm is
+ * found with one indexed lookup whatever the reminder lead times are.
+ *
+ * A row holds one reminder of one instance. The rows cover the instances that begin before
+ * the longest reminder lead plus {@link #INDEX_WINDOW_MS} from when the index was built. The
+ * index is rebuilt when that window runs out or the time zone changes.
+ *
+ * In between, {@link #update} only re-expands the series that changed. A series is an event
+ * with its exceptions. After {@link #invalidate()}, typically on a provider change, a
+ * signature of each series and its reminders is compared with the one stored when the series
+ * was indexed. Computing the signatures still reads every alert reminder and every event that
+ * may have instances, only the much larger instance query is limited to the changed series.
+ *
+ * All methods block on the provider or the database and must not be called from the UI
+ * thread.
+ */
+class ReminderIndex extends SQLiteOpenHelper {
+
+    private static final String TAG = "ReminderIndex";
+
+    private static final String DATABASE_NAME = "reminder_index.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_REMINDERS = "reminders";
+    private static final String TABLE_SERIES = "series";
+    private static final String TABLE_STATE = "state";
+    private static final String COLUMN_SERIES_ID = "series_id";
+    private static final String COLUMN_EVENT_ID = "event_id";
+    private static final String COLUMN_BEGIN = "begin";
+    private static final String COLUMN_MINUTES = "minutes";
+    private static final String COLUMN_ALARM_TIME = "alarm_time";
+    private static final String COLUMN_SIGNATURE = "signature";
+    private static final String COLUMN_KEY = "key";
+    private static final String COLUMN_VALUE = "value";
+
+    // Keys of the state table
+    private static final String STATE_INDEXED_UNTIL = "indexed_until";
+    private static final String STATE_MAX_LEAD = "max_lead";
+    private static final String STATE_TIME_ZONE = "time_zone";
+
+    // How far beyond the longest reminder lead the instances are indexed.
+    private static final long INDEX_WINDOW_MS = 4 * DateUtils.WEEK_IN_MILLIS;
+    // The index is rebuilt once it no longer holds every alarm in this time from now.  This
+    // must be longer than the time between two alarms scheduled by AlarmScheduler.
+    private static final long MIN_LOOKAHEAD_MS = DateUtils.WEEK_IN_MILLIS;
+    // Above this many changed series, one query of all instances is cheaper than one per series.
+    private static final int MAX_INCREMENTAL_SERIES = 16;
+
+    private static final String[] REMINDERS_PROJECTION = new String[] {
+            Reminders.EVENT_ID,
+            Reminders.MINUTES,
+    };
+    private static final String REMINDERS_WHERE = Reminders.METHOD + "="
+            + Reminders.METHOD_ALERT;
+    private static final int REMINDERS_INDEX_EVENT_ID = 0;
+    private static final int REMINDERS_INDEX_MINUTES = 1;
+
+    // The columns that decide when an event's instances fall.  The first two are read, the
+    // others only go into the signature.
+    private static final String[] EVENTS_PROJECTION = new String[] {
+            Events._ID,
+            Events.ORIGINAL_ID,
+            Events.DTSTART,
+            Events.DTEND,
+            Events.DURATION,
+            Events.RRULE,
+            Events.RDATE,
+            Events.EXRULE,
+            Events.EXDATE,
+            Events.ALL_DAY,
+            Events.EVENT_TIMEZONE,
+            Events.ORIGINAL_INSTANCE_TIME,
+            Events.STATUS,
+            Events.VISIBLE,
+            Events.LAST_DATE,
+    };
+    // Exceptions are read even without reminders since they hide instances of their series.
+    private static final String EVENTS_WHERE = Events.DELETED + "=0 AND ("
+            + Events.HAS_ALARM + "=1 OR " + Events.ORIGINAL_ID + " IS NOT NULL) AND ("
+            + Events.LAST_DATE + " IS NULL OR " + Events.LAST_DATE + ">=?)";
+    private static final int EVENTS_INDEX_ID = 0;
+    private static final int EVENTS_INDEX_ORIGINAL_ID = 1;
+
+    private static final String[] INSTANCES_PROJECTION = new String[] {
+            Instances.EVENT_ID,
+            Instances.BEGIN,
+            Instances.ALL_DAY,
+    };
+    private static final String INSTANCES_WHERE = Instances.VISIBLE + "=1 AND "
+            + Instances.HAS_ALARM + "=1";
+    private static final String SERIES_INSTANCES_WHERE = INSTANCES_WHERE + " AND ("
+            + Instances.EVENT_ID + "=? OR " + Instances.ORIGINAL_ID + "=?)";
+    private static final int INSTANCES_INDEX_EVENT_ID = 0;
+    private static final int INSTANCES_INDEX_BEGIN = 1;
+    private static final int INSTANCES_INDEX_ALL_DAY = 2;
+
+    private static ReminderIndex sInstance;
+
+    // Set when the provider may have changed since the last update.  A new process cannot
+    // know, so it starts out set.
+    private boolean mDirty = true;
+
+    private ReminderIndex(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    static synchronized ReminderIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ReminderIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_REMINDERS + " ("
+                + COLUMN_SERIES_ID + " INTEGER NOT NULL, "
+                + COLUMN_EVENT_ID + " INTEGER NOT NULL, "
+                + COLUMN_BEGIN + " INTEGER NOT NULL, "
+                + COLUMN_MINUTES + " INTEGER NOT NULL, "
+                + COLUMN_ALARM_TIME + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX reminders_alarm_time ON " + TABLE_REMINDERS
+                + " (" + COLUMN_ALARM_TIME + ")");
+        db.execSQL("CREATE INDEX reminders_series_id ON " + TABLE_REMINDERS
+                + " (" + COLUMN_SERIES_ID + ")");
+        db.execSQL("CREATE TABLE " + TABLE_SERIES + " ("
+                + COLUMN_SERIES_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_SIGNATURE + " INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE " + TABLE_STATE + " ("
+                + COLUMN_KEY + " TEXT PRIMARY KEY, "
+                + COLUMN_VALUE + " TEXT)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The index can always be rebuilt from the provider
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_REMINDERS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SERIES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_STATE);
+        onCreate(db);
+    }
+
+    /**
+     * Marks the index as possibly stale, so that the next {@link #update} compares it with
+     * the provider.
+     */
+    synchronized void invalidate() {
+        mDirty = true;
+    }
+
+    /**
+     * Brings the index up to date with the provider: rebuilds it if its window ran out or the
+     * time zone changed, re-expands the series that changed since it was invalidated, and
+     * drops the alarms of the past.
+     */
+    synchronized void update(ContentResolver resolver, long currentMillis) {
+        SQLiteDatabase db = getWritableDatabase();
+        String timeZone = Utils.getCurrentTimezone();
+        long indexedUntil = getLongState(db, STATE_INDEXED_UNTIL);
+        boolean expired = isExpired(timeZone, getState(db, STATE_TIME_ZONE), currentMillis,
+                indexedUntil, getLongState(db, STATE_MAX_LEAD));
+        if (!mDirty && !expired) {
+            db.delete(TABLE_REMINDERS, COLUMN_ALARM_TIME + "<?",
+                    new String[] {String.valueOf(currentMillis)});
+            return;
+        }
+
+        long indexedFrom = currentMillis - DateUtils.DAY_IN_MILLIS;
+        HashMap<Long, ArrayList<Integer>> minutes = queryReminderMinutes(resolver);
+        if (minutes == null) {
+            return;
+        }
+        long newMaxLead = 0;
+        for (ArrayList<Integer> eventMinutes : minutes.values()) {
+            for (int m : eventMinutes) {
+                newMaxLead = Math.max(newMaxLead, m * DateUtils.MINUTE_IN_MILLIS);
+            }
+        }
+        if (isExpired(timeZone, timeZone, currentMillis, indexedUntil, newMaxLead)) {
+            expired = true;
+        }
+
+        HashMap<Long, Long> seriesOf = new HashMap<Long, Long>();
+        HashMap<Long, Long> signatures = new HashMap<Long, Long>();
+        if (!querySeries(resolver, indexedFrom, minutes, seriesOf, signatures)) {
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            HashMap<Long, Long> stored = expired ? new HashMap<Long, Long>()
+                    : readSignatures(db);
+            HashSet<Long> changed = findChanged(signatures, stored);
+            ArrayList<Long> removed = findRemoved(signatures, stored);
+            for (Long seriesId : removed) {
+                deleteSeries(db, seriesId);
+            }
+
+            if (expired || changed.size() > MAX_INCREMENTAL_SERIES) {
+                indexedUntil = currentMillis + newMaxLead + INDEX_WINDOW_MS;
+                db.delete(TABLE_REMINDERS, null, null);
+                db.delete(TABLE_SERIES, null, null);
+                expandInstances(db, resolver, indexedFrom, indexedUntil, INSTANCES_WHERE, null,
+                        minutes, seriesOf);
+                for (Map.Entry<Long, Long> entry : signatures.entrySet()) {
+                    putSignature(db, entry.getKey(), entry.getValue());
+                }
+                putState(db, STATE_INDEXED_UNTIL, String.valueOf(indexedUntil));
+                putState(db, STATE_TIME_ZONE, timeZone);
+            } else {
+                for (Long seriesId : changed) {
+                    deleteSeries(db, seriesId);
+                    String id = String.valueOf(seriesId);
+                    expandInstances(db, resolver, indexedFrom, indexedUntil,
+                            SERIES_INSTANCES_WHERE, new String[] {id, id}, minutes, seriesOf);
+                    putSignature(db, seriesId, signatures.get(seriesId));
+                }
+            }
+            putState(db, STATE_MAX_LEAD, String.valueOf(newMaxLead));
+            db.delete(TABLE_REMINDERS, COLUMN_ALARM_TIME + "<?",
+                    new String[] {String.valueOf(currentMillis)});
+            db.setTransactionSuccessful();
+            mDirty = false;
+
+            if (AlertService.DEBUG) {
+                Log.d(TAG, (expired ? "Rebuilt" : "Updated") + " reminder index: "
+                        + signatures.size() + " series, " + changed.size() + " changed, "
+                        + removed.size() + " removed, indexed until " + indexedUntil);
+            }
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the next alarm after the given time, or null if there is none.
+     */
+    synchronized Alarm queryNextAlarm(long currentMillis) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_REMINDERS,
+                new String[] {COLUMN_EVENT_ID, COLUMN_ALARM_TIME},
+                COLUMN_ALARM_TIME + ">?", new String[] {String.valueOf(currentMillis)},
+                null, null, COLUMN_ALARM_TIME, "1")) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Alarm(cursor.getLong(0), cursor.getLong(1));
+        }
+    }
+
+    /**
+     * Returns the minutes of the alert reminders of each event, or null if the query failed.
+     */
+    private static HashMap<Long, ArrayList<Integer>> queryReminderMinutes(
+            ContentResolver resolver) {
+        Cursor cursor = resolver.query(Reminders.CONTENT_URI, REMINDERS_PROJECTION,
+                REMINDERS_WHERE, null, Reminders.EVENT_ID + "," + Reminders.MINUTES);
+        if (cursor == null) {
+            return null;
+        }
+        HashMap<Long, ArrayList<Integer>> minutes = new HashMap<Long, ArrayList<Integer>>();
+        try {
+            while (cursor.moveToNext()) {
+                long eventId = cursor.getLong(REMINDERS_INDEX_EVENT_ID);
+                ArrayList<Integer> eventMinutes = minutes.get(eventId);
+                if (eventMinutes == null) {
+                    eventMinutes = new ArrayList<Integer>(1);
+                    minutes.put(eventId, eventMinutes);
+                }
+                eventMinutes.add(cursor.getInt(REMINDERS_INDEX_MINUTES));
+            }
+        } finally {
+            cursor.close();
+        }
+        return minutes;
+    }
+
+    /**
+     * Fills in the series of each event that may still have instances, and the signature of
+     * each series having reminders.
+     *
+     * @return false if the query failed
+     */
+    private static boolean querySeries(ContentResolver resolver, long indexedFrom,
+            HashMap<Long, ArrayList<Integer>> minutes, HashMap<Long, Long> seriesOf,
+            HashMap<Long, Long> signatures) {
+        Cursor cursor = resolver.query(Events.CONTENT_URI, EVENTS_PROJECTION, EVENTS_WHERE,
+                new String[] {String.valueOf(indexedFrom - DateUtils.DAY_IN_MILLIS)},
+                Events._ID);
+        if (cursor == null) {
+            return false;
+        }
+        HashSet<Long> withReminders = new HashSet<Long>();
+        try {
+            String[] row = new String[cursor.getColumnCount()];
+            while (cursor.moveToNext()) {
+                long eventId = cursor.getLong(EVENTS_INDEX_ID);
+                long seriesId = cursor.isNull(EVENTS_INDEX_ORIGINAL_ID) ? eventId
+                        : cursor.getLong(EVENTS_INDEX_ORIGINAL_ID);
+                seriesOf.put(eventId, seriesId);
+
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = cursor.getString(i);
+                }
+                ArrayList<Integer> eventMinutes = minutes.get(eventId);
+                if (eventMinutes != null) {
+                    withReminders.add(seriesId);
+                }
+                // Rows come by id, so the events of a series are always combined in order
+                addToSignature(signatures, seriesId, hashEvent(row, eventMinutes));
+            }
+        } finally {
+            cursor.close();
+        }
+        signatures.keySet().retainAll(withReminders);
+        return true;
+    }
+
+    /**
+     * Returns whether the index has to be rebuilt: it was built for another time zone, or it
+     * no longer holds every alarm in the next {@link #MIN_LOOKAHEAD_MS}.
+     */
+    static boolean isExpired(String timeZone, String indexedTimeZone, long currentMillis,
+            long indexedUntil, long maxLead) {
+        return !timeZone.equals(indexedTimeZone)
+                || currentMillis + MIN_LOOKAHEAD_MS > indexedUntil - maxLead;
+    }
+
+    /**
+     * Hashes the columns of an event row and the minutes of its reminders, which may be null.
+     */
+    static long hashEvent(String[] row, List<Integer> minutes) {
+        long hash = 0;
+        for (String value : row) {
+            hash = hash * 1000003 + (value != null ? value.hashCode() : 0);
+        }
+        if (minutes != null) {
+            for (int m : minutes) {
+                hash = hash * 1000003 + m;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Folds the hash of an event into the signature of its series. The result depends on the
+     * order the events of a series are added in.
+     */
+    static void addToSignature(Map<Long, Long> signatures, long seriesId, long hash) {
+        Long signature = signatures.get(seriesId);
+        signatures.put(seriesId, (signature != null ? signature * 31 : 17) + hash);
+    }
+
+    /**
+     * Returns the series that are new or whose signature differs from the stored one.
+     */
+    static HashSet<Long> findChanged(Map<Long, Long> signatures, Map<Long, Long> stored) {
+        HashSet<Long> changed = new HashSet<Long>();
+        for (Map.Entry<Long, Long> entry : signatures.entrySet()) {
+            if (!entry.getValue().equals(stored.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the stored series that no longer have reminders.
+     */
+    static ArrayList<Long> findRemoved(Map<Long, Long> signatures, Map<Long, Long> stored) {
+        ArrayList<Long> removed = new ArrayList<Long>();
+        for (Long seriesId : stored.keySet()) {
+            if (!signatures.containsKey(seriesId)) {
+                removed.add(seriesId);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Adds a row per reminder of the instances that match the selection and begin in the
+     * window.
+     */
+    private static void expandInstances(SQLiteDatabase db, ContentResolver resolver,
+            long indexedFrom, long indexedUntil, String selection, String[] selectionArgs,
+            HashMap<Long, ArrayList<Integer>> minutes, HashMap<Long, Long> seriesOf) {
+        // Expand the range by a day on either end to account for all-day events.
+        Uri.Builder uriBuilder = Instances.CONTENT_URI.buildUpon();
+        ContentUris.appendId(uriBuilder, indexedFrom - DateUtils.DAY_IN_MILLIS);
+        ContentUris.appendId(uriBuilder, indexedUntil + DateUtils.DAY_IN_MILLIS);
+        Cursor cursor = resolver.query(uriBuilder.build(), INSTANCES_PROJECTION, selection,
+                selectionArgs, null);
+        if (cursor == null) {
+            return;
+        }
+        String timeZone = Utils.getCurrentTimezone();
+        ContentValues values = new ContentValues();
+        try {
+            while (cursor.moveToNext()) {
+                long eventId = cursor.getLong(INSTANCES_INDEX_EVENT_ID);
+                ArrayList<Integer> eventMinutes = minutes.get(eventId);
+                Long seriesId = seriesOf.get(eventId);
+                if (eventMinutes == null || seriesId == null) {
+                    continue;
+                }
+                long begin = cursor.getLong(INSTANCES_INDEX_BEGIN);
+                if (cursor.getInt(INSTANCES_INDEX_ALL_DAY) != 0) {
+                    // Adjust allday to local time.
+                    begin = Utils.convertAlldayUtcToLocal(null, begin, timeZone);
+                }
+                for (int m : eventMinutes) {
+                    values.clear();
+                    values.put(COLUMN_SERIES_ID, seriesId);
+                    values.put(COLUMN_EVENT_ID, eventId);
+                    values.put(COLUMN_BEGIN, begin);
+                    values.put(COLUMN_MINUTES, m);
+                    values.put(COLUMN_ALARM_TIME, begin - m * DateUtils.MINUTE_IN_MILLIS);
+                    db.insert(TABLE_REMINDERS, null, values);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static HashMap<Long, Long> readSignatures(SQLiteDatabase db) {
+        HashMap<Long, Long> signatures = new HashMap<Long, Long>();
+        try (Cursor cursor = db.query(TABLE_SERIES,
+                new String[] {COLUMN_SERIES_ID, COLUMN_SIGNATURE},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                signatures.put(cursor.getLong(0), cursor.getLong(1));
+            }
+        }
+        return signatures;
+    }
+
+    private static void putSignature(SQLiteDatabase db, long seriesId, long signature) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SERIES_ID, seriesId);
+        values.put(COLUMN_SIGNATURE, signature);
+        db.replace(TABLE_SERIES, null, values);
+    }
+
+    private static void deleteSeries(SQLiteDatabase db, long seriesId) {
+        String[] args = new String[] {String.valueOf(seriesId)};
+        db.delete(TABLE_REMINDERS, COLUMN_SERIES_ID + "=?", args);
+        db.delete(TABLE_SERIES, COLUMN_SERIES_ID + "=?", args);
+    }
+
+    private static String getState(SQLiteDatabase db, String key) {
+        try (Cursor cursor = db.query(TABLE_STATE, new String[] {COLUMN_VALUE},
+                COLUMN_KEY + "=?", new String[] {key}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    private static long getLongState(SQLiteDatabase db, String key) {
+        String value = getState(db, key);
+        return value != null ? Long.parseLong(value) : 0;
+    }
+
+    private static void putState(SQLiteDatabase db, String key, String value) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_KEY, key);
+        values.put(COLUMN_VALUE, value);
+        db.replace(TABLE_STATE, null, values);
+    }
+
+    /**
+     * The alarm time of a reminder and the event it belongs to.
+     */
+    static class Alarm {
+        final long eventId;
+        final long alarmTime;
+
+        Alarm(long eventId, long alarmTime) {
+            this.eventId = eventId;
+            this.alarmTime = alarmTime;
+        }
+    }
+}
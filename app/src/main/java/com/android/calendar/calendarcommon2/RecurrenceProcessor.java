@@ -19,8 +19,6 @@ package com.android.calendar.calendarcommon2;
 
 import android.util.Log;
 
-import java.util.TreeSet;
-
 public class RecurrenceProcessor
 {
     // these are created once and reused.
@@ -29,6 +27,7 @@ public class RecurrenceProcessor
     private StringBuilder mStringBuilder = new StringBuilder();
     private Time mGenerated = new Time(Time.TIMEZONE_UTC);
     private DaySet mDays = new DaySet(false);
+    private SortedLongSet mDtSet = new SortedLongSet();
     // Give up after this many loops.  This is roughly 1 second of expansion.
     private static final int MAX_ALLOWED_ITERATIONS = 2000;
 
@@ -653,7 +652,8 @@ bysetpos:
             rangeEndDateValue = Long.MAX_VALUE;
         }
 
-        TreeSet<Long> dtSet = new TreeSet<Long>();
+        SortedLongSet dtSet = mDtSet;
+        dtSet.clear();
 
         if (recur.rrules != null) {
             for (EventRecurrence rrule : recur.rrules) {
@@ -697,10 +697,9 @@ bysetpos:
         // ensure that the dates are valid.
         int len = dtSet.size();
         long[] dates = new long[len];
-        int i = 0;
-        for (Long val: dtSet) {
-            setTimeFromLongValue(mIterator, val);
-            dates[i++] = mIterator.toMillis();
+        for (int i = 0; i < len; i++) {
+            setTimeFromLongValue(mIterator, dtSet.get(i));
+            dates[i] = mIterator.toMillis();
         }
         return dates;
     }
@@ -723,7 +722,7 @@ bysetpos:
      *                  if you care about everything up through and including
      *                  Dec 22 1995, set last to Dec 23, 1995 00:00:00
      * @param add Whether or not we should add to out, or remove from out.
-     * @param out the TreeSet you'd like to fill with the events
+     * @param out the set you'd like to fill with the events
      * @throws DateException
      * @throws IllegalArgumentException if r cannot be parsed.
      */
@@ -732,7 +731,7 @@ bysetpos:
             long rangeStartDateValue,
             long rangeEndDateValue,
             boolean add,
-            TreeSet<Long> out) throws DateException {
+            SortedLongSet out) throws DateException {
         unsafeNormalize(dtstart);
         long dtstartDateValue = normDateTimeComparisonValue(dtstart);
         int count = 0;
@@ -0,0 +1,137 @@
+package com.android.calendar.calendarcommon2;
+
+import java.util.Arrays;
+
+/**
+ * A sorted set of primitive longs, used to collect the date values generated while
+ * expanding a recurrence without boxing them.
+ *
+ * Values are appended to a buffer and removals are queued, the buffer is only sorted,
+ * deduplicated and filtered when the set is read. Values generated by a recurrence rule
+ * mostly arrive in order already, so this is usually a single pass.
+ */
+public class SortedLongSet {
+
+    private long[] mValues;
+    private int mSize;
+    // mValues[0..mSize) is sorted and has no duplicates
+    private boolean mSorted = true;
+
+    private long[] mRemoved = new long[0];
+    private int mRemovedSize;
+
+    public SortedLongSet() {
+        this(16);
+    }
+
+    public SortedLongSet(int capacity) {
+        mValues = new long[Math.max(capacity, 1)];
+    }
+
+    public void add(long value) {
+        if (mRemovedSize > 0) {
+            // Apply the pending removals first so that they don't remove this value
+            compact();
+        }
+        if (mSize > 0 && mSorted) {
+            long last = mValues[mSize - 1];
+            if (value == last) {
+                return;
+            }
+            if (value < last) {
+                mSorted = false;
+            }
+        }
+        if (mSize == mValues.length) {
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        mValues[mSize++] = value;
+    }
+
+    public void remove(long value) {
+        if (mSize == 0) {
+            return;
+        }
+        if (mRemovedSize == mRemoved.length) {
+            mRemoved = Arrays.copyOf(mRemoved, Math.max(mRemovedSize * 2, 8));
+        }
+        mRemoved[mRemovedSize++] = value;
+    }
+
+    public boolean contains(long value) {
+        compact();
+        return Arrays.binarySearch(mValues, 0, mSize, value) >= 0;
+    }
+
+    public int size() {
+        compact();
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the index-th smallest value.
+     */
+    public long get(int index) {
+        compact();
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index=" + index + " size=" + mSize);
+        }
+        return mValues[index];
+    }
+
+    public long[] toArray() {
+        compact();
+        return Arrays.copyOf(mValues, mSize);
+    }
+
+    /**
+     * Removes every value but keeps the buffers for reuse.
+     */
+    public void clear() {
+        mSize = 0;
+        mSorted = true;
+        mRemovedSize = 0;
+    }
+
+    private void compact() {
+        if (!mSorted) {
+            Arrays.sort(mValues, 0, mSize);
+            mSize = unique(mValues, mSize);
+            mSorted = true;
+        }
+        if (mRemovedSize > 0) {
+            Arrays.sort(mRemoved, 0, mRemovedSize);
+            int n = 0;
+            int r = 0;
+            for (int i = 0; i < mSize; i++) {
+                long value = mValues[i];
+                while (r < mRemovedSize && mRemoved[r] < value) {
+                    r++;
+                }
+                if (r < mRemovedSize && mRemoved[r] == value) {
+                    continue;
+                }
+                mValues[n++] = value;
+            }
+            mSize = n;
+            mRemovedSize = 0;
+        }
+    }
+
+    private static int unique(long[] values, int size) {
+        if (size == 0) {
+            return 0;
+        }
+        int n = 1;
+        for (int i = 1; i < size; i++) {
+            if (values[i] != values[n - 1]) {
+                values[n++] = values[i];
+            }
+        }
+        return n;
+    }
+}
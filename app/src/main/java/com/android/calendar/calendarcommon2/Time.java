@@ -16,13 +16,17 @@
 package com.android.calendar.calendarcommon2;
 
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
+import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
 
 /**
  * Helper class to make migration out of android.text.format.Time smoother.
+ *
+ * The fields are kept and normalized directly, the same way a lenient
+ * {@link java.util.GregorianCalendar} would: setters only store the new value and the time
+ * and the other fields are recomputed when they are read. UTC offsets come from the
+ * timezone's rules through {@link ZoneOffsets}, which are shared by all instances.
  */
 public class Time {
 
@@ -31,10 +35,8 @@ public class Time {
     private static final int EPOCH_JULIAN_DAY = 2440588;
     private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
     private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+    private static final int DAY_IN_SECONDS = 24 * 60 * 60;
 
-    private static final String FORMAT_ALL_DAY_PATTERN = "yyyyMMdd";
-    private static final String FORMAT_TIME_PATTERN = "yyyyMMdd'T'HHmmss";
-    private static final String FORMAT_TIME_UTC_PATTERN = "yyyyMMdd'T'HHmmss'Z'";
     private static final String FORMAT_LOG_TIME_PATTERN = "EEE, MMM dd, yyyy hh:mm a";
 
     /*
@@ -59,7 +61,16 @@ public class Time {
     public static final int FRIDAY = 5;
     public static final int SATURDAY = 6;
 
-    private final GregorianCalendar mCalendar;
+    // The largest year GregorianCalendar.getActualMaximum(Calendar.YEAR) returns
+    private static final int MAX_YEAR = 292278994;
+
+    /*
+     * Which fields were set last and decide the date, as the most recently set fields do in
+     * GregorianCalendar.
+     */
+    private static final int DATE_FROM_MONTH_DAY = 0;
+    private static final int DATE_FROM_YEAR_DAY = 1;
+    private static final int DATE_FROM_WEEK_DAY = 2;
 
     private int year;
     private int month;
@@ -67,13 +78,28 @@ public class Time {
     private int hour;
     private int minute;
     private int second;
+    private int millisecond;
 
     private int yearDay;
     private int weekDay;
 
+    // the timezone that set() and parse() start from
     private String timezone;
+    // the timezone the fields are in, only differs from timezone after set(Time)
+    private ZoneOffsets mZone;
     private boolean allDay;
 
+    private int mDateFields = DATE_FROM_MONTH_DAY;
+    // the week of the month as of the last normalization, used when the week day is set
+    private int mWeekOfMonth;
+    private boolean mWeekOfMonthSet;
+    // whether mMillis matches the fields
+    private boolean mTimeSet;
+    // whether the fields are normalized from mMillis in mZone
+    private boolean mFieldsSet;
+    private long mMillis;
+    private int mGmtOffset;
+
     /**
      * Enabling this flag will apply appropriate dst transition logic when calling either
      * {@code toMillis()} or {@code normalize()} and their respective *ApplyDst() equivalents. <br>
@@ -106,44 +132,247 @@ public class Time {
             throw new NullPointerException("timezone cannot be null.");
         }
         this.timezone = timezone;
-        // Although the process's default locale is used here, #clear() will explicitly set the
-        // first day of the week to MONDAY to match with the expected a.t.f.Time implementation.
-        mCalendar = new GregorianCalendar(getTimeZone(), Locale.getDefault());
+        mZone = getZone(timezone);
         clear(this.timezone);
     }
 
-    private void readFieldsFromCalendar() {
-        year = mCalendar.get(Calendar.YEAR);
-        month = mCalendar.get(Calendar.MONTH);
-        monthDay = mCalendar.get(Calendar.DAY_OF_MONTH);
-        hour = mCalendar.get(Calendar.HOUR_OF_DAY);
-        minute = mCalendar.get(Calendar.MINUTE);
-        second = mCalendar.get(Calendar.SECOND);
+    private static ZoneOffsets getZone(String timezone) {
+        return timezone != null ? ZoneOffsets.forId(timezone) : ZoneOffsets.getDefault();
     }
 
-    private void writeFieldsToCalendar() {
-        clearCalendar();
-        mCalendar.set(year, month, monthDay, hour, minute, second);
-        mCalendar.set(Calendar.MILLISECOND, 0);
+    /**
+     * Returns the time the fields stand for, without normalizing them.
+     */
+    private long fieldsToMillis() {
+        long epochDay;
+        switch (mDateFields) {
+            case DATE_FROM_YEAR_DAY:
+                epochDay = toEpochDay(year, 0, 1) + yearDay;
+                break;
+            case DATE_FROM_WEEK_DAY:
+                // the given day in the same week of the month, weeks start on Monday
+                epochDay = getFirstWeekStart(toEpochDay(year, month, 1))
+                        + 7 * (mWeekOfMonth - 1) + Math.floorMod(weekDay - MONDAY, 7);
+                break;
+            default:
+                epochDay = toEpochDay(year, month, monthDay);
+                break;
+        }
+        long localMillis = ((epochDay * 24 + hour) * 60 + minute) * 60 * 1000
+                + second * 1000L + millisecond;
+        int offset = mZone.getOffsetForLocal(Math.floorDiv(localMillis, 1000));
+        return localMillis - offset * 1000L;
+    }
+
+    private long peekMillis() {
+        return mTimeSet ? mMillis : fieldsToMillis();
+    }
+
+    /**
+     * Computes the time from the fields if any of them changed since it was last computed, and
+     * normalizes the fields.
+     */
+    private void computeTime() {
+        if (!mTimeSet) {
+            mMillis = fieldsToMillis();
+            mTimeSet = true;
+            computeFields();
+        }
+    }
+
+    /**
+     * Normalizes all the fields from the time.
+     */
+    private void computeFields() {
+        mGmtOffset = mZone.getOffset(Math.floorDiv(mMillis, 1000));
+        long localMillis = mMillis + mGmtOffset * 1000L;
+        long epochDay = Math.floorDiv(localMillis, DAY_IN_MILLIS);
+        int millisOfDay = (int) (localMillis - epochDay * DAY_IN_MILLIS);
+
+        int date = toDate(epochDay);
+        year = date >> 9;
+        month = (date >> 5) & 0xf;
+        monthDay = date & 0x1f;
+
+        hour = millisOfDay / (int) HOUR_IN_MILLIS;
+        minute = millisOfDay / (60 * 1000) % 60;
+        second = millisOfDay / 1000 % 60;
+        millisecond = millisOfDay % 1000;
+
+        weekDay = (int) Math.floorMod(epochDay + THURSDAY, 7); // 1970 Jan 1 --> Thursday
+        yearDay = (int) (epochDay - toEpochDay(year, 0, 1));
+        mWeekOfMonth = (int) Math.floorDiv(
+                epochDay - getFirstWeekStart(toEpochDay(year, month, 1)), 7) + 1;
+        mFieldsSet = true;
+    }
+
+    /**
+     * Computes the time and the fields. Unlike {@link #computeTime()}, this also forgets which
+     * fields were set last, and makes the week of the month known to {@link #setWeekDay(int)}
+     * after a clear, the same as GregorianCalendar.complete().
+     */
+    private void complete() {
+        computeTime();
+        if (!mFieldsSet) {
+            computeFields();
+        }
+        fieldsCompleted();
+    }
+
+    private void fieldsCompleted() {
+        mDateFields = DATE_FROM_MONTH_DAY;
+        mWeekOfMonthSet = true;
+    }
+
+    private void setTimeInMillis(long millis) {
+        mMillis = millis;
+        mTimeSet = true;
+        computeFields();
+        fieldsCompleted();
+    }
+
+    /**
+     * Returns the date of the given day as {@code year << 9 | month << 5 | monthDay}.
+     */
+    private static int toDate(long epochDay) {
+        // See http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        long days = epochDay + 719468;
+        long era = Math.floorDiv(days, 146097);
+        int dayOfEra = (int) (days - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int monthDay = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 2 : shiftedMonth - 10;
+        int year = (int) (yearOfEra + era * 400) + (month <= 1 ? 1 : 0);
+        return year << 9 | month << 5 | monthDay;
+    }
+
+    /**
+     * Returns the Monday that starts the first week of the month beginning on the given day.
+     * Like ISO 8601 weeks of the year, the first week is the one with at least four days of the
+     * month in it.
+     */
+    private static long getFirstWeekStart(long firstDay) {
+        long start = firstDay + 6 - Math.floorMod(firstDay + 6 + 3, 7);
+        return start - firstDay >= 4 ? start - 7 : start;
+    }
+
+    /**
+     * Returns the number of days since 1970 Jan 1 of the given date. The month and day may be
+     * out of range, in which case they carry over into the year and month.
+     *
+     * @param month the month, starting from 0
+     */
+    private static long toEpochDay(int year, int month, int monthDay) {
+        // See http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+        long y = year + (long) Math.floorDiv(month, 12);
+        int m = Math.floorMod(month, 12) + 1;
+        if (m <= 2) {
+            y--;
+        }
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468 + (monthDay - 1);
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0) && ((year % 100 != 0) || (year % 400 == 0));
+    }
+
+    private static int getMonthLength(int year, int month) {
+        switch (month) {
+            case 1:
+                return isLeapYear(year) ? 29 : 28;
+            case 3:
+            case 5:
+            case 8:
+            case 10:
+                return 30;
+            default:
+                return 31;
+        }
     }
 
     private boolean isInDst() {
-        return mCalendar.getTimeZone().inDaylightTime(mCalendar.getTime());
+        computeTime();
+        return mZone.isDaylightTime(Math.floorDiv(mMillis, 1000));
     }
 
     public void add(int field, int amount) {
-        final boolean wasDstBefore = isInDst();
-        mCalendar.add(getCalendarField(field), amount);
+        computeTime();
+        final boolean wasDstBefore = APPLY_DST_CHANGE_LOGIC && isInDst();
+        if (amount == 0) {
+            return;
+        }
+        complete();
+        switch (field) {
+            case SECOND:
+                setTimeInMillis(mMillis + amount * 1000L);
+                break;
+            case MINUTE:
+                setTimeInMillis(mMillis + amount * 60 * 1000L);
+                break;
+            case HOUR:
+                setTimeInMillis(mMillis + amount * HOUR_IN_MILLIS);
+                break;
+            case MONTH_DAY:
+            case WEEK_DAY:
+            case YEAR_DAY:
+                addDays(amount);
+                break;
+            case WEEK_NUM:
+                addDays(amount * 7L);
+                break;
+            case MONTH:
+                int months = month + amount;
+                year += Math.floorDiv(months, 12);
+                month = Math.floorMod(months, 12);
+                pinMonthDay();
+                break;
+            case YEAR:
+                year += amount;
+                pinMonthDay();
+                break;
+            default:
+                throw new RuntimeException("bad field=" + field);
+        }
         if (APPLY_DST_CHANGE_LOGIC && wasDstBefore != isInDst()
                 && (field == MONTH_DAY || field == HOUR || field == MINUTE)) {
             mDstChangedByField = field;
         }
     }
 
+    /**
+     * Moves the date by the given number of days and keeps the time of day, the way
+     * GregorianCalendar.add() does for day fields.
+     */
+    private void addDays(long days) {
+        long epochDay = toEpochDay(year, month, monthDay) + days;
+        long millisOfDay = ((hour * 60L + minute) * 60 + second) * 1000 + millisecond;
+        int offset = mGmtOffset;
+        setTimeInMillis(epochDay * DAY_IN_MILLIS + millisOfDay - offset * 1000L);
+        if (offset != mGmtOffset) {
+            // keep the time of day unless that would change the date
+            long millis = mMillis;
+            setTimeInMillis(millis + (offset - mGmtOffset) * 1000L);
+            if (toEpochDay(year, month, monthDay) != epochDay) {
+                setTimeInMillis(millis);
+            }
+        }
+    }
+
+    private void pinMonthDay() {
+        monthDay = Math.min(monthDay, getMonthLength(year, month));
+        beforeSet();
+    }
+
     public void set(long millis) {
-        clearCalendar();
-        mCalendar.setTimeInMillis(millis);
-        readFieldsFromCalendar();
+        mDstChangedByField = -1;
+        mZone = getZone(timezone);
+        setTimeInMillis(millis);
     }
 
     public void set(Time other) {
@@ -151,73 +380,103 @@ public class Time {
             // no-op when being called on itself, see Etar-Group/Etar-Calendar#1151
             return;
         }
-        clearCalendar();
-        mCalendar.setTimeZone(other.getTimeZone());
-        mCalendar.setTimeInMillis(other.mCalendar.getTimeInMillis());
-        readFieldsFromCalendar();
+        mDstChangedByField = -1;
+        mZone = getZone(other.timezone);
+        other.computeTime();
+        setTimeInMillis(other.mMillis);
     }
 
     public void set(int day, int month, int year) {
-        clearCalendar();
-        mCalendar.set(year, month, day);
-        readFieldsFromCalendar();
+        set(0, 0, 0, day, month, year);
     }
 
     public void set(int second, int minute, int hour, int day, int month, int year) {
         clearCalendar();
-        mCalendar.set(year, month, day, hour, minute, second);
-        readFieldsFromCalendar();
+        this.year = year;
+        this.month = month;
+        this.monthDay = day;
+        this.hour = hour;
+        this.minute = minute;
+        this.second = second;
+        complete();
     }
 
     public long setJulianDay(int julianDay) {
-        long millis = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
-        mCalendar.setTimeInMillis(millis);
-        readFieldsFromCalendar();
-
-        // adjust day approximation, set the time to 12am, and re-normalize
-        monthDay += julianDay - getJulianDay(millis, getGmtOffset());
+        clearCalendar();
+        // set the time to 12am of that day, and normalize
+        year = 1970;
+        month = 0;
+        monthDay = 1 + julianDay - EPOCH_JULIAN_DAY;
         hour = 0;
         minute = 0;
         second = 0;
-        writeFieldsToCalendar();
         return normalize();
     }
 
     public static int getJulianDay(long begin, long gmtOff) {
-        return android.text.format.Time.getJulianDay(begin, gmtOff);
+        // the same day numbering as setJulianDay(), days before the epoch included
+        return (int) Math.floorDiv(begin + gmtOff * 1000L, DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
     }
 
+    /**
+     * @return the ISO 8601 week number: weeks start on Monday and the first week of the year
+     * is the one with the year's first Thursday in it
+     */
     public int getWeekNumber() {
-        return mCalendar.get(Calendar.WEEK_OF_YEAR);
+        complete();
+        long epochDay = toEpochDay(year, month, monthDay);
+        // the Thursday of this week decides which year the week belongs to
+        long thursday = epochDay - Math.floorMod(epochDay + 3, 7) + 3;
+        long firstDay = toEpochDay(year, 0, 1);
+        if (thursday < firstDay) {
+            firstDay = toEpochDay(year - 1, 0, 1);
+        } else if (thursday >= toEpochDay(year + 1, 0, 1)) {
+            firstDay = toEpochDay(year + 1, 0, 1);
+        }
+        return (int) ((thursday - firstDay) / 7) + 1;
     }
 
-    private int getCalendarField(int field) {
+    public int getActualMaximum(int field) {
+        // this does not normalize the fields, the same as GregorianCalendar
+        long millis = peekMillis();
+        long epochDay = Math.floorDiv(
+                millis + mZone.getOffset(Math.floorDiv(millis, 1000)) * 1000L, DAY_IN_MILLIS);
+        int date = toDate(epochDay);
+        int year = date >> 9;
+        int month = (date >> 5) & 0xf;
         switch (field) {
-            case SECOND: return Calendar.SECOND;
-            case MINUTE: return Calendar.MINUTE;
-            case HOUR: return Calendar.HOUR_OF_DAY;
-            case MONTH_DAY: return Calendar.DAY_OF_MONTH;
-            case MONTH: return Calendar.MONTH;
-            case YEAR: return Calendar.YEAR;
-            case WEEK_DAY: return Calendar.DAY_OF_WEEK;
-            case YEAR_DAY: return Calendar.DAY_OF_YEAR;
-            case WEEK_NUM: return Calendar.WEEK_OF_YEAR;
+            case SECOND:
+            case MINUTE:
+                return 59;
+            case HOUR:
+                return 23;
+            case MONTH_DAY:
+                return getMonthLength(year, month);
+            case MONTH:
+                return 11;
+            case YEAR:
+                return MAX_YEAR;
+            case WEEK_DAY:
+                return 7;
+            case YEAR_DAY:
+                return isLeapYear(year) ? 366 : 365;
+            case WEEK_NUM:
+                // a year has 53 weeks when it starts on a Thursday, or on a Wednesday in a leap
+                // year
+                int firstWeekDay = (int) Math.floorMod(toEpochDay(year, 0, 1) + THURSDAY, 7);
+                return firstWeekDay == THURSDAY
+                        || (firstWeekDay == WEDNESDAY && isLeapYear(year)) ? 53 : 52;
             default:
                 throw new RuntimeException("bad field=" + field);
         }
     }
 
-    public int getActualMaximum(int field) {
-        return mCalendar.getActualMaximum(getCalendarField(field));
-    }
-
     public void switchTimezone(String timezone) {
         this.timezone = timezone;
-        long msBefore = mCalendar.getTimeInMillis();
-        mCalendar.setTimeZone(TimeZone.getTimeZone(timezone));
-        mCalendar.setTimeInMillis(msBefore);
+        computeTime();
+        mZone = getZone(timezone);
         mDstChangedByField = -1;
-        readFieldsFromCalendar();
+        setTimeInMillis(mMillis);
     }
 
     /**
@@ -236,9 +495,8 @@ public class Time {
     }
 
     private long normalizeInternal() {
-        final long ms = mCalendar.getTimeInMillis();
-        readFieldsFromCalendar();
-        return ms;
+        complete();
+        return mMillis;
     }
 
     public long normalize() {
@@ -254,134 +512,182 @@ public class Time {
             throw new NullPointerException("time string is null");
         }
         parseInternal(time);
-        writeFieldsToCalendar();
+        clearCalendar();
     }
 
     public String format2445() {
-        writeFieldsToCalendar();
-        final SimpleDateFormat sdf = new SimpleDateFormat(
-                allDay ? FORMAT_ALL_DAY_PATTERN
-                       : (TIMEZONE_UTC.equals(getTimezone()) ? FORMAT_TIME_UTC_PATTERN
-                                                             : FORMAT_TIME_PATTERN));
-        sdf.setTimeZone(getTimeZone());
-        return sdf.format(mCalendar.getTime());
+        // like parse(), the fields are taken as being in the timezone this Time was set to
+        clearCalendar();
+        computeTime();
+        StringBuilder sb = new StringBuilder(16);
+        appendDigits(sb, year, 4);
+        appendDigits(sb, month + 1, 2);
+        appendDigits(sb, monthDay, 2);
+        if (!allDay) {
+            sb.append('T');
+            appendDigits(sb, hour, 2);
+            appendDigits(sb, minute, 2);
+            appendDigits(sb, second, 2);
+            if (TIMEZONE_UTC.equals(getTimezone())) {
+                sb.append('Z');
+            }
+        }
+        return sb.toString();
     }
 
-    public long toMillis() {
-        return getDstAdjustedMillis(false, mCalendar.getTimeInMillis());
+    private static void appendDigits(StringBuilder sb, int value, int digits) {
+        for (int limit = 10; digits > 1; digits--, limit *= 10) {
+            if (value < limit) {
+                sb.append('0');
+            }
+        }
+        sb.append(value);
     }
 
-    long toMillisApplyDst() {
-        return getDstAdjustedMillis(true, mCalendar.getTimeInMillis());
+    public long toMillis() {
+        computeTime();
+        return getDstAdjustedMillis(false, mMillis);
     }
 
-    private TimeZone getTimeZone() {
-        return timezone != null ? TimeZone.getTimeZone(timezone) : TimeZone.getDefault();
+    long toMillisApplyDst() {
+        computeTime();
+        return getDstAdjustedMillis(true, mMillis);
     }
 
     public int compareTo(Time other) {
-        return mCalendar.compareTo(other.mCalendar);
+        return Long.compare(peekMillis(), other.peekMillis());
     }
 
+    /**
+     * Goes back to the timezone this Time was set to and marks the fields as changed, callers
+     * set the date and time of day afterwards.
+     */
     private void clearCalendar() {
         mDstChangedByField = -1;
-        mCalendar.clear();
-        mCalendar.set(Calendar.HOUR_OF_DAY, 0); // HOUR_OF_DAY doesn't get reset with #clear
-        mCalendar.setTimeZone(getTimeZone());
-        // set fields for week number computation according to ISO 8601.
-        mCalendar.setFirstDayOfWeek(Calendar.MONDAY);
-        mCalendar.setMinimalDaysInFirstWeek(4);
+        mZone = getZone(timezone);
+        millisecond = 0;
+        mDateFields = DATE_FROM_MONTH_DAY;
+        mWeekOfMonthSet = false;
+        mTimeSet = false;
+        mFieldsSet = false;
     }
 
     public void clear(String timezoneId) {
-        clearCalendar();
-        readFieldsFromCalendar();
+        set(0, 0, 0, 1, 0, 1970);
         setTimezone(timezoneId);
     }
 
     public int getYear() {
-        return mCalendar.get(Calendar.YEAR);
+        complete();
+        return year;
     }
 
     public void setYear(int year) {
+        beforeSet();
         this.year = year;
-        mCalendar.set(Calendar.YEAR, year);
     }
 
     public int getMonth() {
-        return mCalendar.get(Calendar.MONTH);
+        complete();
+        return month;
     }
 
     public void setMonth(int month) {
+        beforeSet();
         this.month = month;
-        mCalendar.set(Calendar.MONTH, month);
     }
 
     public int getDay() {
-        return mCalendar.get(Calendar.DAY_OF_MONTH);
+        complete();
+        return monthDay;
     }
 
     public void setDay(int day) {
+        beforeSet();
         this.monthDay = day;
-        mCalendar.set(Calendar.DAY_OF_MONTH, day);
+        mDateFields = DATE_FROM_MONTH_DAY;
     }
 
     public int getHour() {
-        return mCalendar.get(Calendar.HOUR_OF_DAY);
+        complete();
+        return hour;
     }
 
     public void setHour(int hour) {
+        beforeSet();
         this.hour = hour;
-        mCalendar.set(Calendar.HOUR_OF_DAY, hour);
     }
 
     public int getMinute() {
-        return mCalendar.get(Calendar.MINUTE);
+        complete();
+        return minute;
     }
 
     public void setMinute(int minute) {
+        beforeSet();
         this.minute = minute;
-        mCalendar.set(Calendar.MINUTE, minute);
     }
 
     public int getSecond() {
-        return mCalendar.get(Calendar.SECOND);
+        complete();
+        return second;
     }
 
     public void setSecond(int second) {
+        beforeSet();
         this.second = second;
-        mCalendar.set(Calendar.SECOND, second);
+    }
+
+    /**
+     * Like a lenient GregorianCalendar, the fields are not normalized when one of them is set,
+     * so setting several fields in a row gives the same result in any order.
+     */
+    private void beforeSet() {
+        if (mFieldsSet) {
+            // GregorianCalendar completes normalized fields before setting one
+            fieldsCompleted();
+        }
+        mTimeSet = false;
+        mFieldsSet = false;
     }
 
     public String getTimezone() {
-        return mCalendar.getTimeZone().getID();
+        return mZone.getId();
     }
 
+    /**
+     * Changes the timezone. If the fields were changed since they were last read, they are
+     * kept and taken as being in the new timezone, otherwise the time is kept.
+     */
     public void setTimezone(String timezone) {
         this.timezone = timezone;
-        mCalendar.setTimeZone(getTimeZone());
+        mZone = getZone(timezone);
+        mFieldsSet = false;
     }
 
     public int getYearDay() {
-        // yearDay in a.t.f.Time's implementation starts from 0, whereas Calendar's starts from 1.
-        return mCalendar.get(Calendar.DAY_OF_YEAR) - 1;
+        complete();
+        return yearDay;
     }
 
     public void setYearDay(int yearDay) {
+        beforeSet();
         this.yearDay = yearDay;
-        // yearDay in a.t.f.Time's implementation starts from 0, whereas Calendar's starts from 1.
-        mCalendar.set(Calendar.DAY_OF_YEAR, yearDay + 1);
+        mDateFields = DATE_FROM_YEAR_DAY;
     }
 
     public int getWeekDay() {
-        // weekDay in a.t.f.Time's implementation starts from 0, whereas Calendar's starts from 1.
-        return mCalendar.get(Calendar.DAY_OF_WEEK) - 1;
+        complete();
+        return weekDay;
     }
 
     public void setWeekDay(int weekDay) {
+        beforeSet();
         this.weekDay = weekDay;
-        // weekDay in a.t.f.Time's implementation starts from 0, whereas Calendar's starts from 1.
-        mCalendar.set(Calendar.DAY_OF_WEEK, weekDay + 1);
+        // like GregorianCalendar, the week day is ignored until the week is known
+        if (mWeekOfMonthSet) {
+            mDateFields = DATE_FROM_WEEK_DAY;
+        }
     }
 
     public boolean isAllDay() {
@@ -393,7 +699,11 @@ public class Time {
     }
 
     public long getGmtOffset() {
-        return mCalendar.getTimeZone().getOffset(mCalendar.getTimeInMillis()) / 1000;
+        if (mTimeSet && mFieldsSet) {
+            return mGmtOffset;
+        }
+        computeTime();
+        return mZone.getOffset(Math.floorDiv(mMillis, 1000));
     }
 
     private void parseInternal(String s) {
@@ -481,7 +791,8 @@ public class Time {
     public String format() {
         final SimpleDateFormat sdf =
                 new SimpleDateFormat(FORMAT_LOG_TIME_PATTERN, Locale.getDefault());
-        return sdf.format(mCalendar.getTime());
+        computeTime();
+        return sdf.format(new Date(mMillis));
     }
 
     // NOTE: only used in tests
@@ -498,6 +809,7 @@ public class Time {
     }
 
     private android.text.format.Time generateInstance() {
+        computeTime();
         android.text.format.Time tmp = new android.text.format.Time(timezone);
         tmp.set(second, minute, hour, monthDay, month, year);
 
@@ -507,7 +819,7 @@ public class Time {
         tmp.timezone = timezone;
         tmp.gmtoff = getGmtOffset();
         tmp.allDay = allDay;
-        tmp.set(mCalendar.getTimeInMillis());
+        tmp.set(mMillis);
         if (tmp.allDay && (tmp.hour != 0 || tmp.minute != 0 || tmp.second != 0)) {
             // Time SDK expects hour, minute, second to be 0 if allDay is true
             tmp.hour = 0;
@@ -532,6 +844,6 @@ public class Time {
         timezone = time.timezone;
         allDay = time.allDay;
 
-        writeFieldsToCalendar();
+        clearCalendar();
     }
 }
@@ -0,0 +1,151 @@
+package com.android.calendar.calendarcommon2;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The UTC offsets of one timezone, shared by all {@link Time} objects using that timezone.
+ *
+ * Timezone ids are resolved the same way as {@link TimeZone#getTimeZone(String)}, so unknown
+ * ids fall back to GMT, and the resolved {@link ZoneRules} are cached per id.
+ *
+ * Each instance remembers the last period between two transitions it was asked about. Most
+ * lookups fall in the same period as the previous one and are answered from it without
+ * touching the rules.
+ */
+final class ZoneOffsets {
+
+    private static final ConcurrentHashMap<String, ZoneOffsets> sZones =
+            new ConcurrentHashMap<>();
+
+    private final String mId;
+    private final ZoneRules mRules;
+    private final int mFixedOffset;
+    private volatile Period mPeriod;
+
+    private ZoneOffsets(String id, ZoneRules rules) {
+        mId = id;
+        mRules = rules;
+        mFixedOffset = rules.isFixedOffset()
+                ? rules.getOffset(Instant.EPOCH).getTotalSeconds() : Integer.MIN_VALUE;
+    }
+
+    static ZoneOffsets forId(String id) {
+        ZoneOffsets zone = sZones.get(id);
+        if (zone == null) {
+            TimeZone tz = TimeZone.getTimeZone(id);
+            zone = new ZoneOffsets(tz.getID(), tz.toZoneId().getRules());
+            ZoneOffsets existing = sZones.putIfAbsent(id, zone);
+            if (existing != null) {
+                zone = existing;
+            }
+        }
+        return zone;
+    }
+
+    static ZoneOffsets getDefault() {
+        return forId(TimeZone.getDefault().getID());
+    }
+
+    /**
+     * @return the id as {@link TimeZone#getID()} would return it
+     */
+    String getId() {
+        return mId;
+    }
+
+    /**
+     * @return the offset from UTC in seconds at the given UTC time in seconds
+     */
+    int getOffset(long epochSecond) {
+        if (mFixedOffset != Integer.MIN_VALUE) {
+            return mFixedOffset;
+        }
+        Period period = mPeriod;
+        if (period == null || epochSecond < period.start || epochSecond >= period.end) {
+            period = findPeriod(epochSecond);
+            mPeriod = period;
+        }
+        return period.offset;
+    }
+
+    /**
+     * Returns the offset from UTC in seconds to use for a local wall time, given in seconds
+     * since the local epoch. This resolves times the same way {@link java.util.GregorianCalendar}
+     * does: a time skipped by a transition uses the offset before it and a time repeated by a
+     * transition uses the offset after it.
+     */
+    int getOffsetForLocal(long localSecond) {
+        if (mFixedOffset != Integer.MIN_VALUE) {
+            return mFixedOffset;
+        }
+        Period period = mPeriod;
+        if (period != null && localSecond >= period.localStart && localSecond < period.localEnd) {
+            return period.offset;
+        }
+        LocalDateTime local = LocalDateTime.ofEpochSecond(localSecond, 0, ZoneOffset.UTC);
+        ZoneOffsetTransition transition = mRules.getTransition(local);
+        int offset;
+        if (transition == null) {
+            offset = mRules.getOffset(local).getTotalSeconds();
+        } else if (transition.isGap()) {
+            offset = transition.getOffsetBefore().getTotalSeconds();
+        } else {
+            offset = transition.getOffsetAfter().getTotalSeconds();
+        }
+        mPeriod = findPeriod(localSecond - offset);
+        return offset;
+    }
+
+    boolean isDaylightTime(long epochSecond) {
+        return mRules.isDaylightSavings(Instant.ofEpochSecond(epochSecond));
+    }
+
+    private Period findPeriod(long epochSecond) {
+        Instant instant = Instant.ofEpochSecond(epochSecond);
+        int offset = mRules.getOffset(instant).getTotalSeconds();
+        // previousTransition() is strictly before its argument, so look just after the instant
+        // in case it is a transition itself
+        ZoneOffsetTransition previous = mRules.previousTransition(instant.plusSeconds(1));
+        ZoneOffsetTransition next = mRules.nextTransition(instant);
+        long start = Long.MIN_VALUE;
+        long localStart = Long.MIN_VALUE;
+        if (previous != null) {
+            start = previous.toEpochSecond();
+            localStart = start + offset;
+        }
+        long end = Long.MAX_VALUE;
+        long localEnd = Long.MAX_VALUE;
+        if (next != null) {
+            end = next.toEpochSecond();
+            localEnd = end + next.getOffsetAfter().getTotalSeconds();
+        }
+        return new Period(start, end, localStart, localEnd, offset);
+    }
+
+    /**
+     * A span of UTC time with a single offset, along with the local times that are resolved to
+     * that offset. Local times skipped at the end of the span belong to it, and local times
+     * repeated at its start belong to it rather than to the span before.
+     */
+    private static final class Period {
+        final long start;
+        final long end;
+        final long localStart;
+        final long localEnd;
+        final int offset;
+
+        Period(long start, long end, long localStart, long localEnd, int offset) {
+            this.start = start;
+            this.end = end;
+            this.localStart = localStart;
+            this.localEnd = localEnd;
+            this.offset = offset;
+        }
+    }
+}
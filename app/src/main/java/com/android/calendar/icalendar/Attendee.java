@@ -72,6 +72,17 @@ public class Attendee {
      * @return
      */
     public String getICalFormattedString() {
+        StringBuilder output = new StringBuilder(getContentLine());
+        output = IcalendarUtils.enforceICalLineLength(output);
+
+        output.append("\n");
+        return output.toString();
+    }
+
+    /**
+     * Returns the ATTENDEE content line, without line folding
+     */
+    String getContentLine() {
         StringBuilder output = new StringBuilder();
 
         // Add Event mProperties
@@ -81,10 +92,6 @@ public class Attendee {
             output.append(property + "=" + mProperties.get(property) + ";");
         }
         output.append("X-NUM-GUESTS=0:mailto:" + mEmail);
-
-        output = IcalendarUtils.enforceICalLineLength(output);
-
-        output.append("\n");
         return output.toString();
     }
 
@@ -0,0 +1,411 @@
+package com.android.calendar.icalendar;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.CalendarContract.Attendees;
+import android.provider.CalendarContract.Events;
+import android.text.TextUtils;
+
+import com.android.calendar.calendarcommon2.Time;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exports every event of one calendar to an iCalendar stream.
+ *
+ * The events are read in pages spanning {@link #PAGE_SIZE} ids, and each event is written as
+ * soon as it is read, so memory use does not grow with the size of the calendar.
+ * Changed or cancelled instances of recurring events are written as VEVENTs with a
+ * RECURRENCE-ID and the UID of their recurring event.
+ */
+public class CalendarExporter {
+
+    /**
+     * The range of event ids read per query.
+     */
+    static final int PAGE_SIZE = 500;
+
+    /**
+     * The number of recurring event UIDs kept for the exceptions of those events.
+     */
+    static final int MAX_RECURRING_UIDS = PAGE_SIZE;
+
+    private static final String[] EVENTS_PROJECTION = new String[] {
+            Events._ID,                     // 0
+            Events.TITLE,                   // 1
+            Events.EVENT_LOCATION,          // 2
+            Events.DESCRIPTION,             // 3
+            Events.DTSTART,                 // 4
+            Events.DTEND,                   // 5
+            Events.DURATION,                // 6
+            Events.ALL_DAY,                 // 7
+            Events.EVENT_TIMEZONE,          // 8
+            Events.RRULE,                   // 9
+            Events.RDATE,                   // 10
+            Events.EXDATE,                  // 11
+            Events.STATUS,                  // 12
+            Events.UID_2445,                // 13
+            Events.ORIGINAL_ID,             // 14
+            Events.ORIGINAL_INSTANCE_TIME,  // 15
+            Events.ORIGINAL_ALL_DAY,        // 16
+            Events.ORGANIZER,               // 17
+    };
+    private static final int EVENT_INDEX_ID = 0;
+    private static final int EVENT_INDEX_TITLE = 1;
+    private static final int EVENT_INDEX_LOCATION = 2;
+    private static final int EVENT_INDEX_DESCRIPTION = 3;
+    private static final int EVENT_INDEX_DTSTART = 4;
+    private static final int EVENT_INDEX_DTEND = 5;
+    private static final int EVENT_INDEX_DURATION = 6;
+    private static final int EVENT_INDEX_ALL_DAY = 7;
+    private static final int EVENT_INDEX_TIMEZONE = 8;
+    private static final int EVENT_INDEX_RRULE = 9;
+    private static final int EVENT_INDEX_RDATE = 10;
+    private static final int EVENT_INDEX_EXDATE = 11;
+    private static final int EVENT_INDEX_STATUS = 12;
+    private static final int EVENT_INDEX_UID = 13;
+    private static final int EVENT_INDEX_ORIGINAL_ID = 14;
+    private static final int EVENT_INDEX_ORIGINAL_INSTANCE_TIME = 15;
+    private static final int EVENT_INDEX_ORIGINAL_ALL_DAY = 16;
+    private static final int EVENT_INDEX_ORGANIZER = 17;
+
+    private static final String[] ID_PROJECTION = new String[] {Events._ID};
+    private static final String CALENDAR_WHERE = Events.CALENDAR_ID + "=? AND "
+            + Events.DELETED + "=0";
+    private static final String EVENTS_WHERE = Events._ID + ">? AND " + Events._ID + "<=?";
+    private static final String EVENTS_SORT_ORDER = Events._ID + " ASC";
+    private static final String[] UID_PROJECTION = new String[] {Events.UID_2445};
+    private static final String ID_WHERE = Events._ID + "=?";
+
+    private static final String[] ATTENDEES_PROJECTION = new String[] {
+            Attendees.EVENT_ID,             // 0
+            Attendees.ATTENDEE_NAME,        // 1
+            Attendees.ATTENDEE_EMAIL,       // 2
+            Attendees.ATTENDEE_TYPE,        // 3
+            Attendees.ATTENDEE_STATUS,      // 4
+    };
+    private static final int ATTENDEE_INDEX_EVENT_ID = 0;
+    private static final int ATTENDEE_INDEX_NAME = 1;
+    private static final int ATTENDEE_INDEX_EMAIL = 2;
+    private static final int ATTENDEE_INDEX_TYPE = 3;
+    private static final int ATTENDEE_INDEX_STATUS = 4;
+
+    private static final String ATTENDEES_WHERE = Attendees.CALENDAR_ID + "=? AND "
+            + Attendees.EVENT_ID + ">? AND " + Attendees.EVENT_ID + "<=?";
+    private static final String ATTENDEES_SORT_ORDER = Attendees.EVENT_ID + " ASC";
+
+    public interface ProgressListener {
+        /**
+         * Called after each page of events is written.
+         *
+         * @param exported the number of events written so far
+         */
+        void onProgress(int exported);
+    }
+
+    private final ContentResolver mResolver;
+    private final long mCalendarId;
+    // Recurring event id -> UID, for the most recently used recurring events. The UID of an
+    // evicted event is queried again when one of its exceptions comes later
+    private final LruMap<Long, String> mRecurringUids =
+            new LruMap<Long, String>(MAX_RECURRING_UIDS);
+    private final Time mTime = new Time();
+    private String mTimeStamp;
+    private int mExported;
+
+    public CalendarExporter(ContentResolver resolver, long calendarId) {
+        mResolver = resolver;
+        mCalendarId = calendarId;
+    }
+
+    /**
+     * Writes the calendar with all of its events to the stream. The stream is flushed but not
+     * closed.
+     *
+     * @return the number of events exported
+     */
+    public int exportEvents(OutputStream out, ProgressListener listener) throws IOException {
+        VCalendar calendar = new VCalendar();
+        calendar.addProperty(VCalendar.VERSION, "2.0");
+        calendar.addProperty(VCalendar.PRODID, VCalendar.PRODUCT_IDENTIFIER);
+        calendar.addProperty(VCalendar.CALSCALE, "GREGORIAN");
+        mTimeStamp = IcalendarUtils.getICalFormattedDateTime(System.currentTimeMillis(), "UTC");
+
+        VCalendarWriter writer = new VCalendarWriter(out);
+        writer.writeStart(calendar);
+        long firstId = queryFirstId(Events._ID + " ASC");
+        long lastId = queryFirstId(Events._ID + " DESC");
+        if (firstId != -1) {
+            for (long pageStart = firstId - 1; pageStart < lastId; pageStart += PAGE_SIZE) {
+                writePage(writer, pageStart, Math.min(pageStart + PAGE_SIZE, lastId));
+                writer.flush();
+                if (listener != null) {
+                    listener.onProgress(mExported);
+                }
+            }
+        }
+        writer.writeEnd();
+        return mExported;
+    }
+
+    /**
+     * Returns the id of the first event of the calendar in the given order, or -1 if the
+     * calendar has no events.
+     */
+    private long queryFirstId(String sortOrder) throws IOException {
+        Cursor c = mResolver.query(Events.CONTENT_URI, ID_PROJECTION, CALENDAR_WHERE,
+                new String[] {Long.toString(mCalendarId)}, sortOrder);
+        if (c == null) {
+            throw new IOException("Cannot query the events of calendar " + mCalendarId);
+        }
+        try {
+            return c.moveToFirst() ? c.getLong(0) : -1;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Writes the events with an id in (startId, endId], joining their attendees to them.
+     */
+    private void writePage(VCalendarWriter writer, long startId, long endId) throws IOException {
+        String[] args = new String[] {Long.toString(mCalendarId), Long.toString(startId),
+                Long.toString(endId)};
+        Cursor events = mResolver.query(Events.CONTENT_URI, EVENTS_PROJECTION,
+                CALENDAR_WHERE + " AND " + EVENTS_WHERE, args, EVENTS_SORT_ORDER);
+        if (events == null) {
+            throw new IOException("Cannot query the events of calendar " + mCalendarId);
+        }
+        Cursor attendees = null;
+        try {
+            if (events.getCount() == 0) {
+                return;
+            }
+            attendees = mResolver.query(Attendees.CONTENT_URI, ATTENDEES_PROJECTION,
+                    ATTENDEES_WHERE, args, ATTENDEES_SORT_ORDER);
+            writeEvents(writer, events, attendees);
+        } finally {
+            events.close();
+            if (attendees != null) {
+                attendees.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the events of the cursor, joining the attendees cursor to them. Both cursors are
+     * ordered by event id.
+     */
+    private void writeEvents(VCalendarWriter writer, Cursor events, Cursor attendees)
+            throws IOException {
+        boolean hasAttendee = attendees != null && attendees.moveToFirst();
+        while (events.moveToNext()) {
+            VEvent event = createEvent(events);
+            long id = events.getLong(EVENT_INDEX_ID);
+            while (hasAttendee && attendees.getLong(ATTENDEE_INDEX_EVENT_ID) < id) {
+                hasAttendee = attendees.moveToNext();
+            }
+            while (hasAttendee && attendees.getLong(ATTENDEE_INDEX_EVENT_ID) == id) {
+                addAttendee(event, attendees);
+                hasAttendee = attendees.moveToNext();
+            }
+            addOrganizer(event, events.getString(EVENT_INDEX_ORGANIZER));
+            writer.writeEvent(event);
+            mExported++;
+        }
+    }
+
+    private VEvent createEvent(Cursor c) {
+        VEvent event = new VEvent();
+        long id = c.getLong(EVENT_INDEX_ID);
+        boolean allDay = c.getInt(EVENT_INDEX_ALL_DAY) != 0;
+        String timezone = allDay ? Time.TIMEZONE_UTC : c.getString(EVENT_INDEX_TIMEZONE);
+        if (TextUtils.isEmpty(timezone)) {
+            timezone = Time.TIMEZONE_UTC;
+        }
+
+        String uid = c.getString(EVENT_INDEX_UID);
+        if (c.isNull(EVENT_INDEX_ORIGINAL_ID)) {
+            if (TextUtils.isEmpty(uid)) {
+                uid = getDefaultUid(id);
+            }
+        } else {
+            long originalId = c.getLong(EVENT_INDEX_ORIGINAL_ID);
+            uid = getRecurringUid(originalId);
+            boolean originalAllDay = c.getInt(EVENT_INDEX_ORIGINAL_ALL_DAY) != 0;
+            putDateTime(event, "RECURRENCE-ID", c.getLong(EVENT_INDEX_ORIGINAL_INSTANCE_TIME),
+                    originalAllDay ? Time.TIMEZONE_UTC : timezone, originalAllDay);
+        }
+        // Set through mProperties as the values are already in iCalendar form and must not be
+        // escaped
+        event.mProperties.put(VEvent.UID, uid);
+        event.mProperties.put(VEvent.DTSTAMP, mTimeStamp);
+
+        event.addProperty(VEvent.SUMMARY, c.getString(EVENT_INDEX_TITLE));
+        event.addProperty(VEvent.LOCATION, c.getString(EVENT_INDEX_LOCATION));
+        event.addProperty(VEvent.DESCRIPTION, c.getString(EVENT_INDEX_DESCRIPTION));
+        event.addProperty(VEvent.STATUS, getStatus(c.getInt(EVENT_INDEX_STATUS)));
+
+        putDateTime(event, VEvent.DTSTART, c.getLong(EVENT_INDEX_DTSTART), timezone, allDay);
+        String rrule = c.getString(EVENT_INDEX_RRULE);
+        String rdate = c.getString(EVENT_INDEX_RDATE);
+        if (!TextUtils.isEmpty(rrule) || !TextUtils.isEmpty(rdate)) {
+            if (!TextUtils.isEmpty(rrule)) {
+                event.mProperties.put(VEvent.RRULE, rrule);
+            }
+            putDateList(event, "RDATE", rdate);
+            putDateList(event, "EXDATE", c.getString(EVENT_INDEX_EXDATE));
+            String duration = c.getString(EVENT_INDEX_DURATION);
+            if (!TextUtils.isEmpty(duration)) {
+                event.mProperties.put(VEvent.DURATION, duration);
+            }
+            mRecurringUids.put(id, uid);
+        } else if (!c.isNull(EVENT_INDEX_DTEND)) {
+            putDateTime(event, VEvent.DTEND, c.getLong(EVENT_INDEX_DTEND), timezone, allDay);
+        }
+        return event;
+    }
+
+    /**
+     * Returns the UID of the recurring event with the given id, which is queried if the event
+     * was not written recently or comes in a later page.
+     */
+    private String getRecurringUid(long id) {
+        String uid = mRecurringUids.get(id);
+        if (uid != null) {
+            return uid;
+        }
+        Cursor c = mResolver.query(Events.CONTENT_URI, UID_PROJECTION, ID_WHERE,
+                new String[] {Long.toString(id)}, null);
+        if (c != null) {
+            try {
+                if (c.moveToFirst()) {
+                    uid = c.getString(0);
+                }
+            } finally {
+                c.close();
+            }
+        }
+        if (TextUtils.isEmpty(uid)) {
+            uid = getDefaultUid(id);
+        }
+        mRecurringUids.put(id, uid);
+        return uid;
+    }
+
+    private static String getDefaultUid(long id) {
+        return id + "@ws.xsoh.etar";
+    }
+
+    /**
+     * Adds a DATE for all-day events, a UTC DATE-TIME for UTC events and a DATE-TIME with a
+     * TZID otherwise.
+     */
+    private void putDateTime(VEvent event, String property, long millis, String timezone,
+            boolean allDay) {
+        mTime.clear(timezone);
+        mTime.set(millis);
+        mTime.setAllDay(allDay);
+        event.mProperties.put(property, mTime.format2445());
+        if (allDay) {
+            event.mPropertyParameters.put(property, "VALUE=DATE");
+        } else if (!Time.TIMEZONE_UTC.equals(timezone)) {
+            event.mPropertyParameters.put(property, "TZID=" + timezone);
+        }
+    }
+
+    /**
+     * Adds an RDATE or EXDATE stored by the provider as "[TZID;]date[,date...]".
+     */
+    private static void putDateList(VEvent event, String property, String value) {
+        if (TextUtils.isEmpty(value)) {
+            return;
+        }
+        int semicolon = value.indexOf(';');
+        if (semicolon != -1) {
+            event.mPropertyParameters.put(property, "TZID=" + value.substring(0, semicolon));
+            value = value.substring(semicolon + 1);
+        } else if (value.length() == 8 || value.indexOf(',') == 8) {
+            event.mPropertyParameters.put(property, "VALUE=DATE");
+        }
+        event.mProperties.put(property, value);
+    }
+
+    private static void addAttendee(VEvent event, Cursor c) {
+        String email = c.getString(ATTENDEE_INDEX_EMAIL);
+        if (TextUtils.isEmpty(email)) {
+            return;
+        }
+        Attendee attendee = new Attendee();
+        attendee.mEmail = email;
+        String name = c.getString(ATTENDEE_INDEX_NAME);
+        if (!TextUtils.isEmpty(name)) {
+            attendee.addProperty(Attendee.CN, "\"" + name.replace("\"", "") + "\"");
+        }
+        attendee.addProperty(Attendee.ROLE,
+                c.getInt(ATTENDEE_INDEX_TYPE) == Attendees.TYPE_OPTIONAL
+                        ? "OPT-PARTICIPANT" : "REQ-PARTICIPANT");
+        attendee.addProperty(Attendee.PARTSTAT, getParticipationStatus(
+                c.getInt(ATTENDEE_INDEX_STATUS)));
+        event.addAttendee(attendee);
+    }
+
+    /**
+     * Adds the organizer, which iCalendar requires for events with attendees.
+     */
+    private static void addOrganizer(VEvent event, String email) {
+        if (event.mAttendees.isEmpty() || TextUtils.isEmpty(email)) {
+            return;
+        }
+        String name = email;
+        for (Attendee attendee : event.mAttendees) {
+            if (email.equalsIgnoreCase(attendee.mEmail)
+                    && attendee.mProperties.containsKey(Attendee.CN)) {
+                name = attendee.mProperties.get(Attendee.CN);
+                break;
+            }
+        }
+        event.addOrganizer(new Organizer(name, email));
+    }
+
+    private static String getStatus(int status) {
+        switch (status) {
+            case Events.STATUS_TENTATIVE:
+                return "TENTATIVE";
+            case Events.STATUS_CANCELED:
+                return "CANCELLED";
+            default:
+                return "CONFIRMED";
+        }
+    }
+
+    private static String getParticipationStatus(int status) {
+        switch (status) {
+            case Attendees.ATTENDEE_STATUS_ACCEPTED:
+                return "ACCEPTED";
+            case Attendees.ATTENDEE_STATUS_DECLINED:
+                return "DECLINED";
+            case Attendees.ATTENDEE_STATUS_TENTATIVE:
+                return "TENTATIVE";
+            default:
+                return "NEEDS-ACTION";
+        }
+    }
+
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private final int mMaxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            mMaxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > mMaxSize;
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package com.android.calendar.icalendar;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.os.Build;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Attendees;
+import android.provider.CalendarContract.Events;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.android.calendar.calendarcommon2.DateException;
+import com.android.calendar.calendarcommon2.Duration;
+import com.android.calendar.calendarcommon2.Time;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Imports every event of an iCalendar stream into one or more calendars.
+ *
+ * The calling thread reads events one at a time from a {@link VEventReader} and hands them to a
+ * small pool of workers through a bounded queue, so the reader blocks rather than running ahead
+ * of the provider and memory use does not grow with the size of the file. Each worker converts
+ * events to provider values and writes them in batches of {@link #BATCH_SIZE} events per
+ * calendar, each batch in a single provider transaction. Batches written before a failure stay
+ * in their calendar. A {@link CalendarRouter} picks the calendar of each event. Events that
+ * cannot be converted, like events with a malformed start, are left out and listed in the
+ * {@link ImportReport}.
+ */
+public class CalendarImporter {
+
+    private static final String TAG = "CalendarImporter";
+
+    /**
+     * The number of events written per transaction.
+     */
+    static final int BATCH_SIZE = 100;
+
+    private static final int MAX_WORKERS = 4;
+    // Milliseconds the reader waits for room in the queue before checking for a worker failure
+    private static final long OFFER_TIMEOUT = 100;
+
+    private static final String ALL_DAY_PROPERTY = "X-MICROSOFT-CDO-ALLDAYEVENT";
+
+    // Tells a worker that no more events are coming
+    private static final VEvent END_OF_EVENTS = new VEvent();
+
+    public interface ProgressListener {
+        /**
+         * Called on a worker thread after each batch is written.
+         *
+         * @param imported the number of events written so far
+         */
+        void onProgress(int imported);
+    }
+
+    /**
+     * Picks the calendar each event is imported into.
+     */
+    public interface CalendarRouter {
+        /**
+         * Returns the id of the calendar to import the event into, or -1 to leave it out. Called
+         * on the worker threads.
+         */
+        long getCalendarId(VEvent event);
+    }
+
+    /**
+     * Writes a batch of converted events into a calendar in a single transaction.
+     */
+    interface BatchWriter {
+        void write(long calendarId, ArrayList<EventValues> events)
+                throws RemoteException, OperationApplicationException;
+    }
+
+    /**
+     * The values of an event as they are inserted into the provider.
+     */
+    static class EventValues {
+        String title;
+        String location;
+        String description;
+        String uid;
+        boolean allDay;
+        String timezone;
+        long start;
+        // Only used for events without an RRULE
+        long end;
+        String rrule;
+        String duration;
+        int status;
+        List<Attendee> attendees;
+    }
+
+    private static HashSet<String> sTimezoneIds;
+
+    private final BatchWriter mWriter;
+    private final CalendarRouter mRouter;
+    private final int mWorkerCount;
+    private final ArrayBlockingQueue<VEvent> mQueue;
+    private final ImportReport mReport = new ImportReport();
+    private final AtomicReference<Exception> mFailure = new AtomicReference<Exception>();
+
+    /**
+     * Creates an importer writing all events into one calendar.
+     */
+    public CalendarImporter(ContentResolver resolver, final long calendarId) {
+        this(resolver, event -> calendarId, getDefaultWorkerCount());
+    }
+
+    public CalendarImporter(ContentResolver resolver, CalendarRouter router, int workerCount) {
+        this(new ProviderWriter(resolver), router, workerCount);
+    }
+
+    CalendarImporter(BatchWriter writer, CalendarRouter router, int workerCount) {
+        mWriter = writer;
+        mRouter = router;
+        mWorkerCount = Math.max(1, workerCount);
+        // Room for one batch per worker on top of the batches being assembled
+        mQueue = new ArrayBlockingQueue<VEvent>(BATCH_SIZE * mWorkerCount);
+    }
+
+    private static int getDefaultWorkerCount() {
+        // One core is left to the reader
+        return Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Imports all events the reader returns.
+     *
+     * @param listener notified on the worker threads, may be null
+     */
+    public ImportReport importEvents(VEventReader reader, ProgressListener listener)
+            throws IOException, RemoteException, OperationApplicationException {
+        long start = SystemClock.elapsedRealtime();
+        long parseMillis = 0;
+        AtomicInteger imported = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(mWorkerCount);
+        try {
+            for (int i = 0; i < mWorkerCount; i++) {
+                executor.execute(new Worker(imported, listener));
+            }
+            while (true) {
+                long parseStart = SystemClock.elapsedRealtime();
+                VEvent event = reader.next();
+                parseMillis += SystemClock.elapsedRealtime() - parseStart;
+                if (event == null || !enqueue(event)) {
+                    break;
+                }
+            }
+            for (int i = 0; i < mWorkerCount; i++) {
+                if (!enqueue(END_OF_EVENTS)) {
+                    break;
+                }
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                if (mFailure.get() != null) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } finally {
+            // Stops the other workers after a failure, or after the reader threw
+            executor.shutdownNow();
+        }
+        mReport.setParseMillis(parseMillis);
+        mReport.setTotalMillis(SystemClock.elapsedRealtime() - start);
+
+        Exception failure = mFailure.get();
+        if (failure instanceof RemoteException) {
+            throw (RemoteException) failure;
+        } else if (failure instanceof OperationApplicationException) {
+            throw (OperationApplicationException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        return mReport;
+    }
+
+    /**
+     * Waits for room in the queue and adds the event to it.
+     *
+     * @return false if a worker failed and the import has to stop
+     */
+    private boolean enqueue(VEvent event) throws InterruptedException {
+        while (mFailure.get() == null) {
+            if (mQueue.offer(event, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The events of one calendar waiting to be written.
+     */
+    private static class Batch {
+        final ArrayList<EventValues> mEvents = new ArrayList<EventValues>();
+    }
+
+    private class Worker implements Runnable {
+        private final AtomicInteger mImported;
+        private final ProgressListener mListener;
+        // Calendar id -> the events of the calendar waiting to be written
+        private final HashMap<Long, Batch> mBatches = new HashMap<Long, Batch>();
+        // TZID parameter -> timezone id, or null for unknown timezones
+        private final HashMap<String, String> mTimezones = new HashMap<String, String>();
+        private final Duration mDuration = new Duration();
+
+        Worker(AtomicInteger imported, ProgressListener listener) {
+            mImported = imported;
+            mListener = listener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                VEvent event;
+                while ((event = mQueue.take()) != END_OF_EVENTS) {
+                    long calendarId = mRouter.getCalendarId(event);
+                    if (calendarId == -1) {
+                        mReport.addRejected(event, "no calendar");
+                        continue;
+                    }
+                    EventValues values = convert(event);
+                    if (values == null) {
+                        continue;
+                    }
+                    Batch batch = mBatches.get(calendarId);
+                    if (batch == null) {
+                        batch = new Batch();
+                        mBatches.put(calendarId, batch);
+                    }
+                    batch.mEvents.add(values);
+                    if (batch.mEvents.size() == BATCH_SIZE) {
+                        flush(calendarId, batch);
+                    }
+                }
+                for (Map.Entry<Long, Batch> entry : mBatches.entrySet()) {
+                    if (!entry.getValue().mEvents.isEmpty()) {
+                        flush(entry.getKey(), entry.getValue());
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The import was stopped
+            } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+                Log.e(TAG, "Import worker failed", e);
+                mFailure.compareAndSet(null, e);
+            }
+        }
+
+        private void flush(long calendarId, Batch batch)
+                throws RemoteException, OperationApplicationException {
+            long start = SystemClock.elapsedRealtime();
+            mWriter.write(calendarId, batch.mEvents);
+            mReport.addWriteMillis(SystemClock.elapsedRealtime() - start);
+            mReport.addImported(calendarId, batch.mEvents.size());
+            int imported = mImported.addAndGet(batch.mEvents.size());
+            batch.mEvents.clear();
+            if (mListener != null) {
+                mListener.onProgress(imported);
+            }
+        }
+
+        /**
+         * Converts the event to the values inserted into the provider.
+         *
+         * @return null if the event cannot be imported
+         */
+        private EventValues convert(VEvent event) {
+            String dtStart = event.getProperty(VEvent.DTSTART);
+            String dtStartParams = event.getPropertyParameters(VEvent.DTSTART);
+            if (TextUtils.isEmpty(dtStart)) {
+                mReport.addRejected(event, "no start time");
+                return null;
+            }
+            boolean allDay = isDate(dtStartParams, dtStart)
+                    || "TRUE".equals(event.getProperty(ALL_DAY_PROPERTY));
+            String timezone = allDay ? Time.TIMEZONE_UTC : getTimezone(dtStartParams, dtStart);
+            long start = parseDateTime(dtStart, timezone, allDay);
+            if (start == -1) {
+                mReport.addRejected(event, "invalid start time " + dtStart);
+                return null;
+            }
+
+            long end = -1;
+            String dtEnd = event.getProperty(VEvent.DTEND);
+            if (!TextUtils.isEmpty(dtEnd)) {
+                String dtEndParams = event.getPropertyParameters(VEvent.DTEND);
+                end = parseDateTime(dtEnd,
+                        allDay ? Time.TIMEZONE_UTC : getTimezone(dtEndParams, dtEnd), allDay);
+                if (end == -1) {
+                    mReport.addRejected(event, "invalid end time " + dtEnd);
+                    return null;
+                }
+            }
+            String duration = event.getProperty(VEvent.DURATION);
+            if (end == -1 && !TextUtils.isEmpty(duration)) {
+                try {
+                    mDuration.parse(duration);
+                    end = start + mDuration.getMillis();
+                } catch (DateException e) {
+                    duration = null;
+                }
+            }
+            if (end < start) {
+                end = allDay ? start + DateUtils.DAY_IN_MILLIS : start;
+            }
+
+            EventValues values = new EventValues();
+            values.title = getText(event, VEvent.SUMMARY);
+            values.location = getText(event, VEvent.LOCATION);
+            values.description = getText(event, VEvent.DESCRIPTION);
+            values.uid = event.getProperty(VEvent.UID);
+            values.allDay = allDay;
+            values.timezone = timezone;
+            values.start = start;
+            values.end = end;
+            values.status = getStatus(event.getProperty(VEvent.STATUS));
+            values.attendees = event.mAttendees;
+            String rrule = event.getProperty(VEvent.RRULE);
+            if (!TextUtils.isEmpty(rrule)) {
+                // The provider wants a duration rather than an end for recurring events
+                if (TextUtils.isEmpty(duration)) {
+                    duration = allDay
+                            ? "P" + (end - start) / DateUtils.DAY_IN_MILLIS + "D"
+                            : "P" + (end - start) / DateUtils.SECOND_IN_MILLIS + "S";
+                }
+                values.rrule = rrule;
+                values.duration = duration;
+            }
+            return values;
+        }
+
+        /**
+         * Returns the timezone of a DATE-TIME: UTC for UTC times, the TZID for times with a
+         * known TZID and the default timezone for floating times.
+         */
+        private String getTimezone(String params, String value) {
+            if (value.endsWith("Z")) {
+                return Time.TIMEZONE_UTC;
+            }
+            String tzid = getParameter(params, "TZID");
+            if (tzid == null) {
+                return TimeZone.getDefault().getID();
+            }
+            String timezone;
+            if (mTimezones.containsKey(tzid)) {
+                timezone = mTimezones.get(tzid);
+            } else {
+                timezone = resolveTimezone(tzid);
+                mTimezones.put(tzid, timezone);
+            }
+            return timezone != null ? timezone : TimeZone.getDefault().getID();
+        }
+    }
+
+    /**
+     * Inserts the events and their attendees with a {@link ContentResolver#applyBatch}.
+     */
+    private static class ProviderWriter implements BatchWriter {
+        private final ContentResolver mResolver;
+
+        ProviderWriter(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        @Override
+        public void write(long calendarId, ArrayList<EventValues> events)
+                throws RemoteException, OperationApplicationException {
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>();
+            for (EventValues values : events) {
+                int eventIndex = operations.size();
+                ContentProviderOperation.Builder b =
+                        ContentProviderOperation.newInsert(Events.CONTENT_URI)
+                        .withValue(Events.CALENDAR_ID, calendarId)
+                        .withValue(Events.TITLE, values.title)
+                        .withValue(Events.EVENT_LOCATION, values.location)
+                        .withValue(Events.DESCRIPTION, values.description)
+                        .withValue(Events.UID_2445, values.uid)
+                        .withValue(Events.ALL_DAY, values.allDay ? 1 : 0)
+                        .withValue(Events.EVENT_TIMEZONE, values.timezone)
+                        .withValue(Events.DTSTART, values.start)
+                        .withValue(Events.STATUS, values.status)
+                        .withValue(Events.HAS_ATTENDEE_DATA, values.attendees.isEmpty() ? 0 : 1);
+                if (values.rrule != null) {
+                    b.withValue(Events.RRULE, values.rrule)
+                            .withValue(Events.DURATION, values.duration);
+                } else {
+                    b.withValue(Events.DTEND, values.end);
+                }
+                operations.add(b.build());
+
+                for (Attendee attendee : values.attendees) {
+                    if (TextUtils.isEmpty(attendee.mEmail)) {
+                        continue;
+                    }
+                    operations.add(ContentProviderOperation.newInsert(Attendees.CONTENT_URI)
+                            .withValueBackReference(Attendees.EVENT_ID, eventIndex)
+                            .withValue(Attendees.ATTENDEE_EMAIL, attendee.mEmail)
+                            .withValue(Attendees.ATTENDEE_NAME,
+                                    unquote(attendee.mProperties.get(Attendee.CN)))
+                            .withValue(Attendees.ATTENDEE_RELATIONSHIP,
+                                    Attendees.RELATIONSHIP_ATTENDEE)
+                            .withValue(Attendees.ATTENDEE_TYPE,
+                                    getAttendeeType(attendee.mProperties.get(Attendee.ROLE)))
+                            .withValue(Attendees.ATTENDEE_STATUS,
+                                    getAttendeeStatus(attendee.mProperties.get(Attendee.PARTSTAT)))
+                            .build());
+                }
+            }
+            mResolver.applyBatch(CalendarContract.AUTHORITY, operations);
+        }
+    }
+
+    private static String getText(VEvent event, String property) {
+        return IcalendarUtils.uncleanseString(event.getProperty(property));
+    }
+
+    private static boolean isDate(String params, String value) {
+        return (params != null && params.contains("VALUE=DATE") && !params.contains("DATE-TIME"))
+                || value.length() == 8;
+    }
+
+    /**
+     * Returns the millis of an iCalendar DATE or DATE-TIME, or -1 if it cannot be parsed.
+     */
+    private static long parseDateTime(String value, String timezone, boolean allDay) {
+        Time time = new Time(timezone);
+        try {
+            time.parse(allDay && value.length() > 8 ? value.substring(0, 8) : value);
+        } catch (IllegalArgumentException e) {
+            // The caller reports the event as rejected
+            return -1;
+        }
+        if (allDay) {
+            time.setTimezone(Time.TIMEZONE_UTC);
+        }
+        return time.toMillis();
+    }
+
+    /**
+     * Returns the Java timezone id for a TZID, which may also be a Windows timezone name, or
+     * null if the TZID is unknown.
+     */
+    public static String resolveTimezone(String tzid) {
+        synchronized (CalendarImporter.class) {
+            if (sTimezoneIds == null) {
+                sTimezoneIds = new HashSet<String>(Arrays.asList(TimeZone.getAvailableIDs()));
+            }
+        }
+        if (sTimezoneIds.contains(tzid)) {
+            return tzid;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            String converted = android.icu.util.TimeZone.getIDForWindowsID(tzid, "001");
+            if (!TextUtils.isEmpty(converted)) {
+                return converted;
+            }
+        }
+        return null;
+    }
+
+    private static String getParameter(String params, String name) {
+        if (params == null) {
+            return null;
+        }
+        for (String param : IcalendarUtils.splitQuoted(params, ';')) {
+            if (param.startsWith(name + "=")) {
+                return unquote(param.substring(name.length() + 1));
+            }
+        }
+        return null;
+    }
+
+    private static String unquote(String value) {
+        return value != null ? value.replace("\"", "") : null;
+    }
+
+    private static int getStatus(String status) {
+        if ("TENTATIVE".equals(status)) {
+            return Events.STATUS_TENTATIVE;
+        } else if ("CANCELLED".equals(status)) {
+            return Events.STATUS_CANCELED;
+        }
+        return Events.STATUS_CONFIRMED;
+    }
+
+    private static int getAttendeeType(String role) {
+        if ("OPT-PARTICIPANT".equals(role) || "NON-PARTICIPANT".equals(role)) {
+            return Attendees.TYPE_OPTIONAL;
+        }
+        return Attendees.TYPE_REQUIRED;
+    }
+
+    private static int getAttendeeStatus(String partstat) {
+        if ("ACCEPTED".equals(partstat)) {
+            return Attendees.ATTENDEE_STATUS_ACCEPTED;
+        } else if ("DECLINED".equals(partstat)) {
+            return Attendees.ATTENDEE_STATUS_DECLINED;
+        } else if ("TENTATIVE".equals(partstat)) {
+            return Attendees.ATTENDEE_STATUS_TENTATIVE;
+        } else if ("NEEDS-ACTION".equals(partstat)) {
+            return Attendees.ATTENDEE_STATUS_INVITED;
+        }
+        return Attendees.ATTENDEE_STATUS_NONE;
+    }
+}
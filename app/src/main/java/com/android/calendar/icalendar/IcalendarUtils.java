@@ -178,23 +178,7 @@ public class IcalendarUtils {
     }
 
     public static ArrayList<String> getStringArrayFromFile(Context context, Uri uri) {
-        String scheme = uri.getScheme();
-        InputStream inputStream = null;
-        if(ContentResolver.SCHEME_CONTENT.equals(scheme)) {
-            try {
-                inputStream = context.getContentResolver().openInputStream(uri);
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
-        } else if (ContentResolver.SCHEME_FILE.equals(scheme)) {
-            File f = new File(uri.getPath());
-            try {
-                inputStream = new FileInputStream(f);
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
-        }
-
+        InputStream inputStream = openInputStream(context, uri);
         if (inputStream == null) {
             return null;
         }
@@ -213,11 +197,43 @@ public class IcalendarUtils {
         return result;
     }
 
+    /**
+     * Opens a reader returning the events of the given content or file uri one at a time, or
+     * returns null if the uri cannot be opened. The caller must close the reader.
+     */
+    public static VEventReader openEventReader(Context context, Uri uri) {
+        InputStream inputStream = openInputStream(context, uri);
+        if (inputStream == null) {
+            return null;
+        }
+        return new VEventReader(inputStream);
+    }
+
+    private static InputStream openInputStream(Context context, Uri uri) {
+        String scheme = uri.getScheme();
+        InputStream inputStream = null;
+        if(ContentResolver.SCHEME_CONTENT.equals(scheme)) {
+            try {
+                inputStream = context.getContentResolver().openInputStream(uri);
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+            }
+        } else if (ContentResolver.SCHEME_FILE.equals(scheme)) {
+            File f = new File(uri.getPath());
+            try {
+                inputStream = new FileInputStream(f);
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+            }
+        }
+        return inputStream;
+    }
+
     public static boolean writeCalendarToStream(VCalendar calendar, OutputStream outStream) {
         if (calendar == null || outStream == null) return false;
-        String icsFormattedString = calendar.getICalFormattedString();
         try {
-            outStream.write(icsFormattedString.getBytes());
+            // Writes through a buffer rather than building the whole file as a string first
+            new VCalendarWriter(outStream).write(calendar);
         } catch (IOException e) {
             return false;
         }
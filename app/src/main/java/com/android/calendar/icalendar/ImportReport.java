@@ -0,0 +1,109 @@
+package com.android.calendar.icalendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link CalendarImporter} run: how many events went to each calendar, which
+ * events were rejected and where the time went.
+ *
+ * The importer's workers update a report concurrently, so all methods are synchronized.
+ */
+public class ImportReport {
+
+    /**
+     * The number of rejected events whose description is kept.
+     */
+    static final int MAX_REJECTIONS = 50;
+
+    private final HashMap<Long, Integer> mImported = new HashMap<Long, Integer>();
+    private final ArrayList<String> mRejections = new ArrayList<String>();
+    private int mImportedCount;
+    private int mRejectedCount;
+    private long mParseMillis;
+    private long mWriteMillis;
+    private long mTotalMillis;
+
+    synchronized void addImported(long calendarId, int count) {
+        Integer imported = mImported.get(calendarId);
+        mImported.put(calendarId, imported != null ? imported + count : count);
+        mImportedCount += count;
+    }
+
+    synchronized void addRejected(VEvent event, String reason) {
+        mRejectedCount++;
+        if (mRejections.size() < MAX_REJECTIONS) {
+            mRejections.add(event.getProperty(VEvent.UID) + ": " + reason);
+        }
+    }
+
+    synchronized void addWriteMillis(long millis) {
+        mWriteMillis += millis;
+    }
+
+    synchronized void setParseMillis(long millis) {
+        mParseMillis = millis;
+    }
+
+    synchronized void setTotalMillis(long millis) {
+        mTotalMillis = millis;
+    }
+
+    /**
+     * Returns the number of events imported into all calendars.
+     */
+    public synchronized int getImportedCount() {
+        return mImportedCount;
+    }
+
+    /**
+     * Returns the number of events imported per calendar id.
+     */
+    public synchronized Map<Long, Integer> getImportedCounts() {
+        return new HashMap<Long, Integer>(mImported);
+    }
+
+    /**
+     * Returns the number of events that were left out, for example because they had no usable
+     * start time.
+     */
+    public synchronized int getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * Returns "UID: reason" for the first {@link #MAX_REJECTIONS} rejected events.
+     */
+    public synchronized List<String> getRejections() {
+        return Collections.unmodifiableList(new ArrayList<String>(mRejections));
+    }
+
+    /**
+     * Returns the time spent reading and parsing the file.
+     */
+    public synchronized long getParseMillis() {
+        return mParseMillis;
+    }
+
+    /**
+     * Returns the time spent in provider transactions, summed over all workers.
+     */
+    public synchronized long getWriteMillis() {
+        return mWriteMillis;
+    }
+
+    public synchronized long getTotalMillis() {
+        return mTotalMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "imported " + mImportedCount + " events " + mImported
+                + ", rejected " + mRejectedCount
+                + ", parse " + mParseMillis + "ms, write " + mWriteMillis
+                + "ms, total " + mTotalMillis + "ms";
+    }
+}
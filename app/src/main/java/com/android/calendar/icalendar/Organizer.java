@@ -42,15 +42,20 @@ public class Organizer {
      * Returns an iCal formatted string
      */
     public String getICalFormattedString() {
-        StringBuilder output = new StringBuilder();
-        // Add the organizer info
-        output.append("ORGANIZER;CN=" + mName + ":mailto:" + mEmail);
+        StringBuilder output = new StringBuilder(getContentLine());
         // Enforce line length constraints
         output = IcalendarUtils.enforceICalLineLength(output);
         output.append("\n");
         return output.toString();
     }
 
+    /**
+     * Returns the ORGANIZER content line, without line folding
+     */
+    String getContentLine() {
+        return "ORGANIZER;CN=" + mName + ":mailto:" + mEmail;
+    }
+
     public static Organizer populateFromICalString(String iCalFormattedString) {
         // TODO: Add sanity checks
         try {
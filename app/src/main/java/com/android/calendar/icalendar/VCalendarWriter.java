@@ -0,0 +1,134 @@
+package com.android.calendar.icalendar;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes an iCalendar stream one component at a time, so that a calendar of any size can be
+ * exported while only the event being written is held in memory.
+ *
+ * Content lines are folded as they are written: no line is longer than 75 octets of UTF-8, see
+ * RFC 5545 section 3.1, and a fold never splits a character.
+ */
+public class VCalendarWriter implements Closeable {
+
+    private static final int MAX_LINE_OCTETS = 75;
+    private static final String LINE_END = "\r\n";
+
+    private final Writer mWriter;
+    // The octets written on the current physical line
+    private int mLineOctets;
+
+    public VCalendarWriter(OutputStream out) {
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the start of the calendar with its properties. Its events are not written.
+     */
+    public void writeStart(VCalendar calendar) throws IOException {
+        writeLine("BEGIN:VCALENDAR");
+        for (Map.Entry<String, String> property : calendar.mProperties.entrySet()) {
+            writeProperty(property.getKey(), null, property.getValue());
+        }
+    }
+
+    public void writeEvent(VEvent event) throws IOException {
+        writeLine("BEGIN:VEVENT");
+        for (Map.Entry<String, String> property : event.mProperties.entrySet()) {
+            writeProperty(property.getKey(), event.mPropertyParameters.get(property.getKey()),
+                    property.getValue());
+        }
+        if (event.mOrganizer != null) {
+            writeLine(event.mOrganizer.getContentLine());
+        }
+        for (Attendee attendee : event.mAttendees) {
+            writeLine(attendee.getContentLine());
+        }
+        writeLine("END:VEVENT");
+    }
+
+    /**
+     * Writes the end of the calendar and flushes the stream.
+     */
+    public void writeEnd() throws IOException {
+        writeLine("END:VCALENDAR");
+        mWriter.flush();
+    }
+
+    /**
+     * Writes a whole calendar with its events.
+     */
+    public void write(VCalendar calendar) throws IOException {
+        writeStart(calendar);
+        for (VEvent event : calendar.mEvents) {
+            writeEvent(event);
+        }
+        writeEnd();
+    }
+
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+
+    private void writeProperty(String name, String parameters, String value) throws IOException {
+        write(name);
+        if (parameters != null) {
+            write(";");
+            write(parameters);
+        }
+        write(":");
+        write(value);
+        endLine();
+    }
+
+    private void writeLine(String line) throws IOException {
+        write(line);
+        endLine();
+    }
+
+    private void write(String text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            int octets;
+            if (c < 0x80) {
+                octets = 1;
+            } else if (c < 0x800) {
+                octets = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                octets = 4;
+            } else {
+                octets = 3;
+            }
+            if (mLineOctets + octets > MAX_LINE_OCTETS) {
+                // The space starting the continuation line counts towards its length
+                mWriter.write(LINE_END);
+                mWriter.write(' ');
+                mLineOctets = 1;
+            }
+            mWriter.write(c);
+            if (octets == 4) {
+                mWriter.write(text.charAt(++i));
+            }
+            mLineOctets += octets;
+        }
+    }
+
+    private void endLine() throws IOException {
+        mWriter.write(LINE_END);
+        mLineOctets = 0;
+    }
+}
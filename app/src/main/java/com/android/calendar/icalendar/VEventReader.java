@@ -0,0 +1,108 @@
+package com.android.calendar.icalendar;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Reads the VEVENTs of an iCalendar stream one at a time, so that only the event being read is
+ * held in memory however large the file is.
+ *
+ * Folded lines are joined before an event is parsed, and both "\r\n" and "\n" line endings are
+ * accepted. Everything outside a VEVENT, like VTIMEZONE definitions, is skipped.
+ */
+public class VEventReader implements Closeable {
+
+    private final BufferedReader mReader;
+    // The unfolded lines of the event being read
+    private final ArrayList<String> mLines = new ArrayList<String>();
+    private String mPendingLine;
+    private int mEventCount;
+
+    public VEventReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    public VEventReader(Reader reader) {
+        mReader = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Returns the next event of the stream, or null once there are no more.
+     */
+    public VEvent next() throws IOException {
+        mLines.clear();
+        boolean inEvent = false;
+        // Components nested in the event, like VALARMs, are skipped so that their properties
+        // do not overwrite the event's
+        int nested = 0;
+        String line;
+        while ((line = readUnfoldedLine()) != null) {
+            if (!inEvent) {
+                if (line.startsWith("BEGIN:VEVENT")) {
+                    inEvent = true;
+                    mLines.add(line);
+                }
+            } else if (line.startsWith("BEGIN:")) {
+                nested++;
+            } else if (nested > 0) {
+                if (line.startsWith("END:")) {
+                    nested--;
+                }
+            } else {
+                mLines.add(line);
+                if (line.startsWith("END:VEVENT")) {
+                    VEvent event = new VEvent();
+                    event.populateFromEntries(mLines.listIterator());
+                    mEventCount++;
+                    return event;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns how many events {@link #next()} returned so far.
+     */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Returns the next content line with any continuation lines appended, see RFC 5545 section
+     * 3.1, or null at the end of the stream.
+     */
+    private String readUnfoldedLine() throws IOException {
+        String line = mPendingLine != null ? mPendingLine : mReader.readLine();
+        mPendingLine = null;
+        if (line == null) {
+            return null;
+        }
+        StringBuilder unfolded = null;
+        String next;
+        while ((next = mReader.readLine()) != null) {
+            if (next.length() > 0 && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+                if (unfolded == null) {
+                    unfolded = new StringBuilder(line);
+                }
+                unfolded.append(next, 1, next.length());
+            } else {
+                mPendingLine = next;
+                break;
+            }
+        }
+        return unfolded != null ? unfolded.toString() : line;
+    }
+}
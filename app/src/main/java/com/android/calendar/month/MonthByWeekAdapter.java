@@ -33,6 +33,7 @@ import com.android.calendar.CalendarController;
 import com.android.calendar.CalendarController.EventType;
 import com.android.calendar.CalendarController.ViewType;
 import com.android.calendar.Event;
+import com.android.calendar.EventBlockDays;
 import com.android.calendar.Utils;
 import com.android.calendar.calendarcommon2.Time;
 
@@ -63,8 +64,8 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
     protected int mQueryDays;
     protected boolean mIsMiniMonth = true;
     protected int mOrientation = Configuration.ORIENTATION_LANDSCAPE;
-    protected ArrayList<ArrayList<Event>> mEventDayList = new ArrayList<ArrayList<Event>>();
-    protected ArrayList<Event> mEvents = null;
+    // The load holding the events of each loaded day, starting at mFirstJulianDay
+    protected ArrayList<EventBlockDays> mEventDayList = new ArrayList<EventBlockDays>();
     MonthWeekEventsView mClickedView;
     MonthWeekEventsView mSingleTapUpView;
     MonthWeekEventsView mLongClickedView;
@@ -156,7 +157,10 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
         notifyDataSetChanged();
     }
 
-    public void setEvents(int firstJulianDay, int numDays, ArrayList<Event> events) {
+    /**
+     * Replaces the loaded days with the days of the given load, whose rows must be indexed.
+     */
+    public void setEvents(int firstJulianDay, int numDays, EventBlockDays events) {
         if (mIsMiniMonth) {
             if (Log.isLoggable(TAG, Log.ERROR)) {
                 Log.e(TAG, "Attempted to set events for mini view. Events only supported in full"
@@ -164,54 +168,85 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
             }
             return;
         }
-        mEvents = events;
         mFirstJulianDay = firstJulianDay;
         mQueryDays = numDays;
-        // Create a new list, this is necessary since the weeks are referencing
-        // pieces of the old list
-        ArrayList<ArrayList<Event>> eventDayList = new ArrayList<ArrayList<Event>>();
+        ArrayList<EventBlockDays> eventDayList = new ArrayList<EventBlockDays>(numDays);
         for (int i = 0; i < numDays; i++) {
-            eventDayList.add(new ArrayList<Event>());
+            eventDayList.add(events);
         }
+        mEventDayList = eventDayList;
 
-        if (events == null || events.size() == 0) {
-            if(Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "No events. Returning early--go schedule something fun.");
-            }
-            mEventDayList = eventDayList;
-            refresh();
-            return;
+        if(Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Processed " + events.getBlock().size() + " events.");
         }
+        refresh();
+    }
 
-        // Compute the new set of days with events
-        for (Event event : events) {
-            int startDay = event.startDay - mFirstJulianDay;
-            int endDay = event.endDay - mFirstJulianDay + 1;
-            if (startDay < numDays || endDay >= 0) {
-                if (startDay < 0) {
-                    startDay = 0;
-                }
-                if (startDay > numDays) {
-                    continue;
-                }
-                if (endDay < 0) {
-                    continue;
-                }
-                if (endDay > numDays) {
-                    endDay = numDays;
-                }
-                for (int j = startDay; j < endDay; j++) {
-                    eventDayList.get(j).add(event);
-                }
-            }
+    /**
+     * Replaces the events of the days firstJulianDay to firstJulianDay + numDays - 1 and keeps
+     * the other loaded days, so that scrolling only has to load the weeks coming into view.
+     * When the days are not next to the loaded ones they replace them, like
+     * {@link #setEvents(int, int, EventBlockDays)}.
+     *
+     * @param events the load of the days, its rows indexed the way they are shown within a day
+     */
+    public void addEvents(int firstJulianDay, int numDays, EventBlockDays events) {
+        int lastJulianDay = firstJulianDay + numDays - 1;
+        if (mIsMiniMonth || mEventDayList.isEmpty()
+                || firstJulianDay > getLastLoadedJulianDay() + 1
+                || lastJulianDay < mFirstJulianDay - 1) {
+            setEvents(firstJulianDay, numDays, events);
+            return;
         }
-        if(Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "Processed " + events.size() + " events.");
+        while (firstJulianDay < mFirstJulianDay) {
+            mEventDayList.add(0, null);
+            mFirstJulianDay--;
+        }
+        while (lastJulianDay > getLastLoadedJulianDay()) {
+            mEventDayList.add(null);
+        }
+        for (int day = firstJulianDay; day <= lastJulianDay; day++) {
+            mEventDayList.set(day - mFirstJulianDay, events);
+        }
+        mQueryDays = mEventDayList.size();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Added " + events.getBlock().size() + " events for days "
+                    + firstJulianDay + "+" + numDays + ", loaded " + mFirstJulianDay + "+"
+                    + mQueryDays);
         }
-        mEventDayList = eventDayList;
         refresh();
     }
 
+    /**
+     * Drops the events of the loaded days outside firstJulianDay to lastJulianDay.
+     */
+    public void trimEvents(int firstJulianDay, int lastJulianDay) {
+        if (mEventDayList.isEmpty()) {
+            return;
+        }
+        int from = Math.max(0, firstJulianDay - mFirstJulianDay);
+        int to = Math.min(mEventDayList.size(), lastJulianDay - mFirstJulianDay + 1);
+        if (from >= to) {
+            mEventDayList = new ArrayList<EventBlockDays>();
+        } else if (from > 0 || to < mEventDayList.size()) {
+            mEventDayList = new ArrayList<EventBlockDays>(mEventDayList.subList(from, to));
+            mFirstJulianDay += from;
+        }
+        mQueryDays = mEventDayList.size();
+    }
+
+    /**
+     * Returns the first day with loaded events. Only meaningful if
+     * {@link #getLastLoadedJulianDay()} is not smaller.
+     */
+    public int getFirstLoadedJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    public int getLastLoadedJulianDay() {
+        return mFirstJulianDay + mEventDayList.size() - 1;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
@@ -299,7 +334,25 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
             v.setEvents(null, null);
             return;
         }
-        v.setEvents(mEventDayList.subList(start, end), mEvents);
+        // The week gets its own lists and events, created only now from the loaded rows, and
+        // each event once in the order of its first day in the week for the dna. The days of
+        // the week may come from different loads, the created events are shared across them
+        // so that an event crossing from one load into the next is still one event.
+        ArrayList<ArrayList<Event>> weekEvents = new ArrayList<ArrayList<Event>>(end - start);
+        ArrayList<Event> unsortedEvents = new ArrayList<Event>();
+        HashMap<Long, ArrayList<Event>> created = new HashMap<Long, ArrayList<Event>>();
+        for (int i = start; i < end; i++) {
+            int day = mFirstJulianDay + i;
+            ArrayList<Event> dayEvents = new ArrayList<Event>();
+            mEventDayList.get(i).addEvents(day, dayEvents, created);
+            weekEvents.add(dayEvents);
+            for (Event event : dayEvents) {
+                if (event.startDay == day || (i == start && event.startDay < day)) {
+                    unsortedEvents.add(event);
+                }
+            }
+        }
+        v.setEvents(weekEvents, unsortedEvents);
     }
 
     @Override
@@ -328,8 +381,8 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
             // Else, check if the day we tapped has any events scheduled to it.
             int viewJulianDay = Time.getJulianDay(day.normalize(), day.getGmtOffset());
             int dayIndex = viewJulianDay - mFirstJulianDay;
-            boolean dayHasEvents = mEventDayList.subList(dayIndex, dayIndex + 1)
-                     .stream().anyMatch(l -> !l.isEmpty());
+            boolean dayHasEvents = dayIndex >= 0 && dayIndex < mEventDayList.size()
+                    && mEventDayList.get(dayIndex).getEventCount(viewJulianDay) > 0;
 
             if (dayHasEvents) {
                 // If there are events on that day, switch to the detailed view for that day
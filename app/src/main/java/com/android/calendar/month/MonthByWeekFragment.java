@@ -17,17 +17,11 @@
 package com.android.calendar.month;
 
 import android.app.Activity;
-import android.content.ContentUris;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.drawable.StateListDrawable;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.provider.CalendarContract.Attendees;
-import android.provider.CalendarContract.Calendars;
-import android.provider.CalendarContract.Instances;
 import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -39,46 +33,36 @@ import android.view.ViewGroup;
 import android.widget.AbsListView;
 import android.widget.AbsListView.OnScrollListener;
 
-import androidx.annotation.NonNull;
 import androidx.fragment.app.FragmentManager;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.CursorLoader;
-import androidx.loader.content.Loader;
 
 import com.android.calendar.CalendarController;
 import com.android.calendar.CalendarController.EventInfo;
 import com.android.calendar.CalendarController.EventType;
 import com.android.calendar.CalendarController.ViewType;
 import com.android.calendar.theme.DynamicThemeKt;
-import com.android.calendar.Event;
+import com.android.calendar.EventBlock;
+import com.android.calendar.EventBlockDays;
+import com.android.calendar.EventLoader;
 import com.android.calendar.Utils;
 import com.android.calendar.event.CreateEventDialogFragment;
 import com.android.calendar.calendarcommon2.Time;
 
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
-import java.util.List;
 
 import ws.xsoh.etar.R;
 
 public class MonthByWeekFragment extends SimpleDayPickerFragment implements
-        CalendarController.EventHandler, LoaderManager.LoaderCallbacks<Cursor>, OnScrollListener,
-        OnTouchListener {
+        CalendarController.EventHandler, OnScrollListener, OnTouchListener {
     private static final String TAG = "MonthFragment";
     private static final String TAG_EVENT_DIALOG = "event_dialog";
-    // Selection and selection args for adding event queries
-    private static final String WHERE_CALENDARS_VISIBLE = Calendars.VISIBLE + "=1";
-    private static final String INSTANCES_SORT_ORDER = Instances.START_DAY + ","
-            + Instances.START_MINUTE + "," + Instances.TITLE;
     private static final int WEEKS_BUFFER = 1;
+    // Loaded weeks further than this from the weeks to load are dropped
+    private static final int WEEKS_KEPT = 6;
     // How long to wait after scroll stops before starting the loader
     // Using scroll duration because scroll state changes don't update
     // correctly when a scroll is triggered programmatically.
     private static final int LOADER_DELAY = 200;
-    // The minimum time between requeries of the data if the db is
-    // changing
-    private static final int LOADER_THROTTLE_DELAY = 500;
     protected static boolean mShowDetailsInMonth = false;
     private final Time mDesiredDay = new Time();
     private final Runnable mTZUpdater = new Runnable() {
@@ -103,31 +87,32 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
     protected int mFirstLoadedJulianDay;
     protected int mLastLoadedJulianDay;
     private CreateEventDialogFragment mEventDialog;
-    private CursorLoader mLoader;
-    private Uri mEventUri;
+    private EventLoader mEventLoader;
+    private boolean mEventsLoadingStarted;
+    // Incremented whenever a load is stopped so that stale results are dropped
+    private int mLoadRequestId;
     private volatile boolean mShouldLoad = true;
     private final Runnable mUpdateLoader = new Runnable() {
         @Override
         public void run() {
             synchronized (this) {
-                if (!mShouldLoad || mLoader == null) {
+                if (!mShouldLoad || !mEventsLoadingStarted) {
                     return;
                 }
-                // Stop any previous loads while we update the uri
+                // Stop any previous loads while we update the range
                 stopLoader();
 
-                // Start the loader again
-                mEventUri = updateUri();
-
-                mLoader.setUri(mEventUri);
-                mLoader.startLoading();
-                mLoader.onContentChanged();
-                if (Log.isLoggable(TAG, Log.DEBUG)) {
-                    Log.d(TAG, "Started loader with uri: " + mEventUri);
-                }
+                // Load the weeks that came into view
+                updateLoadedDays();
+                loadNewDays();
             }
         }
     };
+    private final Runnable mCancelCallback = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
     private boolean mUserScrolled = false;
     private int mEventsLoadingDelay;
     private boolean mShowCalendarControls;
@@ -137,8 +122,7 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
         @Override
         public void run() {
             if (!mIsDetached) {
-                mLoader = (CursorLoader) LoaderManager.getInstance(MonthByWeekFragment.this)
-                        .initLoader(0, null, MonthByWeekFragment.this);
+                startLoadingEvents();
             }
         }
     };
@@ -166,64 +150,114 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
     }
 
     /**
-     * Updates the uri used by the loader according to the current position of
-     * the listview.
-     *
-     * @return The new Uri to use
+     * Updates the range of julian days to load according to the current
+     * position of the listview.
      */
-    private Uri updateUri() {
+    private void updateLoadedDays() {
         SimpleWeekView child = (SimpleWeekView) mListView.getChildAt(0);
         if (child != null) {
             mFirstLoadedJulianDay = child.getFirstJulianDay();
         }
-        // -1 to ensure we get all day events from any time zone
-        mTempTime.setJulianDay(mFirstLoadedJulianDay - 1);
-        long start = mTempTime.toMillis();
         mLastLoadedJulianDay = mFirstLoadedJulianDay + (mNumWeeks + 2 * WEEKS_BUFFER) * 7;
-        // +1 to ensure we get all day events from any time zone
-        mTempTime.setJulianDay(mLastLoadedJulianDay + 1);
-        long end = mTempTime.toMillis();
-
-        // Create a new uri with the updated times
-        Uri.Builder builder = Instances.CONTENT_URI.buildUpon();
-        ContentUris.appendId(builder, start);
-        ContentUris.appendId(builder, end);
-        return builder.build();
     }
 
-    // Extract range of julian days from URI
-    private void updateLoadedDays() {
-        List<String> pathSegments = mEventUri.getPathSegments();
-        int size = pathSegments.size();
-        if (size <= 2) {
-            return;
+    private void startLoadingEvents() {
+        synchronized (mUpdateLoader) {
+            mEventsLoadingStarted = true;
+            mFirstLoadedJulianDay =
+                    Time.getJulianDay(mSelectedDay.toMillis(), mSelectedDay.getGmtOffset())
+                    - (mNumWeeks * 7 / 2);
+            updateLoadedDays();
+            loadEvents();
         }
-        long first = Long.parseLong(pathSegments.get(size - 2));
-        long last = Long.parseLong(pathSegments.get(size - 1));
-        mTempTime.set(first);
-        mFirstLoadedJulianDay = Time.getJulianDay(first, mTempTime.getGmtOffset());
-        mTempTime.set(last);
-        mLastLoadedJulianDay = Time.getJulianDay(last, mTempTime.getGmtOffset());
     }
 
-    protected String updateWhere() {
-        // TODO fix selection/selection args after b/3206641 is fixed
-        String where = WHERE_CALENDARS_VISIBLE;
-        if (mHideDeclined || !mShowDetailsInMonth) {
-            where += " AND " + Instances.SELF_ATTENDEE_STATUS + "!="
-                    + Attendees.ATTENDEE_STATUS_DECLINED;
+    /**
+     * Loads the events between mFirstLoadedJulianDay and mLastLoadedJulianDay
+     * in the background and hands them to the adapter, replacing the days it
+     * has. Days that were loaded before are served from the shared instance
+     * cache.
+     */
+    private void loadEvents() {
+        loadEvents(mFirstLoadedJulianDay, mLastLoadedJulianDay, false);
+    }
+
+    /**
+     * Loads only the days between mFirstLoadedJulianDay and mLastLoadedJulianDay
+     * the adapter does not have yet, and drops the loaded weeks that are far
+     * from them, so that scrolling does not rebuild the weeks still in view.
+     */
+    private void loadNewDays() {
+        MonthByWeekAdapter adapter = (MonthByWeekAdapter) mAdapter;
+        adapter.trimEvents(mFirstLoadedJulianDay - WEEKS_KEPT * 7,
+                mLastLoadedJulianDay + WEEKS_KEPT * 7);
+        int loadedFirst = adapter.getFirstLoadedJulianDay();
+        int loadedLast = adapter.getLastLoadedJulianDay();
+        boolean missingBefore = mFirstLoadedJulianDay < loadedFirst;
+        boolean missingAfter = mLastLoadedJulianDay > loadedLast;
+        if (loadedLast < loadedFirst || (missingBefore && missingAfter)
+                || mFirstLoadedJulianDay > loadedLast || mLastLoadedJulianDay < loadedFirst) {
+            loadEvents();
+        } else if (missingBefore) {
+            loadEvents(mFirstLoadedJulianDay, loadedFirst - 1, true);
+        } else if (missingAfter) {
+            loadEvents(loadedLast + 1, mLastLoadedJulianDay, true);
+        }
+    }
+
+    /**
+     * Loads the events between firstJulianDay and lastJulianDay in the
+     * background and hands them to the adapter.
+     *
+     * @param incremental whether the days are added to the days the adapter
+     *                    has rather than replacing them
+     */
+    private void loadEvents(final int firstJulianDay, int lastJulianDay,
+            final boolean incremental) {
+        final int requestId = ++mLoadRequestId;
+        final int numDays = lastJulianDay - firstJulianDay + 1;
+        final EventBlockDays days = new EventBlockDays(new EventBlock(), firstJulianDay, numDays);
+        // Declined events are only shown when there is room for event details
+        boolean hideDeclined = mHideDeclined || !mShowDetailsInMonth;
+        mEventLoader.loadEventsInBackground(numDays, days.getBlock(), firstJulianDay,
+                hideDeclined, new Runnable() {
+                    @Override
+                    public void run() {
+                        // Events are shown in each day ordered by start day, start minute
+                        // and title
+                        days.indexRows(EventBlock.ORDER_BY_DAY_AND_TIME);
+                    }
+                }, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestId != mLoadRequestId || mIsDetached) {
+                            // We've started a new load since this one ran so
+                            // ignore the result
+                            return;
+                        }
+                        if (Log.isLoggable(TAG, Log.DEBUG)) {
+                            Log.d(TAG, "Loaded " + days.getBlock().size() + " events for days "
+                                    + firstJulianDay + "+" + numDays);
+                        }
+                        MonthByWeekAdapter adapter = (MonthByWeekAdapter) mAdapter;
+                        if (incremental) {
+                            adapter.addEvents(firstJulianDay, numDays, days);
+                        } else {
+                            adapter.setEvents(firstJulianDay, numDays, days);
+                        }
+                    }
+                }, mCancelCallback);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Started loading days " + firstJulianDay + "+" + numDays);
         }
-        return where;
     }
 
     private void stopLoader() {
         synchronized (mUpdateLoader) {
             mHandler.removeCallbacks(mUpdateLoader);
-            if (mLoader != null) {
-                mLoader.stopLoading();
-                if (Log.isLoggable(TAG, Log.DEBUG)) {
-                    Log.d(TAG, "Stopped loader from loading");
-                }
+            mLoadRequestId++;
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Stopped loader from loading");
             }
         }
     }
@@ -247,6 +281,28 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
             mEventsLoadingDelay = res.getInteger(R.integer.calendar_controls_animation_time);
         }
         mShowDetailsInMonth = res.getBoolean(R.bool.show_details_in_month);
+        if (!mIsMiniMonth && mEventLoader == null) {
+            mEventLoader = new EventLoader(activity);
+        }
+    }
+
+    @Override
+    public void onResume() {
+        if (mEventLoader != null) {
+            mEventLoader.startBackgroundThread();
+        }
+        super.onResume();
+        // Pick up any changes made while we were paused
+        eventsChanged();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        if (mEventLoader != null) {
+            stopLoader();
+            mEventLoader.stopBackgroundThread();
+        }
     }
 
     @Override
@@ -315,8 +371,7 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
             if (mShowCalendarControls) {
                 mListView.postDelayed(mLoadingRunnable, mEventsLoadingDelay);
             } else {
-                mLoader = (CursorLoader) LoaderManager.getInstance(MonthByWeekFragment.this)
-                        .initLoader(0, null, this);
+                startLoadingEvents();
             }
         }
         mAdapter.setListView(mListView);
@@ -336,29 +391,6 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
         }
     }
 
-    // TODO
-    @NonNull
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        CursorLoader loader;
-        synchronized (mUpdateLoader) {
-            mFirstLoadedJulianDay =
-                    Time.getJulianDay(mSelectedDay.toMillis(), mSelectedDay.getGmtOffset())
-                    - (mNumWeeks * 7 / 2);
-            mEventUri = updateUri();
-            String where = updateWhere();
-
-            loader = new CursorLoader(
-                    requireActivity(), mEventUri, Event.EVENT_PROJECTION, where,
-                    null /* WHERE_CALENDARS_SELECTED_ARGS */, INSTANCES_SORT_ORDER);
-            loader.setUpdateThrottle(LOADER_THROTTLE_DELAY);
-        }
-        if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "Returning new loader with uri: " + mEventUri);
-        }
-        return loader;
-    }
-
     @Override
     public void doResumeUpdates() {
         mFirstDayOfWeek = Utils.getFirstDayOfWeek(mContext);
@@ -369,8 +401,8 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
         }
         boolean prevHideDeclined = mHideDeclined;
         mHideDeclined = Utils.getHideDeclinedEvents(mContext);
-        if (prevHideDeclined != mHideDeclined && mLoader != null) {
-            mLoader.setSelection(updateWhere());
+        if (prevHideDeclined != mHideDeclined && mEventsLoadingStarted) {
+            loadEvents();
         }
         mDaysPerWeek = Utils.getMDaysPerWeek(mContext);
         updateHeader();
@@ -381,38 +413,11 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
     }
 
     @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
+    public void eventsChanged() {
         synchronized (mUpdateLoader) {
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "Found " + data.getCount() + " cursor entries for uri " + mEventUri);
-            }
-            CursorLoader cLoader = (CursorLoader) loader;
-            if (mEventUri == null) {
-                mEventUri = cLoader.getUri();
-                updateLoadedDays();
-            }
-            if (cLoader.getUri().compareTo(mEventUri) != 0) {
-                // We've started a new query since this loader ran so ignore the
-                // result
-                return;
+            if (mEventsLoadingStarted) {
+                loadEvents();
             }
-            ArrayList<Event> events = new ArrayList<Event>();
-            Event.buildEventsFromCursor(
-                    events, data, mContext, mFirstLoadedJulianDay, mLastLoadedJulianDay);
-            ((MonthByWeekAdapter) mAdapter).setEvents(mFirstLoadedJulianDay,
-                    mLastLoadedJulianDay - mFirstLoadedJulianDay + 1, events);
-        }
-    }
-
-    @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-    }
-
-    @Override
-    public void eventsChanged() {
-        // TODO remove this after b/3387924 is resolved
-        if (mLoader != null) {
-            mLoader.forceLoad();
         }
     }
 
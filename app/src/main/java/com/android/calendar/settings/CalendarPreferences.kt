@@ -23,10 +23,15 @@ import android.accounts.AuthenticatorDescription
 import android.content.Intent
 import android.content.pm.PackageManager
 import android.graphics.drawable.Drawable
+import android.net.Uri
 import android.os.Bundle
 import android.provider.CalendarContract
 import android.provider.Settings
+import android.util.Log
+import android.widget.Toast
+import androidx.activity.result.contract.ActivityResultContracts
 import androidx.core.content.ContextCompat
+import androidx.lifecycle.lifecycleScope
 import androidx.preference.EditTextPreference
 import androidx.preference.Preference
 import androidx.preference.PreferenceCategory
@@ -34,9 +39,14 @@ import androidx.preference.PreferenceFragmentCompat
 import androidx.preference.SwitchPreference
 import com.android.calendar.Utils
 import com.android.calendar.alerts.channelId
+import com.android.calendar.icalendar.CalendarExporter
 import com.android.calendar.persistence.ICalendarRepository
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import ws.xsoh.etar.R
+import java.io.IOException
 
 
 class CalendarPreferences : PreferenceFragmentCompat() {
@@ -46,6 +56,13 @@ class CalendarPreferences : PreferenceFragmentCompat() {
     private lateinit var account: Account
     private var numberOfEvents: Long = -1
 
+    private val exportLauncher = registerForActivityResult(
+            ActivityResultContracts.CreateDocument(ICS_MIME_TYPE)) { uri ->
+        if (uri != null) {
+            exportCalendar(uri)
+        }
+    }
+
     override fun onCreatePreferences(savedInstanceState: Bundle?, rootKey: String?) {
         calendarId = requireArguments().getLong(ARG_CALENDAR_ID)
         calendarRepository = ICalendarRepository.get(requireActivity().application)
@@ -102,6 +119,14 @@ class CalendarPreferences : PreferenceFragmentCompat() {
             deleteCalendar()
             true
         }
+        val exportPreference = Preference(context).apply {
+            title = getString(R.string.preferences_calendar_export)
+        }
+        exportPreference.setOnPreferenceClickListener {
+            val displayName = preferenceManager.preferenceDataStore!!.getString(DISPLAY_NAME_KEY, null)
+            exportLauncher.launch(if (displayName.isNullOrBlank()) "calendar.ics" else "$displayName.ics")
+            true
+        }
         val configurePreference = Preference(context).apply {
             title = getString(R.string.preferences_calendar_configure_account, authenticatorInfo?.label)
             intent = authenticatorInfo?.intent
@@ -150,6 +175,9 @@ class CalendarPreferences : PreferenceFragmentCompat() {
         if (authenticatorInfo?.intent != null && !isLocalAccount) {
             screen.addPreference(configurePreference)
         }
+        if (numberOfEvents > 0) {
+            screen.addPreference(exportPreference)
+        }
 
         screen.addPreference(infoCategory)
 
@@ -236,7 +264,37 @@ class CalendarPreferences : PreferenceFragmentCompat() {
         warningDialog.show()
     }
 
+    private fun exportCalendar(uri: Uri) {
+        val context = requireContext().applicationContext
+        lifecycleScope.launch {
+            // The events are streamed to the file page by page, so any calendar size fits in memory
+            val exported = withContext(Dispatchers.IO) {
+                try {
+                    context.contentResolver.openOutputStream(uri)?.use { out ->
+                        CalendarExporter(context.contentResolver, calendarId).exportEvents(out, null)
+                    }
+                } catch (e: IOException) {
+                    Log.e(TAG, "Cannot export calendar $calendarId", e)
+                    null
+                } catch (e: SecurityException) {
+                    Log.e(TAG, "Cannot export calendar $calendarId", e)
+                    null
+                }
+            }
+            if (exported != null) {
+                Toast.makeText(context, context.resources.getQuantityString(
+                        R.plurals.preferences_calendar_export_done, exported, exported),
+                        Toast.LENGTH_SHORT).show()
+            } else {
+                Toast.makeText(context, R.string.preferences_calendar_export_error, Toast.LENGTH_SHORT).show()
+            }
+        }
+    }
+
     companion object {
+        private const val TAG = "CalendarPreferences"
+        private const val ICS_MIME_TYPE = "text/calendar"
+
         const val COLOR_PICKER_DIALOG_TAG = "CalendarColorPickerDialog"
 
         const val ARG_CALENDAR_ID = "calendarId"
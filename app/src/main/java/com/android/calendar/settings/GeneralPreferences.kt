@@ -49,6 +49,7 @@ import androidx.preference.SwitchPreference
 import com.android.calendar.CalendarController
 import com.android.calendar.CalendarRecentSuggestionsProvider
 import com.android.calendar.CalendarUtils
+import com.android.calendar.InstanceCache
 import com.android.calendar.Utils
 import com.android.calendar.alerts.AlertReceiver
 import com.android.calendar.event.EventViewUtils
@@ -275,6 +276,8 @@ class GeneralPreferences : PreferenceFragmentCompat(),
                 }
             }
             KEY_REAL_EVENT_COLORS -> {
+                // Cached instances hold colors adjusted for the old setting
+                InstanceCache.getInstance(a).invalidate()
                 Utils.sendUpdateWidgetIntent(a)
             }
         }
@@ -28,7 +28,6 @@ import com.android.calendar.Utils;
 import com.android.calendar.calendarcommon2.Time;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.TimeZone;
 
@@ -46,6 +45,8 @@ class CalendarAppWidgetModel {
     final int mMaxJulianDay;
     private String mHomeTZName;
     private boolean mShowTZ;
+    // Shared by the models built from the rows of one query, set before the model is handed out
+    CalendarWidgetTimeline mTimeline;
 
     public CalendarAppWidgetModel(Context context, String timeZone) {
         mNow = System.currentTimeMillis();
@@ -60,10 +61,12 @@ class CalendarAppWidgetModel {
     }
 
     public void buildFromCursor(Cursor cursor, String timeZone) {
-        final ArrayList<LinkedList<RowInfo>> mBuckets =
-                new ArrayList<LinkedList<RowInfo>>(CalendarAppWidgetService.MAX_DAYS);
+        // The rows of each day, created when an event first falls into that day.  All-day
+        // events go before the others.
+        final ArrayList<ArrayList<RowInfo>> buckets =
+                new ArrayList<ArrayList<RowInfo>>(CalendarAppWidgetService.MAX_DAYS);
         for (int i = 0; i < CalendarAppWidgetService.MAX_DAYS; i++) {
-            mBuckets.add(new LinkedList<RowInfo>());
+            buckets.add(null);
         }
         mShowTZ = !TextUtils.equals(timeZone, Utils.getCurrentTimezone());
         if (mShowTZ) {
@@ -72,6 +75,7 @@ class CalendarAppWidgetModel {
 
         cursor.moveToPosition(-1);
         String tz = Utils.getTimeZone(mContext, null);
+        final Time recycle = new Time();
         while (cursor.moveToNext()) {
             final int rowId = cursor.getPosition();
             final long eventId = cursor.getLong(CalendarAppWidgetService.INDEX_EVENT_ID);
@@ -91,7 +95,6 @@ class CalendarAppWidgetModel {
 
             // Adjust all-day times into local timezone
             if (allDay) {
-                final Time recycle = new Time();
                 start = Utils.convertAlldayUtcToLocal(recycle, start, tz);
                 end = Utils.convertAlldayUtcToLocal(recycle, end, tz);
             }
@@ -110,14 +113,19 @@ class CalendarAppWidgetModel {
             int i = mEventInfos.size();
             mEventInfos.add(populateEventInfo(eventId, allDay, start, end, startDay, endDay, title,
                     location, color, selfStatus));
-            // populate the day buckets that this event falls into
+            // populate the day buckets that this event falls into, the row is the same for
+            // all of them
+            RowInfo rowInfo = new RowInfo(RowInfo.TYPE_MEETING, i);
             int from = Math.max(startDay, mTodayJulianDay);
             int to = Math.min(endDay, mMaxJulianDay);
             for (int day = from; day <= to; day++) {
-                LinkedList<RowInfo> bucket = mBuckets.get(day - mTodayJulianDay);
-                RowInfo rowInfo = new RowInfo(RowInfo.TYPE_MEETING, i);
+                ArrayList<RowInfo> bucket = buckets.get(day - mTodayJulianDay);
+                if (bucket == null) {
+                    bucket = new ArrayList<RowInfo>(4);
+                    buckets.set(day - mTodayJulianDay, bucket);
+                }
                 if (allDay) {
-                    bucket.addFirst(rowInfo);
+                    bucket.add(0, rowInfo);
                 } else {
                     bucket.add(rowInfo);
                 }
@@ -126,12 +134,12 @@ class CalendarAppWidgetModel {
 
         int day = mTodayJulianDay;
         int count = 0;
-        for (LinkedList<RowInfo> bucket : mBuckets) {
-            if (!bucket.isEmpty()) {
+        final Time dayRecycle = new Time(timeZone);
+        for (ArrayList<RowInfo> bucket : buckets) {
+            if (bucket != null) {
                 // We don't show day header in today
                 if (day != mTodayJulianDay) {
-                    final Time recycle = new Time(timeZone);
-                    final DayInfo dayInfo = populateDayInfo(day, recycle);
+                    final DayInfo dayInfo = populateDayInfo(day, dayRecycle);
                     // Add the day header
                     final int dayIndex = mDayInfos.size();
                     mDayInfos.add(dayInfo);
@@ -149,6 +157,37 @@ class CalendarAppWidgetModel {
         }
     }
 
+    /**
+     * Returns the number of rows that would be drawn differently from the rows of the given
+     * model, as each model looks at the time it was built.  Zero means that the widget does
+     * not need to be redrawn.
+     */
+    int countChangedRows(CalendarAppWidgetModel previous) {
+        final int size = mRowInfos.size();
+        final int previousSize = previous.mRowInfos.size();
+        int changed = Math.abs(size - previousSize);
+        for (int i = Math.min(size, previousSize) - 1; i >= 0; i--) {
+            if (!isSameRow(mRowInfos.get(i), previous, previous.mRowInfos.get(i))) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private boolean isSameRow(RowInfo row, CalendarAppWidgetModel previous, RowInfo previousRow) {
+        if (row.mType != previousRow.mType) {
+            return false;
+        }
+        if (row.mType == RowInfo.TYPE_DAY) {
+            return mDayInfos.get(row.mIndex).equals(previous.mDayInfos.get(previousRow.mIndex));
+        }
+        EventInfo event = mEventInfos.get(row.mIndex);
+        EventInfo previousEvent = previous.mEventInfos.get(previousRow.mIndex);
+        // The row of an event in progress has its own background
+        return event.equals(previousEvent)
+                && event.isInProgress(mNow) == previousEvent.isInProgress(previous.mNow);
+    }
+
     private EventInfo populateEventInfo(long eventId, boolean allDay, long start, long end,
                                         int startDay, int endDay, String title, String location, int color, int selfStatus) {
         EventInfo eventInfo = new EventInfo();
@@ -283,6 +322,10 @@ class CalendarAppWidgetModel {
             visibTitle = View.GONE;
         }
 
+        boolean isInProgress(long now) {
+            return !allDay && start <= now && now <= end;
+        }
+
         @Override
         public String toString() {
             StringBuilder builder = new StringBuilder();
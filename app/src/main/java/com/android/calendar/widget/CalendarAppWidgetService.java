@@ -21,15 +21,10 @@ import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.Intent;
-import android.content.Loader;
 import android.content.res.Resources;
 import android.database.Cursor;
-import android.database.MatrixCursor;
 import android.graphics.Paint;
-import android.net.Uri;
-import android.os.Handler;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Events;
@@ -47,9 +42,6 @@ import com.android.calendar.widget.CalendarAppWidgetModel.EventInfo;
 import com.android.calendar.widget.CalendarAppWidgetModel.RowInfo;
 import com.android.calendar.calendarcommon2.Time;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import ws.xsoh.etar.R;
 
@@ -82,13 +74,10 @@ public class CalendarAppWidgetService extends RemoteViewsService {
     static final int INDEX_SELF_ATTENDEE_STATUS = 9;
     static final int MAX_DAYS = 31;
     private static final String TAG = "CalendarWidget";
-    private static final String EVENT_SORT_ORDER = Instances.START_DAY + " ASC, "
-            + Instances.START_MINUTE + " ASC, " + Instances.END_DAY + " ASC, "
-            + Instances.END_MINUTE + " ASC LIMIT " + EVENT_MAX_COUNT;
-    private static final String EVENT_SELECTION = Calendars.VISIBLE + "=1";
-    private static final String EVENT_SELECTION_HIDE_DECLINED = Calendars.VISIBLE + "=1 AND "
+    static final String EVENT_SELECTION = Calendars.VISIBLE + "=1";
+    static final String EVENT_SELECTION_HIDE_DECLINED = Calendars.VISIBLE + "=1 AND "
             + Instances.SELF_ATTENDEE_STATUS + "!=" + Attendees.ATTENDEE_STATUS_DECLINED;
-    private static final long SEARCH_DURATION = MAX_DAYS * DateUtils.DAY_IN_MILLIS;
+    static final long SEARCH_DURATION = MAX_DAYS * DateUtils.DAY_IN_MILLIS;
     /**
      * Update interval used when no next-update calculated, or bad trigger time in past.
      * Unit: milliseconds.
@@ -123,31 +112,24 @@ public class CalendarAppWidgetService extends RemoteViewsService {
     }
 
     public static class CalendarFactory extends BroadcastReceiver implements
-            RemoteViewsService.RemoteViewsFactory, Loader.OnLoadCompleteListener<Cursor> {
+            RemoteViewsService.RemoteViewsFactory, CalendarWidgetSnapshot.Listener {
         private static final boolean LOGD = false;
-        private static final AtomicInteger currentVersion = new AtomicInteger(0);
         // Suppress unnecessary logging about update time. Need to be static as this object is
         // re-instanciated frequently.
         // TODO: It seems loadData() is called via onCreate() four times, which should mean
         // unnecessary CalendarFactory object is created and dropped. It is not efficient.
         private static long sLastUpdateTime = UPDATE_TIME_NO_EVENTS;
-        private static CalendarAppWidgetModel mModel;
-        private static Object mLock = new Object();
-        private static volatile int mSerialNum = 0;
-        private final Handler mHandler = new Handler();
-        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+        // The snapshot version the next update alarm was last scheduled for
+        private static int sScheduledVersion = -1;
         private Context mContext;
         private Resources mResources;
-        private int mLastSerialNum = -1;
-        private CursorLoader mLoader;
-        private final Runnable mTimezoneChanged = new Runnable() {
-            @Override
-            public void run() {
-                if (mLoader != null) {
-                    mLoader.forceLoad();
-                }
-            }
-        };
+        private CalendarWidgetSnapshot mSnapshot;
+        // Set on the main thread, read by the binder threads building the rows
+        private volatile CalendarAppWidgetModel mModel;
+        // The model last pushed to this factory's widget
+        private CalendarAppWidgetModel mNotifiedModel;
+        // Set while this is a broadcast receiver waiting for a model
+        private PendingResult mPendingResult;
         private int mAppWidgetId;
         private int mDeclinedColor;
         private int mStandardColor;
@@ -177,26 +159,6 @@ public class CalendarAppWidgetService extends RemoteViewsService {
             return model;
         }
 
-        private static long getNextMidnightTimeMillis(String timezone) {
-            Time time = new Time();
-            time.set(System.currentTimeMillis());
-            time.setDay(time.getDay() + 1);
-            time.setHour(0);
-            time.setMinute(0);
-            time.setSecond(0);
-            long midnightDeviceTz = time.normalize();
-
-            time.setTimezone(timezone);
-            time.set(System.currentTimeMillis());
-            time.setDay(time.getDay() + 1);
-            time.setHour(0);
-            time.setMinute(0);
-            time.setSecond(0);
-            long midnightHomeTz = time.normalize();
-
-            return Math.min(midnightDeviceTz, midnightHomeTz);
-        }
-
         static void updateTextView(RemoteViews views, int id, int visibility, String string) {
             views.setViewVisibility(id, visibility);
             if (visibility == View.VISIBLE) {
@@ -204,30 +166,12 @@ public class CalendarAppWidgetService extends RemoteViewsService {
             }
         }
 
-        private Runnable createUpdateLoaderRunnable(final String selection,
-                final PendingResult result, final int version) {
-            return new Runnable() {
-                @Override
-                public void run() {
-                    // If there is a newer load request in the queue, skip loading.
-                    if (mLoader != null && version >= currentVersion.get()) {
-                        Uri uri = createLoaderUri();
-                        mLoader.setUri(uri);
-                        mLoader.setSelection(selection);
-                        synchronized (mLock) {
-                            mLastSerialNum = ++mSerialNum;
-                        }
-                        mLoader.forceLoad();
-                    }
-                    result.finish();
-                }
-            };
-        }
-
         @Override
         public void onCreate() {
-            String selection = queryForSelection();
-            initLoader(selection);
+            mSnapshot = CalendarWidgetSnapshot.getInstance(mContext);
+            mSnapshot.acquire();
+            mSnapshot.addListener(this);
+            mSnapshot.requestModel();
         }
 
         @Override
@@ -236,8 +180,9 @@ public class CalendarAppWidgetService extends RemoteViewsService {
 
         @Override
         public void onDestroy() {
-            if (mLoader != null) {
-                mLoader.reset();
+            if (mSnapshot != null) {
+                mSnapshot.removeListener(this);
+                mSnapshot.release();
             }
         }
 
@@ -254,7 +199,8 @@ public class CalendarAppWidgetService extends RemoteViewsService {
                 return null;
             }
 
-            if (mModel == null) {
+            final CalendarAppWidgetModel model = mModel;
+            if (model == null) {
                 RemoteViews views = new RemoteViews(mContext.getPackageName(),
                         R.layout.appwidget_loading);
                 final Intent intent = CalendarAppWidgetProvider.getLaunchFillInIntent(mContext, 0,
@@ -263,7 +209,7 @@ public class CalendarAppWidgetService extends RemoteViewsService {
                 return views;
 
             }
-            if (mModel.mEventInfos.isEmpty() || mModel.mRowInfos.isEmpty()) {
+            if (model.mEventInfos.isEmpty() || model.mRowInfos.isEmpty()) {
                 RemoteViews views = new RemoteViews(mContext.getPackageName(),
                         R.layout.appwidget_no_events);
                 final Intent intent = CalendarAppWidgetProvider.getLaunchFillInIntent(mContext, 0,
@@ -272,16 +218,16 @@ public class CalendarAppWidgetService extends RemoteViewsService {
                 return views;
             }
 
-            RowInfo rowInfo = mModel.mRowInfos.get(position);
+            RowInfo rowInfo = model.mRowInfos.get(position);
             if (rowInfo.mType == RowInfo.TYPE_DAY) {
                 RemoteViews views = new RemoteViews(mContext.getPackageName(),
                         R.layout.appwidget_day);
-                DayInfo dayInfo = mModel.mDayInfos.get(rowInfo.mIndex);
+                DayInfo dayInfo = model.mDayInfos.get(rowInfo.mIndex);
                 updateTextView(views, R.id.date, View.VISIBLE, dayInfo.mDayLabel);
                 return views;
             } else {
                 RemoteViews views;
-                final EventInfo eventInfo = mModel.mEventInfos.get(rowInfo.mIndex);
+                final EventInfo eventInfo = model.mEventInfos.get(rowInfo.mIndex);
                 if (eventInfo.allDay) {
                     views = new RemoteViews(mContext.getPackageName(),
                             R.layout.widget_all_day_item);
@@ -292,8 +238,7 @@ public class CalendarAppWidgetService extends RemoteViewsService {
                 int adaptiveTextColor = Utils.getAdaptiveTextColor(mContext, mStandardColor, displayColor);
                 int adaptiveAllDayTextColor = Utils.getAdaptiveTextColor(mContext, mAllDayColor, displayColor);
 
-                final long now = System.currentTimeMillis();
-                if (!eventInfo.allDay && eventInfo.start <= now && now <= eventInfo.end) {
+                if (eventInfo.isInProgress(System.currentTimeMillis())) {
                     int past_bg_color = R.color.agenda_past_days_bar_background_color;
                     views.setInt(R.id.widget_row, "setBackgroundResource", past_bg_color);
                 } else {
@@ -383,22 +328,25 @@ public class CalendarAppWidgetService extends RemoteViewsService {
         public int getCount() {
             // if there are no events, we still return 1 to represent the "no
             // events" view
-            if (mModel == null) {
+            final CalendarAppWidgetModel model = mModel;
+            if (model == null) {
                 return 1;
             }
-            return Math.max(1, mModel.mRowInfos.size());
+            return Math.max(1, model.mRowInfos.size());
         }
 
         @Override
         public long getItemId(int position) {
-            if (mModel == null ||  mModel.mRowInfos.isEmpty() || position >= getCount()) {
+            final CalendarAppWidgetModel model = mModel;
+            if (model == null || model.mRowInfos.isEmpty()
+                    || position >= model.mRowInfos.size()) {
                 return 0;
             }
-            RowInfo rowInfo = mModel.mRowInfos.get(position);
+            RowInfo rowInfo = model.mRowInfos.get(position);
             if (rowInfo.mType == RowInfo.TYPE_DAY) {
                 return rowInfo.mIndex;
             }
-            EventInfo eventInfo = mModel.mEventInfos.get(rowInfo.mIndex);
+            EventInfo eventInfo = model.mEventInfos.get(rowInfo.mIndex);
             long prime = 31;
             long result = 1;
             result = prime * result + (int) (eventInfo.id ^ (eventInfo.id >>> 32));
@@ -411,163 +359,103 @@ public class CalendarAppWidgetService extends RemoteViewsService {
             return true;
         }
 
-        /**
-         * Query across all calendars for upcoming event instances from now
-         * until some time in the future. Widen the time range that we query by
-         * one day on each end so that we can catch all-day events. All-day
-         * events are stored starting at midnight in UTC but should be included
-         * in the list of events starting at midnight local time. This may fetch
-         * more events than we actually want, so we filter them out later.
-         *
-         * @param selection The selection string for the loader to filter the query with.
-         */
-        public void initLoader(String selection) {
-            if (LOGD)
-                Log.d(TAG, "Querying for widget events...");
-
-            // Search for events from now until some time in the future
-            Uri uri = createLoaderUri();
-            mLoader = new CursorLoader(mContext, uri, EVENT_PROJECTION, selection, null,
-                    EVENT_SORT_ORDER);
-            mLoader.setUpdateThrottle(WIDGET_UPDATE_THROTTLE);
-            synchronized (mLock) {
-                mLastSerialNum = ++mSerialNum;
-            }
-            mLoader.registerListener(mAppWidgetId, this);
-            mLoader.startLoading();
-
-        }
-
-        /**
-         * This gets the selection string for the loader.  This ends up doing a query in the
-         * shared preferences.
-         */
-        private String queryForSelection() {
-            return Utils.getHideDeclinedEvents(mContext) ? EVENT_SELECTION_HIDE_DECLINED
-                    : EVENT_SELECTION;
-        }
-
-        /**
-         * @return The uri for the loader
-         */
-        private Uri createLoaderUri() {
-            long now = System.currentTimeMillis();
-            // Add a day on either side to catch all-day events
-            long begin = now - DateUtils.DAY_IN_MILLIS;
-            long end = now + SEARCH_DURATION + DateUtils.DAY_IN_MILLIS;
-
-            return Uri.withAppendedPath(Instances.CONTENT_URI, Long.toString(begin) + "/" + end);
-        }
-
         /**
          * Calculates and returns the next time we should push widget updates.
          */
-        private long calculateUpdateTime(CalendarAppWidgetModel model, long now, String timeZone) {
-            // Make sure an update happens at midnight or earlier
-            long minUpdateTime = getNextMidnightTimeMillis(timeZone);
-            for (EventInfo event : model.mEventInfos) {
-                final long start;
-                final long end;
-                start = event.start;
-                end = event.end;
-
-                // We want to update widget when we enter/exit time range of an event.
-                if (now < start) {
-                    minUpdateTime = Math.min(minUpdateTime, start);
-                } else if (now < end) {
-                    minUpdateTime = Math.min(minUpdateTime, end);
+        @Override
+        public void onModelLoaded(CalendarAppWidgetModel model, String timeZone, int version) {
+            if (model == null) {
+                // The load failed, the widgets keep showing what they have
+                if (mPendingResult != null) {
+                    mSnapshot.removeListener(this);
+                    mSnapshot.release();
+                    mPendingResult.finish();
+                    mPendingResult = null;
                 }
+                return;
+            }
+            mModel = model;
+            // All factories get the same model, one of them schedules the next update
+            if (version != sScheduledVersion) {
+                sScheduledVersion = version;
+                scheduleNextUpdate(model);
             }
-            return minUpdateTime;
-        }
 
-        /*
-         * (non-Javadoc)
-         * @see
-         * android.content.Loader.OnLoadCompleteListener#onLoadComplete(android
-         * .content.Loader, java.lang.Object)
-         */
-        @Override
-        public void onLoadComplete(Loader<Cursor> loader, Cursor cursor) {
-            if (cursor == null) {
+            if (mPendingResult != null) {
+                // This is a broadcast receiver, waiting for the model to push to all widgets.
+                mSnapshot.removeListener(this);
+                mSnapshot.release();
+                // Factories still listening push the model to their own widgets.
+                if (mSnapshot.getListenerCount() == 0
+                        && CalendarAppWidgetProvider.isWidgetSupported(mContext)) {
+                    AppWidgetManager widgetManager = AppWidgetManager.getInstance(mContext);
+                    int[] ids = widgetManager.getAppWidgetIds(CalendarAppWidgetProvider
+                            .getComponentName(mContext));
+                    widgetManager.notifyAppWidgetViewDataChanged(ids, R.id.events_list);
+                }
+                mPendingResult.finish();
+                mPendingResult = null;
                 return;
             }
-            // If a newer update has happened since we started clean up and
-            // return
-            synchronized (mLock) {
-                if (cursor.isClosed()) {
-                    Log.wtf(TAG, "Got a closed cursor from onLoadComplete");
-                    return;
-                }
 
-                if (mLastSerialNum != mSerialNum) {
-                    return;
+            // Most provider changes, such as a sync tick, leave the rows as they are
+            int changedRows = mNotifiedModel != null
+                    ? model.countChangedRows(mNotifiedModel) : -1;
+            if (changedRows == 0) {
+                if (LOGD) {
+                    Log.d(TAG, "Widget rows unchanged, skipping update");
                 }
+                return;
+            }
+            if (LOGD) {
+                Log.d(TAG, "Widget rows changed: " + changedRows);
+            }
+            mNotifiedModel = model;
 
-                final long now = System.currentTimeMillis();
-                String tz = Utils.getTimeZone(mContext, mTimezoneChanged);
-
-                // Copy it to a local static cursor.
-                MatrixCursor matrixCursor = Utils.matrixCursorFromCursor(cursor);
-                try {
-                    mModel = buildAppWidgetModel(mContext, matrixCursor, tz);
-                } finally {
-                    if (matrixCursor != null) {
-                        matrixCursor.close();
-                    }
+            if (CalendarAppWidgetProvider.isWidgetSupported(mContext)) {
+                AppWidgetManager.getInstance(mContext).notifyAppWidgetViewDataChanged(
+                        mAppWidgetId, R.id.events_list);
+            }
+        }
 
-                    if (cursor != null) {
-                        cursor.close();
-                    }
-                }
+        /**
+         * Schedules an alarm to wake ourselves up for the next update, at the next transition
+         * of the timeline of the model.
+         */
+        private void scheduleNextUpdate(CalendarAppWidgetModel model) {
+            final long now = System.currentTimeMillis();
+            // We also cancel
+            // all existing wake-ups because PendingIntents don't match
+            // against extras.
+            long triggerTime = model.mTimeline.next(now);
+
+            // If no next-update calculated, or bad trigger time in past,
+            // schedule
+            // update about six hours from now.
+            if (triggerTime < now) {
+                Log.w(TAG, "Encountered bad trigger time " + formatDebugTime(triggerTime, now));
+                triggerTime = now + UPDATE_TIME_NO_EVENTS;
+            }
 
-                // Schedule an alarm to wake ourselves up for the next update.
-                // We also cancel
-                // all existing wake-ups because PendingIntents don't match
-                // against extras.
-                long triggerTime = calculateUpdateTime(mModel, now, tz);
-
-                // If no next-update calculated, or bad trigger time in past,
-                // schedule
-                // update about six hours from now.
-                if (triggerTime < now) {
-                    Log.w(TAG, "Encountered bad trigger time " + formatDebugTime(triggerTime, now));
-                    triggerTime = now + UPDATE_TIME_NO_EVENTS;
-                }
+            final AlarmManager alertManager = (AlarmManager) mContext
+                    .getSystemService(Context.ALARM_SERVICE);
+            final PendingIntent pendingUpdate = CalendarAppWidgetProvider
+                    .getUpdateIntent(mContext);
 
-                final AlarmManager alertManager = (AlarmManager) mContext
-                        .getSystemService(Context.ALARM_SERVICE);
-                final PendingIntent pendingUpdate = CalendarAppWidgetProvider
-                        .getUpdateIntent(mContext);
-
-                alertManager.cancel(pendingUpdate);
-                alertManager.set(AlarmManager.RTC, triggerTime, pendingUpdate);
-                Time time = new Time(Utils.getTimeZone(mContext, null));
-                time.set(System.currentTimeMillis());
-
-                if (time.normalize() != sLastUpdateTime) {
-                    Time time2 = new Time(Utils.getTimeZone(mContext, null));
-                    time2.set(sLastUpdateTime);
-                    time2.normalize();
-                    if (time.getYear() != time2.getYear() || time.getYearDay() != time2.getYearDay()) {
-                        Utils.sendUpdateWidgetIntent(mContext);
-                    }
+            alertManager.cancel(pendingUpdate);
+            alertManager.set(AlarmManager.RTC, triggerTime, pendingUpdate);
+            Time time = new Time(Utils.getTimeZone(mContext, null));
+            time.set(System.currentTimeMillis());
 
-                    sLastUpdateTime = time.toMillis();
+            if (time.normalize() != sLastUpdateTime) {
+                Time time2 = new Time(Utils.getTimeZone(mContext, null));
+                time2.set(sLastUpdateTime);
+                time2.normalize();
+                if (time.getYear() != time2.getYear() || time.getYearDay() != time2.getYearDay()) {
+                    Utils.sendUpdateWidgetIntent(mContext);
                 }
 
-                if (CalendarAppWidgetProvider.isWidgetSupported(mContext)) {
-                    AppWidgetManager widgetManager = AppWidgetManager.getInstance(mContext);
-                    if (mAppWidgetId == -1) {
-                        int[] ids = widgetManager.getAppWidgetIds(CalendarAppWidgetProvider
-                                .getComponentName(mContext));
-
-                        widgetManager.notifyAppWidgetViewDataChanged(ids, R.id.events_list);
-                    } else {
-                        widgetManager.notifyAppWidgetViewDataChanged(mAppWidgetId,
-                                R.id.events_list);
-                    }
-                }
+                sLastUpdateTime = time.toMillis();
             }
         }
 
@@ -576,46 +464,22 @@ public class CalendarAppWidgetService extends RemoteViewsService {
             if (LOGD)
                 Log.d(TAG, "AppWidgetService received an intent. It was " + intent.toString());
             mContext = context;
+            if (!Utils.isCalendarPermissionGranted(context, true)) {
+                return;
+            }
 
-            // We cannot do any queries from the UI thread, so push the 'selection' query
-            // to a background thread.  However the implementation of the latter query
-            // (cursor loading) uses CursorLoader which must be initiated from the UI thread,
-            // so there is some convoluted handshaking here.
-            //
-            // Note that as currently implemented, this must run in a single threaded executor
-            // or else the loads may be run out of order.
-            //
-            // TODO: Remove use of mHandler and CursorLoader, and do all the work synchronously
-            // in the background thread.  All the handshaking going on here between the UI and
-            // background thread with using goAsync, mHandler, and CursorLoader is confusing.
-            final PendingResult result = goAsync();
-            executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    // We always complete queryForSelection() even if the load task ends up being
-                    // canceled because of a more recent one.  Optimizing this to allow
-                    // canceling would require keeping track of all the PendingResults
-                    // (from goAsync) to abort them.  Defer this until it becomes a problem.
-                    final String selection = queryForSelection();
-
-                    if (mLoader == null) {
-                        mAppWidgetId = -1;
-                        mHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (!Utils.isCalendarPermissionGranted(context, true)) {
-                                    return;
-                                }
-                                initLoader(selection);
-                                result.finish();
-                            }
-                        });
-                    } else {
-                        mHandler.post(createUpdateLoaderRunnable(selection, result,
-                                currentVersion.incrementAndGet()));
-                    }
-                }
-            });
+            // The snapshot is out of date.  Stay registered with it until the new model
+            // arrives, to push it to all widgets.
+            mPendingResult = goAsync();
+            mSnapshot = CalendarWidgetSnapshot.getInstance(context);
+            mSnapshot.acquire();
+            mSnapshot.addListener(this);
+            if (Utils.getWidgetScheduledUpdateAction(context).equals(intent.getAction())) {
+                // Only time has passed, the rows of the last query are still current
+                mSnapshot.advance();
+            } else {
+                mSnapshot.invalidate();
+            }
         }
     }
 }
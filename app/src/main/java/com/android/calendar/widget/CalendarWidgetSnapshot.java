@@ -0,0 +1,292 @@
+package com.android.calendar.widget;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Instances;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.android.calendar.Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The instances shown by the calendar widgets, queried once per process and shared by all
+ * {@link CalendarAppWidgetService.CalendarFactory} instances, however many widgets are placed.
+ *
+ * One model is kept per variant: a home time zone and whether declined events are hidden. A
+ * model is built on a single background thread and handed to all listeners on the main thread.
+ * Requests made while a model is current are answered from it without a query. A model is
+ * never modified once it was handed out.
+ *
+ * The rows of the query are kept with the model, along with the {@link CalendarWidgetTimeline}
+ * computed from them. A scheduled update, see {@link #advance()}, rebuilds the model from these
+ * rows rather than querying again, until the timeline expires at midnight.
+ *
+ * The snapshot is reference counted: users {@link #acquire()} it while they show its models.
+ * The content observer that drops the variants when the provider changes is registered while
+ * there is at least one user or a cached variant.
+ */
+class CalendarWidgetSnapshot {
+
+    private static final String TAG = "CalendarWidgetSnapshot";
+    private static final boolean LOGD = false;
+
+    private static final String EVENT_SORT_ORDER = Instances.START_DAY + " ASC, "
+            + Instances.START_MINUTE + " ASC, " + Instances.END_DAY + " ASC, "
+            + Instances.END_MINUTE + " ASC LIMIT " + CalendarAppWidgetService.EVENT_MAX_COUNT;
+
+    private static CalendarWidgetSnapshot sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Loads run one at a time, so a request queued behind a load finds its model
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final HashMap<String, Variant> mVariants = new HashMap<String, Variant>();
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private int mRefCount;
+    private int mVersion;
+    // Increases when the variants are dropped, so that a load started before is not kept
+    private int mGeneration;
+    private boolean mObserving;
+
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (CalendarWidgetSnapshot.this) {
+                mVariants.clear();
+                mGeneration++;
+                if (mRefCount == 0) {
+                    // Nothing left to observe
+                    setObserving(false);
+                    return;
+                }
+            }
+            requestModel();
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    /**
+     * Receives the models of the snapshot.
+     */
+    interface Listener {
+        /**
+         * Called on the main thread with the model for the current variant, or with a null
+         * model if it could not be loaded, such as when the calendar permission was revoked.
+         *
+         * @param version increases with every model built, so that work done once per model
+         *            can be told apart from work done once per listener
+         */
+        void onModelLoaded(CalendarAppWidgetModel model, String timeZone, int version);
+    }
+
+    /**
+     * The rows of one query and the model last built from them. Only used on the executor.
+     */
+    private static class Variant {
+        final MatrixCursor mRows;
+        final CalendarWidgetTimeline mTimeline;
+        CalendarAppWidgetModel mModel;
+
+        Variant(MatrixCursor rows, CalendarWidgetTimeline timeline,
+                CalendarAppWidgetModel model) {
+            mRows = rows;
+            mTimeline = timeline;
+            mModel = model;
+        }
+    }
+
+    private CalendarWidgetSnapshot(Context context) {
+        mContext = context;
+    }
+
+    static synchronized CalendarWidgetSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CalendarWidgetSnapshot(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    synchronized void acquire() {
+        mRefCount++;
+        setObserving(true);
+    }
+
+    /**
+     * Releases the snapshot. The variants are kept, and kept current by the observer, so that
+     * a scheduled update with no widget bound can still be answered without a query.
+     */
+    synchronized void release() {
+        mRefCount--;
+        if (mRefCount == 0 && mVariants.isEmpty()) {
+            // Nothing left to observe
+            setObserving(false);
+        }
+    }
+
+    private void setObserving(boolean observing) {
+        if (observing == mObserving) {
+            return;
+        }
+        mObserving = observing;
+        if (observing) {
+            mContext.getContentResolver().registerContentObserver(CalendarContract.CONTENT_URI,
+                    true, mObserver);
+        } else {
+            mContext.getContentResolver().unregisterContentObserver(mObserver);
+        }
+    }
+
+    synchronized void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    synchronized int getListenerCount() {
+        return mListeners.size();
+    }
+
+    /**
+     * Drops the models and loads the current variant again once changes stop arriving for
+     * {@link CalendarAppWidgetService#WIDGET_UPDATE_THROTTLE} ms.
+     */
+    void invalidate() {
+        mHandler.removeCallbacks(mReload);
+        mHandler.postDelayed(mReload, CalendarAppWidgetService.WIDGET_UPDATE_THROTTLE);
+    }
+
+    /**
+     * Hands the model for the current variant to the listeners, loading it if needed.
+     */
+    void requestModel() {
+        update(false);
+    }
+
+    /**
+     * Hands a model for the current time to the listeners on a scheduled update. The model is
+     * rebuilt from the rows of the last query while its timeline has not expired, and loaded
+     * again otherwise.
+     */
+    void advance() {
+        update(true);
+    }
+
+    private void update(final boolean advance) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String timeZone = Utils.getTimeZone(mContext, mReload);
+                final boolean hideDeclined = Utils.getHideDeclinedEvents(mContext);
+                final String key = timeZone + "/" + hideDeclined;
+                Variant variant;
+                int version;
+                int generation;
+                synchronized (CalendarWidgetSnapshot.this) {
+                    variant = mVariants.get(key);
+                    version = mVersion;
+                    generation = mGeneration;
+                }
+                if (variant != null && variant.mTimeline.isExpired(System.currentTimeMillis())) {
+                    variant = null;
+                } else if (variant != null && advance) {
+                    CalendarAppWidgetModel model = CalendarAppWidgetService.CalendarFactory
+                            .buildAppWidgetModel(mContext, variant.mRows, timeZone);
+                    model.mTimeline = variant.mTimeline;
+                    variant.mModel = model;
+                    synchronized (CalendarWidgetSnapshot.this) {
+                        version = ++mVersion;
+                    }
+                }
+                if (variant == null) {
+                    variant = loadVariant(timeZone, hideDeclined);
+                    if (variant == null) {
+                        // Listeners waiting for a model still need to hear back
+                        deliver(null, timeZone, version);
+                        return;
+                    }
+                    synchronized (CalendarWidgetSnapshot.this) {
+                        if (generation == mGeneration) {
+                            mVariants.put(key, variant);
+                        }
+                        version = ++mVersion;
+                    }
+                }
+                deliver(variant.mModel, timeZone, version);
+            }
+        });
+    }
+
+    private void deliver(final CalendarAppWidgetModel model, final String timeZone,
+            final int version) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener[] listeners;
+                synchronized (CalendarWidgetSnapshot.this) {
+                    listeners = mListeners.toArray(new Listener[mListeners.size()]);
+                }
+                for (Listener listener : listeners) {
+                    listener.onModelLoaded(model, timeZone, version);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queries across all calendars for upcoming event instances from now until
+     * {@link CalendarAppWidgetService#MAX_DAYS} days in the future. The time range is widened
+     * by one day on each end to catch all-day events, which are stored starting at midnight in
+     * UTC but should be included in the list of events starting at midnight local time. The
+     * model filters out the extra events.
+     */
+    private Variant loadVariant(String timeZone, boolean hideDeclined) {
+        if (!Utils.isCalendarPermissionGranted(mContext, true)) {
+            return null;
+        }
+        if (LOGD) {
+            Log.d(TAG, "Querying for widget events...");
+        }
+        long now = System.currentTimeMillis();
+        long begin = now - DateUtils.DAY_IN_MILLIS;
+        long end = now + CalendarAppWidgetService.SEARCH_DURATION + DateUtils.DAY_IN_MILLIS;
+        Uri uri = Uri.withAppendedPath(Instances.CONTENT_URI, begin + "/" + end);
+        String selection = hideDeclined ? CalendarAppWidgetService.EVENT_SELECTION_HIDE_DECLINED
+                : CalendarAppWidgetService.EVENT_SELECTION;
+
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                CalendarAppWidgetService.EVENT_PROJECTION, selection, null, EVENT_SORT_ORDER);
+        if (cursor == null) {
+            return null;
+        }
+        MatrixCursor rows;
+        try {
+            rows = Utils.matrixCursorFromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+        CalendarAppWidgetModel model = CalendarAppWidgetService.CalendarFactory
+                .buildAppWidgetModel(mContext, rows, timeZone);
+        model.mTimeline = new CalendarWidgetTimeline(model,
+                CalendarWidgetTimeline.getNextMidnightTimeMillis(timeZone));
+        return new Variant(rows, model.mTimeline, model);
+    }
+}
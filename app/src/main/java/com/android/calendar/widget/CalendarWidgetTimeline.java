@@ -0,0 +1,89 @@
+package com.android.calendar.widget;
+
+import com.android.calendar.calendarcommon2.Time;
+import com.android.calendar.widget.CalendarAppWidgetModel.EventInfo;
+
+import java.util.Arrays;
+
+/**
+ * The times at which the rows of the widget change by themselves, computed once from the
+ * events of a query: an event enters or leaves its time range, and the day ends at midnight.
+ *
+ * Up to midnight the widget is moved from one transition to the next by rebuilding its model
+ * from the rows of the same query. After midnight the day headers and the query window have
+ * moved, and the timeline is expired.
+ *
+ * The timeline keeps a cursor on the next transition, which only moves forward. It is used
+ * on the main thread only.
+ */
+class CalendarWidgetTimeline {
+
+    private final long[] mTransitions;
+    private final long mMidnight;
+    private int mNext;
+
+    CalendarWidgetTimeline(CalendarAppWidgetModel model, long midnight) {
+        mMidnight = midnight;
+        final long now = model.mNow;
+        long[] times = new long[model.mEventInfos.size() * 2];
+        int count = 0;
+        for (EventInfo event : model.mEventInfos) {
+            // We want to update widget when we enter/exit time range of an event.
+            if (now < event.start && event.start < midnight) {
+                times[count++] = event.start;
+            }
+            if (now < event.end && event.end < midnight) {
+                times[count++] = event.end;
+            }
+        }
+        Arrays.sort(times, 0, count);
+
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || times[i] != times[distinct - 1]) {
+                times[distinct++] = times[i];
+            }
+        }
+        mTransitions = Arrays.copyOf(times, distinct);
+    }
+
+    /**
+     * Returns the first transition after the given time, midnight at the latest.
+     */
+    long next(long now) {
+        while (mNext < mTransitions.length && mTransitions[mNext] <= now) {
+            mNext++;
+        }
+        return mNext < mTransitions.length ? mTransitions[mNext] : mMidnight;
+    }
+
+    /**
+     * Returns whether the day the timeline was computed for has ended.
+     */
+    boolean isExpired(long now) {
+        return now >= mMidnight;
+    }
+
+    /**
+     * Returns the next midnight in the device or home time zone, whichever comes first.
+     */
+    static long getNextMidnightTimeMillis(String timezone) {
+        Time time = new Time();
+        time.set(System.currentTimeMillis());
+        time.setDay(time.getDay() + 1);
+        time.setHour(0);
+        time.setMinute(0);
+        time.setSecond(0);
+        long midnightDeviceTz = time.normalize();
+
+        time.setTimezone(timezone);
+        time.set(System.currentTimeMillis());
+        time.setDay(time.getDay() + 1);
+        time.setHour(0);
+        time.setMinute(0);
+        time.setSecond(0);
+        long midnightHomeTz = time.normalize();
+
+        return Math.min(midnightDeviceTz, midnightHomeTz);
+    }
+}
@@ -0,0 +1,48 @@
+package android.text;
+
+/**
+ * The string helpers of the framework TextUtils, which the mockable android.jar only stubs out.
+ * The recurrence parsing relies on isEmpty(), so this class comes before android.jar on the unit
+ * test classpath, and with it on the benchmark classpath. Helpers that need the framework, like
+ * ellipsize(), are left out.
+ */
+public class TextUtils {
+
+    private TextUtils() {
+    }
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+
+    public static boolean equals(CharSequence a, CharSequence b) {
+        if (a == b) {
+            return true;
+        }
+        if (a != null && b != null && a.length() == b.length()) {
+            if (a instanceof String && b instanceof String) {
+                return a.equals(b);
+            }
+            for (int i = 0; i < a.length(); i++) {
+                if (a.charAt(i) != b.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public static int getTrimmedLength(CharSequence s) {
+        int len = s.length();
+        int start = 0;
+        while (start < len && s.charAt(start) <= ' ') {
+            start++;
+        }
+        int end = len;
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start;
+    }
+}
@@ -0,0 +1,117 @@
+package com.android.calendar;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.calendar.AsyncQueryServiceHelper.OperationInfo;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+public class AsyncQueryServiceHelperTest extends TestCase {
+
+    // The elapsed realtime the operations are queued at
+    private static final long NOW = 100000;
+
+    // The operations of the lane that are running
+    private final ArrayList<OperationInfo> mRunning = new ArrayList<OperationInfo>();
+
+    private OperationInfo pollNext(ArrayList<OperationInfo> queue, long now, boolean usePriority) {
+        return AsyncQueryServiceHelper.pollNext(queue, mRunning, now, usePriority);
+    }
+
+    private OperationInfo createOperation(int token, int priority, long delayMillis) {
+        OperationInfo info = new OperationInfo();
+        info.token = token;
+        info.priority = priority;
+        info.delayMillis = delayMillis;
+        info.calculateScheduledTime(NOW);
+        return info;
+    }
+
+    @SmallTest
+    public void testEqualPrioritiesRunInQueueOrder() {
+        ArrayList<OperationInfo> queue = new ArrayList<OperationInfo>();
+        for (int token = 0; token < 5; token++) {
+            queue.add(createOperation(token, AsyncQueryService.PRIORITY_DEFAULT, 0));
+        }
+        for (int token = 0; token < 5; token++) {
+            assertEquals(token, pollNext(queue, NOW, true).token);
+        }
+        assertNull(pollNext(queue, NOW, true));
+    }
+
+    @SmallTest
+    public void testHigherPriorityRunsFirst() {
+        ArrayList<OperationInfo> queue = new ArrayList<OperationInfo>();
+        queue.add(createOperation(1, AsyncQueryService.PRIORITY_LOW, 0));
+        queue.add(createOperation(2, AsyncQueryService.PRIORITY_DEFAULT, 0));
+        queue.add(createOperation(3, AsyncQueryService.PRIORITY_HIGH, 0));
+        queue.add(createOperation(4, AsyncQueryService.PRIORITY_HIGH, 0));
+
+        assertEquals(3, pollNext(queue, NOW, true).token);
+        assertEquals(4, pollNext(queue, NOW, true).token);
+        assertEquals(2, pollNext(queue, NOW, true).token);
+        assertEquals(1, pollNext(queue, NOW, true).token);
+    }
+
+    @SmallTest
+    public void testDelayedOperationWaitsForItsTime() {
+        ArrayList<OperationInfo> queue = new ArrayList<OperationInfo>();
+        queue.add(createOperation(1, AsyncQueryService.PRIORITY_HIGH, 5000));
+        queue.add(createOperation(2, AsyncQueryService.PRIORITY_DEFAULT, 3000));
+
+        assertNull(pollNext(queue, NOW + 1000, true));
+        assertEquals(NOW + 3000, AsyncQueryServiceHelper.getNextScheduledTime(queue, NOW + 1000));
+        assertEquals(2, pollNext(queue, NOW + 4000, true).token);
+        assertNull(pollNext(queue, NOW + 4000, true));
+        assertEquals(1, pollNext(queue, NOW + 5000, true).token);
+        assertEquals(Long.MAX_VALUE,
+                AsyncQueryServiceHelper.getNextScheduledTime(queue, NOW + 5000));
+    }
+
+    @SmallTest
+    public void testWritesIgnorePriority() {
+        ArrayList<OperationInfo> queue = new ArrayList<OperationInfo>();
+        queue.add(createOperation(1, AsyncQueryService.PRIORITY_DEFAULT, 0));
+        queue.add(createOperation(2, AsyncQueryService.PRIORITY_HIGH, 0));
+        queue.add(createOperation(3, AsyncQueryService.PRIORITY_LOW, 0));
+
+        assertEquals(1, pollNext(queue, NOW, false).token);
+        assertEquals(2, pollNext(queue, NOW, false).token);
+        assertEquals(3, pollNext(queue, NOW, false).token);
+    }
+
+    @SmallTest
+    public void testSameTokenRunsInQueueOrder() {
+        ArrayList<OperationInfo> queue = new ArrayList<OperationInfo>();
+        OperationInfo first = createOperation(1, AsyncQueryService.PRIORITY_LOW, 0);
+        queue.add(first);
+        queue.add(createOperation(1, AsyncQueryService.PRIORITY_HIGH, 0));
+        queue.add(createOperation(2, AsyncQueryService.PRIORITY_DEFAULT, 0));
+
+        // The later query of token 1 does not overtake the first one, even with a higher
+        // priority
+        assertEquals(2, pollNext(queue, NOW, true).token);
+        assertSame(first, pollNext(queue, NOW, true));
+    }
+
+    @SmallTest
+    public void testSameTokenWaitsForRunningOperation() {
+        ArrayList<OperationInfo> queue = new ArrayList<OperationInfo>();
+        queue.add(createOperation(1, AsyncQueryService.PRIORITY_DEFAULT, 0));
+        queue.add(createOperation(1, AsyncQueryService.PRIORITY_DEFAULT, 0));
+        queue.add(createOperation(2, AsyncQueryService.PRIORITY_DEFAULT, 0));
+
+        mRunning.add(pollNext(queue, NOW, true));
+        // Other tokens still run concurrently
+        assertEquals(2, pollNext(queue, NOW, true).token);
+        assertNull(pollNext(queue, NOW, true));
+        // Due operations waiting for another one are woken when it completes
+        assertEquals(Long.MAX_VALUE, AsyncQueryServiceHelper.getNextScheduledTime(queue, NOW));
+
+        mRunning.clear();
+        assertEquals(1, pollNext(queue, NOW, true).token);
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,108 @@
+package com.android.calendar;
+
+import android.text.format.DateUtils;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class DayGeometryTest extends TestCase {
+
+    private static final int FIRST_DAY = 2460000;
+    private static final int NUM_DAYS = 7;
+
+    private long mNextId = 1;
+
+    private Event createEvent(int startDay, int startMinute, int endDay, int endMinute) {
+        Event event = Event.newInstance();
+        event.id = mNextId++;
+        event.startDay = startDay;
+        event.startTime = startMinute;
+        event.endDay = endDay;
+        event.endTime = endMinute;
+        event.startMillis = (startDay - FIRST_DAY) * DateUtils.DAY_IN_MILLIS
+                + startMinute * DateUtils.MINUTE_IN_MILLIS;
+        event.endMillis = (endDay - FIRST_DAY) * DateUtils.DAY_IN_MILLIS
+                + endMinute * DateUtils.MINUTE_IN_MILLIS;
+        return event;
+    }
+
+    private Event createAllDayEvent(int startDay, int endDay) {
+        Event event = createEvent(startDay, 0, endDay, 0);
+        event.allDay = true;
+        return event;
+    }
+
+    @SmallTest
+    public void testTimedEventsByDay() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        // Day 0, 9:00 - 10:00
+        events.add(createEvent(FIRST_DAY, 9 * 60, FIRST_DAY, 10 * 60));
+        // Day 1 22:00 - day 2 02:00
+        events.add(createEvent(FIRST_DAY + 1, 22 * 60, FIRST_DAY + 2, 2 * 60));
+        // After the last day
+        events.add(createEvent(FIRST_DAY + NUM_DAYS, 9 * 60, FIRST_DAY + NUM_DAYS, 10 * 60));
+
+        DayGeometry geometry = new DayGeometry(events, FIRST_DAY, NUM_DAYS, 0, false);
+
+        assertTrue(Arrays.equals(new int[] {0}, geometry.getTimedEvents(FIRST_DAY)));
+        assertTrue(Arrays.equals(new int[] {1}, geometry.getTimedEvents(FIRST_DAY + 1)));
+        assertTrue(Arrays.equals(new int[] {1}, geometry.getTimedEvents(FIRST_DAY + 2)));
+        assertEquals(0, geometry.getTimedEvents(FIRST_DAY + 3).length);
+        assertNull(geometry.getTimedEvents(FIRST_DAY - 1));
+        assertNull(geometry.getTimedEvents(FIRST_DAY + NUM_DAYS));
+
+        assertEquals(9, geometry.getEarliestStartHour(FIRST_DAY));
+        assertEquals(2, geometry.getEarliestStartHour(FIRST_DAY + 2));
+        assertTrue(geometry.getEarliestStartHour(FIRST_DAY + 3) > 24);
+        assertEquals(0, geometry.getMaxAllDayEvents());
+    }
+
+    @SmallTest
+    public void testAllDayEvents() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(createAllDayEvent(FIRST_DAY, FIRST_DAY + 2));
+        events.add(createAllDayEvent(FIRST_DAY + 1, FIRST_DAY + 1));
+        events.add(createEvent(FIRST_DAY + 1, 9 * 60, FIRST_DAY + 1, 10 * 60));
+
+        DayGeometry geometry = new DayGeometry(events, FIRST_DAY, NUM_DAYS, 0, false);
+
+        assertEquals(2, geometry.getAllDayEvents().size());
+        assertEquals(2, geometry.getMaxAllDayEvents());
+        // All-day events are not drawn in the day columns
+        assertTrue(Arrays.equals(new int[] {2}, geometry.getTimedEvents(FIRST_DAY + 1)));
+        assertEquals(0, geometry.getTimedEvents(FIRST_DAY).length);
+    }
+
+    @SmallTest
+    public void testOverlappingEventsGetColumns() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(createEvent(FIRST_DAY, 9 * 60, FIRST_DAY, 11 * 60));
+        events.add(createEvent(FIRST_DAY, 10 * 60, FIRST_DAY, 12 * 60));
+        events.add(createEvent(FIRST_DAY, 13 * 60, FIRST_DAY, 14 * 60));
+
+        new DayGeometry(events, FIRST_DAY, NUM_DAYS, 0, false);
+
+        assertEquals(0, events.get(0).getColumn());
+        assertEquals(1, events.get(1).getColumn());
+        assertEquals(2, events.get(0).getMaxColumns());
+        assertEquals(0, events.get(2).getColumn());
+        assertEquals(1, events.get(2).getMaxColumns());
+    }
+
+    @SmallTest
+    public void testLaidOutFor() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(createEvent(FIRST_DAY, 9 * 60, FIRST_DAY, 10 * 60));
+
+        DayGeometry geometry = new DayGeometry(events, FIRST_DAY, NUM_DAYS, 1000, false);
+
+        assertTrue(geometry.isLaidOutFor(events, 1000, false));
+        assertFalse(geometry.isLaidOutFor(events, 2000, false));
+        assertFalse(geometry.isLaidOutFor(events, 1000, true));
+        assertFalse(geometry.isLaidOutFor(new ArrayList<Event>(events), 1000, false));
+    }
+}
@@ -0,0 +1,149 @@
+package com.android.calendar;
+
+import android.text.format.DateUtils;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class EventBlockDaysTest extends TestCase {
+
+    private static final int FIRST_DAY = 2460000;
+    private static final int NUM_DAYS = 7;
+
+    private EventBlock mBlock;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBlock = new EventBlock();
+    }
+
+    private void addRow(long id, String title, int startDay, int startMinute, int endDay) {
+        addRow(mBlock, id, title, startDay, startMinute, endDay);
+    }
+
+    private static void addRow(EventBlock block, long id, String title, int startDay,
+            int startMinute, int endDay) {
+        int row = block.newRow();
+        block.id[row] = id;
+        block.title[row] = title;
+        block.startDay[row] = startDay;
+        block.startTime[row] = startMinute;
+        block.endDay[row] = endDay;
+        block.endTime[row] = startMinute;
+        block.startMillis[row] = (startDay - FIRST_DAY) * DateUtils.DAY_IN_MILLIS
+                + startMinute * DateUtils.MINUTE_IN_MILLIS;
+        block.endMillis[row] = (endDay - FIRST_DAY) * DateUtils.DAY_IN_MILLIS
+                + startMinute * DateUtils.MINUTE_IN_MILLIS;
+    }
+
+    private static long[] idsOf(ArrayList<Event> events) {
+        long[] ids = new long[events.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = events.get(i).id;
+        }
+        return ids;
+    }
+
+    private ArrayList<Event> eventsOf(EventBlockDays days, int julianDay,
+            HashMap<Long, ArrayList<Event>> created) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        days.addEvents(julianDay, events, created);
+        return events;
+    }
+
+    @SmallTest
+    public void testDaysOrderedByStartDayTimeAndTitle() {
+        addRow(1, "b", FIRST_DAY, 10 * 60, FIRST_DAY);
+        addRow(2, "a", FIRST_DAY, 10 * 60, FIRST_DAY);
+        addRow(3, "c", FIRST_DAY, 9 * 60, FIRST_DAY);
+        // Started the day before, so listed before the events of the day
+        addRow(4, "d", FIRST_DAY - 1, 23 * 60, FIRST_DAY);
+
+        EventBlockDays days = new EventBlockDays(mBlock, FIRST_DAY, NUM_DAYS);
+        days.indexRows(EventBlock.ORDER_BY_DAY_AND_TIME);
+
+        assertEquals(4, days.getEventCount(FIRST_DAY));
+        ArrayList<Event> events = eventsOf(days, FIRST_DAY, new HashMap<Long, ArrayList<Event>>());
+        assertTrue(Arrays.equals(new long[] {4, 3, 2, 1}, idsOf(events)));
+        // The rows themselves are not moved
+        assertEquals(1, mBlock.getId(0));
+    }
+
+    @SmallTest
+    public void testEventSpanningDaysIsCreatedOnce() {
+        addRow(1, "long", FIRST_DAY + 1, 0, FIRST_DAY + 3);
+        addRow(2, "short", FIRST_DAY + 2, 0, FIRST_DAY + 2);
+
+        EventBlockDays days = new EventBlockDays(mBlock, FIRST_DAY, NUM_DAYS);
+        days.indexRows(EventBlock.ORDER_BY_DAY_AND_TIME);
+
+        HashMap<Long, ArrayList<Event>> created = new HashMap<Long, ArrayList<Event>>();
+        Event first = eventsOf(days, FIRST_DAY + 1, created).get(0);
+        ArrayList<Event> second = eventsOf(days, FIRST_DAY + 2, created);
+        Event third = eventsOf(days, FIRST_DAY + 3, created).get(0);
+
+        assertEquals(2, second.size());
+        assertSame(first, second.get(0));
+        assertSame(first, third);
+        assertEquals(2, created.size());
+    }
+
+    @SmallTest
+    public void testDaysOutsideTheLoad() {
+        // Clipped to the loaded days
+        addRow(1, "a", FIRST_DAY - 2, 0, FIRST_DAY + NUM_DAYS + 2);
+
+        EventBlockDays days = new EventBlockDays(mBlock, FIRST_DAY, NUM_DAYS);
+        assertEquals(0, days.getEventCount(FIRST_DAY));
+        days.indexRows(EventBlock.ORDER_BY_DAY_AND_TIME);
+
+        assertEquals(1, days.getEventCount(FIRST_DAY));
+        assertEquals(1, days.getEventCount(FIRST_DAY + NUM_DAYS - 1));
+        assertEquals(0, days.getEventCount(FIRST_DAY - 1));
+        assertEquals(0, days.getEventCount(FIRST_DAY + NUM_DAYS));
+        assertTrue(eventsOf(days, FIRST_DAY - 1, new HashMap<Long, ArrayList<Event>>()).isEmpty());
+    }
+
+    @SmallTest
+    public void testEventCrossingLoadsIsCreatedOnce() {
+        // The week is loaded as two ranges split mid-week, both return the crossing event
+        EventBlock first = new EventBlock();
+        addRow(first, 1, "crossing", FIRST_DAY + 1, 10 * 60, FIRST_DAY + 4);
+        EventBlockDays firstDays = new EventBlockDays(first, FIRST_DAY, 3);
+        firstDays.indexRows(EventBlock.ORDER_BY_DAY_AND_TIME);
+        EventBlock second = new EventBlock();
+        addRow(second, 1, "crossing", FIRST_DAY + 1, 10 * 60, FIRST_DAY + 4);
+        EventBlockDays secondDays = new EventBlockDays(second, FIRST_DAY + 3, NUM_DAYS - 3);
+        secondDays.indexRows(EventBlock.ORDER_BY_DAY_AND_TIME);
+
+        HashMap<Long, ArrayList<Event>> created = new HashMap<Long, ArrayList<Event>>();
+        Event before = eventsOf(firstDays, FIRST_DAY + 2, created).get(0);
+        Event after = eventsOf(secondDays, FIRST_DAY + 3, created).get(0);
+
+        assertSame(before, after);
+        assertSame(before, eventsOf(secondDays, FIRST_DAY + 4, created).get(0));
+    }
+
+    @SmallTest
+    public void testInstancesOfRecurringEventStayApart() {
+        addRow(1, "daily", FIRST_DAY, 10 * 60, FIRST_DAY);
+        addRow(1, "daily", FIRST_DAY + 1, 10 * 60, FIRST_DAY + 1);
+
+        EventBlockDays days = new EventBlockDays(mBlock, FIRST_DAY, NUM_DAYS);
+        days.indexRows(EventBlock.ORDER_BY_DAY_AND_TIME);
+
+        HashMap<Long, ArrayList<Event>> created = new HashMap<Long, ArrayList<Event>>();
+        Event monday = eventsOf(days, FIRST_DAY, created).get(0);
+        Event tuesday = eventsOf(days, FIRST_DAY + 1, created).get(0);
+
+        assertNotSame(monday, tuesday);
+        assertEquals(FIRST_DAY + 1, tuesday.startDay);
+        assertEquals(2, created.get(1L).size());
+    }
+}
@@ -0,0 +1,107 @@
+package com.android.calendar.agenda;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+public class AgendaPrefetchPolicyTest extends TestCase {
+
+    private static final int IDEAL_ROWS = 50;
+    private static final int MIN_BOUNDARY = 1;
+
+    private AgendaPrefetchPolicy mPolicy;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPolicy = new AgendaPrefetchPolicy(IDEAL_ROWS, MIN_BOUNDARY);
+    }
+
+    /**
+     * Scrolls the given number of rows every 16ms, as a fling does.
+     */
+    private void fling(int rowsPerFrame, int frames) {
+        int first = 100;
+        long now = 1000;
+        for (int i = 0; i < frames; i++) {
+            mPolicy.onScroll(first, now);
+            first += rowsPerFrame;
+            now += 16;
+        }
+    }
+
+    @SmallTest
+    public void testStillListUsesMinimums() {
+        assertEquals(AgendaPrefetchPolicy.DIRECTION_NONE, mPolicy.getDirection());
+        assertEquals(MIN_BOUNDARY, mPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_NEWER));
+        assertEquals(MIN_BOUNDARY, mPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_OLDER));
+        assertEquals(IDEAL_ROWS, mPolicy.getIdealRowCount(AgendaPrefetchPolicy.DIRECTION_NEWER));
+    }
+
+    @SmallTest
+    public void testFlingRaisesBoundaryAheadOnly() {
+        fling(2, 20);
+        assertEquals(AgendaPrefetchPolicy.DIRECTION_NEWER, mPolicy.getDirection());
+        // About 125 rows per second, with a lead of twice the initial 300ms latency
+        int boundary = mPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_NEWER);
+        assertTrue("boundary " + boundary, boundary > 50 && boundary <= 75);
+        assertEquals(MIN_BOUNDARY, mPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_OLDER));
+
+        // About 500 rows are scrolled through in the lookahead
+        int rows = mPolicy.getIdealRowCount(AgendaPrefetchPolicy.DIRECTION_NEWER);
+        assertTrue("rows " + rows, rows > 400);
+        assertEquals(IDEAL_ROWS, mPolicy.getIdealRowCount(AgendaPrefetchPolicy.DIRECTION_OLDER));
+    }
+
+    @SmallTest
+    public void testOlderFling() {
+        fling(-2, 20);
+        assertEquals(AgendaPrefetchPolicy.DIRECTION_OLDER, mPolicy.getDirection());
+        assertTrue(mPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_OLDER) > MIN_BOUNDARY);
+        assertEquals(MIN_BOUNDARY, mPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_NEWER));
+    }
+
+    @SmallTest
+    public void testSlowerQueriesRaiseBoundary() {
+        fling(2, 20);
+        int boundary = mPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_NEWER);
+        for (int i = 0; i < 10; i++) {
+            mPolicy.onQueryCompleted(1000);
+        }
+        assertTrue(mPolicy.getBoundary(AgendaPrefetchPolicy.DIRECTION_NEWER) > boundary);
+    }
+
+    @SmallTest
+    public void testIdleAndPausesResetVelocity() {
+        fling(2, 20);
+        mPolicy.onScrollIdle();
+        assertEquals(AgendaPrefetchPolicy.DIRECTION_NONE, mPolicy.getDirection());
+
+        fling(2, 20);
+        // A row change long after the last one starts a new motion
+        mPolicy.onScroll(500, 100000);
+        assertEquals(AgendaPrefetchPolicy.DIRECTION_NONE, mPolicy.getDirection());
+    }
+
+    @SmallTest
+    public void testShiftedRowsAreNotScrolling() {
+        mPolicy.onScroll(10, 1000);
+        // Older days loaded above the visible rows
+        mPolicy.onRowsShifted(40);
+        mPolicy.onScroll(50, 1016);
+        assertEquals(AgendaPrefetchPolicy.DIRECTION_NONE, mPolicy.getDirection());
+    }
+
+    @SmallTest
+    public void testEdgesCountedOncePerLoad() {
+        mPolicy.onEdgeReached(AgendaPrefetchPolicy.DIRECTION_NEWER, 100);
+        mPolicy.onEdgeReached(AgendaPrefetchPolicy.DIRECTION_NEWER, 100);
+        assertEquals(1, mPolicy.getEdgeCount());
+        mPolicy.onEdgeReached(AgendaPrefetchPolicy.DIRECTION_NEWER, 150);
+        mPolicy.onEdgeReached(AgendaPrefetchPolicy.DIRECTION_OLDER, 150);
+        assertEquals(3, mPolicy.getEdgeCount());
+
+        mPolicy.onPrefetch();
+        assertEquals(1, mPolicy.getPrefetchCount());
+    }
+}
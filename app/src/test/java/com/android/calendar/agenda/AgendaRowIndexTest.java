@@ -0,0 +1,100 @@
+package com.android.calendar.agenda;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.calendar.agenda.AgendaByDayAdapter.RowInfo;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class AgendaRowIndexTest extends TestCase {
+
+    private static final int DAYS = 60;
+
+    @SmallTest
+    public void testHeadersMatchScan() {
+        ArrayList<RowInfo> rows = AgendaRowTestUtils.createRows(1, DAYS, 20);
+        AgendaRowIndex index = new AgendaRowIndex(rows);
+        for (int position = -1; position < rows.size(); position++) {
+            if (position >= 0) {
+                assertEquals(AgendaRowTestUtils.scanHeaderPosition(rows, position),
+                        index.getHeaderPosition(position));
+                assertEquals(AgendaRowTestUtils.scanJulianDay(rows, position),
+                        index.findJulianDay(position));
+            }
+            assertEquals(AgendaRowTestUtils.scanHeaderItemsCount(rows, position),
+                    index.getHeaderItemsCount(position));
+        }
+    }
+
+    @SmallTest
+    public void testNearestTimeMatchesScan() {
+        for (long seed = 1; seed <= 5; seed++) {
+            ArrayList<RowInfo> rows = AgendaRowTestUtils.createRows(seed, DAYS, (int) seed * 4);
+            AgendaRowIndex index = new AgendaRowIndex(rows);
+            Random random = new Random(seed);
+            long first = AgendaRowTestUtils.getDayStart(AgendaRowTestUtils.FIRST_DAY - 40);
+            for (int i = 0; i < 2000; i++) {
+                // Quarter hours from 40 days before the window to 40 days after it
+                long millis = first + random.nextInt((DAYS + 80) * 96) * 15
+                        * AgendaRowTestUtils.MINUTE;
+                if (random.nextBoolean()) {
+                    millis += random.nextInt(15) * AgendaRowTestUtils.MINUTE;
+                }
+                int julianDay = AgendaRowTestUtils.FIRST_DAY - 40
+                        + (int) ((millis - first) / AgendaRowTestUtils.DAY);
+                long id = random.nextInt(3) == 0 ? -1 : random.nextInt(rows.size() + 10);
+                assertEquals("millis " + millis + " id " + id,
+                        AgendaRowTestUtils.scanEventPositionNearestTime(rows, millis, julianDay,
+                                id),
+                        index.findEventPositionNearestTime(millis, julianDay, id));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testEqualDistancesPreferFirstRow() {
+        final int day = AgendaRowTestUtils.FIRST_DAY;
+        final long dayStart = AgendaRowTestUtils.getDayStart(day);
+        final long hour = 60 * AgendaRowTestUtils.MINUTE;
+        ArrayList<RowInfo> rows = new ArrayList<RowInfo>();
+        rows.add(new RowInfo(AgendaByDayAdapter.TYPE_DAY, day));
+        rows.add(new RowInfo(AgendaByDayAdapter.TYPE_MEETING, day, 0, 5, dayStart + 13 * hour,
+                dayStart + 14 * hour, 5, false));
+        rows.add(new RowInfo(AgendaByDayAdapter.TYPE_MEETING, day, 1, 5, dayStart + 9 * hour,
+                dayStart + 10 * hour, 5, false));
+        AgendaRowIndex index = new AgendaRowIndex(rows);
+
+        assertEquals(1, index.findEventPositionNearestTime(dayStart + 11 * hour, 0, 5));
+        assertEquals(1, index.findEventPositionNearestTime(dayStart + 11 * hour, 0, -1));
+    }
+
+    @SmallTest
+    public void testTimedEventOfTheSameDayBeatsAllDayEvent() {
+        final int day = AgendaRowTestUtils.FIRST_DAY;
+        final long dayStart = AgendaRowTestUtils.getDayStart(day);
+        final long hour = 60 * AgendaRowTestUtils.MINUTE;
+        ArrayList<RowInfo> rows = new ArrayList<RowInfo>();
+        rows.add(new RowInfo(AgendaByDayAdapter.TYPE_DAY, day));
+        rows.add(new RowInfo(AgendaByDayAdapter.TYPE_MEETING, day, 0, 1, dayStart,
+                dayStart + 24 * hour, 1, true));
+        rows.add(new RowInfo(AgendaByDayAdapter.TYPE_MEETING, day, 1, 2, dayStart,
+                dayStart + hour, 2, false));
+        AgendaRowIndex index = new AgendaRowIndex(rows);
+
+        // The timed event has ended, but it is on the day of the all-day event
+        assertEquals(2, index.findEventPositionNearestTime(dayStart + 2 * hour, 0, -1));
+        assertEquals(AgendaRowTestUtils.scanEventPositionNearestTime(rows, dayStart + 2 * hour,
+                0, -1), index.findEventPositionNearestTime(dayStart + 2 * hour, 0, -1));
+    }
+
+    @SmallTest
+    public void testEmptyRows() {
+        AgendaRowIndex index = new AgendaRowIndex(new ArrayList<RowInfo>());
+        assertEquals(-1, index.getHeaderPosition(0));
+        assertEquals(0, index.findJulianDay(0));
+        assertEquals(0, index.findEventPositionNearestTime(0, 0, 1));
+    }
+}
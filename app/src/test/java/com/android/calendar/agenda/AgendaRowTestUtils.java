@@ -0,0 +1,178 @@
+package com.android.calendar.agenda;
+
+import com.android.calendar.agenda.AgendaByDayAdapter.RowInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds agenda rows the way {@link AgendaByDayAdapter#calculateDays} lays them out, and holds
+ * the linear scans the adapter used before {@link AgendaRowIndex}, to check and time the index
+ * against.
+ */
+public class AgendaRowTestUtils {
+
+    public static final long MINUTE = 60 * 1000;
+    public static final long DAY = 24 * 60 * MINUTE;
+    // 2025 Jan 1, in UTC
+    public static final int FIRST_DAY = 2460677;
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+
+    public static long getDayStart(int julianDay) {
+        return (julianDay - EPOCH_JULIAN_DAY) * DAY;
+    }
+
+    /**
+     * Returns the rows of a window of days in UTC. Each day with events has a header followed
+     * by its all-day events, then its timed events by start time. Starts fall on quarter hours
+     * so that equal starts are common, and some events span several days, which repeats their
+     * id and instance on each day.
+     */
+    public static ArrayList<RowInfo> createRows(long seed, int days, int eventsPerDay) {
+        Random random = new Random(seed);
+        ArrayList<RowInfo> rows = new ArrayList<RowInfo>();
+        ArrayList<long[]> spanning = new ArrayList<long[]>();
+        long nextId = 1;
+        int position = 0;
+        for (int day = FIRST_DAY; day < FIRST_DAY + days; day++) {
+            long dayStart = getDayStart(day);
+            int count = random.nextInt(2 * eventsPerDay + 1);
+            if (count == 0 && spanning.isEmpty()) {
+                continue;
+            }
+            rows.add(new RowInfo(AgendaByDayAdapter.TYPE_DAY, day));
+            // Multi-day events, from the previous days: {id, end, position}
+            for (int i = spanning.size() - 1; i >= 0; i--) {
+                long[] event = spanning.get(i);
+                long end = Math.min(event[1], dayStart + DAY);
+                rows.add(new RowInfo(AgendaByDayAdapter.TYPE_MEETING, day, (int) event[2],
+                        event[0], dayStart, end, event[0], false));
+                if (event[1] <= dayStart + DAY) {
+                    spanning.remove(i);
+                }
+            }
+            long[] starts = new long[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = dayStart + random.nextInt(96) * 15 * MINUTE;
+            }
+            Arrays.sort(starts);
+            for (int i = 0; i < count; i++) {
+                long id = random.nextInt(8) == 0 ? 1 + random.nextInt((int) nextId) : nextId++;
+                if (random.nextInt(10) == 0) {
+                    rows.add(new RowInfo(AgendaByDayAdapter.TYPE_MEETING, day, position++, id,
+                            dayStart, dayStart + DAY, id, true));
+                } else if (random.nextInt(20) == 0) {
+                    long end = starts[i] + (1 + random.nextInt(3)) * DAY;
+                    spanning.add(new long[] {id, end, position});
+                    rows.add(new RowInfo(AgendaByDayAdapter.TYPE_MEETING, day, position++, id,
+                            starts[i], dayStart + DAY, id, false));
+                } else {
+                    long end = starts[i] + (1 + random.nextInt(8)) * 15 * MINUTE;
+                    rows.add(new RowInfo(AgendaByDayAdapter.TYPE_MEETING, day, position++, id,
+                            starts[i], end, id, false));
+                }
+            }
+        }
+        return rows;
+    }
+
+    public static int scanHeaderPosition(List<RowInfo> rows, int position) {
+        for (int i = position; i >= 0; i--) {
+            RowInfo row = rows.get(i);
+            if (row != null && row.mType == AgendaByDayAdapter.TYPE_DAY)
+                return i;
+        }
+        return -1;
+    }
+
+    public static int scanHeaderItemsCount(List<RowInfo> rows, int position) {
+        int count = 0;
+        for (int i = position + 1; i < rows.size(); i++) {
+            if (rows.get(i).mType != AgendaByDayAdapter.TYPE_MEETING) {
+                return count;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    public static int scanJulianDay(List<RowInfo> rows, int position) {
+        for (int index = position; index >= 0; index--) {
+            RowInfo row = rows.get(index);
+            if (row.mType == AgendaByDayAdapter.TYPE_DAY) {
+                return row.mDay;
+            }
+        }
+        return 0;
+    }
+
+    public static int scanEventPositionNearestTime(List<RowInfo> rows, long millis,
+            int julianDay, long id) {
+        long minDistance = Integer.MAX_VALUE;
+        long idFoundMinDistance = Integer.MAX_VALUE;
+        int minIndex = 0;
+        int idFoundMinIndex = 0;
+        int eventInTimeIndex = -1;
+        int allDayEventInTimeIndex = -1;
+        int allDayEventDay = 0;
+        int minDay = 0;
+        boolean idFound = false;
+        int len = rows.size();
+        int dayIndex = -1;
+
+        for (int index = 0; index < len; index++) {
+            RowInfo row = rows.get(index);
+            if (row.mType == AgendaByDayAdapter.TYPE_DAY) {
+                if (row.mDay == julianDay) {
+                    dayIndex = index;
+                }
+                continue;
+            }
+
+            if (row.mEventId == id) {
+                if (row.mEventStartTimeMilli == millis) {
+                    return index;
+                }
+                long distance = Math.abs(millis - row.mEventStartTimeMilli);
+                if (distance < idFoundMinDistance) {
+                    idFoundMinDistance = distance;
+                    idFoundMinIndex = index;
+                }
+                idFound = true;
+            }
+            if (!idFound) {
+                if (millis >= row.mEventStartTimeMilli && millis <= row.mEventEndTimeMilli) {
+                    if (row.mAllDay) {
+                        if (allDayEventInTimeIndex == -1) {
+                            allDayEventInTimeIndex = index;
+                            allDayEventDay = row.mDay;
+                        }
+                    } else if (eventInTimeIndex == -1) {
+                        eventInTimeIndex = index;
+                    }
+                } else if (eventInTimeIndex == -1) {
+                    long distance = Math.abs(millis - row.mEventStartTimeMilli);
+                    if (distance < minDistance) {
+                        minDistance = distance;
+                        minIndex = index;
+                        minDay = row.mDay;
+                    }
+                }
+            }
+        }
+        if (idFound) {
+            return idFoundMinIndex;
+        }
+        if (dayIndex != -1) {
+            return dayIndex;
+        }
+        if (eventInTimeIndex != -1) {
+            return eventInTimeIndex;
+        } else if (allDayEventInTimeIndex != -1 && minDay != allDayEventDay) {
+            return allDayEventInTimeIndex;
+        }
+        return minIndex;
+    }
+}
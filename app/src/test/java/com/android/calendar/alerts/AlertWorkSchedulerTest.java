@@ -0,0 +1,82 @@
+package com.android.calendar.alerts;
+
+import android.content.Intent;
+import android.provider.CalendarContract;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.calendar.FakeSharedPreferences;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class AlertWorkSchedulerTest extends TestCase {
+
+    private static final long WINDOW = AlertWorkScheduler.DEFAULT_WINDOW_MS;
+    private static final long NOW = 1000000;
+
+    private FakeSharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = new FakeSharedPreferences();
+    }
+
+    private boolean add(String action, long now) {
+        return AlertWorkScheduler.addPendingAction(mPrefs, action, WINDOW, now);
+    }
+
+    @SmallTest
+    public void testActionsWithinWindowJoinOnePass() {
+        assertTrue(add(Intent.ACTION_PROVIDER_CHANGED, NOW));
+        assertFalse(add(Intent.ACTION_PROVIDER_CHANGED, NOW + 10));
+        assertFalse(add(CalendarContract.ACTION_EVENT_REMINDER, NOW + WINDOW));
+        assertEquals(3, AlertWorkScheduler.getReceivedCount(mPrefs));
+        assertEquals(2, AlertWorkScheduler.getCollapsedCount(mPrefs));
+
+        List<String> actions = AlertWorkScheduler.takePendingActions(mPrefs);
+        assertEquals(Arrays.asList(CalendarContract.ACTION_EVENT_REMINDER,
+                Intent.ACTION_PROVIDER_CHANGED), actions);
+
+        // Once taken, the next action needs a pass of its own
+        assertTrue(add(Intent.ACTION_PROVIDER_CHANGED, NOW + WINDOW + 20));
+    }
+
+    @SmallTest
+    public void testStalePassIsEnqueuedAgain() {
+        assertTrue(add(Intent.ACTION_PROVIDER_CHANGED, NOW));
+        assertFalse(add(Intent.ACTION_PROVIDER_CHANGED,
+                NOW + WINDOW + AlertWorkScheduler.STALE_PASS_MS));
+        assertTrue(add(CalendarContract.ACTION_EVENT_REMINDER,
+                NOW + WINDOW + AlertWorkScheduler.STALE_PASS_MS + 1));
+        assertEquals(2, AlertWorkScheduler.takePendingActions(mPrefs).size());
+    }
+
+    @SmallTest
+    public void testReleasedPassKeepsActionsForTheNextOne() {
+        assertTrue(add(Intent.ACTION_PROVIDER_CHANGED, NOW));
+        // The pass is stopped before it takes the actions
+        AlertWorkScheduler.releasePendingPass(mPrefs);
+
+        assertTrue(add(CalendarContract.ACTION_EVENT_REMINDER, NOW + 10));
+        assertEquals(Arrays.asList(CalendarContract.ACTION_EVENT_REMINDER,
+                Intent.ACTION_PROVIDER_CHANGED), AlertWorkScheduler.takePendingActions(mPrefs));
+    }
+
+    @SmallTest
+    public void testFailedPassRestoresItsActions() {
+        assertTrue(add(Intent.ACTION_PROVIDER_CHANGED, NOW));
+        List<String> actions = AlertWorkScheduler.takePendingActions(mPrefs);
+        assertTrue(add(CalendarContract.ACTION_EVENT_REMINDER, NOW + 10));
+
+        AlertWorkScheduler.restorePendingActions(mPrefs, actions);
+
+        // The retry takes both the restored and the newly received action
+        assertEquals(Arrays.asList(CalendarContract.ACTION_EVENT_REMINDER,
+                Intent.ACTION_PROVIDER_CHANGED), AlertWorkScheduler.takePendingActions(mPrefs));
+        assertTrue(AlertWorkScheduler.takePendingActions(mPrefs).isEmpty());
+    }
+}
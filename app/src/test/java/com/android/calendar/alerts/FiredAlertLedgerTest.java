@@ -0,0 +1,96 @@
+package com.android.calendar.alerts;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class FiredAlertLedgerTest extends TestCase {
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("fired_alerts", null);
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testAddAndContains() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        assertFalse(ledger.contains(1, 1000, 900));
+        assertTrue(ledger.add(1, 1000, 900));
+        assertFalse(ledger.add(1, 1000, 900));
+        assertTrue(ledger.contains(1, 1000, 900));
+        assertFalse(ledger.contains(1, 1000, 800));
+        assertFalse(ledger.contains(2, 1000, 900));
+        assertEquals(1, ledger.size());
+    }
+
+    @SmallTest
+    public void testGrowsAndReloads() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        for (int i = 0; i < 1000; i++) {
+            ledger.add(i, i * 1000L, i * 1000L - 600);
+        }
+        assertEquals(1000, ledger.size());
+
+        FiredAlertLedger reloaded = new FiredAlertLedger(mFile);
+        assertEquals(1000, reloaded.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(reloaded.contains(i, i * 1000L, i * 1000L - 600));
+        }
+        assertEquals(1000 * 24, mFile.length());
+    }
+
+    @SmallTest
+    public void testRemoveOlderThanCompactsFile() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        for (int i = 0; i < 100; i++) {
+            ledger.add(i, i, i);
+        }
+        assertEquals(40, ledger.removeOlderThan(40));
+        assertFalse(ledger.contains(39, 39, 39));
+        assertTrue(ledger.contains(40, 40, 40));
+        assertEquals(60 * 24, mFile.length());
+
+        FiredAlertLedger reloaded = new FiredAlertLedger(mFile);
+        assertEquals(60, reloaded.size());
+        assertFalse(reloaded.contains(0, 0, 0));
+        assertTrue(reloaded.contains(99, 99, 99));
+    }
+
+    @SmallTest
+    public void testIgnoresTruncatedRecord() throws IOException {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        ledger.add(7, 70, 60);
+        try (FileOutputStream out = new FileOutputStream(mFile, true)) {
+            out.write(new byte[10]);
+        }
+
+        FiredAlertLedger reloaded = new FiredAlertLedger(mFile);
+        assertEquals(1, reloaded.size());
+        assertTrue(reloaded.contains(7, 70, 60));
+        reloaded.add(8, 80, 70);
+        assertTrue(new FiredAlertLedger(mFile).contains(8, 80, 70));
+    }
+
+    @SmallTest
+    public void testAddAll() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        ledger.add(1, 1, 1);
+        ledger.addAll(new long[] {1, 2, 3}, new long[] {1, 2, 3}, new long[] {1, 2, 3}, 2);
+        assertEquals(2, ledger.size());
+        assertEquals(2, new FiredAlertLedger(mFile).size());
+    }
+}
@@ -0,0 +1,109 @@
+package com.android.calendar.alerts;
+
+import android.text.format.DateUtils;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class ReminderIndexTest extends TestCase {
+
+    private static final String TIME_ZONE = "Europe/Berlin";
+    private static final long NOW = 1700000000000L;
+
+    private static String[] createRow(long id, Long originalId, long dtstart, String rrule) {
+        return new String[] {String.valueOf(id),
+                originalId != null ? String.valueOf(originalId) : null,
+                String.valueOf(dtstart), null, "PT1H", rrule, null, null, null, "0", TIME_ZONE,
+                null, "1", "1", null};
+    }
+
+    private static HashMap<Long, Long> signaturesOf(long seriesId, long... hashes) {
+        HashMap<Long, Long> signatures = new HashMap<Long, Long>();
+        for (long hash : hashes) {
+            ReminderIndex.addToSignature(signatures, seriesId, hash);
+        }
+        return signatures;
+    }
+
+    @SmallTest
+    public void testEventHashFollowsTimingAndReminders() {
+        List<Integer> minutes = Arrays.asList(10, 30);
+        long hash = ReminderIndex.hashEvent(createRow(1, null, NOW, "FREQ=DAILY"), minutes);
+
+        assertEquals(hash, ReminderIndex.hashEvent(createRow(1, null, NOW, "FREQ=DAILY"),
+                Arrays.asList(10, 30)));
+        assertFalse(hash == ReminderIndex.hashEvent(
+                createRow(1, null, NOW + DateUtils.HOUR_IN_MILLIS, "FREQ=DAILY"), minutes));
+        assertFalse(hash == ReminderIndex.hashEvent(createRow(1, null, NOW, "FREQ=WEEKLY"),
+                minutes));
+        assertFalse(hash == ReminderIndex.hashEvent(createRow(1, null, NOW, "FREQ=DAILY"),
+                Arrays.asList(10, 15)));
+        assertFalse(hash == ReminderIndex.hashEvent(createRow(1, null, NOW, "FREQ=DAILY"),
+                null));
+    }
+
+    @SmallTest
+    public void testExceptionChangesSeriesSignature() {
+        long series = ReminderIndex.hashEvent(createRow(1, null, NOW, "FREQ=DAILY"),
+                Collections.singletonList(10));
+        long exception = ReminderIndex.hashEvent(
+                createRow(2, 1L, NOW + DateUtils.DAY_IN_MILLIS, null), null);
+
+        HashMap<Long, Long> stored = signaturesOf(1, series);
+        HashMap<Long, Long> signatures = signaturesOf(1, series, exception);
+
+        assertEquals(Collections.singleton(1L), ReminderIndex.findChanged(signatures, stored));
+        assertTrue(ReminderIndex.findChanged(signaturesOf(1, series, exception),
+                signatures).isEmpty());
+        // The events of a series are combined in id order
+        assertFalse(signatures.equals(signaturesOf(1, exception, series)));
+    }
+
+    @SmallTest
+    public void testChangedAndRemovedSeries() {
+        HashMap<Long, Long> stored = new HashMap<Long, Long>();
+        stored.put(1L, 100L);
+        stored.put(2L, 200L);
+        stored.put(3L, 300L);
+        HashMap<Long, Long> signatures = new HashMap<Long, Long>();
+        signatures.put(1L, 100L);
+        signatures.put(2L, 201L);
+        signatures.put(4L, 400L);
+
+        assertEquals(new HashSet<Long>(Arrays.asList(2L, 4L)),
+                ReminderIndex.findChanged(signatures, stored));
+        assertEquals(Collections.singletonList(3L),
+                ReminderIndex.findRemoved(signatures, stored));
+
+        // A rebuild compares with nothing, so every series is expanded again
+        assertEquals(signatures.keySet(),
+                ReminderIndex.findChanged(signatures, new HashMap<Long, Long>()));
+        assertTrue(ReminderIndex.findRemoved(signatures, new HashMap<Long, Long>()).isEmpty());
+    }
+
+    @SmallTest
+    public void testExpiry() {
+        long maxLead = DateUtils.DAY_IN_MILLIS;
+        long indexedUntil = NOW + maxLead + 4 * DateUtils.WEEK_IN_MILLIS;
+
+        assertFalse(ReminderIndex.isExpired(TIME_ZONE, TIME_ZONE, NOW, indexedUntil, maxLead));
+        // A new time zone moves every all-day alarm
+        assertTrue(ReminderIndex.isExpired("America/New_York", TIME_ZONE, NOW, indexedUntil,
+                maxLead));
+        // A new index has no time zone
+        assertTrue(ReminderIndex.isExpired(TIME_ZONE, null, NOW, 0, 0));
+        // Less than a week of alarms left
+        assertTrue(ReminderIndex.isExpired(TIME_ZONE, TIME_ZONE,
+                indexedUntil - maxLead - DateUtils.WEEK_IN_MILLIS + 1, indexedUntil, maxLead));
+        // A longer reminder lead shortens the window
+        assertTrue(ReminderIndex.isExpired(TIME_ZONE, TIME_ZONE, NOW, indexedUntil,
+                maxLead + 4 * DateUtils.WEEK_IN_MILLIS));
+    }
+}
@@ -0,0 +1,76 @@
+package com.android.calendar.calendarcommon2;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class SortedLongSetTest extends TestCase {
+
+    private static void assertValues(SortedLongSet set, long... expected) {
+        long[] actual = set.toArray();
+        assertTrue("expected " + Arrays.toString(expected) + " actual "
+                + Arrays.toString(actual), Arrays.equals(expected, actual));
+        assertEquals(expected.length, set.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], set.get(i));
+        }
+    }
+
+    @SmallTest
+    public void testAddInOrder() {
+        SortedLongSet set = new SortedLongSet(2);
+        assertTrue(set.isEmpty());
+        set.add(1);
+        set.add(3);
+        set.add(3);
+        set.add(7);
+        assertValues(set, 1, 3, 7);
+    }
+
+    @SmallTest
+    public void testAddOutOfOrder() {
+        SortedLongSet set = new SortedLongSet();
+        set.add(20);
+        set.add(5);
+        set.add(20);
+        set.add(-4);
+        set.add(5);
+        set.add(11);
+        assertValues(set, -4, 5, 11, 20);
+        assertTrue(set.contains(11));
+        assertFalse(set.contains(12));
+    }
+
+    @SmallTest
+    public void testRemove() {
+        SortedLongSet set = new SortedLongSet();
+        for (long i = 10; i > 0; i--) {
+            set.add(i);
+        }
+        set.remove(3);
+        set.remove(42);
+        set.remove(10);
+        set.remove(3);
+        assertValues(set, 1, 2, 4, 5, 6, 7, 8, 9);
+
+        // adding after a removal must not be undone by it
+        set.remove(5);
+        set.add(5);
+        set.remove(6);
+        assertValues(set, 1, 2, 4, 5, 7, 8, 9);
+    }
+
+    @SmallTest
+    public void testClear() {
+        SortedLongSet set = new SortedLongSet();
+        set.add(2);
+        set.add(1);
+        set.remove(2);
+        set.clear();
+        assertTrue(set.isEmpty());
+        set.add(4);
+        assertValues(set, 4);
+    }
+}
@@ -0,0 +1,225 @@
+package com.android.calendar.calendarcommon2;
+
+import androidx.test.filters.MediumTest;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Runs random sequences of calls on Time and on the GregorianCalendar-backed LegacyTime and
+ * checks that they return the same results, including around DST transitions and when fields
+ * are set out of range.
+ */
+public class TimeCompatibilityTest extends TestCase {
+
+    private static final String[] TIMEZONES = {
+            Time.TIMEZONE_UTC,
+            "America/Los_Angeles",
+            "America/Sao_Paulo",
+            "America/St_Johns",
+            "Atlantic/Azores",
+            "Europe/London",
+            "Europe/Berlin",
+            "Africa/Cairo",
+            "Asia/Tehran",
+            "Asia/Kolkata",
+            "Australia/Lord_Howe",
+            "Pacific/Apia",
+            "Pacific/Kiritimati",
+            "Not/A_Timezone",
+    };
+
+    // March, April, October and November
+    private static final int[] DST_MONTHS = {2, 3, 9, 10};
+
+    private static final int SEQUENCES = 3000;
+    private static final int CALLS = 25;
+
+    private Random mRandom;
+
+    @MediumTest
+    public void testRandomCalls() {
+        runSequences(1, 1960, 90, 24);
+    }
+
+    @MediumTest
+    public void testRandomCallsAroundDstTransitions() {
+        // 12am-3am in the months most timezones change DST in
+        runSequences(2, 2000, 30, 4);
+    }
+
+    private void runSequences(long seed, int firstYear, int years, int hours) {
+        for (int i = 0; i < SEQUENCES; i++) {
+            mRandom = new Random(seed * SEQUENCES + i);
+            String startTimezone = randomTimezone();
+            String otherTimezone = randomTimezone();
+            Time time = new Time(startTimezone);
+            Time other = new Time(otherTimezone);
+            LegacyTime legacy = new LegacyTime(startTimezone);
+            LegacyTime legacyOther = new LegacyTime(otherTimezone);
+
+            StringBuilder calls = new StringBuilder();
+            for (int call = 0; call < CALLS; call++) {
+                int year = firstYear + mRandom.nextInt(years);
+                int month = hours == 24 ? mRandom.nextInt(12) : DST_MONTHS[mRandom.nextInt(4)];
+                int day = 1 + mRandom.nextInt(31);
+                int hour = mRandom.nextInt(hours);
+                int minute = mRandom.nextInt(60);
+                int second = mRandom.nextInt(60);
+                if (mRandom.nextInt(5) == 0) {
+                    day = mRandom.nextInt(70) - 20;
+                }
+                if (mRandom.nextInt(8) == 0) {
+                    month = mRandom.nextInt(30) - 10;
+                }
+
+                String expected = "";
+                String actual = "";
+                int op = mRandom.nextInt(24);
+                switch (op) {
+                    case 0:
+                        long millis = (long) ((mRandom.nextDouble() * 2.5 - 0.3) * 2e12);
+                        legacy.set(millis);
+                        time.set(millis);
+                        break;
+                    case 1:
+                        legacy.set(day, month, year);
+                        time.set(day, month, year);
+                        break;
+                    case 2:
+                        legacy.set(second, minute, hour, day, month, year);
+                        time.set(second, minute, hour, day, month, year);
+                        break;
+                    case 3:
+                        legacy.setYear(year);
+                        time.setYear(year);
+                        legacy.setMonth(month);
+                        time.setMonth(month);
+                        break;
+                    case 4:
+                        legacy.setDay(day);
+                        time.setDay(day);
+                        break;
+                    case 5:
+                        legacy.setHour(hour);
+                        time.setHour(hour);
+                        legacy.setMinute(minute);
+                        time.setMinute(minute);
+                        legacy.setSecond(second);
+                        time.setSecond(second);
+                        break;
+                    case 6:
+                        int field = Time.SECOND + mRandom.nextInt(Time.YEAR);
+                        int amount = mRandom.nextInt(100) - 50;
+                        legacy.add(field, amount);
+                        time.add(field, amount);
+                        break;
+                    case 7:
+                        String timezone = randomTimezone();
+                        legacy.setTimezone(timezone);
+                        time.setTimezone(timezone);
+                        break;
+                    case 8:
+                        timezone = randomTimezone();
+                        legacy.switchTimezone(timezone);
+                        time.switchTimezone(timezone);
+                        break;
+                    case 9:
+                        timezone = randomTimezone();
+                        legacy.clear(timezone);
+                        time.clear(timezone);
+                        break;
+                    case 10:
+                        String s = String.format("%04d%02d%02dT%02d%02d%02d%s", year,
+                                1 + mRandom.nextInt(12), 1 + mRandom.nextInt(28), hour, minute,
+                                second, mRandom.nextBoolean() ? "Z" : "");
+                        if (mRandom.nextBoolean()) {
+                            s = s.substring(0, 8);
+                        }
+                        legacy.parse(s);
+                        time.parse(s);
+                        break;
+                    case 11:
+                        expected = "" + legacy.normalize();
+                        actual = "" + time.normalize();
+                        break;
+                    case 12:
+                        expected = "" + legacy.toMillis();
+                        actual = "" + time.toMillis();
+                        break;
+                    case 13:
+                        expected = legacy.getYear() + "-" + legacy.getMonth() + "-"
+                                + legacy.getDay() + " " + legacy.getHour() + ":"
+                                + legacy.getMinute() + ":" + legacy.getSecond() + " "
+                                + legacy.getWeekDay() + " " + legacy.getYearDay();
+                        actual = time.getYear() + "-" + time.getMonth() + "-"
+                                + time.getDay() + " " + time.getHour() + ":"
+                                + time.getMinute() + ":" + time.getSecond() + " "
+                                + time.getWeekDay() + " " + time.getYearDay();
+                        break;
+                    case 14:
+                        // LegacyTime got the day wrong when 12am UTC of it is before 1970 in
+                        // the timezone
+                        int julianDay = Time.getJulianDay(0, 0) + 2 + mRandom.nextInt(30000);
+                        expected = "" + legacy.setJulianDay(julianDay);
+                        actual = "" + time.setJulianDay(julianDay);
+                        break;
+                    case 15:
+                        // LegacyTime formats the fields as of the last normalize()
+                        legacy.normalize();
+                        time.normalize();
+                        expected = legacy.format2445();
+                        actual = time.format2445();
+                        break;
+                    case 16:
+                        expected = legacy.getWeekNumber() + " "
+                                + legacy.getActualMaximum(Time.WEEK_NUM);
+                        actual = time.getWeekNumber() + " " + time.getActualMaximum(Time.WEEK_NUM);
+                        break;
+                    case 17:
+                        expected = legacy.getActualMaximum(Time.MONTH_DAY) + " "
+                                + legacy.getActualMaximum(Time.YEAR_DAY);
+                        actual = time.getActualMaximum(Time.MONTH_DAY) + " "
+                                + time.getActualMaximum(Time.YEAR_DAY);
+                        break;
+                    case 18:
+                        legacy.set(legacyOther);
+                        time.set(other);
+                        break;
+                    case 19:
+                        legacyOther.set(second, minute, hour, day, month, year);
+                        other.set(second, minute, hour, day, month, year);
+                        expected = "" + Integer.signum(legacy.compareTo(legacyOther));
+                        actual = "" + Integer.signum(time.compareTo(other));
+                        break;
+                    case 20:
+                        expected = legacy.getGmtOffset() + " " + legacy.getTimezone();
+                        actual = time.getGmtOffset() + " " + time.getTimezone();
+                        break;
+                    case 21:
+                        int weekDay = mRandom.nextInt(7);
+                        legacy.setWeekDay(weekDay);
+                        time.setWeekDay(weekDay);
+                        break;
+                    case 22:
+                        int yearDay = mRandom.nextInt(365);
+                        legacy.setYearDay(yearDay);
+                        time.setYearDay(yearDay);
+                        break;
+                    default:
+                        legacy.setAllDay(!legacy.isAllDay());
+                        time.setAllDay(!time.isAllDay());
+                        break;
+                }
+                calls.append(op).append(": ").append(expected).append('\n');
+                assertEquals("seed " + (seed * SEQUENCES + i) + " in " + startTimezone + " after\n"
+                        + calls, expected, actual);
+            }
+        }
+    }
+
+    private String randomTimezone() {
+        return TIMEZONES[mRandom.nextInt(TIMEZONES.length)];
+    }
+}
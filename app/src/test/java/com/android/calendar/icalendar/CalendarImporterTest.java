@@ -0,0 +1,125 @@
+package com.android.calendar.icalendar;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class CalendarImporterTest extends TestCase {
+
+    private static final long CALENDAR_ID = 7;
+
+    /**
+     * Records the events instead of inserting them. The workers write concurrently.
+     */
+    private static class RecordingWriter implements CalendarImporter.BatchWriter {
+        final ArrayList<String> mUids = new ArrayList<String>();
+        final ArrayList<Long> mCalendarIds = new ArrayList<Long>();
+        final ArrayList<Integer> mBatchSizes = new ArrayList<Integer>();
+
+        @Override
+        public synchronized void write(long calendarId,
+                ArrayList<CalendarImporter.EventValues> events) {
+            mBatchSizes.add(events.size());
+            for (CalendarImporter.EventValues values : events) {
+                mUids.add(values.uid);
+                mCalendarIds.add(calendarId);
+            }
+        }
+    }
+
+    private static String createEvent(String uid, String dtStart, String dtEnd) {
+        return "BEGIN:VEVENT\r\n"
+                + "UID:" + uid + "\r\n"
+                + "SUMMARY:Event " + uid + "\r\n"
+                + "DTSTART;TZID=Europe/Berlin:" + dtStart + "\r\n"
+                + "DTEND;TZID=Europe/Berlin:" + dtEnd + "\r\n"
+                + "END:VEVENT\r\n";
+    }
+
+    private static VEventReader createReader(String... events) {
+        StringBuilder calendar = new StringBuilder("BEGIN:VCALENDAR\r\nVERSION:2.0\r\n");
+        for (String event : events) {
+            calendar.append(event);
+        }
+        calendar.append("END:VCALENDAR\r\n");
+        return new VEventReader(new StringReader(calendar.toString()));
+    }
+
+    @SmallTest
+    public void testMalformedDatesAreRejected() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+        CalendarImporter importer = new CalendarImporter(writer, event -> CALENDAR_ID, 2);
+
+        ImportReport report = importer.importEvents(createReader(
+                createEvent("first", "20240102T100000", "20240102T110000"),
+                createEvent("bad-start", "2024XX02T100000", "20240102T110000"),
+                createEvent("bad-end", "20240103T100000", "20240103T1100"),
+                createEvent("last", "20240104T100000", "20240104T110000")), null);
+
+        assertEquals(2, report.getImportedCount());
+        assertEquals(2, report.getRejectedCount());
+        assertEquals(new HashSet<String>(Arrays.asList("first", "last")),
+                new HashSet<String>(writer.mUids));
+        assertEquals(Integer.valueOf(2), report.getImportedCounts().get(CALENDAR_ID));
+        List<String> rejections = report.getRejections();
+        assertEquals(2, rejections.size());
+        assertTrue(rejections.contains("bad-start: invalid start time 2024XX02T100000"));
+        assertTrue(rejections.contains("bad-end: invalid end time 20240103T1100"));
+    }
+
+    @SmallTest
+    public void testEventsAreWrittenInBatches() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+        CalendarImporter importer = new CalendarImporter(writer, event -> CALENDAR_ID, 2);
+        int count = CalendarImporter.BATCH_SIZE * 3 + 1;
+        String[] events = new String[count];
+        for (int i = 0; i < count; i++) {
+            events[i] = createEvent("e" + i, "20240102T100000", "20240102T110000");
+        }
+
+        ImportReport report = importer.importEvents(createReader(events), null);
+
+        assertEquals(count, report.getImportedCount());
+        assertEquals(0, report.getRejectedCount());
+        assertEquals(count, new HashSet<String>(writer.mUids).size());
+    }
+
+    @SmallTest
+    public void testEventsAreBatchedPerCalendar() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+        // "a*" events go to calendar 1, "b*" events to calendar 2, the others nowhere
+        CalendarImporter importer = new CalendarImporter(writer, event -> {
+            String uid = event.getProperty(VEvent.UID);
+            return uid.startsWith("a") ? 1 : uid.startsWith("b") ? 2 : -1;
+        }, 3);
+        int count = CalendarImporter.BATCH_SIZE * 2;
+        String[] events = new String[count * 2 + 1];
+        for (int i = 0; i < count; i++) {
+            events[2 * i] = createEvent("a" + i, "20240102T100000", "20240102T110000");
+            events[2 * i + 1] = createEvent("b" + i, "20240102T100000", "20240102T110000");
+        }
+        events[count * 2] = createEvent("c", "20240102T100000", "20240102T110000");
+
+        ImportReport report = importer.importEvents(createReader(events), null);
+
+        assertEquals(count * 2, report.getImportedCount());
+        assertEquals(Integer.valueOf(count), report.getImportedCounts().get(1L));
+        assertEquals(Integer.valueOf(count), report.getImportedCounts().get(2L));
+        assertEquals(Collections.singletonList("c: no calendar"), report.getRejections());
+        // Every batch went to the calendar of its events, in one write
+        for (int i = 0; i < writer.mUids.size(); i++) {
+            assertEquals(writer.mUids.get(i).startsWith("a") ? 1L : 2L,
+                    (long) writer.mCalendarIds.get(i));
+        }
+        for (int size : writer.mBatchSizes) {
+            assertTrue(size <= CalendarImporter.BATCH_SIZE);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.android.calendar.icalendar;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class VCalendarWriterTest extends TestCase {
+
+    private static final String E_ACUTE = "\u00e9";
+    private static final String EMOJI = "\ud83d\ude00";
+    private static final String LONG_SUMMARY;
+
+    static {
+        StringBuilder summary = new StringBuilder("A summary long enough to be folded, with "
+                + "multibyte characters like " + E_ACUTE + ", \u65e5\u672c\u8a9e and " + EMOJI
+                + " that must not be split across lines however the folds fall: ");
+        for (int i = 0; i < 40; i++) {
+            summary.append(E_ACUTE);
+        }
+        for (int i = 0; i < 20; i++) {
+            summary.append(EMOJI);
+        }
+        LONG_SUMMARY = summary.toString();
+    }
+
+    @SmallTest
+    public void testFoldsLinesAtSeventyFiveOctets() throws IOException {
+        byte[] bytes = write(createEvent());
+
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                assertEquals("lines end with CRLF", '\r', bytes[i - 1]);
+                assertTrue("line longer than 75 octets", i - 1 - lineStart <= 75);
+                lineStart = i + 1;
+            }
+        }
+        assertEquals(bytes.length, lineStart);
+        // A fold never starts the continuation line inside a multibyte character
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        assertFalse(text.contains("\ufffd"));
+    }
+
+    @SmallTest
+    public void testWrittenEventReadsBack() throws IOException {
+        VEvent event = createEvent();
+        byte[] bytes = write(event);
+
+        VEventReader reader = new VEventReader(new ByteArrayInputStream(bytes));
+        VEvent read = reader.next();
+        assertNotNull(read);
+        assertNull(reader.next());
+        assertEquals(event.getProperty(VEvent.UID), read.getProperty(VEvent.UID));
+        assertEquals(event.getProperty(VEvent.SUMMARY), read.getProperty(VEvent.SUMMARY));
+        assertEquals("20240102T100000", read.getProperty(VEvent.DTSTART));
+        assertEquals("TZID=Europe/Berlin", read.getPropertyParameters(VEvent.DTSTART));
+        assertEquals("FREQ=WEEKLY;BYDAY=MO,TU", read.getProperty(VEvent.RRULE));
+        assertEquals(1, read.mAttendees.size());
+        assertEquals("jane@example.com", read.mAttendees.get(0).mEmail);
+        assertNotNull(read.mOrganizer);
+    }
+
+    @SmallTest
+    public void testEventWithoutOrganizer() throws IOException {
+        VEvent event = new VEvent();
+        event.addProperty(VEvent.SUMMARY, "No organizer");
+
+        String text = new String(write(event), StandardCharsets.UTF_8);
+        assertTrue(text.startsWith("BEGIN:VCALENDAR\r\n"));
+        assertTrue(text.contains("SUMMARY:No organizer\r\n"));
+        assertFalse(text.contains("ORGANIZER"));
+        assertTrue(text.endsWith("END:VEVENT\r\nEND:VCALENDAR\r\n"));
+    }
+
+    private static VEvent createEvent() {
+        VEvent event = new VEvent();
+        event.addProperty(VEvent.SUMMARY, LONG_SUMMARY);
+        event.mProperties.put(VEvent.DTSTART, "20240102T100000");
+        event.mPropertyParameters.put(VEvent.DTSTART, "TZID=Europe/Berlin");
+        event.mProperties.put(VEvent.RRULE, "FREQ=WEEKLY;BYDAY=MO,TU");
+        event.addOrganizer(new Organizer("Jane Doe", "jane@example.com"));
+        Attendee attendee = new Attendee();
+        attendee.addProperty(Attendee.CN, "\"Doe, Jane\"");
+        attendee.addProperty(Attendee.PARTSTAT, "ACCEPTED");
+        attendee.mEmail = "jane@example.com";
+        event.addAttendee(attendee);
+        return event;
+    }
+
+    private static byte[] write(VEvent event) throws IOException {
+        VCalendar calendar = new VCalendar();
+        calendar.addProperty(VCalendar.VERSION, "2.0");
+        calendar.addProperty(VCalendar.PRODID, VCalendar.PRODUCT_IDENTIFIER);
+        calendar.addEvent(event);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new VCalendarWriter(out).write(calendar);
+        return out.toByteArray();
+    }
+}
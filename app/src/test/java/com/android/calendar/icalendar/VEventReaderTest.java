@@ -0,0 +1,79 @@
+package com.android.calendar.icalendar;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class VEventReaderTest extends TestCase {
+
+    private static final String CALENDAR = "BEGIN:VCALENDAR\r\n"
+            + "VERSION:2.0\r\n"
+            + "BEGIN:VTIMEZONE\r\n"
+            + "TZID:Europe/Berlin\r\n"
+            + "BEGIN:STANDARD\r\n"
+            + "DTSTART:19701025T030000\r\n"
+            + "END:STANDARD\r\n"
+            + "END:VTIMEZONE\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:first@example.com\r\n"
+            + "SUMMARY:A summary that is folded over\r\n"
+            + "  two lines\r\n"
+            + "DTSTART;TZID=Europe/Berlin:20240102T100000\r\n"
+            + "DTEND;TZID=Europe/Berlin:20240102T110000\r\n"
+            + "DESCRIPTION:The event\r\n"
+            + "ATTENDEE;CN=\"Doe, Jane\";PARTSTAT=ACCEPTED:mailto:jane@exam\r\n"
+            + "\tple.com\r\n"
+            + "BEGIN:VALARM\r\n"
+            + "ACTION:DISPLAY\r\n"
+            + "DESCRIPTION:The alarm\r\n"
+            + "TRIGGER:-PT15M\r\n"
+            + "END:VALARM\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VEVENT\n"
+            + "UID:second@example.com\n"
+            + "DTSTART;VALUE=DATE:20240105\n"
+            + "RRULE:FREQ=WEEKLY;COUNT=3\n"
+            + "END:VEVENT\n"
+            + "END:VCALENDAR\r\n";
+
+    @SmallTest
+    public void testReadsEventsOneAtATime() throws IOException {
+        VEventReader reader = new VEventReader(new StringReader(CALENDAR));
+
+        VEvent first = reader.next();
+        assertNotNull(first);
+        assertEquals("first@example.com", first.getProperty(VEvent.UID));
+        assertEquals("A summary that is folded over two lines",
+                first.getProperty(VEvent.SUMMARY));
+        assertEquals("20240102T100000", first.getProperty(VEvent.DTSTART));
+        assertEquals("TZID=Europe/Berlin", first.getPropertyParameters(VEvent.DTSTART));
+        assertEquals("The event", first.getProperty(VEvent.DESCRIPTION));
+        assertNull(first.getProperty("TRIGGER"));
+        assertEquals(1, first.mAttendees.size());
+        assertEquals("jane@example.com", first.mAttendees.getFirst().mEmail);
+        assertEquals("ACCEPTED", first.mAttendees.getFirst().mProperties.get(Attendee.PARTSTAT));
+
+        VEvent second = reader.next();
+        assertNotNull(second);
+        assertEquals("second@example.com", second.getProperty(VEvent.UID));
+        assertEquals("20240105", second.getProperty(VEvent.DTSTART));
+        assertEquals("VALUE=DATE", second.getPropertyParameters(VEvent.DTSTART));
+        assertEquals("FREQ=WEEKLY;COUNT=3", second.getProperty(VEvent.RRULE));
+
+        assertNull(reader.next());
+        assertNull(reader.next());
+        assertEquals(2, reader.getEventCount());
+        reader.close();
+    }
+
+    @SmallTest
+    public void testNoEvents() throws IOException {
+        VEventReader reader = new VEventReader(
+                new StringReader("BEGIN:VCALENDAR\nEND:VCALENDAR\n"));
+        assertNull(reader.next());
+        assertEquals(0, reader.getEventCount());
+    }
+}
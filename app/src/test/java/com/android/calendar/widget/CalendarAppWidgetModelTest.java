@@ -0,0 +1,76 @@
+package com.android.calendar.widget;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.calendar.widget.CalendarAppWidgetModel.DayInfo;
+import com.android.calendar.widget.CalendarAppWidgetModel.EventInfo;
+import com.android.calendar.widget.CalendarAppWidgetModel.RowInfo;
+
+import junit.framework.TestCase;
+
+public class CalendarAppWidgetModelTest extends TestCase {
+
+    private static final String TIME_ZONE = "America/Los_Angeles";
+    private static final long HOUR = 60 * 60 * 1000;
+    // Far enough in the future that no event is in progress
+    private static final long START = 4102444800000L;
+
+    @SmallTest
+    public void testSameRowsAreUnchanged() {
+        CalendarAppWidgetModel previous = createModel();
+        CalendarAppWidgetModel model = createModel();
+        assertEquals(0, model.countChangedRows(previous));
+    }
+
+    @SmallTest
+    public void testChangedEventAndDayAreCounted() {
+        CalendarAppWidgetModel previous = createModel();
+        CalendarAppWidgetModel model = createModel();
+        model.mEventInfos.get(0).title = "Renamed";
+        model.mDayInfos.set(0, new DayInfo(model.mTodayJulianDay + 1, "Another label"));
+        assertEquals(2, model.countChangedRows(previous));
+    }
+
+    @SmallTest
+    public void testAddedAndRemovedRowsAreCounted() {
+        CalendarAppWidgetModel previous = createModel();
+        CalendarAppWidgetModel model = createModel();
+        addEvent(model, 5, START + 30 * HOUR, "Later");
+        assertEquals(1, model.countChangedRows(previous));
+        assertEquals(1, previous.countChangedRows(model));
+    }
+
+    @SmallTest
+    public void testEventStartingIsChanged() throws InterruptedException {
+        CalendarAppWidgetModel previous = createModel();
+        Thread.sleep(5);
+        CalendarAppWidgetModel model = createModel();
+        // The first event starts between the two builds
+        for (CalendarAppWidgetModel m : new CalendarAppWidgetModel[] {previous, model}) {
+            EventInfo event = m.mEventInfos.get(0);
+            event.start = previous.mNow + 1;
+            event.end = model.mNow + HOUR;
+        }
+        assertEquals(1, model.countChangedRows(previous));
+    }
+
+    private static CalendarAppWidgetModel createModel() {
+        CalendarAppWidgetModel model = new CalendarAppWidgetModel(null, TIME_ZONE);
+        addEvent(model, 1, START + 2 * HOUR, "First");
+        model.mDayInfos.add(new DayInfo(model.mTodayJulianDay + 1, "Tomorrow"));
+        model.mRowInfos.add(new RowInfo(RowInfo.TYPE_DAY, 0));
+        addEvent(model, 2, START + 26 * HOUR, "Second");
+        return model;
+    }
+
+    private static void addEvent(CalendarAppWidgetModel model, long id, long start,
+            String title) {
+        EventInfo event = new EventInfo();
+        event.id = id;
+        event.start = start;
+        event.end = start + HOUR;
+        event.title = title;
+        model.mRowInfos.add(new RowInfo(RowInfo.TYPE_MEETING, model.mEventInfos.size()));
+        model.mEventInfos.add(event);
+    }
+}
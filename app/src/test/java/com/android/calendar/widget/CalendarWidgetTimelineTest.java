@@ -0,0 +1,52 @@
+package com.android.calendar.widget;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.calendar.widget.CalendarAppWidgetModel.EventInfo;
+
+import junit.framework.TestCase;
+
+public class CalendarWidgetTimelineTest extends TestCase {
+
+    private static final String TIME_ZONE = "America/Los_Angeles";
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @SmallTest
+    public void testTransitionsAreSortedAndDistinct() {
+        CalendarAppWidgetModel model = new CalendarAppWidgetModel(null, TIME_ZONE);
+        final long now = model.mNow;
+        addEvent(model, now + 3 * HOUR, now + 4 * HOUR);
+        addEvent(model, now + HOUR, now + 3 * HOUR);
+        // In progress: only its end is a transition
+        addEvent(model, now - HOUR, now + 2 * HOUR);
+        CalendarWidgetTimeline timeline = new CalendarWidgetTimeline(model, now + 10 * HOUR);
+
+        assertEquals(now + HOUR, timeline.next(now));
+        assertEquals(now + 2 * HOUR, timeline.next(now + HOUR));
+        assertEquals(now + 3 * HOUR, timeline.next(now + 2 * HOUR + 1));
+        assertEquals(now + 4 * HOUR, timeline.next(now + 3 * HOUR));
+        assertEquals(now + 10 * HOUR, timeline.next(now + 4 * HOUR));
+    }
+
+    @SmallTest
+    public void testTransitionsEndAtMidnight() {
+        CalendarAppWidgetModel model = new CalendarAppWidgetModel(null, TIME_ZONE);
+        final long now = model.mNow;
+        addEvent(model, now + HOUR, now + 30 * HOUR);
+        addEvent(model, now + 26 * HOUR, now + 27 * HOUR);
+        CalendarWidgetTimeline timeline = new CalendarWidgetTimeline(model, now + 2 * HOUR);
+
+        assertEquals(now + HOUR, timeline.next(now));
+        assertEquals(now + 2 * HOUR, timeline.next(now + HOUR));
+        assertFalse(timeline.isExpired(now + 2 * HOUR - 1));
+        assertTrue(timeline.isExpired(now + 2 * HOUR));
+    }
+
+    private static void addEvent(CalendarAppWidgetModel model, long start, long end) {
+        EventInfo event = new EventInfo();
+        event.id = model.mEventInfos.size() + 1;
+        event.start = start;
+        event.end = end;
+        model.mEventInfos.add(event);
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.concurrent.Callable
+
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+/*
+ * JMH benchmarks for the calendar arithmetic and the day/month view layout code. They run on the
+ * JVM, no device needed:
+ *
+ * ./gradlew :benchmark:jmh
+ *
+ * The app classes are taken from the app's debug unit test classpath, so they see the same
+ * mockable android.jar and dependencies as the unit tests do.
+ *
+ * The synthetic calendars in src/jmh/resources/datasets are checked in so results stay
+ * comparable between runs; DatasetGenerator rewrites them.
+ */
+
+evaluationDependsOn(":app")
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(21))
+    }
+}
+
+val appUnitTestClasspath = files(Callable {
+    project(":app").tasks.named<Test>("testDebugUnitTest").get().classpath
+})
+
+dependencies {
+    jmhImplementation(appUnitTestClasspath)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    // ./gradlew :benchmark:jmh -Pjmh.includes=RecurrenceBenchmark
+    (project.findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+}
+
+tasks.register<JavaExec>("generateDatasets") {
+    description = "Rewrites the synthetic calendars the benchmarks run on."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("com.android.calendar.benchmark.DatasetGenerator")
+    args(file("src/jmh/resources/datasets").absolutePath)
+}
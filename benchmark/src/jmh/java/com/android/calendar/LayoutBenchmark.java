@@ -0,0 +1,149 @@
+package com.android.calendar;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+
+import com.android.calendar.benchmark.Dataset;
+import com.android.calendar.calendarcommon2.Duration;
+import com.android.calendar.calendarcommon2.RecurrenceProcessor;
+import com.android.calendar.calendarcommon2.Time;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import ws.xsoh.etar.R;
+
+/**
+ * Lays out all instances of a dataset the way the day and week views do, and draws the DNA
+ * strands of every week of the year the way the month view does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LayoutBenchmark {
+
+    private static final int[] COLORS = {
+            0xFFD50000, 0xFFF4511E, 0xFF33B679, 0xFF039BE5, 0xFF7986CB, 0xFF8E24AA
+    };
+    // A month view week row on a phone, in pixels
+    private static final int DNA_TOP = 40;
+    private static final int DNA_BOTTOM = 200;
+    private static final int DNA_MIN_PIXELS = 4;
+    private static final int[] DAY_XS = {40, 120, 200, 280, 360, 440, 520};
+
+    @Param({"1k", "10k", "100k"})
+    public String dataset;
+
+    private ArrayList<Event> mEvents;
+    private int[] mWeekStarts;
+    private ArrayList<ArrayList<Event>> mWeeks;
+    private Context mContext;
+
+    @Setup
+    public void setUp() throws Exception {
+        Dataset data = Dataset.load(dataset);
+        RecurrenceProcessor processor = new RecurrenceProcessor();
+        Duration duration = new Duration();
+        Time local = new Time(Dataset.TIMEZONE);
+        mEvents = new ArrayList<>();
+        for (int i = 0; i < data.entries.size(); i++) {
+            Dataset.Entry entry = data.entries.get(i);
+            duration.parse(entry.duration);
+            for (long start : entry.expand(processor)) {
+                Event e = Event.newInstance();
+                e.id = i;
+                e.title = "Event " + i;
+                e.color = COLORS[i % COLORS.length];
+                e.allDay = entry.allDay;
+                e.isRepeating = entry.rrule != null;
+                e.startMillis = start;
+                e.endMillis = duration.addTo(start);
+                if (e.allDay) {
+                    e.startDay = Time.getJulianDay(e.startMillis, 0);
+                    e.endDay = Time.getJulianDay(e.endMillis - 1, 0);
+                } else {
+                    local.set(e.startMillis);
+                    e.startDay = Time.getJulianDay(e.startMillis, local.getGmtOffset());
+                    e.startTime = local.getHour() * 60 + local.getMinute();
+                    local.set(e.endMillis);
+                    e.endDay = Time.getJulianDay(e.endMillis, local.getGmtOffset());
+                    e.endTime = local.getHour() * 60 + local.getMinute();
+                }
+                mEvents.add(e);
+            }
+        }
+        // The order of Event.loadEvents(): begin ASC, end DESC
+        mEvents.sort((a, b) -> a.startMillis != b.startMillis
+                ? Long.compare(a.startMillis, b.startMillis)
+                : Long.compare(b.endMillis, a.endMillis));
+
+        local.set(Dataset.RANGE_START_MILLIS);
+        int firstDay = Time.getJulianDay(Dataset.RANGE_START_MILLIS, local.getGmtOffset())
+                - local.getWeekDay();
+        int weeks = 53;
+        mWeekStarts = new int[weeks];
+        mWeeks = new ArrayList<>(weeks);
+        for (int week = 0; week < weeks; week++) {
+            mWeekStarts[week] = firstDay + week * 7;
+            mWeeks.add(new ArrayList<>());
+        }
+        for (Event e : mEvents) {
+            int first = Math.max(0, (e.startDay - firstDay) / 7);
+            int last = Math.min(weeks - 1, (e.endDay - firstDay) / 7);
+            for (int week = first; week <= last; week++) {
+                mWeeks.get(week).add(e);
+            }
+        }
+
+        final Resources resources = new Resources(null, null, null) {
+            @Override
+            public int getColor(int id) {
+                return id == R.color.month_dna_conflict_time_color ? 0xFF333333 : 0;
+            }
+
+            @Override
+            public int getInteger(int id) {
+                return id == R.integer.work_start_minutes ? 360 : 1200;
+            }
+        };
+        mContext = new ContextWrapper(null) {
+            @Override
+            public Resources getResources() {
+                return resources;
+            }
+        };
+    }
+
+    @Benchmark
+    public ArrayList<Event> computePositions() {
+        Event.computePositions(mEvents, 0, false);
+        return mEvents;
+    }
+
+    @Benchmark
+    public ArrayList<Event> computePositionsStaggered() {
+        Event.computePositions(mEvents, 15 * 60 * 1000, true);
+        return mEvents;
+    }
+
+    @Benchmark
+    public void createDNAStrands(Blackhole blackhole) {
+        for (int week = 0; week < mWeekStarts.length; week++) {
+            if (!mWeeks.get(week).isEmpty()) {
+                blackhole.consume(Utils.createDNAStrands(mWeekStarts[week], mWeeks.get(week),
+                        DNA_TOP, DNA_BOTTOM, DNA_MIN_PIXELS, DAY_XS, mContext));
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.android.calendar.agenda;
+
+import com.android.calendar.agenda.AgendaByDayAdapter.RowInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up agenda rows of a 60-day window the way goTo and refresh do, through
+ * {@link AgendaRowIndex} and through the linear scans it replaced. Each benchmark runs the same
+ * 256 lookups; the build benchmark is the price paid once per
+ * {@link AgendaByDayAdapter#calculateDays}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AgendaRowIndexBenchmark {
+
+    private static final int DAYS = 60;
+    private static final int LOOKUPS = 256;
+
+    // About 0.8k, 3.4k and 13k rows
+    @Param({"10", "50", "200"})
+    public int eventsPerDay;
+
+    private ArrayList<RowInfo> mRows;
+    private AgendaRowIndex mIndex;
+    private long[] mMillis;
+    private int[] mJulianDays;
+    private long[] mIds;
+    private int[] mPositions;
+
+    @Setup
+    public void setUp() {
+        mRows = AgendaRowTestUtils.createRows(1, DAYS, eventsPerDay);
+        mIndex = new AgendaRowIndex(mRows);
+        Random random = new Random(1);
+        mMillis = new long[LOOKUPS];
+        mJulianDays = new int[LOOKUPS];
+        mIds = new long[LOOKUPS];
+        mPositions = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            mJulianDays[i] = AgendaRowTestUtils.FIRST_DAY + random.nextInt(DAYS);
+            mMillis[i] = AgendaRowTestUtils.getDayStart(mJulianDays[i])
+                    + random.nextInt(24 * 60) * AgendaRowTestUtils.MINUTE;
+            // Half of the lookups go to an event, as after an edit, the others to a time
+            mIds[i] = i % 2 == 0 ? mRows.get(random.nextInt(mRows.size())).mEventId : -1;
+            mPositions[i] = random.nextInt(mRows.size());
+        }
+    }
+
+    @Benchmark
+    public AgendaRowIndex buildIndex() {
+        return new AgendaRowIndex(mRows);
+    }
+
+    @Benchmark
+    public void findEventPositionNearestTimeIndexed(Blackhole blackhole) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            blackhole.consume(mIndex.findEventPositionNearestTime(mMillis[i], mJulianDays[i],
+                    mIds[i]));
+        }
+    }
+
+    @Benchmark
+    public void findEventPositionNearestTimeScan(Blackhole blackhole) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            blackhole.consume(AgendaRowTestUtils.scanEventPositionNearestTime(mRows, mMillis[i],
+                    mJulianDays[i], mIds[i]));
+        }
+    }
+
+    @Benchmark
+    public void headerLookupsIndexed(Blackhole blackhole) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            int header = mIndex.getHeaderPosition(mPositions[i]);
+            blackhole.consume(mIndex.getHeaderItemsCount(header));
+            blackhole.consume(mIndex.findJulianDay(mPositions[i]));
+        }
+    }
+
+    @Benchmark
+    public void headerLookupsScan(Blackhole blackhole) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            int header = AgendaRowTestUtils.scanHeaderPosition(mRows, mPositions[i]);
+            blackhole.consume(AgendaRowTestUtils.scanHeaderItemsCount(mRows, header));
+            blackhole.consume(AgendaRowTestUtils.scanJulianDay(mRows, mPositions[i]));
+        }
+    }
+}
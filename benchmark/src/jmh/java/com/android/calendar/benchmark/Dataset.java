@@ -0,0 +1,117 @@
+package com.android.calendar.benchmark;
+
+import com.android.calendar.calendarcommon2.DateException;
+import com.android.calendar.calendarcommon2.Duration;
+import com.android.calendar.calendarcommon2.EventRecurrence;
+import com.android.calendar.calendarcommon2.ICalendar;
+import com.android.calendar.calendarcommon2.RecurrenceProcessor;
+import com.android.calendar.calendarcommon2.RecurrenceSet;
+import com.android.calendar.calendarcommon2.Time;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of the synthetic calendars the benchmarks run on, read from the datasets resources.
+ *
+ * Each calendar holds events in {@link #TIMEZONE} whose instances all fall in 2025, and is named
+ * after how many instances they expand to: 1k, 10k or 100k.
+ */
+public final class Dataset {
+
+    public static final String TIMEZONE = "America/Los_Angeles";
+    // 2025 Jan 1 12am and 2026 Jan 1 12am in TIMEZONE
+    public static final long RANGE_START_MILLIS = 1735718400000L;
+    public static final long RANGE_END_MILLIS = 1767254400000L;
+
+    /**
+     * The recurrence and duration of one VEVENT. Timed events start in {@link #TIMEZONE},
+     * all-day events in UTC.
+     */
+    public static final class Entry {
+        public final String dtstart;
+        public final boolean allDay;
+        public final String duration;
+        public final String rrule;
+
+        Entry(String dtstart, boolean allDay, String duration, String rrule) {
+            this.dtstart = dtstart;
+            this.allDay = allDay;
+            this.duration = duration;
+            this.rrule = rrule;
+        }
+
+        public Time newStartTime() {
+            Time time = new Time(allDay ? Time.TIMEZONE_UTC : TIMEZONE);
+            time.parse(dtstart);
+            return time;
+        }
+
+        /**
+         * @return the start times of the instances in 2025, in UTC milliseconds
+         */
+        public long[] expand(RecurrenceProcessor processor) throws DateException {
+            Time start = newStartTime();
+            if (rrule == null) {
+                return new long[] { start.toMillis() };
+            }
+            try {
+                return processor.expand(start, new RecurrenceSet(rrule, null, null, null),
+                        RANGE_START_MILLIS, RANGE_END_MILLIS);
+            } catch (EventRecurrence.InvalidFormatException e) {
+                throw new DateException(e.getMessage());
+            }
+        }
+
+        public long getDurationMillis() throws DateException {
+            Duration duration = new Duration();
+            duration.parse(this.duration);
+            return duration.getMillis();
+        }
+    }
+
+    public final String name;
+    public final String text;
+    public final List<Entry> entries;
+
+    private Dataset(String name, String text, List<Entry> entries) {
+        this.name = name;
+        this.text = text;
+        this.entries = entries;
+    }
+
+    public static Dataset load(String name) throws IOException, ICalendar.FormatException {
+        String text;
+        try (InputStream in = Dataset.class.getResourceAsStream(
+                "/datasets/calendar-" + name + ".ics")) {
+            if (in == null) {
+                throw new IOException("No dataset " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            text = out.toString(StandardCharsets.UTF_8.name());
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (ICalendar.Component child : ICalendar.parseCalendar(text).getComponents()) {
+            if (!ICalendar.Component.VEVENT.equals(child.getName())) {
+                continue;
+            }
+            ICalendar.Property dtstart = child.getFirstProperty(ICalendar.Property.DTSTART);
+            ICalendar.Property rrule = child.getFirstProperty(ICalendar.Property.RRULE);
+            entries.add(new Entry(dtstart.getValue(),
+                    dtstart.getFirstParameter("VALUE") != null,
+                    child.getFirstProperty(ICalendar.Property.DURATION).getValue(),
+                    rrule != null ? rrule.getValue() : null));
+        }
+        return new Dataset(name, text, entries);
+    }
+}
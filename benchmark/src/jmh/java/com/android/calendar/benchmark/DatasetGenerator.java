@@ -0,0 +1,167 @@
+package com.android.calendar.benchmark;
+
+import com.android.calendar.calendarcommon2.DateException;
+import com.android.calendar.calendarcommon2.RecurrenceProcessor;
+import com.android.calendar.calendarcommon2.Time;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes the synthetic calendars of {@link Dataset}. The output only depends on the seed, so
+ * running it again gives the checked in files back unless the recurrence code changed how many
+ * instances a rule has.
+ *
+ * The events are a mix of single and recurring, timed and all-day events, with the rules a
+ * calendar typically holds: daily stand-ups, weekly and bi-weekly meetings, monthly reviews.
+ */
+public class DatasetGenerator {
+
+    private static final String[] NAMES = {"1k", "10k", "100k"};
+    private static final int[] INSTANCES = {1000, 10000, 100000};
+    private static final long SEED = 5545;
+
+    private static final String[] DAYS = {"SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+    private static final String[] DURATIONS = {
+            "PT15M", "PT30M", "PT30M", "PT45M", "PT1H", "PT1H", "PT1H30M", "PT2H", "PT3H"
+    };
+
+    private final Random mRandom;
+    private final RecurrenceProcessor mProcessor = new RecurrenceProcessor();
+    private final StringBuilder mText = new StringBuilder();
+
+    private DatasetGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException, DateException {
+        File dir = new File(args.length > 0 ? args[0] : "src/jmh/resources/datasets");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        for (int i = 0; i < NAMES.length; i++) {
+            String text = new DatasetGenerator(SEED + i).generate(NAMES[i], INSTANCES[i]);
+            File file = new File(dir, "calendar-" + NAMES[i] + ".ics");
+            try (Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+                    StandardCharsets.UTF_8)) {
+                out.write(text);
+            }
+            System.out.println("Wrote " + file);
+        }
+    }
+
+    private String generate(String name, int instances) throws DateException {
+        mText.append("BEGIN:VCALENDAR\n")
+                .append("VERSION:2.0\n")
+                .append("PRODID:-//Etar//Benchmark ").append(name).append("//EN\n");
+        int total = 0;
+        int uid = 0;
+        while (total < instances) {
+            Dataset.Entry entry = nextEntry(instances - total);
+            int count = entry.expand(mProcessor).length;
+            if (count == 0 || total + count > instances) {
+                continue;
+            }
+            total += count;
+            appendEvent(name + "-" + uid++, entry);
+        }
+        mText.append("END:VCALENDAR\n");
+        return mText.toString();
+    }
+
+    private Dataset.Entry nextEntry(int remaining) {
+        boolean allDay = mRandom.nextInt(100) < 15;
+        // Leave room for the instances after the first one within the year
+        int yearDay = mRandom.nextInt(remaining > 1 ? 300 : 365);
+        Time start = new Time(allDay ? Time.TIMEZONE_UTC : Dataset.TIMEZONE);
+        if (allDay) {
+            start.set(2 + yearDay, 0, 2025);
+        } else {
+            start.set(0, 15 * mRandom.nextInt(4), 7 + mRandom.nextInt(14), 2 + yearDay, 0, 2025);
+        }
+        start.normalize();
+        String dtstart = allDay
+                ? String.format(Locale.US, "%04d%02d%02d", start.getYear(), start.getMonth() + 1,
+                        start.getDay())
+                : String.format(Locale.US, "%04d%02d%02dT%02d%02d00", start.getYear(),
+                        start.getMonth() + 1, start.getDay(), start.getHour(),
+                        start.getMinute());
+
+        String duration;
+        if (allDay) {
+            duration = mRandom.nextInt(5) == 0 ? "P3D" : "P1D";
+        } else if (mRandom.nextInt(50) == 0) {
+            // Long enough to be drawn in the all-day area
+            duration = "P1DT2H";
+        } else {
+            duration = DURATIONS[mRandom.nextInt(DURATIONS.length)];
+        }
+
+        String rrule = null;
+        String day = DAYS[start.getWeekDay()];
+        String otherDay = DAYS[1 + (start.getWeekDay() + 1) % 5];
+        int kind = remaining > 1 ? mRandom.nextInt(10) : 0;
+        switch (kind) {
+            case 1:
+                rrule = "FREQ=DAILY;COUNT=" + (2 + mRandom.nextInt(19));
+                break;
+            case 2:
+                rrule = "FREQ=DAILY;INTERVAL=2;COUNT=" + (2 + mRandom.nextInt(10));
+                break;
+            case 3:
+            case 4:
+                rrule = "FREQ=WEEKLY;BYDAY=" + day + ";COUNT=" + (2 + mRandom.nextInt(30));
+                break;
+            case 5:
+                rrule = "FREQ=WEEKLY;BYDAY=" + day + "," + otherDay + ";COUNT="
+                        + (2 + mRandom.nextInt(40));
+                break;
+            case 6:
+                rrule = "FREQ=WEEKLY;INTERVAL=2;WKST=MO;BYDAY=" + day + ";COUNT="
+                        + (2 + mRandom.nextInt(15));
+                break;
+            case 7:
+                rrule = "FREQ=MONTHLY;BYMONTHDAY=" + start.getDay() + ";COUNT="
+                        + (2 + mRandom.nextInt(6));
+                break;
+            case 8:
+                rrule = "FREQ=MONTHLY;BYDAY=" + (1 + (start.getDay() - 1) / 7) + day
+                        + ";COUNT=" + (2 + mRandom.nextInt(6));
+                break;
+            case 9:
+                if (allDay) {
+                    break;
+                }
+                rrule = "FREQ=WEEKLY;BYDAY=MO,TU,WE,TH,FR;UNTIL="
+                        + String.format(Locale.US, "%04d%02d%02dT235959Z", start.getYear(),
+                                1 + Math.min(11, start.getMonth() + 1), 28);
+                break;
+            default:
+                break;
+        }
+        return new Dataset.Entry(dtstart, allDay, duration, rrule);
+    }
+
+    private void appendEvent(String uid, Dataset.Entry entry) {
+        mText.append("BEGIN:VEVENT\n")
+                .append("UID:").append(uid).append("@benchmark\n")
+                .append("SUMMARY:Event ").append(uid).append('\n');
+        if (entry.allDay) {
+            mText.append("DTSTART;VALUE=DATE:");
+        } else {
+            mText.append("DTSTART;TZID=").append(Dataset.TIMEZONE).append(':');
+        }
+        mText.append(entry.dtstart).append('\n')
+                .append("DURATION:").append(entry.duration).append('\n');
+        if (entry.rrule != null) {
+            mText.append("RRULE:").append(entry.rrule).append('\n');
+        }
+        mText.append("END:VEVENT\n");
+    }
+}
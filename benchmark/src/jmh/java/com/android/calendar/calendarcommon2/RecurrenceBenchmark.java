@@ -0,0 +1,92 @@
+package com.android.calendar.calendarcommon2;
+
+import com.android.calendar.benchmark.Dataset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses and expands every event of a dataset, the way the provider and the importer go over a
+ * calendar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecurrenceBenchmark {
+
+    @Param({"1k", "10k", "100k"})
+    public String dataset;
+
+    private final RecurrenceProcessor mProcessor = new RecurrenceProcessor();
+    private String mText;
+    private String[] mRules;
+    private String[] mDurations;
+    private Time[] mStarts;
+    private RecurrenceSet[] mRecurrences;
+
+    @Setup
+    public void setUp() throws Exception {
+        Dataset data = Dataset.load(dataset);
+        mText = data.text;
+        List<String> rules = new ArrayList<>();
+        List<Time> starts = new ArrayList<>();
+        List<RecurrenceSet> recurrences = new ArrayList<>();
+        mDurations = new String[data.entries.size()];
+        for (int i = 0; i < mDurations.length; i++) {
+            Dataset.Entry entry = data.entries.get(i);
+            mDurations[i] = entry.duration;
+            if (entry.rrule != null) {
+                rules.add(entry.rrule);
+                starts.add(entry.newStartTime());
+                recurrences.add(new RecurrenceSet(entry.rrule, null, null, null));
+            }
+        }
+        mRules = rules.toArray(new String[0]);
+        mStarts = starts.toArray(new Time[0]);
+        mRecurrences = recurrences.toArray(new RecurrenceSet[0]);
+    }
+
+    @Benchmark
+    public void expand(Blackhole blackhole) throws DateException {
+        for (int i = 0; i < mRecurrences.length; i++) {
+            blackhole.consume(mProcessor.expand(mStarts[i], mRecurrences[i],
+                    Dataset.RANGE_START_MILLIS, Dataset.RANGE_END_MILLIS));
+        }
+    }
+
+    @Benchmark
+    public void parseRecurrence(Blackhole blackhole) {
+        for (String rule : mRules) {
+            EventRecurrence recurrence = new EventRecurrence();
+            recurrence.parse(rule);
+            blackhole.consume(recurrence);
+        }
+    }
+
+    @Benchmark
+    public long parseDuration() throws DateException {
+        Duration duration = new Duration();
+        long sum = 0;
+        for (String str : mDurations) {
+            duration.parse(str);
+            sum += duration.getMillis();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public ICalendar.Component parseCalendar() throws ICalendar.FormatException {
+        return ICalendar.parseCalendar(mText);
+    }
+}
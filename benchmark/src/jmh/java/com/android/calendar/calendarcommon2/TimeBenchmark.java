@@ -0,0 +1,103 @@
+package com.android.calendar.calendarcommon2;
+
+import com.android.calendar.benchmark.Dataset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the Time calls the views and the recurrence processor make per instance over all
+ * instances of a dataset, side by side with the GregorianCalendar-backed LegacyTime from the
+ * app's unit tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimeBenchmark {
+
+    @Param({"1k", "10k", "100k"})
+    public String dataset;
+
+    private final Time mTime = new Time(Dataset.TIMEZONE);
+    private final LegacyTime mLegacyTime = new LegacyTime(Dataset.TIMEZONE);
+    // The local fields of each instance start, packed as in fields()
+    private long[] mFields;
+    private int[] mJulianDays;
+
+    @Setup
+    public void setUp() throws Exception {
+        Dataset data = Dataset.load(dataset);
+        RecurrenceProcessor processor = new RecurrenceProcessor();
+        long[][] starts = new long[data.entries.size()][];
+        int count = 0;
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = data.entries.get(i).expand(processor);
+            count += starts[i].length;
+        }
+        Time time = new Time(Dataset.TIMEZONE);
+        mFields = new long[count];
+        mJulianDays = new int[count];
+        int index = 0;
+        for (long[] eventStarts : starts) {
+            for (long start : eventStarts) {
+                time.set(start);
+                mFields[index] = fields(time.getYear(), time.getMonth(), time.getDay(),
+                        time.getHour(), time.getMinute());
+                mJulianDays[index] = Time.getJulianDay(start, time.getGmtOffset());
+                index++;
+            }
+        }
+    }
+
+    private static long fields(int year, int month, int day, int hour, int minute) {
+        return ((((year * 16L + month) * 32 + day) * 32 + hour) * 64) + minute;
+    }
+
+    @Benchmark
+    public long normalize() {
+        long sum = 0;
+        for (long f : mFields) {
+            mTime.set(0, (int) (f & 63), (int) (f >> 6 & 31), (int) (f >> 11 & 31),
+                    (int) (f >> 16 & 15), (int) (f >> 20));
+            sum += mTime.normalize();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long normalizeLegacy() {
+        long sum = 0;
+        for (long f : mFields) {
+            mLegacyTime.set(0, (int) (f & 63), (int) (f >> 6 & 31), (int) (f >> 11 & 31),
+                    (int) (f >> 16 & 15), (int) (f >> 20));
+            sum += mLegacyTime.normalize();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long setJulianDay() {
+        long sum = 0;
+        for (int julianDay : mJulianDays) {
+            sum += mTime.setJulianDay(julianDay);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long setJulianDayLegacy() {
+        long sum = 0;
+        for (int julianDay : mJulianDays) {
+            sum += mLegacyTime.setJulianDay(julianDay);
+        }
+        return sum;
+    }
+}
@@ -3,5 +3,6 @@ plugins {
     alias(libs.plugins.android.application) apply false
     alias(libs.plugins.android.library) apply false
     alias(libs.plugins.ec4j.editorconfig) apply false
+    alias(libs.plugins.jmh) apply false
     alias(libs.plugins.jetbrains.idea.ext) apply true
 }
@@ -16,3 +16,4 @@ dependencyResolutionManagement {
 }
 rootProject.name = "Etar-Calendar"
 include(":app")
+include(":benchmark")